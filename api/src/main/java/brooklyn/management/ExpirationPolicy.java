@@ -9,7 +9,8 @@ public enum ExpirationPolicy {
      */
     IMMEDIATE,
     /**
-     * When the task completes, retain a permanent historical record.
+     * When the task completes, retain a historical record
+     * (subject to any limits the execution manager applies on the number or age of completed tasks retained).
      */
     NEVER
 }
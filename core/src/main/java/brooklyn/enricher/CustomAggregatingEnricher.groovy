@@ -13,6 +13,10 @@ import brooklyn.event.SensorEventListener;
 /**
  * Subscribes to events from producers with a sensor of type T, aggregates them with the 
  * provided closure and emits the result on the target sensor V.
+ * <p>
+ * Alternatively the values can be aggregated with an {@link IncrementalAggregator}, which is told of each change
+ * rather than given all the values each time, so that an event from one producer of many is cheap to handle.
+ * The built-in enrichers (summing, averaging, etc) do this.
  * @param <T>
  */
 class CustomAggregatingEnricher<S,T> extends AbstractAggregatingEnricher<S,T> implements SensorEventListener<S> {
@@ -21,6 +25,8 @@ class CustomAggregatingEnricher<S,T> extends AbstractAggregatingEnricher<S,T> im
     
     protected Closure aggegator
     
+    protected IncrementalAggregator incrementalAggregator
+    
     /**
      * @param aggregator Should take a list of values and return a single, aggregate value
      * @param defaultValue Default value to populate the list given to aggregator, defaults to null
@@ -31,34 +37,112 @@ class CustomAggregatingEnricher<S,T> extends AbstractAggregatingEnricher<S,T> im
         this.aggegator = aggregator
     }
     
+    /**
+     * @param aggregator Told of each producer's value as it is added, changed or removed; must not be shared
+     * @param defaultValue Value of a producer until it publishes one, defaults to null
+     */
+    public CustomAggregatingEnricher(List<Entity> producer, Sensor<S> source, Sensor<T> target, 
+            IncrementalAggregator aggregator, S defaultValue=null) {
+        super(producer, source, target, defaultValue)
+        this.incrementalAggregator = aggregator
+        synchronized (values) {
+            for (S value : values.values()) { aggregator.add(value) }
+        }
+    }
+    
     @Override
     public void onEvent(SensorEvent<S> event) {
         try {
             assert event.getSensor() in AttributeSensor : "Enricher $this only applicable to AttributeSensors, not $event"
-            values.put(event.getSource(), event.getValue())
-            entity.setAttribute(target, getAggregate())
+            T aggregate
+            synchronized (values) {
+                putValue(event.getSource(), event.getValue())
+                aggregate = getAggregate()
+            }
+            entity.setAttribute(target, aggregate)
         } catch (Throwable t) {
             t.printStackTrace();
             throw t
         }
     }
     
+    @Override
+    public void addProducer(Entity producer) {
+        super.addProducer(producer)
+        if (incrementalAggregator!=null && entity!=null) entity.setAttribute(target, getAggregate())
+    }
+    
+    @Override
+    public S removeProducer(Entity producer) {
+        S result = super.removeProducer(producer)
+        if (incrementalAggregator!=null && entity!=null) entity.setAttribute(target, getAggregate())
+        return result
+    }
+    
+    @Override
+    protected S putValue(Entity producer, S value) {
+        synchronized (values) {
+            boolean known = values.containsKey(producer)
+            S oldValue = super.putValue(producer, value)
+            if (incrementalAggregator!=null) {
+                if (known) incrementalAggregator.update(oldValue, value)
+                else incrementalAggregator.add(value)
+            }
+            return oldValue
+        }
+    }
+    
+    @Override
+    protected S removeValue(Entity producer) {
+        synchronized (values) {
+            if (!values.containsKey(producer)) return null
+            S oldValue = super.removeValue(producer)
+            incrementalAggregator?.remove(oldValue)
+            return oldValue
+        }
+    }
+    
     public T getAggregate() {
         synchronized (values) {
+            if (incrementalAggregator!=null) {
+                Object result = incrementalAggregator.getAggregate()
+                // e.g. a Long sum for an Integer sensor
+                if (result instanceof Number && target.type!=null && Number.class.isAssignableFrom(target.type) && !target.type.isInstance(result)) {
+                    result = ((Number) result).asType(target.type)
+                }
+                return (T) result
+            }
             return (T) aggegator.call(values.values())
         }
     }
     
     public static <N extends Number> CustomAggregatingEnricher<N,N> getSummingEnricher(
             List<Entity> producer, Sensor<N> source, Sensor<N> target) {
-        return new CustomAggregatingEnricher<N,N>(producer, source, target, { it?.sum(0, {it ?: 0}) ?: 0 }, 0)
+        return new CustomAggregatingEnricher<N,N>(producer, source, target, IncrementalAggregator.sum(), 0)
     }
 
+    /** Members which have not yet published a value (or published null) are included in the average, as 0. */
     public static <N extends Number> CustomAggregatingEnricher<N,Double> getAveragingEnricher(
             List<Entity> producer, Sensor<N> source, Sensor<Double> target) {
-        return new CustomAggregatingEnricher<N,Double>(producer, source, target, {
-            (it == null || it.isEmpty()) ? 0d : ((Double) it.sum(0, {it ?: 0})) / it.size()
-        }, 0d)
+        return new CustomAggregatingEnricher<N,Double>(producer, source, target, IncrementalAggregator.mean(), 0d)
+    }
+
+    /** Counts the members which have published a (non-null) value. */
+    public static <N> CustomAggregatingEnricher<N,Integer> getCountingEnricher(
+            List<Entity> producer, Sensor<N> source, Sensor<Integer> target) {
+        return new CustomAggregatingEnricher<N,Integer>(producer, source, target, IncrementalAggregator.count(), null)
+    }
+
+    /** Publishes the smallest value of the members, or null if none has published one. */
+    public static <N extends Number> CustomAggregatingEnricher<N,N> getMinEnricher(
+            List<Entity> producer, Sensor<N> source, Sensor<N> target) {
+        return new CustomAggregatingEnricher<N,N>(producer, source, target, IncrementalAggregator.min(), null)
+    }
+
+    /** Publishes the largest value of the members, or null if none has published one. */
+    public static <N extends Number> CustomAggregatingEnricher<N,N> getMaxEnricher(
+            List<Entity> producer, Sensor<N> source, Sensor<N> target) {
+        return new CustomAggregatingEnricher<N,N>(producer, source, target, IncrementalAggregator.max(), null)
     }
 
 }
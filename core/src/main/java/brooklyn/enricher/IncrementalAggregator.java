@@ -0,0 +1,210 @@
+package brooklyn.enricher;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An aggregate of the values of a set of members, kept up to date as each member is added or removed
+ * or its value changes, rather than being recomputed from all the values each time.
+ * <p>
+ * The built-in aggregators ({@link #sum()}, {@link #count()}, {@link #mean()}, {@link #min()} and {@link #max()})
+ * take values which are {@link Number}s (or null, which is not counted, or for the sum and mean is treated as 0).
+ * Sum, count and mean are updated in constant time; min and max keep the values sorted, so are updated in log time.
+ * <p>
+ * Not thread-safe: callers must synchronize (as {@link CustomAggregatingEnricher} does, on its map of values).
+ * An instance holds the state for one set of members, so must not be shared.
+ */
+public abstract class IncrementalAggregator {
+
+    private int size = 0;
+
+    /** A member has been added, with the given value (possibly null). */
+    public final void add(Object value) {
+        size++;
+        onAdd(value);
+    }
+
+    /** A member, whose value was as given (possibly null), has been removed. */
+    public final void remove(Object value) {
+        size--;
+        onRemove(value);
+    }
+
+    /** A member's value has changed. */
+    public void update(Object oldValue, Object newValue) {
+        onRemove(oldValue);
+        onAdd(newValue);
+    }
+
+    /** The number of members (including those whose value is null). */
+    public int size() {
+        return size;
+    }
+
+    /** The aggregate of the current members' values. */
+    public abstract Object getAggregate();
+
+    protected abstract void onAdd(Object value);
+
+    protected abstract void onRemove(Object value);
+
+    /** Sum of the values, as a Long if all are integers, otherwise as a Double; 0 if there are none. */
+    public static IncrementalAggregator sum() {
+        return new Sum();
+    }
+
+    /** Number of members whose value is not null, as an Integer. */
+    public static IncrementalAggregator count() {
+        return new Count();
+    }
+
+    /**
+     * Sum of the values divided by the number of members, as a Double; 0 if there are no members.
+     * Members whose value is null are included (as 0).
+     */
+    public static IncrementalAggregator mean() {
+        return new Mean();
+    }
+
+    /** Smallest value, as a Double; null if no member has a value. */
+    public static IncrementalAggregator min() {
+        return new Extreme(false);
+    }
+
+    /** Largest value, as a Double; null if no member has a value. */
+    public static IncrementalAggregator max() {
+        return new Extreme(true);
+    }
+
+    private static boolean isIntegral(Number n) {
+        return (n instanceof Integer) || (n instanceof Long) || (n instanceof Short) || (n instanceof Byte);
+    }
+
+    /**
+     * Integral values are summed exactly; others are summed with Kahan compensation, so that rounding errors
+     * do not build up as values are repeatedly added and taken away.
+     */
+    private static class Sum extends IncrementalAggregator {
+        private long integralSum = 0;
+        private int numNonIntegral = 0;
+        private double nonIntegralSum = 0;
+        private double compensation = 0;
+
+        @Override
+        protected void onAdd(Object value) {
+            if (value==null) return;
+            Number n = (Number) value;
+            if (isIntegral(n)) {
+                integralSum += n.longValue();
+            } else {
+                numNonIntegral++;
+                addNonIntegral(n.doubleValue());
+            }
+        }
+
+        @Override
+        protected void onRemove(Object value) {
+            if (value==null) return;
+            Number n = (Number) value;
+            if (isIntegral(n)) {
+                integralSum -= n.longValue();
+            } else if (--numNonIntegral == 0) {
+                // discard whatever rounding error remains
+                nonIntegralSum = 0;
+                compensation = 0;
+            } else {
+                addNonIntegral(-n.doubleValue());
+            }
+        }
+
+        private void addNonIntegral(double x) {
+            double y = x - compensation;
+            double t = nonIntegralSum + y;
+            compensation = (t - nonIntegralSum) - y;
+            nonIntegralSum = t;
+        }
+
+        double doubleValue() {
+            return integralSum + nonIntegralSum;
+        }
+
+        @Override
+        public Object getAggregate() {
+            if (numNonIntegral == 0) return integralSum;
+            return doubleValue();
+        }
+    }
+
+    private static class Count extends IncrementalAggregator {
+        private int count = 0;
+
+        @Override
+        protected void onAdd(Object value) {
+            if (value!=null) count++;
+        }
+
+        @Override
+        protected void onRemove(Object value) {
+            if (value!=null) count--;
+        }
+
+        @Override
+        public Object getAggregate() {
+            return count;
+        }
+    }
+
+    private static class Mean extends IncrementalAggregator {
+        private final Sum sum = new Sum();
+
+        @Override
+        protected void onAdd(Object value) {
+            sum.onAdd(value);
+        }
+
+        @Override
+        protected void onRemove(Object value) {
+            sum.onRemove(value);
+        }
+
+        @Override
+        public Object getAggregate() {
+            return (size() == 0) ? 0d : sum.doubleValue() / size();
+        }
+    }
+
+    /** Keeps a count of each distinct (non-null) value, sorted, so the smallest and largest are always known. */
+    private static class Extreme extends IncrementalAggregator {
+        private final boolean max;
+        private final TreeMap<Double,Integer> counts = new TreeMap<Double,Integer>();
+
+        Extreme(boolean max) {
+            this.max = max;
+        }
+
+        @Override
+        protected void onAdd(Object value) {
+            if (value==null) return;
+            Double key = ((Number) value).doubleValue();
+            Integer count = counts.get(key);
+            counts.put(key, (count == null) ? 1 : count+1);
+        }
+
+        @Override
+        protected void onRemove(Object value) {
+            if (value==null) return;
+            Double key = ((Number) value).doubleValue();
+            Integer count = counts.get(key);
+            if (count == null) return;
+            if (count == 1) counts.remove(key);
+            else counts.put(key, count-1);
+        }
+
+        @Override
+        public Object getAggregate() {
+            if (counts.isEmpty()) return null;
+            Map.Entry<Double,Integer> entry = max ? counts.lastEntry() : counts.firstEntry();
+            return entry.getKey();
+        }
+    }
+}
@@ -41,13 +41,25 @@ public abstract class AbstractAggregatingEnricher<S,T> extends AbstractEnricher
     
     public void addProducer(Entity producer) {
         LOG.debug "$this linked ($producer, $source) to $target"
-        values.put(producer, defaultValue)
+        putValue(producer, defaultValue)
         subscribe(producer, source, this)
     }
     
     public S removeProducer(Entity producer) {
         LOG.debug "$this unlinked ($producer, $source) from $target"
         unsubscribe(producer)
+        removeValue(producer)
+    }
+    
+    /**
+     * Records the producer's value (adding the producer if new), returning its previous value.
+     * Subclasses can override this and {@link #removeValue(Entity)} to track changes, calling super.
+     */
+    protected S putValue(Entity producer, S value) {
+        values.put(producer, value)
+    }
+    
+    protected S removeValue(Entity producer) {
         values.remove(producer)
     }
     
@@ -8,6 +8,7 @@ import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.ExecutionException
 import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicLong
 
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -20,11 +21,13 @@ import brooklyn.entity.Entity
 import brooklyn.entity.EntityClass
 import brooklyn.entity.Group
 import brooklyn.entity.ConfigKey.HasConfigKey
+import brooklyn.entity.trait.Startable
 import brooklyn.event.AttributeSensor
 import brooklyn.event.Sensor
 import brooklyn.event.SensorEvent
 import brooklyn.event.SensorEventListener
 import brooklyn.event.basic.AttributeMap
+import brooklyn.event.basic.AttributePublication
 import brooklyn.event.basic.AttributeSensorAndConfigKey
 import brooklyn.event.basic.BasicNotificationSensor
 import brooklyn.location.Location
@@ -38,6 +41,7 @@ import brooklyn.policy.Enricher
 import brooklyn.policy.Policy
 import brooklyn.policy.basic.AbstractPolicy
 import brooklyn.util.BrooklynLanguageExtensions
+import brooklyn.util.CopyOnFirstWriteMap
 import brooklyn.util.IdGenerator;
 import brooklyn.util.flags.FlagUtils
 import brooklyn.util.flags.SetFromFlag
@@ -67,10 +71,17 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
     protected static final Logger LOG = LoggerFactory.getLogger(AbstractEntity.class)
     static { BrooklynLanguageExtensions.init(); }
     
+    // service up is typically polled, so only publish it on change (or as a heartbeat)
+    static { AttributePublication.setDefault(Startable.SERVICE_UP, AttributePublication.Mode.ON_CHANGE_OR_HEARTBEAT) }
+    
     public static BasicNotificationSensor<Sensor> SENSOR_ADDED = new BasicNotificationSensor<Sensor>(Sensor.class,
             "entity.sensor.added", "Sensor dynamically added to entity")
     public static BasicNotificationSensor<Sensor> SENSOR_REMOVED = new BasicNotificationSensor<Sensor>(Sensor.class,
             "entity.sensor.removed", "Sensor dynamically removed from entity")
+    public static BasicNotificationSensor<Entity> CHILD_ADDED = new BasicNotificationSensor<Entity>(Entity.class,
+            "entity.children.added", "Child dynamically added to entity")
+    public static BasicNotificationSensor<Entity> CHILD_REMOVED = new BasicNotificationSensor<Entity>(Entity.class,
+            "entity.children.removed", "Child dynamically removed from entity")
 
     final String id = IdGenerator.makeRandomId(8);
     String displayName
@@ -96,6 +107,9 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
     // (added only to this instance), however if we did we'd need to reset/update entity class
     // on sensor/effector set change
 
+    /** Reflective metadata for this entity's class, shared with other instances. */
+    private transient EntityTypeMetadata typeMetadata = null
+
     /** Map of effectors on this entity by name, populated at constructor time. */
     private Map<String,Effector> effectors = null
 
@@ -135,9 +149,31 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
      * Map of configuration information that is defined at start-up time for the entity. These
      * configuration parameters are shared and made accessible to the "owned children" of this
      * entity.
+     * <p>
+     * Children do not copy it: config not set on an entity is looked up in its owner's merged config
+     * (see {@link #getAllConfig()}), which each entity caches until its own config or owner, or its owner's merged config, changes.
      */
     protected final Map<ConfigKey,Object> ownConfig = [:]
-    protected final Map<ConfigKey,Object> inheritedConfig = [:]
+
+    /**
+     * Incremented whenever this entity's own config or owner changes, invalidating its cached merged config
+     * (and so, as that is then merged into a new map, its descendants').
+     */
+    private final AtomicLong configVersion = new AtomicLong()
+
+    /** this entity's own config over that inherited, with the config version and the inherited map when it was merged */
+    private transient volatile MergedConfig mergedConfig = null
+
+    private static class MergedConfig {
+        final long version
+        final Map<ConfigKey,Object> inherited
+        final Map<ConfigKey,Object> config
+        MergedConfig(long version, Map<ConfigKey,Object> inherited, Map<ConfigKey,Object> config) {
+            this.version = version
+            this.inherited = inherited
+            this.config = config
+        }
+    }
 
     protected transient SubscriptionTracker _subscriptionTracker;
 
@@ -166,69 +202,19 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
             }
             if (owner!=null) flags.owner = owner;
             
-            // initialize the effectors defined on the class
-            // (dynamic effectors could still be added; see #getEffectors
-			// TODO we could/should maintain a registry of EntityClass instances and re-use that,
-			//      except where dynamic sensors/effectors are desired (nowhere currently I think)
-            Map<String,Effector> effectorsT = [:]
-            for (Field f in getClass().getFields()) {
-                if (Effector.class.isAssignableFrom(f.getType())) {
-                    Effector eff = f.get(this)
-                    def overwritten = effectorsT.put(eff.name, eff)
-                    if (overwritten!=null && !overwritten.is(eff)) 
-                        LOG.warn("multiple definitions for effector ${eff.name} on $this; preferring $eff to $overwritten")
-                }
+            // initialize the effectors, sensors and config keys defined on the class
+            // (dynamic sensors could still be added; see #addSensor);
+            // these are found by reflection once per class, see EntityTypeMetadata;
+            // the effectors and config keys are shared until this entity modifies them
+            typeMetadata = EntityTypeMetadata.forInstance(this)
+            effectors = new CopyOnFirstWriteMap(typeMetadata.effectors)
+            sensors = new LinkedHashMap(typeMetadata.sensors)
+            configKeys = new CopyOnFirstWriteMap(typeMetadata.configKeys)
+            if (LOG.isTraceEnabled()) {
+                LOG.trace "Entity {} effectors: {}", id, effectors.keySet().join(", ")
+                LOG.trace "Entity {} sensors: {}", id, sensors.keySet().join(", ")
+                LOG.trace "Entity {} config keys: {}", id, configKeys.keySet().join(", ")
             }
-            if (LOG.isTraceEnabled())
-                LOG.trace "Entity {} effectors: {}", id, effectorsT.keySet().join(", ")
-            effectors = effectorsT
-    
-            Map<String,Sensor> sensorsT = [:]
-            for (Field f in getClass().getFields()) {
-                if (Sensor.class.isAssignableFrom(f.getType())) {
-                    Sensor sens = f.get(this)
-                    def overwritten = sensorsT.put(sens.name, sens)
-                    if (overwritten!=null && !overwritten.is(sens)) 
-                        LOG.warn("multiple definitions for sensor ${sens.name} on $this; preferring $sens to $overwritten")
-                }
-            }
-            if (LOG.isTraceEnabled())
-                LOG.trace "Entity {} sensors: {}", id, sensorsT.keySet().join(", ")
-            sensors = sensorsT
-
-            Map<String,ConfigKey> configT = [:]
-            Map<String,Field> configFields = [:]
-            for (Field f in getClass().getFields()) {
-            	ConfigKey k = null;
-                if (ConfigKey.class.isAssignableFrom(f.getType())) {
-                	k = f.get(this)
-                } else if (HasConfigKey.class.isAssignableFrom(f.getType())) {
-					k = ((HasConfigKey)f.get(this)).getConfigKey();
-				}
-				if (k) {
-				    Field alternativeField = configFields.get(k.name)
-                    // Allow overriding config keys (e.g. to set default values) when there is an assignable-from relationship between classes
-                    Field definitiveField = alternativeField ? inferSubbestField(alternativeField, f) : f
-                    boolean skip = false;
-                    if (definitiveField != f) {
-                        // If they refer to the _same_ instance, just keep the one we already have
-                        if (alternativeField.get(this).is(f.get(this))) skip = true;
-                    }
-                    if (skip) {
-                        //nothing
-                    } else if (definitiveField == f) {
-                        def overwritten = configT.put(k.name, k)
-                        configFields.put(k.name, f)
-                    } else if (definitiveField != null) {
-                        if (LOG.isDebugEnabled()) LOG.debug("multiple definitions for config key ${k.name} on $this; preferring that in sub-class: $alternativeField to $f")
-                    } else if (definitiveField == null) {
-                        LOG.warn("multiple definitions for config key ${k.name} on $this; preferring $alternativeField to $f")
-                    }
-                }
-            }
-            if (LOG.isTraceEnabled())
-                LOG.trace "Entity {} config keys: {}", id, configT.keySet().join(", ")
-            configKeys = configT
 
             def checkWeGetThis = configure(flags);
             assert this == checkWeGetThis : "$this configure method does not return itself; returns $checkWeGetThis instead"
@@ -247,11 +233,7 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
      * Gets the field that is in the sub-class; or null if one field does not come from a sub-class of the other field's class
      */
     protected Field inferSubbestField(Field f1, Field f2) {
-        Class<?> c1 = f1.getDeclaringClass()
-        Class<?> c2 = f2.getDeclaringClass()
-        boolean isSuper1 = c1.isAssignableFrom(c2)
-        boolean isSuper2 = c2.isAssignableFrom(c1)
-        return (isSuper1) ? (isSuper2 ? null : f2) : (isSuper2 ? f1 : null)
+        return EntityTypeMetadata.inferSubbestField(f1, f2)
     }
     
     /** sets fields from flags; can be overridden if needed, subclasses should
@@ -270,12 +252,16 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
         if (suppliedOwner) suppliedOwner.addOwnedChild(this)
 
         Map<ConfigKey,Object> suppliedOwnConfig = flags.remove('config')
-        if (suppliedOwnConfig) ownConfig.putAll(suppliedOwnConfig)
+        if (suppliedOwnConfig) {
+            ownConfig.putAll(suppliedOwnConfig)
+            configVersion.incrementAndGet()
+        }
 
         displayName = flags.remove('displayName') ?: displayName;
         
         // allow config keys, and fields, to be set from these flags if they have a SetFromFlag annotation
-        for (Field f: FlagUtils.getAllFields(getClass())) {
+        List<Field> setFromFlagFields = (typeMetadata ?: EntityTypeMetadata.forInstance(this)).setFromFlagFields
+        for (Field f: setFromFlagFields) {
             try {
                 SetFromFlag cf = f.getAnnotation(SetFromFlag.class);
                 if (cf) {
@@ -364,7 +350,7 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
         owner = new EntityReference(this, entity)
         //used to test entity!=null but that should be guaranteed?
         entity.addOwnedChild(this)
-        inheritedConfig.putAll(entity.getAllConfig())
+        configVersion.incrementAndGet()
         previouslyOwned = true
         
         getApplication()
@@ -377,6 +363,7 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
         Entity oldOwner = owner.get()
         owner = null
         oldOwner?.removeOwnedChild(this)
+        configVersion.incrementAndGet()
     }
 
     /**
@@ -388,7 +375,7 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
         synchronized (ownedChildren) {
 	        if (Entities.isAncestor(this, child)) throw new IllegalStateException("loop detected trying to add child $child to $this; it is already an ancestor")
 	        child.setOwner(this)
-	        ownedChildren.add(child)
+	        if (ownedChildren.add(child)) emit(CHILD_ADDED, child)
         }
         child
     }
@@ -398,6 +385,7 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
         synchronized (ownedChildren) {
             boolean changed = ownedChildren.remove child
 	        child.clearOwner()
+            if (changed) emit(CHILD_REMOVED, child)
             return changed
         }
     }
@@ -500,6 +488,28 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
         attributesInternal.update(attribute, val);
     }
 
+    /**
+     * Sets whether setting the given attribute publishes an event every time (the default, unless configured
+     * for the sensor), only when its value changes, or when it changes or the heartbeat time has passed
+     * since it was last published.
+     *
+     * @see AttributePublication
+     */
+    public void setAttributePublicationMode(AttributeSensor<?> attribute, AttributePublication.Mode mode,
+            long heartbeatMillis=AttributePublication.DEFAULT_HEARTBEAT_MILLIS) {
+        attributesInternal.setPublicationMode(attribute, mode, heartbeatMillis)
+    }
+
+    /** How the given attribute is published, with counts of events published and suppressed; null if always published. */
+    public AttributePublication getAttributePublication(AttributeSensor<?> attribute) {
+        attributesInternal.getPublication(attribute)
+    }
+
+    /** Number of attribute events this entity has not published, as the values were unchanged. */
+    public long getNumAttributeEventsSuppressed() {
+        attributesInternal.getNumSuppressed()
+    }
+
     /** sets the value of the given attribute sensor from the config key value herein,
      * if the config key resolves to a non-null value as a sensor
      * <p>
@@ -548,7 +558,9 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
         if (ownKey in ConfigKeySelfExtracting) {
             if (((ConfigKeySelfExtracting)ownKey).isSet(ownConfig)) {
                 return ((ConfigKeySelfExtracting)ownKey).extractValue(ownConfig, exec);
-            } else if (((ConfigKeySelfExtracting)ownKey).isSet(inheritedConfig)) {
+            }
+            Map<ConfigKey,Object> inheritedConfig = getInheritedConfig()
+            if (((ConfigKeySelfExtracting)ownKey).isSet(inheritedConfig)) {
                 return ((ConfigKeySelfExtracting)ownKey).extractValue(inheritedConfig, exec);
             }
         } else {
@@ -581,10 +593,8 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
                 throw new IllegalArgumentException("Cannot coerce or set "+v+" / "+val+" to "+key, e)
             }
         }
-        T oldVal = ownConfig.put(key, val);        
-        ownedChildren.get().each {
-            it.refreshInheritedConfig()
-        }
+        T oldVal = ownConfig.put(key, val);
+        configVersion.incrementAndGet()
 
         oldVal
     }
@@ -601,25 +611,46 @@ public abstract class AbstractEntity extends GroovyObjectSupport implements Enti
         if (val != null) setConfig(key, val)
     }
 
+    /**
+     * Discards the cached config of this entity (and so of its descendants), so it is merged again from its owner's
+     * when next used; only needed if {@link #ownConfig} has been changed directly.
+     */
     public void refreshInheritedConfig() {
-        if (getOwner() != null) {
-            inheritedConfig.putAll(getOwner().getAllConfig())
-        } else {
-            inheritedConfig.clear();
-        }
+        configVersion.incrementAndGet()
+    }
 
-        ownedChildren.get().each {
-            it.refreshInheritedConfig()
-        }
+    /** The merged config of this entity's owner (or empty if it has none); unmodifiable, and shared rather than copied. */
+    protected Map<ConfigKey,Object> getInheritedConfig() {
+        Entity o = getOwner()
+        if (o == null) return Collections.emptyMap()
+        return o.getAllConfig()
     }
 
+    /**
+     * This entity's config values, including those inherited from its owner (unless set on this entity).
+     * The result is unmodifiable, and is cached (and shared with children) until this entity's own config or owner
+     * changes, or its owner's merged config is no longer the same map (which it is until the owner's cache is invalidated);
+     * if this entity sets no config of its own, it is its owner's merged config.
+     */
     @Override
     public Map<ConfigKey,Object> getAllConfig() {
         // FIXME What about task-based config?!
-        Map<ConfigKey,Object> result = [:]
-        result.putAll(ownConfig);
-        result.putAll(inheritedConfig);
-        return result.asImmutable()
+        long version = configVersion.get()
+        Map<ConfigKey,Object> inherited = getInheritedConfig()
+        MergedConfig merged = mergedConfig
+        if (merged != null && merged.version == version && merged.inherited.is(inherited)) return merged.config
+
+        Map<ConfigKey,Object> result
+        if (ownConfig.isEmpty()) {
+            result = inherited
+        } else {
+            result = new LinkedHashMap<ConfigKey,Object>(inherited)
+            result.putAll(ownConfig)
+            result = Collections.unmodifiableMap(result)
+        }
+        // if config has changed since we started, this is already stale, and will be merged again when next used
+        mergedConfig = new MergedConfig(version, inherited, result)
+        return result
     }
 
     /** @see EntityLocal#subscribe */
@@ -0,0 +1,220 @@
+package brooklyn.entity.basic;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.entity.ConfigKey;
+import brooklyn.entity.ConfigKey.HasConfigKey;
+import brooklyn.entity.Effector;
+import brooklyn.event.Sensor;
+import brooklyn.util.flags.FlagUtils;
+import brooklyn.util.flags.SetFromFlag;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The effectors, sensors and config keys declared as public fields on an entity class, and the fields annotated
+ * with {@link SetFromFlag}, as used when constructing and configuring each {@link AbstractEntity}.
+ * <p>
+ * These are found by reflection once per class and shared by all its instances (each instance copies the sensors,
+ * as sensors may be added to it dynamically). If a class declares any of these as instance
+ * (rather than static) fields, the values can differ between instances, so the effectors, sensors and config keys
+ * are then computed for each instance (though the annotated fields are still cached).
+ * <p>
+ * Internal; not intended for use outside this package.
+ */
+public class EntityTypeMetadata {
+    private static final Logger LOG = LoggerFactory.getLogger(EntityTypeMetadata.class);
+
+    private static final ConcurrentMap<Class<?>, EntityTypeMetadata> cache = new ConcurrentHashMap<Class<?>, EntityTypeMetadata>();
+
+    private final Class<?> type;
+    private final boolean shareable;
+    private final Map<String,Effector<?>> effectors;
+    private final Map<String,Sensor<?>> sensors;
+    private final Map<String,ConfigKey<?>> configKeys;
+    private final List<Field> setFromFlagFields;
+
+    /**
+     * Returns the metadata for the given entity: that cached for its class, computing and caching it if necessary,
+     * unless the class declares effectors, sensors or config keys as instance fields.
+     */
+    public static EntityTypeMetadata forInstance(AbstractEntity entity) {
+        Class<?> type = entity.getClass();
+        EntityTypeMetadata result = cache.get(type);
+        if (result!=null) return result.resolveFor(entity);
+        result = new EntityTypeMetadata(type, entity, null);
+        cache.putIfAbsent(type, result);
+        return result;
+    }
+
+    /** Number of entity classes whose metadata is cached. */
+    public static int getNumCachedTypes() {
+        return cache.size();
+    }
+
+    private EntityTypeMetadata(Class<?> type, AbstractEntity instance, List<Field> setFromFlagFields) {
+        this.type = type;
+        boolean allStatic = true;
+        for (Field f : type.getFields()) {
+            if (isMetadataField(f) && !Modifier.isStatic(f.getModifiers())) {
+                allStatic = false;
+                break;
+            }
+        }
+        this.shareable = allStatic;
+        this.effectors = Collections.unmodifiableMap(findEffectors(type, instance));
+        this.sensors = Collections.unmodifiableMap(findSensors(type, instance));
+        this.configKeys = Collections.unmodifiableMap(findConfigKeys(type, instance));
+        this.setFromFlagFields = (setFromFlagFields!=null) ? setFromFlagFields : findSetFromFlagFields(type);
+    }
+
+    private EntityTypeMetadata resolveFor(AbstractEntity instance) {
+        if (shareable) return this;
+        return new EntityTypeMetadata(type, instance, setFromFlagFields);
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    /** Whether this metadata is shared by all instances of the type. */
+    public boolean isShareable() {
+        return shareable;
+    }
+
+    /** Effectors by name; unmodifiable. */
+    public Map<String,Effector<?>> getEffectors() {
+        return effectors;
+    }
+
+    /** Sensors by name; unmodifiable. */
+    public Map<String,Sensor<?>> getSensors() {
+        return sensors;
+    }
+
+    /** Config keys by name; unmodifiable. */
+    public Map<String,ConfigKey<?>> getConfigKeys() {
+        return configKeys;
+    }
+
+    /** Fields (on the class, superclasses and interfaces, in that order) annotated with {@link SetFromFlag}. */
+    public List<Field> getSetFromFlagFields() {
+        return setFromFlagFields;
+    }
+
+    private static boolean isMetadataField(Field f) {
+        Class<?> t = f.getType();
+        return Effector.class.isAssignableFrom(t) || Sensor.class.isAssignableFrom(t) ||
+                ConfigKey.class.isAssignableFrom(t) || HasConfigKey.class.isAssignableFrom(t);
+    }
+
+    private static Object get(Field f, Object instance) {
+        try {
+            return f.get(instance);
+        } catch (IllegalAccessException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static Map<String,Effector<?>> findEffectors(Class<?> type, Object instance) {
+        Map<String,Effector<?>> result = new LinkedHashMap<String,Effector<?>>();
+        for (Field f : type.getFields()) {
+            if (Effector.class.isAssignableFrom(f.getType())) {
+                Effector<?> eff = (Effector<?>) get(f, instance);
+                Effector<?> overwritten = result.put(eff.getName(), eff);
+                if (overwritten!=null && overwritten!=eff)
+                    LOG.warn("multiple definitions for effector "+eff.getName()+" on "+type.getName()+"; preferring "+eff+" to "+overwritten);
+            }
+        }
+        if (LOG.isTraceEnabled())
+            LOG.trace("Entity type {} effectors: {}", type.getName(), result.keySet());
+        return result;
+    }
+
+    private static Map<String,Sensor<?>> findSensors(Class<?> type, Object instance) {
+        Map<String,Sensor<?>> result = new LinkedHashMap<String,Sensor<?>>();
+        for (Field f : type.getFields()) {
+            if (Sensor.class.isAssignableFrom(f.getType())) {
+                Sensor<?> sens = (Sensor<?>) get(f, instance);
+                Sensor<?> overwritten = result.put(sens.getName(), sens);
+                if (overwritten!=null && overwritten!=sens)
+                    LOG.warn("multiple definitions for sensor "+sens.getName()+" on "+type.getName()+"; preferring "+sens+" to "+overwritten);
+            }
+        }
+        if (LOG.isTraceEnabled())
+            LOG.trace("Entity type {} sensors: {}", type.getName(), result.keySet());
+        return result;
+    }
+
+    private static Map<String,ConfigKey<?>> findConfigKeys(Class<?> type, Object instance) {
+        Map<String,ConfigKey<?>> result = new LinkedHashMap<String,ConfigKey<?>>();
+        Map<String,Field> configFields = new LinkedHashMap<String,Field>();
+        for (Field f : type.getFields()) {
+            ConfigKey<?> k = null;
+            if (ConfigKey.class.isAssignableFrom(f.getType())) {
+                k = (ConfigKey<?>) get(f, instance);
+            } else if (HasConfigKey.class.isAssignableFrom(f.getType())) {
+                k = ((HasConfigKey<?>) get(f, instance)).getConfigKey();
+            }
+            if (k!=null) {
+                Field alternativeField = configFields.get(k.getName());
+                // Allow overriding config keys (e.g. to set default values) when there is an assignable-from relationship between classes
+                Field definitiveField = (alternativeField!=null) ? inferSubbestField(alternativeField, f) : f;
+                boolean skip = false;
+                if (definitiveField != f) {
+                    // If they refer to the _same_ instance, just keep the one we already have
+                    if (get(alternativeField, instance) == get(f, instance)) skip = true;
+                }
+                if (skip) {
+                    //nothing
+                } else if (definitiveField == f) {
+                    result.put(k.getName(), k);
+                    configFields.put(k.getName(), f);
+                } else if (definitiveField != null) {
+                    if (LOG.isDebugEnabled()) LOG.debug("multiple definitions for config key "+k.getName()+" on "+type.getName()+"; preferring that in sub-class: "+alternativeField+" to "+f);
+                } else {
+                    LOG.warn("multiple definitions for config key "+k.getName()+" on "+type.getName()+"; preferring "+alternativeField+" to "+f);
+                }
+            }
+        }
+        if (LOG.isTraceEnabled())
+            LOG.trace("Entity type {} config keys: {}", type.getName(), result.keySet());
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Field> findSetFromFlagFields(Class<?> type) {
+        ImmutableList.Builder<Field> result = ImmutableList.builder();
+        for (Field f : (List<Field>) FlagUtils.getAllFields(type)) {
+            if (f.getAnnotation(SetFromFlag.class)!=null) result.add(f);
+        }
+        return result.build();
+    }
+
+    /**
+     * Gets the field that is in the sub-class; or null if one field does not come from a sub-class of the other field's class
+     */
+    static Field inferSubbestField(Field f1, Field f2) {
+        Class<?> c1 = f1.getDeclaringClass();
+        Class<?> c2 = f2.getDeclaringClass();
+        boolean isSuper1 = c1.isAssignableFrom(c2);
+        boolean isSuper2 = c2.isAssignableFrom(c1);
+        return (isSuper1) ? (isSuper2 ? null : f2) : (isSuper2 ? f1 : null);
+    }
+
+    @Override
+    public String toString() {
+        return "EntityTypeMetadata["+type.getName()+"]";
+    }
+}
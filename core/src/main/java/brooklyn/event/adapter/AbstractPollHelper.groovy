@@ -63,14 +63,24 @@ public abstract class AbstractPollHelper {
             response = executePollOnSuccess();
             lastWasSuccessful = true;
         } catch (Exception e) {
-            if (!adapter.isConnected() || !lastWasSuccessful) {
-                if (log.isDebugEnabled()) log.debug("error reading ${this} from ${entity} (while not connected or not yet connected): ${e}")
-            } else {
-                log.warn("error reading ${this} from ${entity}: ${e}", e)
-            }
-            lastWasSuccessful = false;
-            response = executePollOnError(e);
+            response = onPollError(e);
         }
+        onPollResponse(response)
+    }
+
+    /** records and logs the failure of a poll, returning the context (if any) in which to evaluate the sensors */
+    protected AbstractSensorEvaluationContext onPollError(Exception e) {
+        if (!adapter.isConnected() || !lastWasSuccessful) {
+            if (log.isDebugEnabled()) log.debug("error reading ${this} from ${entity} (while not connected or not yet connected): ${e}")
+        } else {
+            log.warn("error reading ${this} from ${entity}: ${e}", e)
+        }
+        lastWasSuccessful = false;
+        return executePollOnError(e);
+    }
+
+    /** evaluates the sensors on the result of a poll (successful or otherwise), unless it is null */
+    protected void onPollResponse(AbstractSensorEvaluationContext response) {
         if (log.isTraceEnabled()) log.trace "poll for {} got: {}", adapter.entity, response
         if (response!=null) evaluateSensorsOnResponse(response)
     }
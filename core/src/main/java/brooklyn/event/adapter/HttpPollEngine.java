@@ -0,0 +1,355 @@
+package brooklyn.event.adapter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.client.ContentExchange;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.RedirectListener;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Sends the requests of {@link HttpSensorAdapter}s without a thread waiting on each one, using a non-blocking
+ * Jetty {@link HttpClient}. The client keeps a pool of keep-alive connections for each host (and port and scheme),
+ * and calls back (in one of its own small pool of threads) when a response is complete, or the request fails or times out.
+ * <p>
+ * Redirects are followed (as {@link java.net.HttpURLConnection} does), so the response is that of the final url.
+ * <p>
+ * Response bodies are read into memory only up to a maximum length; a longer response fails, and its connection
+ * is closed, rather than using unbounded memory (for instance if a url streams forever).
+ * <p>
+ * Normally the {@link #getInstance() shared instance} is used, configured from system properties.
+ */
+public class HttpPollEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpPollEngine.class);
+
+    /**
+     * Max time (in milliseconds) to establish a connection.
+     * Defaults to 10000 if system property is not set.
+     */
+    public static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger("brooklyn.http.poll.connectTimeoutMillis", 10*1000);
+
+    /**
+     * Max time (in milliseconds) for a request to complete, once sent, unless overridden for the request.
+     * Defaults to 30000 if system property is not set.
+     */
+    public static final long TIMEOUT_MILLIS = Long.getLong("brooklyn.http.poll.timeoutMillis", 30*1000L);
+
+    /**
+     * Max connections open at once to each host; further requests wait for one to be free.
+     * Defaults to 4 if system property is not set.
+     */
+    public static final int MAX_CONNECTIONS_PER_HOST = Integer.getInteger("brooklyn.http.poll.maxConnectionsPerHost", 4);
+
+    /**
+     * Time (in milliseconds) after which an idle keep-alive connection is closed.
+     * Defaults to 60000 if system property is not set.
+     */
+    public static final long IDLE_TIMEOUT_MILLIS = Long.getLong("brooklyn.http.poll.idleTimeoutMillis", 60*1000L);
+
+    /**
+     * Max threads for handling responses (and running the callbacks), shared by all hosts.
+     * Defaults to 16 if system property is not set.
+     */
+    public static final int MAX_THREADS = Integer.getInteger("brooklyn.http.poll.maxThreads", 16);
+
+    /**
+     * Max length (in bytes) of a response body, unless overridden for the request.
+     * Defaults to 1048576 (1MB) if system property is not set.
+     */
+    public static final int MAX_CONTENT_LENGTH = Integer.getInteger("brooklyn.http.poll.maxContentLength", 1024*1024);
+
+    private static HttpPollEngine instance;
+
+    /** The engine shared by all adapters (unless given their own), started on first use. */
+    public static synchronized HttpPollEngine getInstance() {
+        if (instance==null) {
+            instance = new HttpPollEngine("shared", CONNECT_TIMEOUT_MILLIS, TIMEOUT_MILLIS, MAX_CONNECTIONS_PER_HOST, IDLE_TIMEOUT_MILLIS, MAX_THREADS);
+        }
+        return instance;
+    }
+
+    /** Called when a request completes, successfully or otherwise; should be quick, as it runs in the client's threads. */
+    public interface Callback {
+        /**
+         * @param response the response; if the request failed (or timed out), its {@link HttpResponseContext#getError() error}
+         *        is set and its response code is -1
+         */
+        void onComplete(HttpResponseContext response);
+    }
+
+    /** An http request to send. */
+    public static class Request {
+        final String url;
+        String method = "GET";
+        final Map<String,String> headers = new LinkedHashMap<String,String>();
+        byte[] content;
+        String contentType;
+        int maxContentLength = MAX_CONTENT_LENGTH;
+        long timeoutMillis = -1;
+
+        public Request(String url) {
+            this.url = url;
+        }
+        public Request method(String method) {
+            this.method = method;
+            return this;
+        }
+        public Request header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+        public Request content(byte[] content, String contentType) {
+            this.content = content;
+            this.contentType = contentType;
+            return this;
+        }
+        /** max length of response body to accept; negative for no limit */
+        public Request maxContentLength(int maxContentLength) {
+            this.maxContentLength = maxContentLength;
+            return this;
+        }
+        /** max time for the request to complete, once sent; zero or negative for the engine's default */
+        public Request timeout(long timeout, TimeUnit unit) {
+            this.timeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+        public String getUrl() {
+            return url;
+        }
+        public String getMethod() {
+            return method;
+        }
+        @Override
+        public String toString() {
+            return method+" "+url;
+        }
+    }
+
+    private final String name;
+    private final HttpClient client;
+    private final Object startLock = new Object();
+    private volatile boolean started = false;
+
+    private final AtomicLong numRequests = new AtomicLong();
+    private final AtomicLong numResponses = new AtomicLong();
+    private final AtomicLong numFailures = new AtomicLong();
+    private final AtomicLong numTimeouts = new AtomicLong();
+    private final AtomicLong numTooLarge = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    public HttpPollEngine(String name, int connectTimeoutMillis, long timeoutMillis, int maxConnectionsPerHost, long idleTimeoutMillis, int maxThreads) {
+        this.name = name;
+        QueuedThreadPool threads = new QueuedThreadPool(maxThreads);
+        threads.setName("brooklyn-http-poll-"+name);
+        threads.setDaemon(true);
+        client = new HttpClient();
+        client.setConnectorType(HttpClient.CONNECTOR_SELECT_CHANNEL);
+        client.setThreadPool(threads);
+        client.setConnectTimeout(connectTimeoutMillis);
+        client.setTimeout(timeoutMillis);
+        client.setMaxConnectionsPerAddress(maxConnectionsPerHost);
+        client.setIdleTimeout(idleTimeoutMillis);
+        client.registerListener(RedirectListener.class.getName());
+    }
+
+    private void ensureStarted() {
+        if (started) return;
+        synchronized (startLock) {
+            if (started) return;
+            try {
+                client.start();
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+            started = true;
+        }
+    }
+
+    /** Closes all connections and stops the client's threads; requests in progress fail. */
+    public void stop() {
+        synchronized (startLock) {
+            if (!started) return;
+            try {
+                client.stop();
+            } catch (Exception e) {
+                LOG.warn("Error stopping "+this+" (continuing)", e);
+            }
+            started = false;
+        }
+    }
+
+    /** Sends the request, returning immediately; the callback is always called, exactly once. */
+    public void send(Request request, Callback callback) {
+        ensureStarted();
+        numRequests.incrementAndGet();
+        PollExchange exchange = new PollExchange(request, callback);
+        exchange.setMethod(request.method);
+        exchange.setURL(request.url);
+        for (Map.Entry<String,String> header : request.headers.entrySet()) {
+            exchange.setRequestHeader(header.getKey(), header.getValue());
+        }
+        if (request.content!=null) {
+            if (request.contentType!=null) exchange.setRequestContentType(request.contentType);
+            exchange.setRequestContent(new ByteArrayBuffer(request.content));
+        }
+        if (request.timeoutMillis > 0) exchange.setTimeout(request.timeoutMillis);
+        try {
+            client.send(exchange);
+        } catch (Exception e) {
+            exchange.complete(null, e);
+        }
+    }
+
+    /** Sends the request and waits for its response (for when the caller has a thread to spare anyway). */
+    public HttpResponseContext execute(Request request) throws InterruptedException {
+        final HttpResponseContext[] result = new HttpResponseContext[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        send(request, new Callback() {
+            public void onComplete(HttpResponseContext response) {
+                result[0] = response;
+                done.countDown();
+            }
+        });
+        done.await();
+        return result[0];
+    }
+
+    /** number of requests sent */
+    public long getNumRequests() {
+        return numRequests.get();
+    }
+
+    /** number of requests which got a response (of any status code) */
+    public long getNumResponses() {
+        return numResponses.get();
+    }
+
+    /** number of requests which failed to get a response, including timeouts and over-long responses */
+    public long getNumFailures() {
+        return numFailures.get();
+    }
+
+    /** number of requests which timed out */
+    public long getNumTimeouts() {
+        return numTimeouts.get();
+    }
+
+    /** number of responses abandoned because the body was longer than allowed */
+    public long getNumTooLarge() {
+        return numTooLarge.get();
+    }
+
+    /** total bytes of response bodies read */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public String toString() {
+        return "HttpPollEngine["+name+"; requests="+numRequests.get()+"; failures="+numFailures.get()+"]";
+    }
+
+    private class PollExchange extends ContentExchange {
+        private final Request request;
+        private final Callback callback;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+        private long contentLength = 0;
+
+        PollExchange(Request request, Callback callback) {
+            super(true);
+            this.request = request;
+            this.callback = callback;
+        }
+
+        @Override
+        protected void onResponseContent(Buffer content) throws IOException {
+            contentLength += content.length();
+            bytesRead.addAndGet(content.length());
+            if (request.maxContentLength >= 0 && contentLength > request.maxContentLength) {
+                numTooLarge.incrementAndGet();
+                IOException e = new IOException("Response to "+request+" exceeds max length of "+request.maxContentLength+" bytes");
+                complete(null, e);
+                // aborts the exchange, and closes the connection rather than reading the rest
+                throw e;
+            }
+            super.onResponseContent(content);
+        }
+
+        @Override
+        protected void onResponseComplete() throws IOException {
+            super.onResponseComplete();
+            HttpResponseContext response;
+            try {
+                response = new HttpResponseContext(getResponseStatus(), getHeaderLists(), getResponseContent(), null);
+            } catch (Exception e) {
+                complete(null, e);
+                return;
+            }
+            complete(response, null);
+        }
+
+        @Override
+        protected void onConnectionFailed(Throwable x) {
+            super.onConnectionFailed(x);
+            complete(null, x);
+        }
+
+        @Override
+        protected void onException(Throwable x) {
+            super.onException(x);
+            complete(null, x);
+        }
+
+        @Override
+        protected void onExpire() {
+            super.onExpire();
+            numTimeouts.incrementAndGet();
+            complete(null, new TimeoutException("Timeout waiting for response to "+request));
+        }
+
+        private Map<String,List<String>> getHeaderLists() {
+            Map<String,List<String>> result = new LinkedHashMap<String,List<String>>();
+            HttpFields fields = getResponseFields();
+            if (fields==null) return result;
+            for (String name : fields.getFieldNamesCollection()) {
+                result.put(name, Collections.unmodifiableList(new ArrayList<String>(Collections.list(fields.getValues(name)))));
+            }
+            return result;
+        }
+
+        void complete(HttpResponseContext response, Throwable error) {
+            if (!completed.compareAndSet(false, true)) return;
+            if (error!=null) {
+                numFailures.incrementAndGet();
+                if (LOG.isDebugEnabled()) LOG.debug("Failed "+request+": "+error);
+                Exception e = (error instanceof Exception) ? (Exception)error : new Exception(error);
+                response = new HttpResponseContext(e);
+            } else {
+                numResponses.incrementAndGet();
+            }
+            try {
+                callback.onComplete(response);
+            } catch (Throwable t) {
+                LOG.warn("Error handling response to "+request+" (continuing)", t);
+            }
+        }
+    }
+}
@@ -1,56 +1,146 @@
 package brooklyn.event.adapter;
 
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
 import brooklyn.util.internal.StringEscapeUtils
 
+/**
+ * Polls a url with the adapter's {@link HttpPollEngine}: the poll task only sends the request, and the sensors are
+ * evaluated (in the engine's threads) when the response arrives. A poll is skipped if the previous request is still
+ * outstanding, so a slow server does not cause requests to pile up.
+ * <p>
+ * Unless disabled on the adapter, requests are made conditional on the ETag and Last-Modified of the last successful response;
+ * if the server replies 304 (not modified), the sensors are left as they are.
+ * Responses with status 400 or above are treated as errors (with the response code and content still available).
+ */
 protected class HttpPollHelper extends AbstractPollHelper {
 	public static final Logger log = LoggerFactory.getLogger(HttpPollHelper.class);
-	
+
 	final HttpSensorAdapter adapter;
-	
+
+	private final AtomicBoolean requestOutstanding = new AtomicBoolean(false);
+	private volatile String lastEtag;
+	private volatile String lastModified;
+	private final AtomicLong numSkipped = new AtomicLong();
+	private final AtomicLong numNotModified = new AtomicLong();
+
 	public HttpPollHelper(HttpSensorAdapter adapter) {
 		super(adapter);
 		this.adapter = adapter;
 	}
-	
-	private HttpURLConnection getConnection() {
-		if (adapter.isPost) throw new UnsupportedOperationException("when you need POST please implement it here!")
+
+	protected String getUrl() {
 		String url = adapter.baseUrl;
-		if (adapter.urlVars) {
-			def args = adapter.urlVars.collect { k,v ->
-                StringEscapeUtils.escapeHttpUrl(k.toString()) +
-                    (v != null ? "=" + StringEscapeUtils.escapeHttpUrl(v.toString()) : "")
+		if (adapter.urlVars && !adapter.isPost()) {
+            url += "?" + getEncodedVars()
+		}
+		return url
+	}
+
+	private String getEncodedVars() {
+		adapter.urlVars.collect { k,v ->
+			StringEscapeUtils.escapeHttpUrl(k.toString()) +
+				(v != null ? "=" + StringEscapeUtils.escapeHttpUrl(v.toString()) : "")
+		}.join("&")
+	}
+
+	protected HttpPollEngine.Request newRequest(boolean conditional) {
+		HttpPollEngine.Request request = new HttpPollEngine.Request(getUrl())
+		if (adapter.maxContentLength!=null) request.maxContentLength(adapter.maxContentLength)
+		if (adapter.timeout!=null) request.timeout(adapter.timeout.toMilliseconds(), TimeUnit.MILLISECONDS)
+		if (adapter.isPost()) {
+			request.method("POST")
+			if (adapter.postContent!=null) {
+				request.content(adapter.postContent.getBytes("UTF-8"), adapter.postContentType ?: "text/plain; charset=UTF-8")
+			} else {
+				request.content(getEncodedVars().getBytes("UTF-8"), "application/x-www-form-urlencoded")
 			}
-            url += "?" + args.join("&")
+		} else if (conditional) {
+			if (lastEtag) request.header("If-None-Match", lastEtag)
+			if (lastModified) request.header("If-Modified-Since", lastModified)
 		}
-		return new URL(url).openConnection()
+		return request
+	}
+
+	/** number of polls not made because the previous request was still outstanding */
+	public long getNumSkipped() {
+		return numSkipped.get()
 	}
-	
+
+	/** number of responses which were 304 (not modified), so sensors were not re-evaluated */
+	public long getNumNotModified() {
+		return numNotModified.get()
+	}
+
 	@Override
 	protected String getOptionalContextForErrors(AbstractSensorEvaluationContext response) {
         response?.content
     }
-	
+
+	@Override
+	protected void executePoll() {
+		if (isEmpty()) return;
+		if (!adapter.isActivated()) return;
+		if (!requestOutstanding.compareAndSet(false, true)) {
+			numSkipped.incrementAndGet()
+			if (log.isDebugEnabled()) log.debug "skipping http poll for {} at {}, previous request still outstanding", adapter.entity, adapter.baseUrl
+			return
+		}
+		try {
+			if (log.isDebugEnabled()) log.debug "http polling for {} sensors at {}", adapter.entity, adapter.baseUrl+adapter.urlVars
+			adapter.getEngine().send(newRequest(adapter.isConditional()), { HttpResponseContext response ->
+				try {
+					onHttpResponse(response)
+				} finally {
+					requestOutstanding.set(false)
+				}
+			} as HttpPollEngine.Callback)
+		} catch (Exception e) {
+			requestOutstanding.set(false)
+			onPollResponse(onPollError(e))
+		}
+	}
+
+	protected void onHttpResponse(HttpResponseContext response) {
+		if (response.error!=null) {
+			onPollResponse(onPollError(response.error))
+		} else if (response.responseCode==304) {
+			if (log.isDebugEnabled()) log.debug "http poll for {} got: not modified", adapter.entity
+			numNotModified.incrementAndGet()
+			lastWasSuccessful = true
+		} else if (response.responseCode>=400) {
+			Exception error = new IOException("Server returned HTTP response code: "+response.responseCode+" for URL: "+getUrl())
+			onPollError(error)
+			onPollResponse(new HttpResponseContext(response.responseCode, response.headerLists, response.content, error))
+		} else {
+			if (log.isDebugEnabled()) log.debug "http poll for {} got: {}", adapter.entity, response.content
+			lastWasSuccessful = true
+			lastEtag = getHeader(response, "ETag")
+			lastModified = getHeader(response, "Last-Modified")
+			onPollResponse(response)
+		}
+	}
+
+	private static String getHeader(HttpResponseContext response, String name) {
+		List<String> values = response.headerLists.find { k,v -> name.equalsIgnoreCase(k) }?.value
+		return values ? values.get(0) : null
+	}
+
 	@Override
 	AbstractSensorEvaluationContext executePollOnSuccess() {
-        if (log.isDebugEnabled()) log.debug "http polling for {} sensors at {}", adapter.entity, adapter.baseUrl+adapter.urlVars
-		HttpURLConnection connection = getConnection();
-		connection.connect()
-		def result = new HttpResponseContext(connection)
-        if (log.isDebugEnabled()) log.debug "http poll for {} got: {}", adapter.entity, result.content
+		HttpResponseContext result = adapter.getEngine().execute(newRequest(false))
+		if (result.error!=null) throw result.error
+		if (result.responseCode>=400) throw new IOException("Server returned HTTP response code: "+result.responseCode+" for URL: "+getUrl())
 		return result
 	}
-	
+
 	@Override
 	AbstractSensorEvaluationContext executePollOnError(Exception e) {
-		try {
-			HttpURLConnection connection = getConnection();
-			//don't attempt to connect
-			return new HttpResponseContext(connection, e)
-		} catch (Exception e2) {
-			return null
-		}
+		return new HttpResponseContext(e)
 	}
 }
@@ -15,10 +15,6 @@ public class HttpResponseContext extends AbstractSensorEvaluationContext {
 	
 	public static final Logger log = LoggerFactory.getLogger(HttpResponseContext.class);
 	
-	/** may be null during testing */
-	@Nullable
-	final HttpURLConnection connection;
-	
 	/** http result code, or -1 if error is set */
 	final int responseCode;
 	/** http return headers, where all values are lists (as per HttpConnection) see "headers" for direct access to non-list headers */
@@ -28,17 +24,26 @@ public class HttpResponseContext extends AbstractSensorEvaluationContext {
 	@Nullable
 	final String content;
 
-	/** usual constructor */	
+	/** reads the response from the given (connected) connection */
 	public HttpResponseContext(HttpURLConnection conn) {
-		this(conn, conn.getResponseCode(), conn.getHeaderFields(), conn.getContent().readLines().join("\n"), null)
+		this(conn.getResponseCode(), conn.getHeaderFields(), conn.getContent().readLines().join("\n"), null)
 	}
-	/** constructor for when there is an error; note that many of the methods on connection will throw errors */
+	/** @deprecated the connection is not kept; use {@link #HttpResponseContext(Exception)} */
+	@Deprecated
 	public HttpResponseContext(HttpURLConnection conn, Exception error) {
-		this(conn, -1, [:], null, error)
+		this(error)
 	}
-	/** constructor for testing of non-connection usage */
+	/** @deprecated the connection is not kept; use {@link #HttpResponseContext(int, Map, String, Exception)} */
+	@Deprecated
 	public HttpResponseContext(HttpURLConnection conn, int responseCode, Map headers, String content, Exception error) {
-		this.connection = conn;
+		this(responseCode, headers, content, error)
+	}
+	/** constructor for when the request failed, so there is no response */
+	public HttpResponseContext(Exception error) {
+		this(-1, [:], null, error)
+	}
+	/** usual constructor */
+	public HttpResponseContext(int responseCode, Map headers, String content, Exception error) {
 		this.responseCode = responseCode;
 		this.headerLists = headers;
 		this.content = content;
@@ -1,5 +1,7 @@
 package brooklyn.event.adapter
 
+import groovy.time.TimeDuration
+
 import java.util.Map
 
 import org.slf4j.Logger
@@ -7,6 +9,7 @@ import org.slf4j.LoggerFactory
 
 import brooklyn.event.Sensor
 import brooklyn.util.flags.FlagUtils
+import brooklyn.util.flags.SetFromFlag
 import brooklyn.util.internal.StringEscapeUtils
 
 
@@ -18,28 +21,76 @@ public class HttpSensorAdapter extends AbstractSensorAdapter {
 	protected final HttpPollHelper poller = new HttpPollHelper(this);
 	protected final Map urlVars=[:]
 
+	/** engine to send requests; defaults to the {@link HttpPollEngine#getInstance() shared} one */
+	@SetFromFlag("engine")
+	protected HttpPollEngine engine;
+
+	/** max length (in bytes) of response body to accept; defaults to {@link HttpPollEngine#MAX_CONTENT_LENGTH} */
+	@SetFromFlag("maxContentLength")
+	protected Integer maxContentLength;
+
+	/** max time for a response, once the request is sent; defaults to {@link HttpPollEngine#TIMEOUT_MILLIS} */
+	@SetFromFlag("timeout")
+	protected TimeDuration timeout;
+
+	// flag fields are set by the super-constructor, so must not have initializers (which would then overwrite them)
+
+	/** whether to make requests conditional on the ETag and Last-Modified of the previous response (for GET only); default true */
+	@SetFromFlag("conditional")
+	protected Boolean conditional;
+
+	@SetFromFlag("post")
+	protected Boolean isPost;
+
+	/** body to POST; if null, the vars are posted, form-encoded */
+	@SetFromFlag("postContent")
+	protected String postContent;
+
+	@SetFromFlag("postContentType")
+	protected String postContentType;
+
 	public HttpSensorAdapter(Map flags=[:], String url) {
 		super(flags);
 		this.baseUrl = url;
 	}
 	
-//	void register(SensorRegistry registry) {
-//		super.register(registry);
-//		//poller listens for acativation by poller	
-//	}
+	public HttpPollEngine getEngine() {
+		return engine ?: HttpPollEngine.getInstance()
+	}
+
+	public boolean isConditional() {
+		return conditional!=false
+	}
+
+	public boolean isPost() {
+		return isPost==true
+	}
 
-	protected boolean isPost = false;
-		
 	protected boolean isConnected() { isActivated() && poller!=null && poller.getLastWasSuccessful() }
 	
-	// TODO does not currenlty support post or parameter conveniences ... but 'suburl' below shows how this could work
-	/** returns new adapter which will POST the vars */
-	public HttpSensorAdapter post() {  }
+	/** returns a new adapter, registered, which will POST the vars (form-encoded) instead of adding them to the url */
+	public HttpSensorAdapter post() {
+		return copy(post:true)
+	}
+
+	/** returns a new adapter, registered, which will POST the given content */
+	public HttpSensorAdapter post(String content, String contentType="text/plain; charset=UTF-8") {
+		return copy(post:true, postContent:content, postContentType:contentType)
+	}
+
+	private HttpSensorAdapter copy(Map flags) {
+		def newFlags = FlagUtils.getFieldsWithValues(this)+flags
+		def newAdapter = new HttpSensorAdapter(newFlags, baseUrl)
+		newAdapter.urlVars << urlVars
+		if (registry) return registry.register(newAdapter);
+		return newAdapter;
+	}
 
 	/** returns a new adapter, registered, with the given additional parameters (for 'get' or 'post') */ 
 	public HttpSensorAdapter vars(Map vars) {
 		def newFlags = FlagUtils.getFieldsWithValues(this)
 		def newAdapter = new HttpSensorAdapter(newFlags, baseUrl)
+		newAdapter.urlVars << urlVars
 		newAdapter.urlVars << vars
 		if (registry) return registry.register(newAdapter);
 		return newAdapter;
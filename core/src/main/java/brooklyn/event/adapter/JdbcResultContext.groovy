@@ -0,0 +1,48 @@
+package brooklyn.event.adapter
+
+import javax.annotation.Nullable
+
+/**
+ * context object for evaluating sensor closures with the rows of a query result handy,
+ * as polled by a {@link JdbcSensorAdapter}
+ */
+public class JdbcResultContext extends AbstractSensorEvaluationContext {
+
+    /** the rows of the result, each a map from column label to value, in column order */
+    List<Map<String,Object>> rows = []
+
+    private Map<String,Object> variablesByName
+
+    @Override
+    protected Object getDefaultValue() { rows }
+
+    /** the value of the first column of the first row (e.g. for a query of a count), or null if there are no rows */
+    @Nullable
+    public Object getValue() {
+        if (rows.isEmpty()) return null
+        Map<String,Object> row = rows.get(0)
+        return row.isEmpty() ? null : row.values().iterator().next()
+    }
+
+    /**
+     * the rows as name/value pairs (from their first and second columns), as returned by queries such as
+     * {@code SHOW GLOBAL STATUS} or {@code SHOW VARIABLES} in MySQL; names are case-insensitive
+     */
+    public synchronized Map<String,Object> getVariables() {
+        if (variablesByName == null) {
+            Map<String,Object> result = new TreeMap<String,Object>(String.CASE_INSENSITIVE_ORDER)
+            rows.each { Map<String,Object> row ->
+                if (row.size() < 2) return
+                Iterator<Object> values = row.values().iterator()
+                result.put(""+values.next(), values.next())
+            }
+            variablesByName = result
+        }
+        return variablesByName
+    }
+
+    @Override
+    public String toString() {
+        return "rows=$rows"
+    }
+}
@@ -0,0 +1,254 @@
+package brooklyn.event.adapter
+
+import groovy.time.TimeDuration
+
+import java.sql.Connection
+import java.sql.DriverManager
+import java.sql.PreparedStatement
+import java.sql.ResultSet
+import java.sql.ResultSetMetaData
+import java.sql.SQLException
+import java.util.concurrent.atomic.AtomicLong
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import brooklyn.event.Sensor
+import brooklyn.util.flags.SetFromFlag
+
+/**
+ * Entry point for polling sensors from SQL queries, sent over JDBC to a database.
+ * <p>
+ * All the queries of an adapter share one connection, opened when first needed, kept open from one poll to the next,
+ * and re-opened after any failure. Each query is prepared once on the connection, and the statement re-used for
+ * each poll. Each query has its own period (by default the adapter's).
+ * <p>
+ * Queries run while holding the adapter's lock, as does opening the connection; so connecting must be bounded by a
+ * timeout (as it is for MySQL, from the {@code timeout} flag), or an unreachable database would hold a pool thread
+ * and all the adapter's queries indefinitely.
+ * <p>
+ * Example usage:
+ * <code>
+ *   def jdbc = sensorRegistry.register(new JdbcSensorAdapter("jdbc:mysql://$host:$port/", user:"root", password:password))
+ *   jdbc.query("SHOW GLOBAL STATUS", period:1*SECONDS).with {
+ *       poll(THREADS_CONNECTED) { variables.Threads_connected }
+ *       poll(QUERIES) { variables.Queries }
+ *   }
+ *   jdbc.query("SELECT COUNT(*) FROM orders WHERE status = ?", "new").poll(NEW_ORDERS) { value }
+ * </code>
+ * Closures are evaluated in a {@link JdbcResultContext}, with the rows of the result as their argument.
+ */
+public class JdbcSensorAdapter extends AbstractSensorAdapter {
+
+    public static final Logger log = LoggerFactory.getLogger(JdbcSensorAdapter.class)
+
+    // flag fields are set by the super-constructor, so must not have initializers (which would then overwrite them)
+
+    @SetFromFlag("user")
+    protected String user
+
+    @SetFromFlag("password")
+    protected String password
+
+    /** JDBC driver class to load, if the driver does not register itself */
+    @SetFromFlag("driverClass")
+    protected String driverClass
+
+    /**
+     * max time for each query, and to connect; defaults to 30s.
+     * The connect is only bounded for drivers which take it as a connection property (see {@link #getConnectionProperties()}).
+     */
+    @SetFromFlag("timeout")
+    protected TimeDuration timeout
+
+    /** additional properties for the driver when connecting, e.g. its own timeouts */
+    @SetFromFlag("properties")
+    protected Map<String,?> properties
+
+    final String url
+
+    // guarded by this
+    private Connection connection
+    private final Map<String, PreparedStatement> statements = [:]
+
+    private final AtomicLong connects = new AtomicLong()
+    private final AtomicLong prepares = new AtomicLong()
+    private final AtomicLong executions = new AtomicLong()
+
+    public JdbcSensorAdapter(Map flags=[:], String url) {
+        super(flags)
+        this.url = url
+        addActivationLifecycleListeners({}, { closeConnection() })
+    }
+
+    /**
+     * Returns a new adapter, registered, which polls the given query (with the given parameters) at the period
+     * given by the flags (or this adapter's period).
+     */
+    public JdbcQueryAdapter query(Map flags=[:], String sql, Object... params) {
+        def queryFlags = [period:pollPeriod]+flags
+        return registry.register(new JdbcQueryAdapter(queryFlags, this, sql, params as List))
+    }
+
+    protected boolean isConnected() { isActivated() && hasConnection() }
+
+    private synchronized boolean hasConnection() {
+        return connection != null
+    }
+
+    /** number of connections opened */
+    public long getNumConnects() { connects.get() }
+
+    /** number of statements prepared */
+    public long getNumPrepares() { prepares.get() }
+
+    /** number of queries executed */
+    public long getNumExecutions() { executions.get() }
+
+    /**
+     * Runs the query with the given parameters, re-using its prepared statement if it has one on the current connection.
+     * If the query fails, the connection is closed (to be re-opened by the next query).
+     * Once registered, a connection is only opened while the adapter is active.
+     *
+     * @return the rows of the result, each a map from column label to value, in column order
+     */
+    public synchronized List<Map<String,Object>> execute(String sql, List params=[]) {
+        try {
+            PreparedStatement statement = prepare(sql)
+            statement.clearParameters()
+            params.eachWithIndex { Object p, int i -> statement.setObject(i+1, p) }
+            ResultSet rs = statement.executeQuery()
+            try {
+                executions.incrementAndGet()
+                return toRows(rs)
+            } finally {
+                rs.close()
+            }
+        } catch (SQLException e) {
+            closeConnection()
+            throw e
+        }
+    }
+
+    private PreparedStatement prepare(String sql) {
+        PreparedStatement result = statements.get(sql)
+        if (result != null) return result
+        result = getConnection().prepareStatement(sql)
+        result.setQueryTimeout((int) (getTimeoutMillis() / 1000))
+        statements.put(sql, result)
+        prepares.incrementAndGet()
+        return result
+    }
+
+    private Connection getConnection() {
+        if (connection != null) return connection
+        // so that a poll still running when deactivated does not leave a connection open
+        if (registry != null && !activated) throw new IllegalStateException("Cannot connect "+this+" when not active")
+        if (driverClass) Class.forName(driverClass)
+        connection = DriverManager.getConnection(url, getConnectionProperties())
+        connects.incrementAndGet()
+        if (log.isDebugEnabled()) log.debug("Opened jdbc connection to {} for {}", url, entity)
+        return connection
+    }
+
+    private long getTimeoutMillis() {
+        return (timeout != null) ? timeout.toMilliseconds() : 30*1000
+    }
+
+    /**
+     * The properties given to the driver to connect: the user and password, the timeouts of drivers known to take
+     * them as properties (currently MySQL's {@code connectTimeout} and {@code socketTimeout}, set to the
+     * {@code timeout} flag), and any given with the {@code properties} flag (which take precedence).
+     */
+    protected Properties getConnectionProperties() {
+        Properties result = new Properties()
+        if (user != null) result.setProperty("user", user)
+        if (password != null) result.setProperty("password", password)
+        if (url.startsWith("jdbc:mysql:")) {
+            // the driver otherwise waits indefinitely for a host which does not answer
+            result.setProperty("connectTimeout", ""+getTimeoutMillis())
+            result.setProperty("socketTimeout", ""+getTimeoutMillis())
+        }
+        properties?.each { k, v -> result.setProperty(""+k, ""+v) }
+        return result
+    }
+
+    private static List<Map<String,Object>> toRows(ResultSet rs) {
+        ResultSetMetaData meta = rs.getMetaData()
+        int numColumns = meta.getColumnCount()
+        String[] labels = new String[numColumns]
+        for (int i = 0; i < numColumns; i++) labels[i] = meta.getColumnLabel(i+1)
+        List<Map<String,Object>> result = []
+        while (rs.next()) {
+            Map<String,Object> row = new LinkedHashMap<String,Object>(numColumns*2)
+            for (int i = 0; i < numColumns; i++) row.put(labels[i], rs.getObject(i+1))
+            result.add(row)
+        }
+        return result
+    }
+
+    /** Closes the connection (and its prepared statements); the next query will open a new one. */
+    public synchronized void closeConnection() {
+        statements.values().each { PreparedStatement s ->
+            try { s.close() } catch (SQLException e) { /* closing the connection anyway */ }
+        }
+        statements.clear()
+        if (connection != null) {
+            try {
+                connection.close()
+            } catch (SQLException e) {
+                if (log.isDebugEnabled()) log.debug("Error closing jdbc connection to "+url+" (continuing)", e)
+            }
+            connection = null
+        }
+    }
+
+    public String toString() { super.toString()+"["+url+"]" }
+}
+
+/**
+ * Adapter that polls one query of a {@link JdbcSensorAdapter}, at its own period.
+ *
+ * @see {@link JdbcSensorAdapter} for recommended way of using this
+ */
+public class JdbcQueryAdapter extends AbstractSensorAdapter {
+
+    final JdbcSensorAdapter adapter
+    final String sql
+    final List params
+    protected final JdbcQueryPollHelper poller = new JdbcQueryPollHelper(this)
+
+    public JdbcQueryAdapter(Map flags=[:], JdbcSensorAdapter adapter, String sql, List params=[]) {
+        super(flags)
+        this.adapter = adapter
+        this.sql = sql
+        this.params = params
+    }
+
+    protected boolean isConnected() { isActivated() && poller!=null && poller.getLastWasSuccessful() }
+
+    /** closure will run in a {@link JdbcResultContext}, default value is the list of rows */
+    public void poll(Sensor s, Closure c={it}) {
+        poller.addSensor(s, c)
+    }
+
+    public String toString() { super.toString()+"["+sql+"]" }
+}
+
+public class JdbcQueryPollHelper extends AbstractPollHelper {
+
+    public JdbcQueryPollHelper(JdbcQueryAdapter adapter) {
+        super(adapter)
+    }
+
+    @Override
+    protected AbstractSensorEvaluationContext executePollOnSuccess() {
+        JdbcQueryAdapter query = (JdbcQueryAdapter) adapter
+        return new JdbcResultContext(rows: query.adapter.execute(query.sql, query.params))
+    }
+
+    @Override
+    protected String getOptionalContextForErrors(AbstractSensorEvaluationContext response) {
+        return "query: "+((JdbcQueryAdapter) adapter).sql
+    }
+}
@@ -13,6 +13,9 @@ import brooklyn.event.Sensor
 /** 
  * Adapter that polls for a JMX attribute.
  * "Attribute" here refers to the JMX concept, rather than the brooklyn concept.
+ * <p>
+ * The attribute is fetched along with all other attributes of the same object name polled through the same
+ * {@link JmxSensorAdapter}, by its {@link JmxAttributesPollHelper}.
  * 
  * @see {@link JmxSensorAdapter} for recommended way of using this
  */
@@ -32,6 +35,7 @@ public class JmxAttributeAdapter extends AbstractSensorAdapter {
 		poller = new AttributePollHelper(adapter, objectName, attributeName);
 		this.objectName = objectName;
 		this.attributeName = attributeName;
+        adapter.addAttributePoller(objectName, poller);
 	}
 	
 	static class AttributePollHelper extends AbstractPollHelper {
@@ -44,10 +48,16 @@ public class JmxAttributeAdapter extends AbstractSensorAdapter {
 			this.objectName = objectName;
 			this.attributeName = attributeName;
 		}
+		/** only used if the attribute could not be read along with the others of its object name */
 		@Override
 		protected AbstractSensorEvaluationContext executePollOnSuccess() {
 			return new SingleValueResponseContext(value: adapter.helper.getAttribute(objectName, attributeName))
 		}
+        /** not scheduled separately; polled by the adapter's {@link JmxAttributesPollHelper} for the object name */
+        @Override
+        protected activatePoll() {}
+        @Override
+        protected deactivatePoll() {}
 	}
 	/** optional postProcessing will take the result of the attribute invocation
 	 * (its native type; casting to sensor's type is done on the return value of the closure) */
@@ -0,0 +1,72 @@
+package brooklyn.event.adapter;
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+import javax.management.ObjectName
+
+import brooklyn.event.adapter.JmxAttributeAdapter.AttributePollHelper
+
+
+/**
+ * Polls all the attributes wanted from one JMX {@link ObjectName} through a {@link JmxSensorAdapter}
+ * with a single {@link JmxHelper#getAttributes(ObjectName, Collection)} call per poll,
+ * passing each value to the pollers of the {@link JmxAttributeAdapter}s for that attribute.
+ * <p>
+ * Any attribute the server omits from the result (i.e. which it failed to read) is then polled on its own,
+ * so that its error is reported for just the sensors which use it.
+ */
+public class JmxAttributesPollHelper extends AbstractPollHelper {
+
+    final JmxSensorAdapter adapter;
+    final ObjectName objectName;
+    final List<AttributePollHelper> attributePollers = new CopyOnWriteArrayList<AttributePollHelper>();
+
+    public JmxAttributesPollHelper(JmxSensorAdapter adapter, ObjectName objectName) {
+        super(adapter);
+        this.adapter = adapter;
+        this.objectName = objectName;
+    }
+
+    void addAttributePoller(AttributePollHelper poller) {
+        attributePollers << poller
+    }
+
+    @Override
+    protected boolean isEmpty() {
+        attributePollers.every { it.isEmpty() }
+    }
+
+    @Override
+    protected AbstractSensorEvaluationContext executePollOnSuccess() {
+        Set<String> attributeNames = new LinkedHashSet<String>()
+        attributePollers.each { if (!it.isEmpty()) attributeNames << it.attributeName }
+        return new AttributesResponseContext(values: adapter.helper.getAttributes(objectName, attributeNames))
+    }
+
+    @Override
+    void evaluateSensorsOnResponse(AbstractSensorEvaluationContext response) {
+        Map<String,Object> values = ((AttributesResponseContext)response).values
+        attributePollers.each { AttributePollHelper poller ->
+            if (poller.isEmpty()) return
+            if (values.containsKey(poller.attributeName)) {
+                poller.evaluateSensorsOnResponse(new SingleValueResponseContext(value: values.get(poller.attributeName)))
+            } else {
+                poller.executePoll()
+            }
+        }
+    }
+
+    public String toString() { super.toString()+"["+objectName+"]" }
+
+    static class AttributesResponseContext extends AbstractSensorEvaluationContext {
+        Map<String,Object> values
+
+        @Override
+        protected Object getDefaultValue() { values }
+
+        @Override
+        public String toString() {
+            return "values=$values"
+        }
+    }
+}
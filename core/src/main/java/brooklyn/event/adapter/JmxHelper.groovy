@@ -5,7 +5,11 @@ import groovy.time.TimeDuration
 
 import java.util.concurrent.Callable
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
+import javax.management.Attribute
+import javax.management.AttributeList
+import javax.management.InstanceNotFoundException
 import javax.management.JMX
 import javax.management.MBeanServerConnection
 import javax.management.NotificationFilter
@@ -51,6 +55,9 @@ public class JmxHelper {
     
     // Tracks the MBeans we have failed to find for this JmsHelper's connection URL (so can log just once for each)
     private final Set<ObjectName> notFoundMBeans
+
+    private final AtomicLong roundTrips = new AtomicLong()
+    private final AtomicLong attributesFetched = new AtomicLong()
     
 	public static final Map<String,String> CLASSES = [
 		"Integer" : Integer.TYPE.name,
@@ -296,6 +303,54 @@ public class JmxHelper {
 		}
 	}
 
+    /**
+     * Returns the values of the given attributes of a JMX {@link ObjectName}, fetched with a single call
+     * (preceded by a query for the MBean only if the name is a pattern).
+     * <p>
+     * As with {@link MBeanServerConnection#getAttributes(ObjectName, String[])}, attributes which could not be read
+     * are omitted from the result. If the MBean is not found, the value of every attribute is null
+     * (as for {@link #getAttribute(ObjectName, String)}).
+     */
+    public Map<String,Object> getAttributes(ObjectName objectName, Collection<String> attributes) {
+        checkConnected()
+
+        Map<String,Object> result = [:]
+        ObjectName name = objectName
+        if (objectName.isPattern()) {
+            ObjectInstance bean = findMBean objectName
+            if (bean == null) {
+                attributes.each { result.put(it, null) }
+                return result
+            }
+            name = bean.objectName
+        }
+        AttributeList values
+        try {
+            values = invokeWithReconnect( { return mbsc.getAttributes(name, attributes as String[]) } )
+        } catch (InstanceNotFoundException e) {
+            // logs (once) that it is not found, consistent with getAttribute
+            findMBean objectName
+            attributes.each { result.put(it, null) }
+            return result
+        }
+        if (!objectName.isPattern()) notFoundMBeans.remove(objectName)
+        values.asList().each { Attribute a -> result.put(a.name, a.value) }
+        attributesFetched.addAndGet(result.size())
+
+        if (LOG.isTraceEnabled()) LOG.trace "From {}, for jmx attributes {}.{}, got values {}", url, objectName.canonicalName, attributes, result
+        return result
+    }
+
+    /** Number of calls made to the MBean server (including any retried after reconnecting). */
+    public long getNumRoundTrips() {
+        return roundTrips.get()
+    }
+
+    /** Number of attribute values returned by {@link #getAttributes(ObjectName, Collection)}. */
+    public long getNumAttributesFetched() {
+        return attributesFetched.get()
+    }
+
     public void setAttribute(String objectName, String attribute, Object val) {
         setAttribute(new ObjectName(objectName), attribute, val)
     }
@@ -362,10 +417,12 @@ public class JmxHelper {
     
     private <T> T invokeWithReconnect(Callable<T> task) {
         try {
+            roundTrips.incrementAndGet()
             return task.call()
         } catch (Exception e) {
             if (shouldRetryOn(e)) {
                 reconnect()
+                roundTrips.incrementAndGet()
 				return task.call()
             } else {
 				throw e;
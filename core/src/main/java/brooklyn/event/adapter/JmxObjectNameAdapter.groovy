@@ -18,8 +18,9 @@ public class JmxObjectNameAdapter {
 		this.adapter = adapter;
 		this.objectName = objectName;
 	}
+	/** returns the adapter for the attribute; repeated calls for the same attribute return the same adapter */
 	JmxAttributeAdapter attribute(String attributeName) {
-		adapter.registry.register(new JmxAttributeAdapter(adapter, objectName, attributeName));
+		adapter.attributeAdapter(objectName, attributeName);
 	}
 	JmxOperationAdapter operation(String method, Object ...args) {
 		adapter.registry.register(new JmxOperationAdapter(adapter, objectName, method, args));
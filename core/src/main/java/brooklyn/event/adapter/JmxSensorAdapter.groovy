@@ -34,6 +34,9 @@ public class JmxSensorAdapter extends AbstractSensorAdapter {
 	
 	JmxHelper helper
 	private volatile long jmxConnectionTimeout = JMX_CONNECTION_TIMEOUT_MS
+
+    private final Map<List, JmxAttributeAdapter> attributeAdapters = [:]
+    private final Map<ObjectName, JmxAttributesPollHelper> attributePollers = [:]
  
 	static {  // JMX ClientCommunicatorAdmin spits out scary warnings, but we just retry so don't worry
 		// TODO better would be to capture and send to our logger as debug
@@ -70,6 +73,30 @@ public class JmxSensorAdapter extends AbstractSensorAdapter {
 	public JmxObjectNameAdapter objectName(String val) { return objectName(new ObjectName(val)); }
 
     public JmxObjectNameAdapter objectName(ObjectName val) { return new JmxObjectNameAdapter(this, val); }
+
+    /**
+     * Returns the adapter for the given attribute, creating and registering it if this is the first request for it;
+     * so all sensors using the same attribute share a single fetch of it per poll.
+     */
+    public synchronized JmxAttributeAdapter attributeAdapter(ObjectName objectName, String attributeName) {
+        List key = [objectName, attributeName]
+        JmxAttributeAdapter result = attributeAdapters.get(key)
+        if (result == null) {
+            result = registry.register(new JmxAttributeAdapter(this, objectName, attributeName))
+            attributeAdapters.put(key, result)
+        }
+        return result
+    }
+
+    /** adds the poller to those whose attributes are fetched together for the object name */
+    synchronized void addAttributePoller(ObjectName objectName, JmxAttributeAdapter.AttributePollHelper poller) {
+        JmxAttributesPollHelper batch = attributePollers.get(objectName)
+        if (batch == null) {
+            batch = new JmxAttributesPollHelper(this, objectName)
+            attributePollers.put(objectName, batch)
+        }
+        batch.addAttributePoller(poller)
+    }
     
     /** blocks for 15s until bean might exist */
     public boolean checkObjectNameExists(ObjectName objectName, TimeDuration timeout=15*TimeUnit.SECONDS) {
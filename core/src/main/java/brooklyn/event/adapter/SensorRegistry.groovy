@@ -3,8 +3,6 @@ package brooklyn.event.adapter
 import groovy.lang.Closure
 
 import java.util.List
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledExecutorService
 import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
 
@@ -15,6 +13,9 @@ import brooklyn.entity.basic.EntityLocal
 import brooklyn.event.AttributeSensor
 import brooklyn.event.Sensor
 import brooklyn.event.adapter.legacy.ValueProvider
+import brooklyn.management.ManagementContext
+import brooklyn.management.internal.AbstractManagementContext
+import brooklyn.util.task.SharedScheduler
 
 
 /**
@@ -32,9 +33,6 @@ public class SensorRegistry {
             connectDelay : 1000
         ]
  
-	@Deprecated
-    ScheduledExecutorService exec = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors())
- 
 	@Deprecated
     private final Map<AttributeSensor, ValueProvider> providers = [:]
 	@Deprecated
@@ -79,8 +77,17 @@ public class SensorRegistry {
 	public void close() {
 		activated = false;
 		deactivateAdapters();
-		exec.shutdownNow()
 		scheduled.each { key, ScheduledFuture future -> future.cancel(true) }
+		scheduled.clear()
+	}
+
+	/** the scheduler of the entity's management context, in which calculated sensors are polled, with the entity as owner */
+	@Deprecated
+	protected SharedScheduler getScheduler() {
+		ManagementContext mgmt = entity.getManagementContext()
+		if (!(mgmt instanceof AbstractManagementContext))
+			throw new IllegalStateException("Cannot poll sensors of $entity because it is not yet managed")
+		return ((AbstractManagementContext)mgmt).getScheduler()
 	}
 
 	@Deprecated
@@ -105,7 +112,8 @@ public class SensorRegistry {
             }
         }
         
-        scheduled[sensor] = exec.scheduleWithFixedDelay(safeCalculate, 0L, period, TimeUnit.MILLISECONDS)
+        scheduled.remove(sensor)?.cancel(true)
+        scheduled[sensor] = getScheduler().scheduleWithFixedDelay(entity, safeCalculate, 0L, period, TimeUnit.MILLISECONDS)
     }
 
 	@Deprecated
@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory
 
 import brooklyn.entity.basic.EntityLocal
 import brooklyn.location.basic.SshMachineLocation
+import brooklyn.util.internal.ssh.SshShellChannel
 
 import com.google.common.base.Preconditions
 import com.google.common.io.CharStreams
@@ -12,34 +13,108 @@ import com.google.common.io.CharStreams
 /**
  * This class adapts the result of commands sent over SSH to {@link Sensor} data for a particular {@link Entity}, updating the
  * {@link Activity} as required.
+ * <p>
+ * By default each command is run as a separate script over ssh. With the flag {@code persistentShell:true}, commands are
+ * instead run in one long-lived shell on the machine (see {@link SshShellChannel}), and whenever a provider needs a result
+ * that is older than {@code maxResultAge} (in milliseconds), the commands of all the adapter's providers are run together
+ * in one round-trip; so the sensors of an entity, polled with the same period, cost one round-trip per period between them.
+ * Commands in a persistent shell are not run in a login shell, so should use absolute paths. Call {@link #close()} when
+ * the adapter is no longer needed.
  */
 public class OldSshSensorAdapter {
     static final Logger log = LoggerFactory.getLogger(OldSshSensorAdapter.class);
 
+    /**
+     * Whether adapters run commands in a persistent shell, unless the flag is given.
+     * Defaults to false if system property is not set.
+     */
+    public static final boolean PERSISTENT_SHELL_DEFAULT = Boolean.getBoolean("brooklyn.ssh.sensors.persistentShell")
+
+    /**
+     * Age (in milliseconds) up to which a result from a persistent shell is re-used, unless the flag is given.
+     * Defaults to 250 if system property is not set.
+     */
+    public static final long MAX_RESULT_AGE_DEFAULT = Long.getLong("brooklyn.ssh.sensors.maxResultAgeMillis", 250)
+
     final EntityLocal entity
     final SshMachineLocation machine
+    final boolean persistentShell
+    final long maxResultAge
+
+    // guarded by this
+    private final Set<String> commands = new LinkedHashSet<String>()
+    private final Map<String, SshShellChannel.Result> results = [:]
+    private final Map<String, Long> resultTimes = [:]
+    private SshShellChannel channel
 
-    public OldSshSensorAdapter(EntityLocal entity, SshMachineLocation machine) {
+    public OldSshSensorAdapter(Map flags=[:], EntityLocal entity, SshMachineLocation machine) {
         this.entity = entity
         this.machine = machine
+        this.persistentShell = flags.persistentShell != null ? flags.persistentShell : PERSISTENT_SHELL_DEFAULT
+        this.maxResultAge = flags.maxResultAge != null ? flags.maxResultAge : MAX_RESULT_AGE_DEFAULT
     }
 
     public ValueProvider<Integer> newReturnValueProvider(String command) {
-        return new SshReturnValueProvider(command, this)
+        return new SshReturnValueProvider(register(command), this)
     }
 
     public ValueProvider<String> newOutputValueProvider(String command) {
-        return new SshOutputValueProvider(command, this)
+        return new SshOutputValueProvider(register(command), this)
     }
 
     public ValueProvider<Boolean> newMatchValueProvider(String command, String regexp) {
-        return new SshMatchValueProvider(command, regexp, this)
+        return new SshMatchValueProvider(register(command), regexp, this)
+    }
+
+    /** The persistent shell, if one has been opened. */
+    public synchronized SshShellChannel getShellChannel() {
+        return channel
+    }
+
+    /** Closes the persistent shell, if one is open; it is re-opened if any provider is used again. */
+    public void close() {
+        SshShellChannel toClose
+        synchronized (this) {
+            toClose = channel
+            channel = null
+            results.clear()
+            resultTimes.clear()
+        }
+        toClose?.close()
+    }
+
+    private synchronized String register(String command) {
+        Preconditions.checkNotNull(command, "command")
+        commands.add(command)
+        return command
+    }
+
+    /**
+     * Returns the result of the command from the persistent shell, running it along with all other
+     * commands of this adapter if its last result is older than {@link #maxResultAge}.
+     */
+    private synchronized SshShellChannel.Result execInShell(String command) {
+        long now = System.currentTimeMillis()
+        Long time = resultTimes.get(command)
+        if (time != null && now - time < maxResultAge) return results.get(command)
+
+        if (channel == null) channel = machine.openShellChannel()
+        List<String> batch = new ArrayList<String>(commands)
+        if (!commands.contains(command)) batch.add(command)
+        List<SshShellChannel.Result> batchResults = channel.exec(batch)
+        long completed = System.currentTimeMillis()
+        for (int i = 0; i < batch.size(); i++) {
+            results.put(batch.get(i), batchResults.get(i))
+            resultTimes.put(batch.get(i), completed)
+        }
+        return results.get(command)
     }
 
     /**
      * Returns the exit status of a command.
      */
     private Integer getExitStatus(String command) {
+        if (persistentShell) return execInShell(command).exitStatus
         return machine.run(command)
     }
 
@@ -47,6 +122,10 @@ public class OldSshSensorAdapter {
      * Returns the output of a command.
      */
     private String getCommandOutput(String command) {
+        if (persistentShell) {
+            SshShellChannel.Result result = execInShell(command)
+            return (result.exitStatus == 0) ? result.output : null
+        }
         ByteArrayOutputStream out = new ByteArrayOutputStream()
         int status = machine.run(out:out, command)
         if (status == 0) {
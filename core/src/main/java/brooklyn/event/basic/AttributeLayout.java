@@ -0,0 +1,96 @@
+package brooklyn.event.basic;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The slots in which each entity of a class keeps its attribute values: each attribute name is given
+ * the next free slot the first time an entity of the class sets it, and every {@link AttributeMap}
+ * of the class then stores that attribute's value at the same index of its array.
+ * <p>
+ * Sensors added dynamically are given slots in the same way. To stop classes whose instances each use
+ * different attribute names from making every instance's array huge, a class has at most
+ * {@link #MAX_SLOTS} slots; attributes set after that are kept in a map in each entity.
+ * <p>
+ * Internal; not intended for use outside this package.
+ */
+public class AttributeLayout {
+
+    /**
+     * Max number of attribute slots for an entity class.
+     * Defaults to 256 if system property is not set.
+     */
+    public static final int MAX_SLOTS = Integer.getInteger("brooklyn.attributes.maxSlotsPerType", 256);
+
+    private static final ConcurrentMap<Class<?>, AttributeLayout> layouts = new ConcurrentHashMap<Class<?>, AttributeLayout>();
+
+    /** The layout shared by all entities of the given class, creating it if necessary. */
+    public static AttributeLayout forType(Class<?> type) {
+        AttributeLayout result = layouts.get(type);
+        if (result!=null) return result;
+        AttributeLayout newLayout = new AttributeLayout(type, MAX_SLOTS);
+        result = layouts.putIfAbsent(type, newLayout);
+        return (result!=null) ? result : newLayout;
+    }
+
+    /**
+     * Forgets the layout of the given class, so that entities of it created (or deserialized) from now on
+     * use a new one; mainly for testing.
+     */
+    public static void forget(Class<?> type) {
+        layouts.remove(type);
+    }
+
+    private final Class<?> type;
+    private final int maxSlots;
+    private final ConcurrentMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+    private volatile String[] names = new String[0];
+
+    AttributeLayout(Class<?> type, int maxSlots) {
+        this.type = type;
+        this.maxSlots = maxSlots;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    /** @return the slot of the given attribute, or -1 if it has none */
+    public int findSlot(String name) {
+        Integer result = slots.get(name);
+        return (result!=null) ? result : -1;
+    }
+
+    /** @return the slot of the given attribute, giving it the next one if necessary; or -1 if all slots are used */
+    public int slotFor(String name) {
+        Integer result = slots.get(name);
+        if (result!=null) return result;
+        synchronized (this) {
+            result = slots.get(name);
+            if (result!=null) return result;
+            int size = names.length;
+            if (size >= maxSlots) return -1;
+            String[] newNames = new String[size+1];
+            System.arraycopy(names, 0, newNames, 0, size);
+            newNames[size] = name;
+            names = newNames;
+            slots.put(name, size);
+            return size;
+        }
+    }
+
+    /** number of slots used */
+    public int size() {
+        return names.length;
+    }
+
+    /** name of the attribute in the given slot */
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    @Override
+    public String toString() {
+        return "AttributeLayout["+type.getName()+"; slots="+names.length+"]";
+    }
+}
@@ -0,0 +1,258 @@
+package brooklyn.event.basic;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.entity.basic.AbstractEntity;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.Sensor;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link Map} of {@link Entity} attribute values.
+ * <p>
+ * The values are kept in an array, at the slot given to each attribute (by name) in the {@link AttributeLayout}
+ * of the entity's class, so that getting or setting a value is an array access after a lookup of the name
+ * (rather than hashing the list of its parts). Reads take no lock; updates are synchronized on this map.
+ * <p>
+ * Updating an attribute through its sensor publishes an event unless its {@link AttributePublication} says
+ * the value is unchanged and need not be. The event is published while holding the lock, so that concurrent
+ * updates are published in the order they were stored (and the last event is always of the current value);
+ * publishing only hands the event to the subscription manager, except for listeners which ask to be called
+ * in the publishing thread.
+ */
+public final class AttributeMap implements Serializable {
+    private static final long serialVersionUID = 1418165372040779946L;
+
+    static final Logger log = LoggerFactory.getLogger(AttributeMap.class);
+
+    private static final Joiner dots = Joiner.on('.');
+
+    private static final Object NULL = new Object();
+
+    final EntityLocal entity;
+
+    private transient AttributeLayout layout;
+
+    /** values by slot in the layout; replaced by a longer copy when the layout has grown */
+    private transient volatile AtomicReferenceArray<Object> slots;
+
+    /** values of attributes which have no slot (as the layout is full), created when first needed */
+    private transient volatile ConcurrentMap<String, Object> overflow;
+
+    /** the publication of each attribute which is not always published, created when first needed */
+    private transient volatile ConcurrentMap<String, AttributePublication> publications;
+
+    private transient AtomicLong numPublished;
+    private transient AtomicLong numSuppressed;
+
+    /**
+     * Creates a new AttributeMap.
+     *
+     * @param entity the EntityLocal this AttributeMap belongs to.
+     * @throws IllegalArgumentException if entity is null
+     */
+    public AttributeMap(EntityLocal entity) {
+        Preconditions.checkNotNull(entity, "entity must be specified");
+        this.entity = entity;
+        init();
+    }
+
+    private void init() {
+        layout = AttributeLayout.forType(entity.getClass());
+        slots = new AtomicReferenceArray<Object>(layout.size());
+        numPublished = new AtomicLong();
+        numSuppressed = new AtomicLong();
+    }
+
+    public EntityLocal getEntity() {
+        return entity;
+    }
+
+    /**
+     * Updates the value.
+     *
+     * @param path the path to the value.
+     * @param newValue the new value
+     * @return the old value.
+     * @throws IllegalArgumentException if path is null or empty
+     */
+    // TODO path must be ordered(and legal to contain duplicates like "a.b.a"; list would be better
+    public <T> T update(Collection<String> path, T newValue) {
+        checkPath(path);
+        return update(dots.join(path), newValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> T update(String name, T newValue) {
+        if (log.isTraceEnabled()) {
+            log.trace("setting sensor {}={} for {}", new Object[] {name, newValue, entity});
+        }
+
+        int slot = layout.slotFor(name);
+        if (slot < 0) {
+            if (overflow==null) overflow = new ConcurrentHashMap<String, Object>();
+            Object oldValue = overflow.put(name, (newValue!=null) ? newValue : NULL);
+            return (T) ((oldValue==NULL) ? null : oldValue);
+        }
+        AtomicReferenceArray<Object> values = slots;
+        if (slot >= values.length()) {
+            AtomicReferenceArray<Object> newValues = new AtomicReferenceArray<Object>(Math.max(slot+1, layout.size()));
+            for (int i = 0; i < values.length(); i++) {
+                newValues.set(i, values.get(i));
+            }
+            slots = values = newValues;
+        }
+        return (T) values.getAndSet(slot, newValue);
+    }
+
+    private void checkPath(Collection<String> path) {
+        Preconditions.checkNotNull(path, "path can't be null");
+        Preconditions.checkArgument(!path.isEmpty(), "path can't be empty");
+    }
+
+    public <T> void update(Sensor<T> sensor, T newValue) {
+        Preconditions.checkArgument(sensor instanceof AttributeSensor, "AttributeMap can only update an attribute sensor's value, not %s", sensor);
+        String name = sensor.getName();
+        synchronized (this) {
+            Object oldValue = update(name, newValue);
+            AttributePublication publication = getPublication(name, true);
+            if (publication!=null && !publication.shouldPublish(oldValue, newValue, System.currentTimeMillis())) {
+                numSuppressed.incrementAndGet();
+                return;
+            }
+            numPublished.incrementAndGet();
+            if (entity instanceof AbstractEntity) ((AbstractEntity) entity).emitInternal(sensor, newValue);
+        }
+    }
+
+    /**
+     * Sets when updating the given attribute publishes an event, replacing any default for the sensor
+     * (and resetting the counts).
+     */
+    public synchronized void setPublicationMode(AttributeSensor<?> sensor, AttributePublication.Mode mode, long heartbeatMillis) {
+        if (publications==null) publications = new ConcurrentHashMap<String, AttributePublication>();
+        publications.put(sensor.getName(), new AttributePublication(mode, heartbeatMillis));
+    }
+
+    /**
+     * @return the publication (with its counts) of the given attribute in this map; or null if it has none,
+     *         so is always published (as is the default, unless configured for the sensor or the map)
+     */
+    public AttributePublication getPublication(AttributeSensor<?> sensor) {
+        return getPublication(sensor.getName(), false);
+    }
+
+    private AttributePublication getPublication(String name, boolean create) {
+        ConcurrentMap<String, AttributePublication> current = publications;
+        AttributePublication result = (current!=null) ? current.get(name) : null;
+        if (result==null) {
+            AttributePublication defaultPublication = AttributePublication.getDefault(name);
+            if (defaultPublication.getMode()!=AttributePublication.Mode.ALWAYS) {
+                if (!create) return defaultPublication;
+                // only updates create (and they hold the lock)
+                if (publications==null) publications = new ConcurrentHashMap<String, AttributePublication>();
+                result = defaultPublication.copy();
+                publications.put(name, result);
+            }
+        }
+        return result;
+    }
+
+    /** number of attribute updates (through their sensors) which published an event */
+    public long getNumPublished() {
+        return numPublished.get();
+    }
+
+    /** number of attribute updates (through their sensors) which did not publish an event, as the value was unchanged */
+    public long getNumSuppressed() {
+        return numSuppressed.get();
+    }
+
+    /**
+     * Gets the value
+     *
+     * @param path the path of the value to get
+     * @return the value
+     * @throws IllegalArgumentException path is null or empty.
+     */
+    public Object getValue(Collection<String> path) {
+        // TODO previously this would return a map of the sub-tree if the path matched a prefix of a group of sensors, 
+        // or the leaf value if only one value. Arguably that is not required - what is/was the use-case?
+        // 
+        checkPath(path);
+        return getValue(dots.join(path));
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getValue(Sensor<T> sensor) {
+        return (T) getValue(sensor.getName());
+    }
+
+    private Object getValue(String name) {
+        int slot = layout.findSlot(name);
+        if (slot >= 0) {
+            AtomicReferenceArray<Object> values = slots;
+            return (slot < values.length()) ? values.get(slot) : null;
+        }
+        ConcurrentMap<String, Object> extra = overflow;
+        if (extra==null) return null;
+        Object result = extra.get(name);
+        return (result==NULL) ? null : result;
+    }
+
+    /** The attributes which have non-null values, by name; a copy. */
+    public Map<String, Object> asMap() {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        AtomicReferenceArray<Object> values = slots;
+        for (int i = 0; i < values.length(); i++) {
+            Object value = values.get(i);
+            if (value!=null) result.put(layout.getName(i), value);
+        }
+        ConcurrentMap<String, Object> extra = overflow;
+        if (extra!=null) {
+            for (Map.Entry<String, Object> entry : extra.entrySet()) {
+                if (entry.getValue()!=NULL) result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    // slot numbers are only meaningful within one JVM, so the values are serialized by name
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(new LinkedHashMap<String, Object>(asMap()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+        Map<String, Object> values = (Map<String, Object>) in.readObject();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            update(entry.getKey(), entry.getValue());
+        }
+    }
+
+    //ENGR-1458  interesting to use property change. if it works great.
+    //if there are any issues with it consider instead just making attributesInternal private,
+    //and forcing all changes to attributesInternal to go through update(AttributeSensor,...)
+    //and do the publishing there...  (please leave this comment here for several months until we know... it's Jun 2011 right now)
+//    protected final PropertiesSensorAdapter propertiesAdapter = new PropertiesSensorAdapter(this, attributes)
+    //if wee need this, fold the capabilities into this class.
+}
@@ -0,0 +1,133 @@
+package brooklyn.event.basic;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import brooklyn.event.AttributeSensor;
+
+import com.google.common.base.Objects;
+
+/**
+ * When setting an attribute publishes an event: {@link Mode#ALWAYS always} (the default), only
+ * {@link Mode#ON_CHANGE on change}, or {@link Mode#ON_CHANGE_OR_HEARTBEAT on change or when a heartbeat is due},
+ * so that sensors polled every period do not send an unchanged value to every subscriber each time.
+ * <p>
+ * Sensors can be given a default mode (used by all entities unless they set their own); each entity
+ * keeps its own instance for each attribute whose mode is not {@link Mode#ALWAYS},
+ * counting the events it publishes and suppresses.
+ */
+public class AttributePublication {
+
+    public enum Mode {
+        /** every value set is published */
+        ALWAYS,
+        /** a value is published only if it differs from the previous value (by equals) */
+        ON_CHANGE,
+        /** a value is published if it differs from the previous value, or if the heartbeat time has passed since the last was published */
+        ON_CHANGE_OR_HEARTBEAT
+    }
+
+    /**
+     * Mode for attributes whose sensor has no default, and for which the entity has not set one;
+     * one of ALWAYS, ON_CHANGE or ON_CHANGE_OR_HEARTBEAT.
+     * Defaults to ALWAYS if system property is not set.
+     */
+    public static final Mode DEFAULT_MODE = Mode.valueOf(System.getProperty("brooklyn.attributes.publicationMode", Mode.ALWAYS.name()));
+
+    /**
+     * Time (in milliseconds) after which an unchanged value is published again, in {@link Mode#ON_CHANGE_OR_HEARTBEAT},
+     * unless otherwise specified.
+     * Defaults to 60000 if system property is not set.
+     */
+    public static final long DEFAULT_HEARTBEAT_MILLIS = Long.getLong("brooklyn.attributes.heartbeatMillis", 60*1000L);
+
+    private static final ConcurrentMap<String, AttributePublication> defaults = new ConcurrentHashMap<String, AttributePublication>();
+
+    /** for sensors with no default of their own; shared, so never counts */
+    private static final AttributePublication FALLBACK = new AttributePublication(DEFAULT_MODE, DEFAULT_HEARTBEAT_MILLIS);
+
+    /** Sets the mode used for the given sensor by all entities, unless they set their own. */
+    public static void setDefault(AttributeSensor<?> sensor, Mode mode, long heartbeatMillis) {
+        defaults.put(sensor.getName(), new AttributePublication(mode, heartbeatMillis));
+    }
+
+    /** Sets the mode used for the given sensor by all entities, unless they set their own. */
+    public static void setDefault(AttributeSensor<?> sensor, Mode mode) {
+        setDefault(sensor, mode, DEFAULT_HEARTBEAT_MILLIS);
+    }
+
+    /**
+     * @return the default for the named sensor; never null, and shared (so its counters are unused),
+     *         so an entity {@link #copy() copies} it to count with
+     */
+    static AttributePublication getDefault(String sensorName) {
+        AttributePublication result = defaults.get(sensorName);
+        return (result!=null) ? result : FALLBACK;
+    }
+
+    private final Mode mode;
+    private final long heartbeatMillis;
+    private long lastPublishedTime = -1;
+    private final AtomicLong numPublished = new AtomicLong();
+    private final AtomicLong numSuppressed = new AtomicLong();
+
+    public AttributePublication(Mode mode, long heartbeatMillis) {
+        this.mode = mode;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    /** A new instance with the same mode and heartbeat, and zero counts. */
+    AttributePublication copy() {
+        return new AttributePublication(mode, heartbeatMillis);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getHeartbeatMillis() {
+        return heartbeatMillis;
+    }
+
+    /** number of values set and published */
+    public long getNumPublished() {
+        return numPublished.get();
+    }
+
+    /** number of values set but not published, as unchanged */
+    public long getNumSuppressed() {
+        return numSuppressed.get();
+    }
+
+    /**
+     * Whether setting the attribute from oldValue to newValue should publish an event, counting it
+     * either way; must be synchronized by the caller.
+     */
+    boolean shouldPublish(Object oldValue, Object newValue, long now) {
+        boolean result;
+        switch (mode) {
+        case ON_CHANGE:
+            result = !Objects.equal(oldValue, newValue) || lastPublishedTime < 0;
+            break;
+        case ON_CHANGE_OR_HEARTBEAT:
+            result = !Objects.equal(oldValue, newValue) || lastPublishedTime < 0 || now - lastPublishedTime >= heartbeatMillis;
+            break;
+        default:
+            result = true;
+        }
+        if (result) {
+            lastPublishedTime = now;
+            numPublished.incrementAndGet();
+        } else {
+            numSuppressed.incrementAndGet();
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "AttributePublication["+mode+(mode==Mode.ON_CHANGE_OR_HEARTBEAT ? "; heartbeat="+heartbeatMillis+"ms" : "")+
+                "; published="+numPublished.get()+"; suppressed="+numSuppressed.get()+"]";
+    }
+}
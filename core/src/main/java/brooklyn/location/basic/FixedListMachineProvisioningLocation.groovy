@@ -105,6 +105,7 @@ public class FixedListMachineProvisioningLocation<T extends MachineLocation> ext
                 throw new IllegalStateException("Request to release machine $machine, but this machine is not currently allocated")
             inUse.remove(machine);
         }
+        if (machine in SshMachineLocation) ((SshMachineLocation)machine).close()
     }
     
     Map<String,Object> getProvisioningFlags(Collection<String> tags) {
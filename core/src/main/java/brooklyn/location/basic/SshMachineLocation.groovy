@@ -14,13 +14,22 @@ import brooklyn.util.flags.SetFromFlag
 import brooklyn.util.mutex.MutexSupport
 import brooklyn.util.mutex.WithMutexes
 import brooklyn.util.internal.SshTool
+import brooklyn.util.internal.ssh.SshConnectionPool
 import brooklyn.util.internal.ssh.SshException;
+import brooklyn.util.internal.ssh.SshProcess
+import brooklyn.util.internal.ssh.SshShellChannel
 import brooklyn.util.internal.ssh.SshjTool
+import brooklyn.util.task.BasicExecutionManager
+import brooklyn.util.task.SharedScheduler
 
 import com.google.common.base.Preconditions
 
 /**
  * Operations on a machine that is accessible via ssh.
+ * <p>
+ * Commands and file transfers re-use authenticated connections to the machine, held in a {@link SshConnectionPool};
+ * call {@link #close()} once the machine is no longer needed to disconnect them.
+ * Their idle checks, and the timeouts of shell channels, run in the {@link #getScheduler() scheduler}.
  */
 public class SshMachineLocation extends AbstractLocation implements MachineLocation, PortSupplier, WithMutexes {
     public static final Logger LOG = LoggerFactory.getLogger(SshMachineLocation.class)
@@ -45,6 +54,12 @@ public class SshMachineLocation extends AbstractLocation implements MachineLocat
     
     private final Set<Integer> ports = [] as HashSet
 
+    private transient SshConnectionPool sshPool
+    private transient SharedScheduler scheduler
+
+    /** for machines used outside of a management context, e.g. by scripts and tests; created on first use */
+    private static SharedScheduler defaultScheduler
+
     public SshMachineLocation(Map properties = [:]) {
         super(properties)
     }
@@ -95,13 +110,117 @@ public class SshMachineLocation extends AbstractLocation implements MachineLocat
     public int run(Map props=[:], List<String> commands, Map env=[:]) {
         Preconditions.checkNotNull address, "host address must be specified for ssh"
         if (!commands) return 0
-        SshjTool ssh = connectSsh(props)
-        int result = ssh.execShell props, commands, env
-        ssh.disconnect()
-        result
+        return execSsh(props) { SshjTool ssh -> ssh.execShell props, commands, env }
     }
-    
+
+    /**
+     * The scheduler for the periodic work of this machine's connections: that set by the entity using the
+     * machine (i.e. its management context's), or else one shared by all machines used outside of management.
+     */
+    public synchronized SharedScheduler getScheduler() {
+        return scheduler ?: getDefaultScheduler()
+    }
+
+    /**
+     * Sets the scheduler for connections and shell channels subsequently opened to this machine;
+     * connections already pooled are closed, once no longer in use, so the pool is re-created with it.
+     */
+    public void setScheduler(SharedScheduler scheduler) {
+        SshConnectionPool old
+        synchronized (this) {
+            if (this.scheduler.is(scheduler)) return
+            this.scheduler = scheduler
+            old = sshPool
+            sshPool = null
+        }
+        old?.close()
+    }
+
+    private static synchronized SharedScheduler getDefaultScheduler() {
+        if (defaultScheduler == null) defaultScheduler = new BasicExecutionManager().getSharedScheduler()
+        return defaultScheduler
+    }
+
+    /** The pool of connections to this machine, created on first use. */
+    public synchronized SshConnectionPool getSshPool() {
+        if (sshPool == null) sshPool = new SshConnectionPool(toString(), getScheduler())
+        return sshPool
+    }
+
+    /**
+     * Disconnects any connections held open to this machine.
+     * Subsequent commands will connect afresh.
+     */
+    public void close() {
+        SshConnectionPool pool
+        synchronized (this) {
+            pool = sshPool
+            sshPool = null
+        }
+        pool?.close()
+    }
+
+    /**
+     * Runs the given closure with a connected {@link SshjTool} borrowed from {@link #getSshPool()},
+     * returning it to the pool afterwards (or discarding the connection if the closure failed).
+     */
+    protected <T> T execSsh(Map props=[:], Closure<T> task) {
+        SshConnectionPool pool = getSshPool()
+        SshjTool ssh = pool.borrow(sshArgs(props))
+        boolean succeeded = false
+        try {
+            T result = task.call(ssh)
+            succeeded = true
+            return result
+        } finally {
+            if (!succeeded) pool.invalidate(ssh)
+            pool.release(ssh)
+        }
+    }
+
+    /** Connects a new {@link SshjTool}, not shared with other callers; the caller must disconnect it. */
     protected SshjTool connectSsh(Map props=[:]) {
+        Map args = sshArgs(props)
+        if (LOG.isTraceEnabled()) LOG.trace("creating ssh session for "+args);
+        SshTool ssh = new SshjTool(args)
+        ssh.connect()
+        return ssh;
+    }
+
+    /**
+     * Opens a long-lived shell on the machine, over a connection of its own (not from the pool),
+     * to run batches of commands in one round-trip each; the caller must close it.
+     */
+    public SshShellChannel openShellChannel(Map props=[:]) {
+        Preconditions.checkNotNull address, "host address must be specified for ssh"
+        return new SshShellChannel(connectSsh(props), getScheduler())
+    }
+
+    /**
+     * As {@link #openShellChannel(Map)}, running the given shell (e.g. {@code bash -l}, for the user's profile),
+     * and allowing each batch of commands the given time.
+     */
+    public SshShellChannel openShellChannel(Map props=[:], String shellCommand, long timeoutMillis) {
+        Preconditions.checkNotNull address, "host address must be specified for ssh"
+        return new SshShellChannel(connectSsh(props), shellCommand, timeoutMillis, getScheduler())
+    }
+
+    /**
+     * Starts the command on the machine, over a connection of its own (not from the pool), leaving it running
+     * for the caller to read its output as it is produced; the caller must close the returned process.
+     */
+    public SshProcess startCommand(Map props=[:], String command) {
+        Preconditions.checkNotNull address, "host address must be specified for ssh"
+        SshjTool ssh = connectSsh(props)
+        try {
+            return new SshProcess(ssh, ssh.startCommand(command))
+        } catch (Exception e) {
+            ssh.disconnect()
+            throw e
+        }
+    }
+
+    protected Map sshArgs(Map props=[:]) {
         if (!user) user = System.getProperty "user.name"
         Map args = [ user:user, host:address.hostName ]
         (props+config+leftoverProperties).each { kk,v ->
@@ -116,10 +235,7 @@ public class SshMachineLocation extends AbstractLocation implements MachineLocat
                 }
             }
         }
-        if (LOG.isTraceEnabled()) LOG.trace("creating ssh session for "+args);
-        SshTool ssh = new SshjTool(args)
-        ssh.connect()
-        return ssh;
+        return args
     }
 
     public int copyTo(Map props=[:], File src, File destination) {
@@ -130,34 +246,34 @@ public class SshMachineLocation extends AbstractLocation implements MachineLocat
     public int copyTo(Map props=[:], File src, String destination) {
         Preconditions.checkNotNull address, "host address must be specified for scp"
         Preconditions.checkArgument src.exists(), "File %s must exist for scp", src.path
-		copyTo new FileInputStream(src), src.length(), destination 
+        InputStream input = new FileInputStream(src)
+        try {
+            return copyTo(props, input, src.length(), destination)
+        } finally {
+            input.close()
+        }
     }
 	public int copyTo(Map props=[:], Reader src, String destination) {
 		copyTo(props, new ReaderInputStream(src), destination);
 	}
+    /**
+     * Copies the stream to the given file on the machine, as it is read (so it is not held in memory,
+     * and its length need not be known).
+     */
 	public int copyTo(Map props=[:], InputStream src, String destination) {
 		copyTo(props, src, -1, destination)
 	}
+    /**
+     * @param filesize length of the stream, or -1 if not known
+     */
 	public int copyTo(Map props=[:], InputStream src, long filesize, String destination) {
-		if (filesize==-1) {
-			def bytes = src.getBytes()
-			filesize = bytes.size()
-			src = new ByteArrayInputStream(bytes)
-		}
-		
-        SshTool ssh = connectSsh(props)
-        int result = ssh.createFile props, destination, src, filesize
-        ssh.disconnect()
-        result
+        return execSsh(props) { SshjTool ssh -> ssh.createFile props, destination, src, filesize }
     }
 
     // FIXME the return code is not a reliable indicator of success or failure
     public int copyFrom(Map props=[:], String remote, String local) {
         Preconditions.checkNotNull address, "host address must be specified for scp"
-        SshTool ssh = connectSsh(props);
-        int result = ssh.transferFileFrom props, remote, local
-        ssh.disconnect()
-        result
+        return execSsh(props) { SshjTool ssh -> ssh.transferFileFrom props, remote, local }
     }
 
     @Override
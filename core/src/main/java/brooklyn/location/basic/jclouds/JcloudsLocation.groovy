@@ -284,6 +284,7 @@ public class JcloudsLocation extends AbstractLocation implements MachineProvisio
         LOG.info("Releasing machine $machine in $this, instance id $instanceId");
         
         removeChildLocation(machine)
+        machine.close()
         ComputeService computeService = null;
         try {
             computeService = JcloudsUtil.buildOrFindComputeService(conf);
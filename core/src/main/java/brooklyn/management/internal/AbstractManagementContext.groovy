@@ -22,8 +22,10 @@ import brooklyn.management.ExpirationPolicy
 import brooklyn.management.ManagementContext
 import brooklyn.management.SubscriptionContext
 import brooklyn.management.Task
+import brooklyn.policy.Policy
 import brooklyn.util.task.BasicExecutionContext
 import brooklyn.util.task.BasicExecutionManager
+import brooklyn.util.task.SharedScheduler
 
 public abstract class AbstractManagementContext implements ManagementContext  {
     private static final Logger log = LoggerFactory.getLogger(AbstractManagementContext.class)
@@ -43,6 +45,14 @@ public abstract class AbstractManagementContext implements ManagementContext  {
         new BasicSubscriptionContext(getSubscriptionManager(), e);
     }
         
+    /**
+     * Scheduler for delayed and recurring jobs (e.g. sensor polls) of the entities and policies managed here,
+     * which are cancelled when the entity is unmanaged; see {@link SharedScheduler}.
+     */
+    public SharedScheduler getScheduler() {
+        return ((BasicExecutionManager) getExecutionManager()).getSharedScheduler()
+    }
+
     public boolean isManaged(Entity e) {
         return (getEntity(e.id)!=null)
     }
@@ -88,8 +98,20 @@ public abstract class AbstractManagementContext implements ManagementContext  {
         for (Entity ei : e.getOwnedChildren()) {
             unmanage(ei);
         }
-        if (unmanageNonRecursive(e))
+        if (unmanageNonRecursive(e)) {
             ((AbstractEntity)e).onManagementNoLongerMaster()
+            cancelScheduledJobs(e)
+        }
+    }
+
+    /** cancels any jobs the entity or its policies still have in the {@link #getScheduler() scheduler} */
+    protected void cancelScheduledJobs(Entity e) {
+        if (!(getExecutionManager() instanceof BasicExecutionManager)) return
+        SharedScheduler scheduler = getScheduler()
+        scheduler.cancelAll(e)
+        for (Policy p : e.getPolicies()) {
+            scheduler.cancelAll(p)
+        }
     }
 
     /**
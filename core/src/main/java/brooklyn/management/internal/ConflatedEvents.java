@@ -0,0 +1,82 @@
+package brooklyn.management.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import brooklyn.entity.Entity;
+import brooklyn.event.Sensor;
+import brooklyn.event.SensorEvent;
+
+import com.google.common.base.Objects;
+
+/**
+ * The attribute events pending delivery for a subscription made with the <code>conflate</code> flag,
+ * holding at most one (the newest) per producing entity and sensor.
+ * <p>
+ * A delivery is scheduled only when an event arrives and nothing is pending for its entity and sensor;
+ * when that delivery runs it {@link #take(Object) takes} whatever is then the newest value. Later events
+ * arriving in the meantime replace the pending one rather than adding to the subscriber's backlog.
+ */
+class ConflatedEvents {
+
+    private final Subscription<?> subscription;
+    private final ConcurrentMap<Object, SensorEvent<?>> pending = new ConcurrentHashMap<Object, SensorEvent<?>>(4);
+
+    ConflatedEvents(Subscription<?> subscription) {
+        this.subscription = subscription;
+    }
+
+    /**
+     * Records the event as the newest pending one for its entity and sensor.
+     *
+     * @return the key to pass to {@link #take(Object)} from a newly scheduled delivery,
+     *         or null if the event superseded one which is already awaiting delivery
+     */
+    public Object offer(SensorEvent<?> event) {
+        // a subscription on a single entity and sensor only ever needs one slot
+        Object key = (subscription.producer!=null && subscription.sensor!=null) ? subscription : new EntitySensorKey(event.getSource(), event.getSensor());
+        return (pending.put(key, event)==null) ? key : null;
+    }
+
+    /** Removes and returns the newest pending event for the given key, or null if it has been discarded. */
+    public SensorEvent<?> take(Object key) {
+        return pending.remove(key);
+    }
+
+    /** Discards all pending events (e.g. on unsubscribe), returning how many there were. */
+    public int discardAll() {
+        int count = 0;
+        for (Object key : pending.keySet()) {
+            if (pending.remove(key)!=null) count++;
+        }
+        return count;
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    private static class EntitySensorKey {
+        private final Entity entity;
+        private final Sensor<?> sensor;
+        private final int hash;
+
+        EntitySensorKey(Entity entity, Sensor<?> sensor) {
+            this.entity = entity;
+            this.sensor = sensor;
+            this.hash = Objects.hashCode(entity, sensor);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof EntitySensorKey)) return false;
+            EntitySensorKey o = (EntitySensorKey) obj;
+            return Objects.equal(entity, o.entity) && Objects.equal(sensor, o.sensor);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.util.Map
 import java.util.Set
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicLong
 
 import org.slf4j.Logger
@@ -13,6 +14,9 @@ import org.slf4j.LoggerFactory
 
 import brooklyn.entity.Entity
 import brooklyn.entity.Group
+import brooklyn.entity.basic.AbstractEntity
+import brooklyn.entity.trait.Changeable
+import brooklyn.event.AttributeSensor
 import brooklyn.event.Sensor
 import brooklyn.event.SensorEvent
 import brooklyn.event.SensorEventListener
@@ -24,6 +28,7 @@ import brooklyn.util.task.BasicExecutionManager
 import brooklyn.util.task.SingleThreadedScheduler
 
 import com.google.common.base.Predicate
+import com.google.common.base.Supplier
 
 /**
  * A {@link SubscriptionManager} that stores subscription details locally.
@@ -31,6 +36,14 @@ import com.google.common.base.Predicate
 public class LocalSubscriptionManager implements SubscriptionManager {
     private static final Logger LOG = LoggerFactory.getLogger(SubscriptionManager.class)
 
+    /**
+     * Whether new instances deliver events in batches, draining each subscriber's pending events in a single task,
+     * rather than submitting a task per subscriber per event. Defaults to false if system property is not set.
+     *
+     * @see #setBatchedDelivery(boolean)
+     */
+    private static final boolean BATCHED_DELIVERY_DEFAULT = Boolean.parseBoolean(System.getProperty("brooklyn.subscriptionManager.batchedDelivery"))
+
     static String makeEntitySensorToken(Entity e, Sensor<?> s) {
         return (e ? e.id :  "*")+":"+(s ? s.name : "*")
     }
@@ -43,16 +56,50 @@ public class LocalSubscriptionManager implements SubscriptionManager {
     
     protected ConcurrentMap<String, Subscription> allSubscriptions = new ConcurrentHashMap<String, Subscription>();
     protected ConcurrentMap<Object, Set<Subscription>> subscriptionsBySubscriber = new ConcurrentHashMap<Object, Set<Subscription>>()
-    protected ConcurrentMap<Object, Set<Subscription>> subscriptionsByToken = new ConcurrentHashMap<Object, Set<Subscription>>()
+    /** index used for publishing; lookups there take no locks, so subscription churn does not stall publishers */
+    protected final SubscriptionRegistry subscriptionsByEntitySensor = new SubscriptionRegistry()
     
     private final AtomicLong totalEventsPublishedCount = new AtomicLong()
     
     private final AtomicLong totalEventsDeliveredCount = new AtomicLong()
     
+    private final AtomicLong totalEventsConflatedCount = new AtomicLong()
+    
+    private final AtomicLong totalEventsDroppedCount = new AtomicLong()
+    
+    private volatile boolean batchedDelivery = BATCHED_DELIVERY_DEFAULT
+    
+    /** pending events per subscriber execution-manager tag, when delivering in batches */
+    protected final ConcurrentMap<Object, SubscriberEventQueue> queuesBySubscriberTag = new ConcurrentHashMap<Object, SubscriberEventQueue>()
+    
+    private final AtomicLong totalDeliveryTaskCount = new AtomicLong()
+    
+    private final AtomicLong totalEventsDrainedCount = new AtomicLong()
+    
+    private final AtomicInteger queuedEventCount = new AtomicInteger()
+    
+    private final AtomicInteger maxSubscriberQueueDepth = new AtomicInteger()
+    
     public LocalSubscriptionManager(ExecutionManager m) {
         this.em = m
     }
 
+    /**
+     * Whether to deliver events in batches: each subscriber has a queue of pending events, and a single task
+     * (using the subscriber's execution-manager tag) drains it, rather than a task being submitted per event.
+     * Events are still delivered to each subscriber in the order they were published.
+     * <p>
+     * Applies to subscriptions made after it is set, so should normally be set before anything subscribes.
+     * Subscriptions made with an explicitly null <code>subscriberExecutionManagerTag</code> are never batched.
+     */
+    public void setBatchedDelivery(boolean batchedDelivery) {
+        this.batchedDelivery = batchedDelivery
+    }
+    
+    public boolean isBatchedDelivery() {
+        return batchedDelivery
+    }
+
     public long getTotalEventsPublished() {
         return totalEventsPublishedCount.get()
     }
@@ -61,10 +108,55 @@ public class LocalSubscriptionManager implements SubscriptionManager {
         return totalEventsDeliveredCount.get()
     }
     
+    /** number of attribute events not delivered because a newer value superseded them (for subscriptions with the conflate flag) */
+    public long getTotalEventsConflated() {
+        return totalEventsConflatedCount.get()
+    }
+    
+    /** number of attribute events discarded because they were still pending when their subscription was removed */
+    public long getTotalEventsDropped() {
+        return totalEventsDroppedCount.get()
+    }
+    
     public long getNumSubscriptions() {
         return allSubscriptions.size()
     }
     
+    /** number of tasks submitted to drain subscriber queues, when delivering in batches */
+    public long getTotalDeliveryTasks() {
+        return totalDeliveryTaskCount.get()
+    }
+    
+    /** mean number of events delivered by each task which drained a subscriber queue, or 0 if none have run */
+    public double getMeanEventsPerDeliveryTask() {
+        long tasks = totalDeliveryTaskCount.get()
+        return tasks > 0 ? ((double)totalEventsDrainedCount.get())/tasks : 0
+    }
+    
+    /** number of events currently queued for delivery, across all subscribers, when delivering in batches */
+    public int getNumQueuedEvents() {
+        return queuedEventCount.get()
+    }
+    
+    /** largest number of events seen queued for a single subscriber, when delivering in batches */
+    public int getMaxSubscriberQueueDepth() {
+        return maxSubscriberQueueDepth.get()
+    }
+    
+    void onEventQueued(int subscriberQueueDepth) {
+        queuedEventCount.incrementAndGet()
+        while (true) {
+            int max = maxSubscriberQueueDepth.get()
+            if (subscriberQueueDepth <= max || maxSubscriberQueueDepth.compareAndSet(max, subscriberQueueDepth)) break
+        }
+    }
+    
+    void onEventsDrained(int count) {
+        queuedEventCount.addAndGet(-count)
+        totalEventsDrainedCount.addAndGet(count)
+        totalDeliveryTaskCount.incrementAndGet()
+    }
+    
     /** @see SubscriptionManager#subscribe(Map, Entity, Sensor, EventListener) */
     public <T> SubscriptionHandle subscribe(Entity producer, Sensor<T> sensor, SensorEventListener<T> listener) {
         subscribe([:], producer, sensor, listener)
@@ -78,11 +170,23 @@ public class LocalSubscriptionManager implements SubscriptionManager {
      *      if not supplied and there is a subscriber, this will be inferred from the subscriber and set up with SingleThreadedScheduler
      *      (supply this flag with value null to prevent any task preprocessor from being set)
      * <li>eventFilter - a Predicate&lt;SensorEvent&gt; instance to filter what events are delivered
+     * <li>conflate - if true, events from {@link AttributeSensor}s which are awaiting delivery are superseded
+     *      by newer events for the same entity and sensor, so a slow listener is only given the latest value
+     *      (and its backlog is bounded by the number of entity-sensor pairs, rather than growing with each event)
      * </ul>
+     * If {@link #setBatchedDelivery(boolean) batched delivery} is enabled, the subscription shares its
+     * subscriber's queue of pending events.
      * 
      * @see SubscriptionManager#subscribe(Map, Entity, Sensor, EventListener)
      */
-    public synchronized <T> SubscriptionHandle subscribe(Map<String, Object> flags, Entity producer, Sensor<T> sensor, SensorEventListener<T> listener) {
+    public <T> SubscriptionHandle subscribe(Map<String, Object> flags, Entity producer, Sensor<T> sensor, SensorEventListener<T> listener) {
+        Subscription s = newSubscription(flags, producer, sensor, listener)
+        subscriptionsByEntitySensor.add(s)
+        s
+    }
+    
+    /** creates and records the subscription, with everything except registering it for delivery */
+    protected <T> Subscription<T> newSubscription(Map<String, Object> flags, Entity producer, Sensor<T> sensor, SensorEventListener<T> listener) {
         Subscription s = new Subscription(producer:producer, sensor:sensor, listener:listener)
         s.subscriber = flags.remove("subscriber") ?: listener
         if (flags.containsKey("subscriberExecutionManagerTag")) {
@@ -96,16 +200,28 @@ public class LocalSubscriptionManager implements SubscriptionManager {
             s.subscriberExecutionManagerTagSupplied = false
         }
         s.eventFilter = flags.remove("eventFilter")
+        if (flags.remove("conflate")) s.conflatedEvents = new ConflatedEvents(s)
         s.flags = flags
         
         if (LOG.isDebugEnabled()) LOG.debug "Creating subscription $s for ${s.subscriber} on $producer $sensor in $this"
         allSubscriptions.put(s.id, s)
-        LanguageUtils.addToMapOfSets(subscriptionsByToken, makeEntitySensorToken(s.producer, s.sensor), s);
-        if (s.subscriber!=null) {
-            LanguageUtils.addToMapOfSets(subscriptionsBySubscriber, s.subscriber, s);
-        }
-        if (!s.subscriberExecutionManagerTagSupplied && s.subscriberExecutionManagerTag!=null) {
-            ((BasicExecutionManager) em).setTaskSchedulerForTag(s.subscriberExecutionManagerTag, SingleThreadedScheduler.class);
+        // synch on the subscriber index only (not used by publish), so that a concurrent unsubscribe of the
+        // subscriber's last subscription cannot clear the task semantics set up here
+        synchronized (subscriptionsBySubscriber) {
+            if (s.subscriber!=null) {
+                LanguageUtils.addToMapOfSets(subscriptionsBySubscriber, s.subscriber, s);
+            }
+            if (!s.subscriberExecutionManagerTagSupplied && s.subscriberExecutionManagerTag!=null) {
+                ((BasicExecutionManager) em).setTaskSchedulerForTag(s.subscriberExecutionManagerTag, SingleThreadedScheduler.class);
+            }
+            if (batchedDelivery && s.subscriberExecutionManagerTag!=null) {
+                SubscriberEventQueue queue = queuesBySubscriberTag.get(s.subscriberExecutionManagerTag)
+                if (queue==null) {
+                    queue = new SubscriberEventQueue(this, em, s.subscriberExecutionManagerTag)
+                    queuesBySubscriberTag.put(s.subscriberExecutionManagerTag, queue)
+                }
+                s.deliveryQueue = queue
+            }
         }
         s
     }
@@ -115,50 +231,66 @@ public class LocalSubscriptionManager implements SubscriptionManager {
         subscribeToChildren([:], parent, sensor, listener)
     }
 
-    /** @see SubscriptionManager#subscribe(Map, Entity, Sensor, EventListener) */
-    public synchronized <T> SubscriptionHandle subscribeToChildren(Map<String, Object> flags, final Entity parent, Sensor<T> sensor, SensorEventListener<T> listener) {
-        Predicate<SensorEvent<T>> eventFilter = new Predicate<SensorEvent<?>>() {
-            public boolean apply(SensorEvent<?> input) {
-                return parent.getOwnedChildren().contains(input.source)
-            }
-        }
-        flags.put("eventFilter", eventFilter)
-        subscribe(flags, null, sensor, listener)
+    /**
+     * Subscribes to the sensor on each of the parent's children, as they are at any point in time.
+     * <p>
+     * This is backed by a subscription per child, kept up to date by listening for the parent's
+     * {@link AbstractEntity#CHILD_ADDED} and {@link AbstractEntity#CHILD_REMOVED} notifications,
+     * so events from other entities are never tested against it.
+     * 
+     * @see SubscriptionManager#subscribe(Map, Entity, Sensor, EventListener)
+     */
+    public <T> SubscriptionHandle subscribeToChildren(Map<String, Object> flags, final Entity parent, Sensor<T> sensor, SensorEventListener<T> listener) {
+        Subscription s = newSubscription(flags, null, sensor, listener)
+        s.membershipIndex = new MembershipIndexedSubscription(this, s, parent, AbstractEntity.CHILD_ADDED, AbstractEntity.CHILD_REMOVED,
+                { parent.getOwnedChildren() } as Supplier)
+        s.membershipIndex.start()
+        s
     }
 
-    /** @see SubscriptionManager#subscribe(Map, Entity, Sensor, EventListener) */
-    public synchronized <T> SubscriptionHandle subscribeToMembers(Map<String, Object> flags, final Group parent, Sensor<T> sensor, SensorEventListener<T> listener) {
-        Predicate<SensorEvent<T>> eventFilter = new Predicate<SensorEvent<?>>() {
-            public boolean apply(SensorEvent<?> input) {
-                return parent.members.contains(input.source)
-            }
-        }
-        flags.put("eventFilter", eventFilter)
-        subscribe(flags, null, sensor, listener)
+    /**
+     * Subscribes to the sensor on each of the group's members, as they are at any point in time;
+     * backed by a subscription per member, kept up to date using the group's {@link Changeable#MEMBER_ADDED}
+     * and {@link Changeable#MEMBER_REMOVED} notifications.
+     * 
+     * @see #subscribeToChildren(Map, Entity, Sensor, SensorEventListener)
+     */
+    public <T> SubscriptionHandle subscribeToMembers(Map<String, Object> flags, final Group parent, Sensor<T> sensor, SensorEventListener<T> listener) {
+        Subscription s = newSubscription(flags, null, sensor, listener)
+        s.membershipIndex = new MembershipIndexedSubscription(this, s, parent, Changeable.MEMBER_ADDED, Changeable.MEMBER_REMOVED,
+                { parent.getMembers() } as Supplier)
+        s.membershipIndex.start()
+        s
     }
     /**
      * Unsubscribe the given subscription id.
      *
      * @see #subscribe(Map, Entity, Sensor, EventListener)
      */
-    public synchronized boolean unsubscribe(SubscriptionHandle sh) {
+    public boolean unsubscribe(SubscriptionHandle sh) {
         Subscription s = sh
         boolean b1 = allSubscriptions.remove(s.id)
-        boolean b2 = LanguageUtils.removeFromMapOfCollections(subscriptionsByToken, makeEntitySensorToken(s.producer, s.sensor), s);
+        boolean b2 = (s.membershipIndex!=null) ? s.membershipIndex.close() : subscriptionsByEntitySensor.remove(s)
         assert b1==b2
-        if (s.subscriber!=null) {
-            boolean b3 = LanguageUtils.removeFromMapOfCollections(subscriptionsBySubscriber, s.subscriber, s);
-            assert b3 == b2
-        }
-        
-        if ((subscriptionsBySubscriber.size() == 0 || !subscriptionsBySubscriber.get(s.subscriber)) && !s.subscriberExecutionManagerTagSupplied && s.subscriberExecutionManagerTag!=null) {
-            //if subscriber has gone away forget about his task; but check in synch block to ensure setTaskPreprocessor call above will win in any race
-            if ((subscriptionsBySubscriber.size() == 0 || !subscriptionsBySubscriber.get(s.subscriber)))
+        if (s.conflatedEvents!=null) totalEventsDroppedCount.addAndGet(s.conflatedEvents.discardAll())
+        synchronized (subscriptionsBySubscriber) {
+            if (s.subscriber!=null) {
+                boolean b3 = LanguageUtils.removeFromMapOfCollections(subscriptionsBySubscriber, s.subscriber, s);
+                assert b3 == b2
+            }
+            
+            if ((subscriptionsBySubscriber.size() == 0 || !subscriptionsBySubscriber.get(s.subscriber)) && !s.subscriberExecutionManagerTagSupplied && s.subscriberExecutionManagerTag!=null) {
+                //if subscriber has gone away forget about his task; but check in synch block to ensure setTaskPreprocessor call above will win in any race
                 ((BasicExecutionManager)em).clearTaskPreprocessorForTag(s.subscriberExecutionManagerTag)
+            }
+            if (s.deliveryQueue!=null && (subscriptionsBySubscriber.size() == 0 || !subscriptionsBySubscriber.get(s.subscriber))) {
+                //any events still pending are drained by the queue's own task
+                queuesBySubscriberTag.remove(s.subscriberExecutionManagerTag, s.deliveryQueue)
+            }
+    
+    		//FIXME ALEX - this seems wrong
+            ((BasicExecutionManager) em).setTaskSchedulerForTag(s.subscriberExecutionManagerTag, SingleThreadedScheduler.class);
         }
-
-		//FIXME ALEX - this seems wrong
-        ((BasicExecutionManager) em).setTaskSchedulerForTag(s.subscriberExecutionManagerTag, SingleThreadedScheduler.class);
         return b1
     }
 
@@ -167,11 +299,14 @@ public class LocalSubscriptionManager implements SubscriptionManager {
     }
 
     public Set<SubscriptionHandle> getSubscriptionsForEntitySensor(Entity source, Sensor sensor) {
-        Set<SubscriptionHandle> subscriptions = []
-        subscriptions.addAll(subscriptionsByToken.get(makeEntitySensorToken(source, sensor)) ?: Collections.emptySet())
-        subscriptions.addAll(subscriptionsByToken.get(makeEntitySensorToken(null, sensor)) ?: Collections.emptySet())
-        subscriptions.addAll(subscriptionsByToken.get(makeEntitySensorToken(source, null)) ?: Collections.emptySet())
-        subscriptions.addAll(subscriptionsByToken.get(makeEntitySensorToken(null, null)) ?: Collections.emptySet())
+        Set<Subscription> matching = new LinkedHashSet<Subscription>()
+        subscriptionsByEntitySensor.addMatching(source, sensor, matching)
+        Set<SubscriptionHandle> subscriptions = new LinkedHashSet<SubscriptionHandle>()
+        for (Subscription s : matching) {
+            // report the subscription made by the caller, rather than internal per-member or membership-tracking ones 
+            if (s.indexedBy!=null) subscriptions.add(s.indexedBy)
+            else if (!s.deliverInPublishingThread) subscriptions.add(s)
+        }
         subscriptions
     }
 
@@ -191,16 +326,47 @@ public class LocalSubscriptionManager implements SubscriptionManager {
         if (LOG.isTraceEnabled()) LOG.trace "$this got a $event event"
         totalEventsPublishedCount.incrementAndGet()
         
-        Set<Subscription> subs = getSubscriptionsForEntitySensor(event.source, event.sensor)
-        if (subs) {
-            if (LOG.isTraceEnabled()) LOG.trace "sending {}, {} to {}", event.sensor.name, event, subs.join(",")
-            for (Subscription s in subs) {
-                if (s.eventFilter!=null && !s.eventFilter.apply(event))
+        // each subscription is in exactly one bucket, so no need to de-dup (or to collect them in a new set)
+        Entity source = event.source
+        Sensor sensor = event.sensor
+        deliver(subscriptionsByEntitySensor.get(source, sensor), event)
+        if (source!=null) deliver(subscriptionsByEntitySensor.get(null, sensor), event)
+        if (sensor!=null) deliver(subscriptionsByEntitySensor.get(source, null), event)
+        if (source!=null && sensor!=null) deliver(subscriptionsByEntitySensor.get(null, null), event)
+    }
+
+    private <T> void deliver(Subscription[] subs, SensorEvent<T> event) {
+        if (subs.length==0) return
+        if (LOG.isTraceEnabled()) LOG.trace "sending {}, {} to {}", event.sensor.name, event, subs.join(",")
+        for (int i=0; i<subs.length; i++) {
+            Subscription s = subs[i]
+            if (s.eventFilter!=null && !s.eventFilter.apply(event))
+                continue;
+            if (s.deliverInPublishingThread) {
+                s.listener.onEvent(event)
+                continue;
+            }
+            if (s.conflatedEvents!=null && event.sensor in AttributeSensor) {
+                Object key = s.conflatedEvents.offer(event)
+                if (key==null) {
+                    //superseded an event which is still awaiting delivery; that delivery will pick up this value
+                    totalEventsConflatedCount.incrementAndGet()
                     continue;
-                def final sAtClosureCreation = s
-                em.submit(tag: s.subscriberExecutionManagerTag, { sAtClosureCreation.listener.onEvent(event) })
-                totalEventsDeliveredCount.incrementAndGet()
+                }
+                if (s.deliveryQueue!=null) {
+                    s.deliveryQueue.addConflated(s, key)
+                } else {
+                    em.submit(tag: s.subscriberExecutionManagerTag, { 
+                        SensorEvent latest = s.conflatedEvents.take(key)
+                        if (latest!=null) s.listener.onEvent(latest) 
+                    })
+                }
+            } else if (s.deliveryQueue!=null) {
+                s.deliveryQueue.add(s, event)
+            } else {
+                em.submit(tag: s.subscriberExecutionManagerTag, { s.listener.onEvent(event) })
             }
+            totalEventsDeliveredCount.incrementAndGet()
         }
     }
 }
@@ -217,6 +383,16 @@ class Subscription<T> implements SubscriptionHandle {
     public SensorEventListener<T> listener;
     public Map<String,Object> flags;
     public Predicate<SensorEvent<T>> eventFilter;
+    /** shared by all of the subscriber's subscriptions, if delivering in batches; otherwise null */
+    public SubscriberEventQueue deliveryQueue;
+    /** latest pending attribute events, if the subscription conflates them; otherwise null */
+    public ConflatedEvents conflatedEvents;
+    /** for subscriptions to children or members, the index of per-member subscriptions which back it; otherwise null */
+    public MembershipIndexedSubscription membershipIndex;
+    /** for a per-member subscription, the subscription to children or members which it backs; otherwise null */
+    public Subscription indexedBy;
+    /** for internal subscriptions only, where the listener is cheap and must see events before the publisher continues */
+    public boolean deliverInPublishingThread;
 
     @Override
     public boolean equals(Object other) {
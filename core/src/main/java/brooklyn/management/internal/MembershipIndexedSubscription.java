@@ -0,0 +1,138 @@
+package brooklyn.management.internal;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import brooklyn.entity.Entity;
+import brooklyn.event.Sensor;
+import brooklyn.event.SensorEvent;
+import brooklyn.event.SensorEventListener;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Backs a subscription to a sensor on all children (or members) of an entity, by registering a subscription
+ * directly against each current child in the {@link SubscriptionRegistry}, and tracking the parent's
+ * added/removed notifications to keep those up to date.
+ * <p>
+ * Events from entities which are not children are therefore never matched against the subscription, and the
+ * cost of publishing depends only on the subscriptions registered for the publishing entity (rather than on
+ * every such subscription in the system, each testing the parent's children).
+ * <p>
+ * The added/removed notifications are handled in the publishing thread (see {@link Subscription#deliverInPublishingThread}),
+ * so the index is updated before the parent emits anything further.
+ */
+class MembershipIndexedSubscription {
+
+    private final LocalSubscriptionManager manager;
+    private final Subscription<?> handle;
+    private final Entity parent;
+    private final Supplier<? extends Collection<Entity>> currentMembers;
+
+    private final ConcurrentMap<String, Subscription<?>> subscriptionsByMemberId = new ConcurrentHashMap<String, Subscription<?>>();
+    private final Subscription<Entity> addedTracker;
+    private final Subscription<Entity> removedTracker;
+    private final AtomicBoolean active = new AtomicBoolean(true);
+
+    MembershipIndexedSubscription(LocalSubscriptionManager manager, Subscription<?> handle, Entity parent,
+            Sensor<Entity> memberAdded, Sensor<Entity> memberRemoved, Supplier<? extends Collection<Entity>> currentMembers) {
+        this.manager = manager;
+        this.handle = handle;
+        this.parent = parent;
+        this.currentMembers = currentMembers;
+
+        // check against the actual members, in case the parent re-emits (e.g. propagates) such notifications
+        // from other entities; this is only done when membership changes, not on each event delivered
+        addedTracker = newTracker(memberAdded, new SensorEventListener<Entity>() {
+            public void onEvent(SensorEvent<Entity> event) {
+                if (isCurrentMember(event.getValue())) addMember(event.getValue());
+            }
+        });
+        removedTracker = newTracker(memberRemoved, new SensorEventListener<Entity>() {
+            public void onEvent(SensorEvent<Entity> event) {
+                if (!isCurrentMember(event.getValue())) removeMember(event.getValue());
+            }
+        });
+    }
+
+    private Subscription<Entity> newTracker(Sensor<Entity> sensor, SensorEventListener<Entity> listener) {
+        Subscription<Entity> result = new Subscription<Entity>();
+        result.subscriber = handle.subscriber;
+        result.producer = parent;
+        result.sensor = sensor;
+        result.listener = listener;
+        result.deliverInPublishingThread = true;
+        return result;
+    }
+
+    /** Starts tracking membership changes, then indexes the current members. */
+    public void start() {
+        manager.subscriptionsByEntitySensor.add(addedTracker);
+        manager.subscriptionsByEntitySensor.add(removedTracker);
+        for (Entity member : currentMembers.get()) {
+            addMember(member);
+        }
+        // a member removed between our taking the snapshot and indexing it would otherwise linger
+        Collection<Entity> members = currentMembers.get();
+        for (Subscription<?> s : subscriptionsByMemberId.values()) {
+            if (!members.contains(s.producer)) removeMember(s.producer);
+        }
+    }
+
+    private boolean isCurrentMember(Entity e) {
+        return e!=null && currentMembers.get().contains(e);
+    }
+
+    public int getNumMembers() {
+        return subscriptionsByMemberId.size();
+    }
+
+    void addMember(Entity member) {
+        if (member==null || !active.get()) return;
+        Subscription<?> s = newMemberSubscription(member);
+        if (subscriptionsByMemberId.putIfAbsent(member.getId(), s)==null) {
+            manager.subscriptionsByEntitySensor.add(s);
+            // may have been closed concurrently, after which nobody else will remove it
+            if (!active.get() && subscriptionsByMemberId.remove(member.getId(), s)) {
+                manager.subscriptionsByEntitySensor.remove(s);
+            }
+        }
+    }
+
+    void removeMember(Entity member) {
+        if (member==null) return;
+        Subscription<?> s = subscriptionsByMemberId.remove(member.getId());
+        if (s!=null) manager.subscriptionsByEntitySensor.remove(s);
+    }
+
+    /** Stops tracking and removes all member subscriptions; returns false if already closed. */
+    public boolean close() {
+        if (!active.compareAndSet(true, false)) return false;
+        manager.subscriptionsByEntitySensor.remove(addedTracker);
+        manager.subscriptionsByEntitySensor.remove(removedTracker);
+        for (String memberId : subscriptionsByMemberId.keySet()) {
+            Subscription<?> s = subscriptionsByMemberId.remove(memberId);
+            if (s!=null) manager.subscriptionsByEntitySensor.remove(s);
+        }
+        return true;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Subscription<?> newMemberSubscription(Entity member) {
+        Subscription s = new Subscription();
+        s.producer = member;
+        s.sensor = handle.sensor;
+        s.listener = handle.listener;
+        s.subscriber = handle.subscriber;
+        s.subscriberExecutionManagerTag = handle.subscriberExecutionManagerTag;
+        s.subscriberExecutionManagerTagSupplied = handle.subscriberExecutionManagerTagSupplied;
+        s.flags = handle.flags;
+        s.eventFilter = handle.eventFilter;
+        s.deliveryQueue = handle.deliveryQueue;
+        s.conflatedEvents = handle.conflatedEvents;
+        s.indexedBy = handle;
+        return s;
+    }
+}
@@ -0,0 +1,123 @@
+package brooklyn.management.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.event.SensorEvent;
+import brooklyn.management.ExecutionManager;
+
+/**
+ * Pending events for a single subscriber (i.e. a single subscriber execution-manager tag), used by
+ * {@link LocalSubscriptionManager} when batched delivery is enabled.
+ * <p>
+ * Events are appended in publish order. At most one delivery task per subscriber is outstanding at any time:
+ * it is submitted (with the subscriber's tag) when the first event arrives at an idle queue, and it then
+ * drains everything that has been queued, including events published while it is running. Delivery order
+ * per subscriber is therefore the publish order, as it is when submitting a task per event.
+ */
+class SubscriberEventQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(SubscriberEventQueue.class);
+
+    private final LocalSubscriptionManager manager;
+    private final ExecutionManager em;
+    private final Object tag;
+
+    private final Queue<PendingEvent> queue = new ConcurrentLinkedQueue<PendingEvent>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private final Runnable drainJob = new Runnable() {
+        public void run() { drain(); }
+        @Override public String toString() { return "batched subscription delivery for "+tag; }
+    };
+
+    SubscriberEventQueue(LocalSubscriptionManager manager, ExecutionManager em, Object tag) {
+        this.manager = manager;
+        this.em = em;
+        this.tag = tag;
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public <T> void add(Subscription<T> s, SensorEvent<T> event) {
+        queue.add(new PendingEvent(s, event));
+        manager.onEventQueued(depth.incrementAndGet());
+        if (scheduled.compareAndSet(false, true)) {
+            submitDrain();
+        }
+    }
+
+    /**
+     * Queues delivery of whatever is the newest pending event for the given key of the subscription's
+     * {@link ConflatedEvents} when this entry is reached.
+     */
+    public void addConflated(Subscription<?> s, Object key) {
+        queue.add(new PendingEvent(s, key));
+        manager.onEventQueued(depth.incrementAndGet());
+        if (scheduled.compareAndSet(false, true)) {
+            submitDrain();
+        }
+    }
+
+    private void submitDrain() {
+        Map<String,Object> flags = new LinkedHashMap<String,Object>(2);
+        flags.put("tag", tag);
+        em.submit(flags, drainJob);
+    }
+
+    private void drain() {
+        int count = 0;
+        while (true) {
+            PendingEvent pe;
+            while ((pe = queue.poll()) != null) {
+                depth.decrementAndGet();
+                count++;
+                SensorEvent event = (pe.conflatedKey!=null) ? pe.subscription.conflatedEvents.take(pe.conflatedKey) : pe.event;
+                // null if conflated events were discarded by unsubscribe
+                if (event==null) continue;
+                try {
+                    pe.subscription.listener.onEvent(event);
+                } catch (Throwable t) {
+                    LOG.warn("Error delivering event "+event+" to "+pe.subscription+" (continuing): "+t, t);
+                }
+            }
+            scheduled.set(false);
+            // another event may have been added after our last poll but before we cleared the flag;
+            // if so (and nobody else has scheduled a drain) keep going in this task
+            if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) break;
+        }
+        manager.onEventsDrained(count);
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriberEventQueue["+tag+"; depth="+depth.get()+"]";
+    }
+
+    private static class PendingEvent {
+        final Subscription subscription;
+        final SensorEvent event;
+        final Object conflatedKey;
+
+        PendingEvent(Subscription subscription, SensorEvent event) {
+            this.subscription = subscription;
+            this.event = event;
+            this.conflatedKey = null;
+        }
+
+        PendingEvent(Subscription subscription, Object conflatedKey) {
+            this.subscription = subscription;
+            this.event = null;
+            this.conflatedKey = conflatedKey;
+        }
+    }
+}
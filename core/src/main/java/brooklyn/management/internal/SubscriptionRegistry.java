@@ -0,0 +1,163 @@
+package brooklyn.management.internal;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import brooklyn.entity.Entity;
+import brooklyn.event.Sensor;
+
+/**
+ * An index of {@link Subscription}s keyed directly on the (producer, sensor) pair, with separate buckets
+ * for subscriptions on any sensor of a producer, on a sensor of any producer, and on everything.
+ * <p>
+ * Each bucket is an immutable array which is replaced (copy-on-write) whenever a subscription is added
+ * or removed, so the lookups done on every {@link LocalSubscriptionManager#publish(brooklyn.event.SensorEvent)}
+ * neither lock nor allocate. Writers are lock-free, apart from briefly synchronizing on a single producer's
+ * bucket map (so that an emptied map can be discarded safely).
+ */
+class SubscriptionRegistry {
+
+    static final Subscription[] NONE = new Subscription[0];
+
+    /** producer id to sensor name to subscriptions */
+    private final ConcurrentMap<String, ConcurrentMap<String, Subscription[]>> byProducerAndSensor = new ConcurrentHashMap<String, ConcurrentMap<String, Subscription[]>>();
+    /** producer id to subscriptions on all of its sensors */
+    private final ConcurrentMap<String, Subscription[]> byProducer = new ConcurrentHashMap<String, Subscription[]>();
+    /** sensor name to subscriptions on that sensor for all producers */
+    private final ConcurrentMap<String, Subscription[]> bySensor = new ConcurrentHashMap<String, Subscription[]>();
+    /** subscriptions on all sensors of all producers */
+    private final AtomicReference<Subscription[]> wildcard = new AtomicReference<Subscription[]>(NONE);
+
+    public void add(Subscription<?> s) {
+        if (s.producer==null && s.sensor==null) {
+            while (true) {
+                Subscription[] old = wildcard.get();
+                if (wildcard.compareAndSet(old, append(old, s))) return;
+            }
+        } else if (s.producer==null) {
+            add(bySensor, s.sensor.getName(), s);
+        } else if (s.sensor==null) {
+            add(byProducer, s.producer.getId(), s);
+        } else {
+            String producerId = s.producer.getId();
+            while (true) {
+                ConcurrentMap<String, Subscription[]> sensors = byProducerAndSensor.get(producerId);
+                if (sensors==null) {
+                    ConcurrentMap<String, Subscription[]> newSensors = new ConcurrentHashMap<String, Subscription[]>(4);
+                    sensors = byProducerAndSensor.putIfAbsent(producerId, newSensors);
+                    if (sensors==null) sensors = newSensors;
+                }
+                synchronized (sensors) {
+                    // the map may have been discarded (as empty) since we looked it up; if so try again
+                    if (byProducerAndSensor.get(producerId)!=sensors) continue;
+                    add(sensors, s.sensor.getName(), s);
+                    return;
+                }
+            }
+        }
+    }
+
+    public boolean remove(Subscription<?> s) {
+        if (s.producer==null && s.sensor==null) {
+            while (true) {
+                Subscription[] old = wildcard.get();
+                int i = indexOf(old, s);
+                if (i<0) return false;
+                if (wildcard.compareAndSet(old, without(old, i))) return true;
+            }
+        } else if (s.producer==null) {
+            return remove(bySensor, s.sensor.getName(), s);
+        } else if (s.sensor==null) {
+            return remove(byProducer, s.producer.getId(), s);
+        } else {
+            String producerId = s.producer.getId();
+            ConcurrentMap<String, Subscription[]> sensors = byProducerAndSensor.get(producerId);
+            if (sensors==null) return false;
+            synchronized (sensors) {
+                boolean result = remove(sensors, s.sensor.getName(), s);
+                if (sensors.isEmpty()) byProducerAndSensor.remove(producerId, sensors);
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Returns the subscriptions registered against exactly the given producer and sensor, where null
+     * for either means the subscriptions which wildcard it (i.e. it does not match all buckets).
+     * Never returns null; the returned array must not be modified.
+     */
+    public Subscription[] get(Entity producer, Sensor<?> sensor) {
+        Subscription[] result;
+        if (producer==null && sensor==null) {
+            return wildcard.get();
+        } else if (producer==null) {
+            result = bySensor.get(sensor.getName());
+        } else if (sensor==null) {
+            result = byProducer.get(producer.getId());
+        } else {
+            ConcurrentMap<String, Subscription[]> sensors = byProducerAndSensor.get(producer.getId());
+            result = (sensors!=null) ? sensors.get(sensor.getName()) : null;
+        }
+        return (result!=null) ? result : NONE;
+    }
+
+    /** Adds to the given collection all subscriptions which match an event from the given producer and sensor. */
+    public void addMatching(Entity producer, Sensor<?> sensor, Collection<? super Subscription> result) {
+        addAll(result, get(producer, sensor));
+        if (producer!=null) addAll(result, get(null, sensor));
+        if (sensor!=null) addAll(result, get(producer, null));
+        if (producer!=null && sensor!=null) addAll(result, get(null, null));
+    }
+
+    private static void addAll(Collection<? super Subscription> result, Subscription[] subs) {
+        for (Subscription s : subs) result.add(s);
+    }
+
+    private static <K> void add(ConcurrentMap<K, Subscription[]> map, K key, Subscription<?> s) {
+        while (true) {
+            Subscription[] old = map.get(key);
+            if (old==null) {
+                if (map.putIfAbsent(key, new Subscription[] {s})==null) return;
+            } else {
+                if (map.replace(key, old, append(old, s))) return;
+            }
+        }
+    }
+
+    private static <K> boolean remove(ConcurrentMap<K, Subscription[]> map, K key, Subscription<?> s) {
+        while (true) {
+            Subscription[] old = map.get(key);
+            if (old==null) return false;
+            int i = indexOf(old, s);
+            if (i<0) return false;
+            if (old.length==1) {
+                if (map.remove(key, old)) return true;
+            } else {
+                if (map.replace(key, old, without(old, i))) return true;
+            }
+        }
+    }
+
+    private static int indexOf(Subscription[] subs, Subscription<?> s) {
+        for (int i=0; i<subs.length; i++) {
+            if (subs[i].equals(s)) return i;
+        }
+        return -1;
+    }
+
+    private static Subscription[] append(Subscription[] subs, Subscription<?> s) {
+        Subscription[] result = new Subscription[subs.length+1];
+        System.arraycopy(subs, 0, result, 0, subs.length);
+        result[subs.length] = s;
+        return result;
+    }
+
+    private static Subscription[] without(Subscription[] subs, int index) {
+        Subscription[] result = new Subscription[subs.length-1];
+        System.arraycopy(subs, 0, result, 0, index);
+        System.arraycopy(subs, index+1, result, index, subs.length-index-1);
+        return result;
+    }
+}
@@ -9,11 +9,13 @@ import brooklyn.event.SensorEvent;
 import brooklyn.event.SensorEventListener
 import brooklyn.management.ManagementContext
 import brooklyn.management.SubscriptionHandle
+import brooklyn.management.internal.AbstractManagementContext
 import brooklyn.management.internal.BasicSubscriptionContext
 import brooklyn.management.internal.SubscriptionTracker
 import brooklyn.policy.EntityAdjunct
 import brooklyn.util.IdGenerator;
 import brooklyn.util.internal.LanguageUtils
+import brooklyn.util.task.SharedScheduler
 
 import com.google.common.collect.HashMultimap
 import com.google.common.collect.SetMultimap
@@ -29,6 +31,8 @@ abstract class AbstractEntityAdjunct implements EntityAdjunct {
     protected transient EntityLocal entity
     /** not for direct access; refer to as 'subscriptionTracker' via getter so that it is initialized */
     protected transient SubscriptionTracker _subscriptionTracker;
+    /** not for direct access; refer to as 'scheduler' via getter so that it is initialized */
+    protected transient SharedScheduler _scheduler;
     private AtomicBoolean destroyed = new AtomicBoolean(false)
 
     public String getName() { return name; }
@@ -86,6 +90,23 @@ abstract class AbstractEntityAdjunct implements EntityAdjunct {
         entity.getManagementContext();
     }
     
+    /**
+     * The management context's shared scheduler, for delayed or recurring work; schedule jobs with this adjunct as
+     * the owner, so that they are cancelled when it is destroyed (or by {@link #cancelScheduledJobs()}).
+     */
+    protected synchronized SharedScheduler getScheduler() {
+        if (_scheduler!=null) return _scheduler;
+        if (entity==null) throw new IllegalStateException("$this cannot schedule jobs because it is not associated to an entity")
+        ManagementContext mgmt = entity.getManagementContext()
+        if (!(mgmt instanceof AbstractManagementContext)) throw new IllegalStateException("$this cannot schedule jobs because the associated entity $entity is not yet managed")
+        _scheduler = ((AbstractManagementContext)mgmt).getScheduler()
+    }
+    
+    /** cancels any jobs this adjunct has scheduled with the {@link #getScheduler() scheduler} */
+    protected void cancelScheduledJobs() {
+        _scheduler?.cancelAll(this)
+    }
+    
     /** 
      * Unsubscribes and clears all managed subscriptions; is called by the owning entity when a policy is removed
      * and should always be called by any subclasses overriding this method
@@ -93,6 +114,7 @@ abstract class AbstractEntityAdjunct implements EntityAdjunct {
     public void destroy() {
         destroyed.set(true)
         subscriptionTracker?.unsubscribeAll();
+        cancelScheduledJobs();
     }
     
     @Override
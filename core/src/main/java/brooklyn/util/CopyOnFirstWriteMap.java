@@ -0,0 +1,136 @@
+package brooklyn.util;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ForwardingMapEntry;
+
+/**
+ * A map which reads through to a shared map until it is first modified, at which point it copies the shared map
+ * (into a {@link LinkedHashMap}, so preserving its order) and from then on reads and writes its own copy.
+ * The shared map is never modified, so can be unmodifiable.
+ * <p>
+ * Like {@link LinkedHashMap}, this is not thread-safe.
+ */
+public class CopyOnFirstWriteMap<K,V> extends AbstractMap<K,V> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Map<K,V> current;
+    private boolean copied = false;
+
+    public CopyOnFirstWriteMap(Map<K,V> shared) {
+        this.current = shared;
+    }
+
+    /** Whether this map has been modified, and so has its own copy. */
+    public boolean isCopied() {
+        return copied;
+    }
+
+    private Map<K,V> writable() {
+        if (!copied) {
+            current = new LinkedHashMap<K,V>(current);
+            copied = true;
+        }
+        return current;
+    }
+
+    @Override
+    public int size() {
+        return current.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return current.containsKey(key);
+    }
+
+    @Override
+    public V get(Object key) {
+        return current.get(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return writable().put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        if (m.isEmpty()) return;
+        writable().putAll(m);
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!copied && !current.containsKey(key)) return null;
+        return writable().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        if (copied) current.clear();
+        else if (!current.isEmpty()) {
+            current = new LinkedHashMap<K,V>();
+            copied = true;
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            @Override
+            public int size() {
+                return current.size();
+            }
+            @Override
+            public void clear() {
+                CopyOnFirstWriteMap.this.clear();
+            }
+            @Override
+            public Iterator<Map.Entry<K,V>> iterator() {
+                // if the map is copied part way through, this carries on over the shared map, applying changes to the copy
+                final Iterator<Map.Entry<K,V>> delegate = current.entrySet().iterator();
+                final boolean sharedWhenStarted = !copied;
+                return new Iterator<Map.Entry<K,V>>() {
+                    private Map.Entry<K,V> last;
+                    public boolean hasNext() {
+                        return delegate.hasNext();
+                    }
+                    public Map.Entry<K,V> next() {
+                        last = delegate.next();
+                        if (!sharedWhenStarted) return last;
+                        final K key = last.getKey();
+                        return new ForwardingMapEntry<K,V>() {
+                            private final Map.Entry<K,V> entry = last;
+                            @Override
+                            protected Map.Entry<K,V> delegate() {
+                                return entry;
+                            }
+                            @Override
+                            public V getValue() {
+                                return copied ? current.get(key) : entry.getValue();
+                            }
+                            @Override
+                            public V setValue(V value) {
+                                return writable().put(key, value);
+                            }
+                        };
+                    }
+                    public void remove() {
+                        if (last==null) throw new IllegalStateException();
+                        if (sharedWhenStarted) writable().remove(last.getKey());
+                        else delegate.remove();
+                        last = null;
+                    }
+                };
+            }
+        };
+    }
+}
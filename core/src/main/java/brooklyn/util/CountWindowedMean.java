@@ -0,0 +1,97 @@
+package brooklyn.util;
+
+import java.util.Arrays;
+
+/**
+ * Mean of the most recent values (up to a fixed number of them), kept in a ring buffer of primitives
+ * along with their running sum, so adding a value takes constant time and allocates nothing.
+ * <p>
+ * To stop rounding errors building up in the running sum (as values are added and dropped), it is recomputed
+ * from the buffer each time as many values have been added as the buffer holds.
+ */
+public class CountWindowedMean {
+    private final int windowSize;
+    private double[] values;
+    private int head = 0;
+    private int size = 0;
+    private double sum = 0;
+    private int addsSinceResum = 0;
+
+    /**
+     * @param windowSize the number of most recent values to keep; negative to keep all values
+     */
+    public CountWindowedMean(int windowSize) {
+        this.windowSize = windowSize;
+        this.values = new double[windowSize >= 0 ? windowSize : 16];
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public synchronized void add(double value) {
+        if (windowSize == 0) return;
+        if (size == values.length) {
+            if (windowSize > 0) {
+                // drop the oldest
+                sum -= values[head];
+                values[head] = value;
+                head = (head + 1) % values.length;
+                sum += value;
+            } else {
+                grow();
+                values[size++] = value;
+                sum += value;
+            }
+        } else {
+            values[(head + size) % values.length] = value;
+            size++;
+            sum += value;
+        }
+        if (++addsSinceResum >= values.length) resum();
+    }
+
+    /** number of values in the window */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** @return the mean of the values in the window, or null if there are none */
+    public synchronized Double getMean() {
+        return (size == 0) ? null : sum / size;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+        sum = 0;
+        addsSinceResum = 0;
+    }
+
+    private void grow() {
+        double[] newValues = new double[values.length * 2];
+        for (int i = 0; i < size; i++) {
+            newValues[i] = values[(head + i) % values.length];
+        }
+        values = newValues;
+        head = 0;
+    }
+
+    private void resum() {
+        double result = 0;
+        for (int i = 0; i < size; i++) {
+            result += values[(head + i) % values.length];
+        }
+        sum = result;
+        addsSinceResum = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        double[] inOrder = new double[size];
+        for (int i = 0; i < size; i++) {
+            inOrder[i] = values[(head + i) % values.length];
+        }
+        return "CountWindowedMean[windowSize="+windowSize+"; values="+Arrays.toString(inOrder)+"]";
+    }
+}
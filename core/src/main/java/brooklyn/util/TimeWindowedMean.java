@@ -0,0 +1,130 @@
+package brooklyn.util;
+
+/**
+ * Time-weighted mean of the values in a time window, where each value is taken to hold from the previous
+ * value's timestamp until its own (and the oldest value from the start of the window).
+ * <p>
+ * The timestamps and values are kept in ring buffers of primitives (which grow if more values arrive
+ * within the window than they hold), along with the running sum of each value weighted by the time
+ * since the previous one. Adding a value and dropping expired ones take constant time (amortized), and
+ * allocate nothing once the buffers are big enough.
+ * <p>
+ * To stop rounding errors building up in the running sum, it is recomputed from the buffers each time
+ * as many values have been added as the buffers hold.
+ */
+public class TimeWindowedMean {
+    private final long timePeriod;
+    private long[] timestamps;
+    private double[] values;
+    private int head = 0;
+    private int size = 0;
+    /** sum over all but the oldest value of: value * (its timestamp - previous timestamp) */
+    private double weightedSum = 0;
+    private int addsSinceResum = 0;
+
+    public TimeWindowedMean(long timePeriod) {
+        this(timePeriod, 16);
+    }
+
+    public TimeWindowedMean(long timePeriod, int initialCapacity) {
+        this.timePeriod = timePeriod;
+        this.timestamps = new long[Math.max(initialCapacity, 1)];
+        this.values = new double[timestamps.length];
+    }
+
+    public long getTimePeriod() {
+        return timePeriod;
+    }
+
+    /** Adds a value; timestamps are expected to be non-decreasing. */
+    public synchronized void add(long timestamp, double value) {
+        if (size > 0) {
+            weightedSum += (timestamp - timestamps[index(size-1)]) * value;
+        }
+        if (size == timestamps.length) grow();
+        int i = index(size);
+        timestamps[i] = timestamp;
+        values[i] = value;
+        size++;
+        if (++addsSinceResum >= timestamps.length) resum();
+    }
+
+    /** Drops values whose timestamp is before the start of the window ending now. */
+    public synchronized void prune(long now) {
+        long start = now - timePeriod;
+        while (size > 0 && timestamps[head] < start) {
+            if (size > 1) {
+                int next = index(1);
+                // the next value becomes the oldest, weighted from the start of the window instead
+                weightedSum -= (timestamps[next] - timestamps[head]) * values[next];
+            }
+            head = index(1);
+            size--;
+        }
+        if (size <= 1) weightedSum = 0;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /** @return timestamp of the most recent value; only valid if not empty */
+    public synchronized long getLatestTimestamp() {
+        return timestamps[index(size-1)];
+    }
+
+    /**
+     * The mean of the values (which should already have been {@link #prune(long) pruned}), weighted by
+     * the time each was valid in the window ending now, up to the latest value's timestamp.
+     *
+     * @return the weighted mean, or NaN if empty or no time in the window is covered by a value
+     */
+    public synchronized double getMean(long now) {
+        if (size == 0) return Double.NaN;
+        long start = now - timePeriod;
+        long covered = timestamps[index(size-1)] - start;
+        if (covered == 0) return Double.NaN;
+        return ((timestamps[head] - start) * values[head] + weightedSum) / covered;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+        weightedSum = 0;
+        addsSinceResum = 0;
+    }
+
+    private int index(int i) {
+        return (head + i) % timestamps.length;
+    }
+
+    private void grow() {
+        long[] newTimestamps = new long[timestamps.length * 2];
+        double[] newValues = new double[values.length * 2];
+        for (int i = 0; i < size; i++) {
+            newTimestamps[i] = timestamps[index(i)];
+            newValues[i] = values[index(i)];
+        }
+        timestamps = newTimestamps;
+        values = newValues;
+        head = 0;
+    }
+
+    private void resum() {
+        double result = 0;
+        for (int i = 1; i < size; i++) {
+            result += (timestamps[index(i)] - timestamps[index(i-1)]) * values[index(i)];
+        }
+        weightedSum = result;
+        addsSinceResum = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TimeWindowedMean[timePeriod="+timePeriod+"; size="+size+"]";
+    }
+}
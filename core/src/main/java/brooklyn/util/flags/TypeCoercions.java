@@ -17,6 +17,8 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import brooklyn.entity.basic.ClosureEntityFactory;
 import brooklyn.entity.basic.ConfigurableEntityFactory;
@@ -32,8 +34,18 @@ public class TypeCoercions {
 
     private TypeCoercions() {}
 
-    private static Map<Class,Map<Class,Function>> registeredAdapters = Collections.synchronizedMap(
-            new LinkedHashMap<Class,Map<Class,Function>>());
+    /**
+     * Adapters registered with {@link #registerAdapter(Class, Class, Function)}, by target type then source type;
+     * copied on write (under the class lock), so that coercions can read it without locking.
+     */
+    private static volatile Map<Class,Map<Class,Function>> registeredAdapters = Collections.emptyMap();
+    
+    /**
+     * How to coerce each (source type, target type) pair seen, by target type then source type, including
+     * pairs which cannot be coerced. Replaced with an empty cache whenever an adapter is registered
+     * (a lookup which started against the old adapters can then only populate the discarded cache).
+     */
+    private static volatile ConcurrentMap<Class,ConcurrentMap<Class,Coercer>> coercerCache = new ConcurrentHashMap<Class,ConcurrentMap<Class,Coercer>>();
     
     /** attempts to coerce 'value' to 'targetType', 
      * using a variety of strategies,
@@ -45,23 +57,44 @@ public class TypeCoercions {
      * value.targetTypeValue()  //handy for primitives
      * 
      * registeredAdapters.get(targetType).findFirst({ k,v -> k.isInstance(value) }, { k,v -> v.apply(value) })
+     * <p>
+     * The strategy depends only on the types, so is worked out once for each pair of value type and target type
+     * (and remembered, including if there is none).
      **/
     public static <T> T coerce(Object value, Class<T> targetType) {
         if (value==null) return null;
         if (targetType.isInstance(value)) return (T) value;
 
+        Class<?> sourceType = value.getClass();
+        ConcurrentMap<Class,ConcurrentMap<Class,Coercer>> cache = coercerCache;
+        ConcurrentMap<Class,Coercer> coercersToTarget = cache.get(targetType);
+        if (coercersToTarget==null) {
+            ConcurrentMap<Class,Coercer> newMap = new ConcurrentHashMap<Class,Coercer>();
+            coercersToTarget = cache.putIfAbsent(targetType, newMap);
+            if (coercersToTarget==null) coercersToTarget = newMap;
+        }
+        Coercer coercer = coercersToTarget.get(sourceType);
+        if (coercer==null) {
+            coercer = findCoercer(sourceType, targetType);
+            coercersToTarget.putIfAbsent(sourceType, coercer);
+        }
+        return (T) coercer.coerce(value, targetType);
+    }
+    
+    /** Forgets how each pair of types is coerced (done automatically when adapters are registered); mainly for testing. */
+    public static void clearCache() {
+        coercerCache = new ConcurrentHashMap<Class,ConcurrentMap<Class,Coercer>>();
+    }
+    
+    private static Coercer findCoercer(Class<?> sourceType, Class<?> targetType) {
         //first look for value.asType where Type is castable to targetType
         String targetTypeSimpleName = getVerySimpleName(targetType);
         if (targetTypeSimpleName!=null && targetTypeSimpleName.length()>0) {
-            for (Method m: value.getClass().getMethods()) {
+            for (Method m: sourceType.getMethods()) {
                 if (m.getName().startsWith("as") && m.getParameterTypes().length==0 &&
                         targetType.isAssignableFrom(m.getReturnType()) ) {
                     if (m.getName().equals("as"+getVerySimpleName(m.getReturnType()))) {
-                        try {
-                            return (T) m.invoke(value);
-                        } catch (Exception e) {
-                            throw new ClassCastException("Cannot coerce type "+value.getClass()+" to "+targetType.getCanonicalName()+" ("+value+"): "+m.getName()+" adapting failed, "+e);
-                        }
+                        return new MethodCoercer(m, false);
                     }
                 }
             }
@@ -71,13 +104,9 @@ public class TypeCoercions {
         for (Method m: targetType.getMethods()) {
             if (((m.getModifiers()&Modifier.STATIC)==Modifier.STATIC) && 
                     m.getName().startsWith("from") && m.getParameterTypes().length==1 &&
-                    m.getParameterTypes()[0].isInstance(value)) {
+                    m.getParameterTypes()[0].isAssignableFrom(sourceType)) {
                 if (m.getName().equals("from"+getVerySimpleName(m.getParameterTypes()[0]))) {
-                    try {
-                        return (T) m.invoke(null, value);
-                    } catch (Exception e) {
-                        throw new ClassCastException("Cannot coerce type "+value.getClass()+" to "+targetType.getCanonicalName()+" ("+value+"): "+m.getName()+" adapting failed, "+e);
-                    }
+                    return new MethodCoercer(m, true);
                 }
             }
         }
@@ -88,31 +117,79 @@ public class TypeCoercions {
         
         //primitives get run through again boxed up
         Class boxedT = UNBOXED_TO_BOXED_TYPES.get(targetType);
-        Class boxedVT = UNBOXED_TO_BOXED_TYPES.get(value.getClass());
+        Class boxedVT = UNBOXED_TO_BOXED_TYPES.get(sourceType);
         if (boxedT!=null || boxedVT!=null) {
-            try {
-                if (boxedT==null) boxedT=targetType;
-                Object boxedV;
-                if (boxedVT==null) { boxedV = value; }
-                else { boxedV = boxedVT.getConstructor(value.getClass()).newInstance(value); }
-                return (T) coerce(boxedV, boxedT);
-            } catch (Exception e) {
-                throw new ClassCastException("Cannot coerce type "+value.getClass()+" to "+targetType.getCanonicalName()+" ("+value+"): unboxing failed, "+e);
-            }
+            return new BoxingCoercer((boxedT!=null) ? boxedT : targetType, boxedVT);
         }
 
         //now look in registry - TODO use registry first?
         Map<?,?> adaptersToTarget = registeredAdapters.get(targetType);
         if (adaptersToTarget!=null) {
             for (Map.Entry e: adaptersToTarget.entrySet()) {
-                if ( ((Class)e.getKey()).isInstance(value) ) {
-                    return (T) ((Function)e.getValue()).apply(value);
+                if ( ((Class)e.getKey()).isAssignableFrom(sourceType) ) {
+                    return new AdapterCoercer((Function)e.getValue());
                 }
             }
         }
         
         //not found
-        throw new ClassCastException("Cannot coerce type "+value.getClass()+" to "+targetType.getCanonicalName()+" ("+value+"): no adapter known");
+        return NO_COERCER;
+    }
+    
+    /** A way to coerce values of one type to another. */
+    private static interface Coercer {
+        Object coerce(Object value, Class<?> targetType);
+    }
+    
+    private static final Coercer NO_COERCER = new Coercer() {
+        public Object coerce(Object value, Class<?> targetType) {
+            throw new ClassCastException("Cannot coerce type "+value.getClass()+" to "+targetType.getCanonicalName()+" ("+value+"): no adapter known");
+        }
+    };
+    
+    private static class MethodCoercer implements Coercer {
+        private final Method method;
+        private final boolean isStatic;
+        MethodCoercer(Method method, boolean isStatic) {
+            this.method = method;
+            this.isStatic = isStatic;
+        }
+        public Object coerce(Object value, Class<?> targetType) {
+            try {
+                return isStatic ? method.invoke(null, value) : method.invoke(value);
+            } catch (Exception e) {
+                throw new ClassCastException("Cannot coerce type "+value.getClass()+" to "+targetType.getCanonicalName()+" ("+value+"): "+method.getName()+" adapting failed, "+e);
+            }
+        }
+    }
+    
+    private static class BoxingCoercer implements Coercer {
+        private final Class boxedTargetType;
+        private final Class boxedValueType;
+        BoxingCoercer(Class boxedTargetType, Class boxedValueType) {
+            this.boxedTargetType = boxedTargetType;
+            this.boxedValueType = boxedValueType;
+        }
+        public Object coerce(Object value, Class<?> targetType) {
+            try {
+                Object boxedV;
+                if (boxedValueType==null) { boxedV = value; }
+                else { boxedV = boxedValueType.getConstructor(value.getClass()).newInstance(value); }
+                return TypeCoercions.coerce(boxedV, boxedTargetType);
+            } catch (Exception e) {
+                throw new ClassCastException("Cannot coerce type "+value.getClass()+" to "+targetType.getCanonicalName()+" ("+value+"): unboxing failed, "+e);
+            }
+        }
+    }
+    
+    private static class AdapterCoercer implements Coercer {
+        private final Function adapter;
+        AdapterCoercer(Function adapter) {
+            this.adapter = adapter;
+        }
+        public Object coerce(Object value, Class<?> targetType) {
+            return adapter.apply(value);
+        }
     }
     
     /** returns the simple class name, and for any inner class the portion after the $ */
@@ -163,13 +240,16 @@ public class TypeCoercions {
         return null;
     }
     
+    /** Registers a function for coercing values of the given type (or a sub-type) to the target type. */
     public synchronized static <A,B> void registerAdapter(Class<A> sourceType, Class<B> targetType, Function<A,B> fn) {
-        Map<Class, Function> sources = registeredAdapters.get(targetType);
-        if (sources==null) {
-            sources = Collections.synchronizedMap(new LinkedHashMap<Class, Function>());
-            registeredAdapters.put(targetType, sources);
-        }
+        Map<Class,Map<Class,Function>> newAdapters = new LinkedHashMap<Class,Map<Class,Function>>(registeredAdapters);
+        Map<Class,Function> sources = newAdapters.get(targetType);
+        sources = (sources==null) ? new LinkedHashMap<Class,Function>() : new LinkedHashMap<Class,Function>(sources);
         sources.put(sourceType, fn);
+        newAdapters.put(targetType, Collections.unmodifiableMap(sources));
+        registeredAdapters = Collections.unmodifiableMap(newAdapters);
+        // pairs may now be coercible which were not before, or differently
+        clearCache();
     }
     
     static {
@@ -0,0 +1,66 @@
+package brooklyn.util.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import org.slf4j.Logger;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Logs each line written to it, at debug, with a prefix, as it is written (on the writer's thread),
+ * so output such as that of an ssh command can be logged without a pipe and a {@link StreamGobbler}
+ * thread to read it. As with {@link StreamGobbler}, either newline char ends a line, and blank lines
+ * are not logged. Any partial last line is logged when the stream is flushed or closed.
+ */
+public class LoggingOutputStream extends OutputStream {
+
+    private final Logger log;
+    private final String prefix;
+    private final ByteArrayOutputStream lineSoFar = new ByteArrayOutputStream(128);
+
+    public LoggingOutputStream(Logger log, String prefix) {
+        this.log = log;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (b == '\n' || b == '\r') {
+            logLine();
+        } else {
+            lineSoFar.write(b);
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        int start = off;
+        for (int i = off; i < off+len; i++) {
+            if (b[i] == '\n' || b[i] == '\r') {
+                lineSoFar.write(b, start, i-start);
+                logLine();
+                start = i+1;
+            }
+        }
+        lineSoFar.write(b, start, off+len-start);
+    }
+
+    /** logs any partial line */
+    @Override
+    public synchronized void flush() {
+        logLine();
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    private void logLine() {
+        if (lineSoFar.size() == 0) return;
+        String line = new String(lineSoFar.toByteArray(), Charsets.UTF_8).trim();
+        lineSoFar.reset();
+        if (line.length() > 0 && log.isDebugEnabled()) log.debug(prefix+line);
+    }
+}
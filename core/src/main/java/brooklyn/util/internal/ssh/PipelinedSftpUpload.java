@@ -0,0 +1,153 @@
+package brooklyn.util.internal.ssh;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import net.schmizz.concurrent.Promise;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.PacketType;
+import net.schmizz.sshj.sftp.Request;
+import net.schmizz.sshj.sftp.Response;
+import net.schmizz.sshj.sftp.SFTPEngine;
+import net.schmizz.sshj.sftp.SFTPException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.management.Task;
+import brooklyn.util.task.BasicExecutionManager;
+import brooklyn.util.task.BasicTask;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Writes a stream to a remote file over sftp, without needing to know its length in advance,
+ * and with several write requests outstanding at once (rather than waiting for each to be acknowledged before
+ * sending the next, as sshj's own upload does) so that throughput is not limited by the round-trip time.
+ * <p>
+ * At most {@link #CHUNK_SIZE} * {@link #MAX_OUTSTANDING_WRITES} bytes are held in memory, however large the file.
+ * Progress and throughput are reported as the blocking details of the current {@link BasicTask}, if any.
+ */
+class PipelinedSftpUpload {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedSftpUpload.class);
+
+    /** Bytes per write request; 32k is the largest that all sftp servers are required to accept. */
+    static final int CHUNK_SIZE = 32*1024;
+
+    /**
+     * Max write requests awaiting acknowledgement.
+     * Defaults to 16 if system property is not set.
+     */
+    static final int MAX_OUTSTANDING_WRITES = Integer.getInteger("brooklyn.ssh.sftp.maxOutstandingWrites", 16);
+
+    /** Min interval between updates to the task's progress. */
+    static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+    private final SFTPEngine engine;
+    private final String path;
+    private final int maxOutstanding;
+
+    private long bytesWritten = 0;
+    private long startTime;
+    private long lastReportTime;
+
+    PipelinedSftpUpload(SFTPEngine engine, String path) {
+        this(engine, path, MAX_OUTSTANDING_WRITES);
+    }
+
+    PipelinedSftpUpload(SFTPEngine engine, String path, int maxOutstanding) {
+        this.engine = checkNotNull(engine, "engine");
+        this.path = checkNotNull(path, "path");
+        this.maxOutstanding = Math.max(1, maxOutstanding);
+    }
+
+    /**
+     * Creates (or truncates) the remote file and writes the whole stream to it; does not close the stream.
+     *
+     * @param expectedLength length of the stream, if known (for reporting progress), or -1
+     * @return number of bytes written
+     */
+    long upload(InputStream in, long expectedLength) throws IOException {
+        startTime = lastReportTime = System.currentTimeMillis();
+        Task<?> task = BasicExecutionManager.getCurrentTask();
+        String handle = open();
+        boolean succeeded = false;
+        try {
+            Deque<Promise<Response, SFTPException>> outstanding = new ArrayDeque<Promise<Response, SFTPException>>(maxOutstanding);
+            byte[] buf = new byte[CHUNK_SIZE];
+            while (true) {
+                int n = ByteStreams.read(in, buf, 0, buf.length);
+                if (n <= 0) break;
+                // the request takes a copy of the data, so the buffer can be re-used straight away
+                Request write = engine.newRequest(PacketType.WRITE)
+                        .putString(handle)
+                        .putUInt64(bytesWritten)
+                        .putString(buf, 0, n);
+                outstanding.addLast(engine.request(write));
+                bytesWritten += n;
+                if (outstanding.size() >= maxOutstanding) {
+                    retrieve(outstanding.removeFirst()).ensureStatusPacketIsOK();
+                }
+                reportProgress(task, expectedLength, false);
+            }
+            while (!outstanding.isEmpty()) {
+                retrieve(outstanding.removeFirst()).ensureStatusPacketIsOK();
+            }
+            succeeded = true;
+        } finally {
+            try {
+                retrieve(engine.request(engine.newRequest(PacketType.CLOSE).putString(handle))).ensureStatusPacketIsOK();
+            } catch (IOException e) {
+                if (succeeded) throw e;
+                LOG.debug("Error closing "+path+" after failed upload (continuing)", e);
+            }
+            reportProgress(task, expectedLength, true);
+        }
+        if (LOG.isDebugEnabled()) LOG.debug("Uploaded {}: {}", path, describeProgress(expectedLength));
+        return bytesWritten;
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private String open() throws IOException {
+        Request open = engine.newRequest(PacketType.OPEN)
+                .putString(path)
+                .putUInt32(OpenMode.toMask(EnumSet.of(OpenMode.WRITE, OpenMode.CREAT, OpenMode.TRUNC)))
+                .putFileAttributes(FileAttributes.EMPTY);
+        Response res = retrieve(engine.request(open));
+        res.ensurePacketTypeIs(PacketType.HANDLE);
+        return res.readString();
+    }
+
+    private Response retrieve(Promise<Response, SFTPException> promise) throws SFTPException {
+        return promise.retrieve(engine.getTimeout(), TimeUnit.SECONDS);
+    }
+
+    private void reportProgress(Task<?> task, long expectedLength, boolean done) {
+        if (!(task instanceof BasicTask)) return;
+        long now = System.currentTimeMillis();
+        if (done) {
+            ((BasicTask<?>)task).setBlockingDetails(null);
+        } else if (now - lastReportTime >= PROGRESS_INTERVAL_MILLIS) {
+            lastReportTime = now;
+            ((BasicTask<?>)task).setBlockingDetails("uploading "+path+": "+describeProgress(expectedLength));
+        }
+    }
+
+    private String describeProgress(long expectedLength) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        double kbPerSec = (bytesWritten/1024d) / (elapsed/1000d);
+        return (bytesWritten/1024)+"kB"+(expectedLength >= 0 ? " of "+(expectedLength/1024)+"kB" : "")+
+                " in "+elapsed+"ms ("+Math.round(kbPerSec)+"kB/s)";
+    }
+}
@@ -0,0 +1,391 @@
+package brooklyn.util.internal.ssh;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.util.task.SharedScheduler;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Keeps authenticated ssh connections open for re-use, e.g. by a {@link brooklyn.location.basic.SshMachineLocation}
+ * for all the commands and file transfers to its machine.
+ * <p>
+ * Callers {@link #borrow(Map)} a connected {@link SshjTool} for the given connection properties, and must
+ * {@link #release(SshjTool)} it when done (and first {@link #invalidate(SshjTool)} it if it failed).
+ * Up to {@link #getMaxSessionsPerConnection()} callers may borrow the same connection concurrently, each using its own
+ * session or sftp channel over it; beyond that, another connection is opened.
+ * <p>
+ * A connection is checked to still be connected before it is handed out, and is disconnected once it has been unused
+ * for the idle timeout (or immediately on release, if the idle timeout is 0). Idle connections are checked for
+ * by a job of the given {@link SharedScheduler} (normally the management context's), owned by the pool.
+ */
+public class SshConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SshConnectionPool.class);
+
+    /**
+     * Time for which an unused connection is kept open.
+     * Defaults to 60000 if system property is not set; 0 means connections are not re-used.
+     */
+    public static final long IDLE_TIMEOUT_MILLIS = Long.getLong("brooklyn.ssh.pool.idleTimeoutMillis", 60*1000);
+
+    /**
+     * Max number of callers to use one connection concurrently (each with its own channel).
+     * Defaults to 8 if system property is not set (sshd allows 10 sessions per connection by default).
+     */
+    public static final int MAX_SESSIONS_PER_CONNECTION = Integer.getInteger("brooklyn.ssh.pool.maxSessionsPerConnection", 8);
+
+    private final String name;
+    private final long idleTimeoutMillis;
+    private final int maxSessionsPerConnection;
+    private final SharedScheduler scheduler;
+
+    // guarded by this
+    private final Map<Map<String,?>, List<PooledConnection>> connections = new LinkedHashMap<Map<String,?>, List<PooledConnection>>();
+    private final Map<SshjTool, PooledConnection> byTool = new IdentityHashMap<SshjTool, PooledConnection>();
+    private ScheduledFuture<?> evictionCheck;
+    private boolean closed = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong opens = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong failedHealthChecks = new AtomicLong();
+    private final AtomicLong totalHandshakeNanos = new AtomicLong();
+    private final AtomicLong maxHandshakeNanos = new AtomicLong();
+
+    public SshConnectionPool(String name, SharedScheduler scheduler) {
+        this(name, IDLE_TIMEOUT_MILLIS, MAX_SESSIONS_PER_CONNECTION, scheduler);
+    }
+
+    /**
+     * @param scheduler runs the checks for idle connections
+     */
+    public SshConnectionPool(String name, long idleTimeoutMillis, int maxSessionsPerConnection, SharedScheduler scheduler) {
+        this.name = name;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxSessionsPerConnection = Math.max(1, maxSessionsPerConnection);
+        this.scheduler = checkNotNull(scheduler, "scheduler");
+    }
+
+    /**
+     * Returns a connected tool for the given properties (as accepted by {@link SshjTool#SshjTool(Map)}),
+     * re-using an open connection if there is one with a free session, or otherwise connecting a new one.
+     * Callers arriving while a connection is being opened will wait to share it, rather than each opening their own.
+     *
+     * @throws SshException if connecting fails
+     */
+    public SshjTool borrow(Map<String,?> props) {
+        List<PooledConnection> stale = new ArrayList<PooledConnection>();
+        PooledConnection result = null;
+        boolean opening = false;
+        synchronized (this) {
+            checkState(!closed, "ssh connection pool %s closed", name);
+            List<PooledConnection> candidates = connections.get(props);
+            if (candidates != null) {
+                for (Iterator<PooledConnection> it = candidates.iterator(); it.hasNext();) {
+                    PooledConnection c = it.next();
+                    if (c.broken || c.leases >= maxSessionsPerConnection) continue;
+                    if (!c.connecting && !c.tool.isConnected()) {
+                        // the other end (or the network) has dropped it; let those still using it find out for themselves
+                        failedHealthChecks.incrementAndGet();
+                        c.broken = true;
+                        if (c.leases == 0) {
+                            it.remove();
+                            byTool.remove(c.tool);
+                            stale.add(c);
+                        }
+                        continue;
+                    }
+                    c.leases++;
+                    result = c;
+                    break;
+                }
+            }
+            if (result == null) {
+                Map<String,?> key = new LinkedHashMap<String,Object>(props);
+                result = new PooledConnection(checkNotNull(newTool(key), "tool"));
+                result.tool.setPooled(true);
+                result.connecting = true;
+                result.leases = 1;
+                if (candidates == null) {
+                    candidates = new ArrayList<PooledConnection>(1);
+                    connections.put(key, candidates);
+                }
+                candidates.add(result);
+                byTool.put(result.tool, result);
+                opening = true;
+            }
+        }
+        disconnectAll(stale);
+
+        if (opening) {
+            // connect outside of the lock, so a slow handshake does not hold up callers re-using other connections
+            connect(result);
+        } else {
+            awaitConnected(result);
+            hits.incrementAndGet();
+        }
+        return result.tool;
+    }
+
+    private void connect(PooledConnection c) {
+        long start = System.nanoTime();
+        try {
+            c.tool.connect();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                c.connecting = false;
+                c.broken = true;
+                c.failure = e;
+                removeLocked(c);
+                notifyAll();
+            }
+            throw e;
+        }
+        recordHandshake(System.nanoTime() - start);
+        opens.incrementAndGet();
+        if (LOG.isDebugEnabled()) LOG.debug("Opened ssh connection {} in pool {}", c.tool, name);
+        synchronized (this) {
+            c.connecting = false;
+            notifyAll();
+        }
+    }
+
+    private synchronized void awaitConnected(PooledConnection c) {
+        try {
+            while (c.connecting) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            c.leases--;
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+        if (c.failure != null) {
+            throw new SshException("failed to connect "+c.tool+" in pool "+name, c.failure);
+        }
+    }
+
+    /** Returns a tool obtained from {@link #borrow(Map)}, for re-use by others. */
+    public void release(SshjTool tool) {
+        PooledConnection toClose = null;
+        synchronized (this) {
+            PooledConnection c = byTool.get(tool);
+            if (c == null) return;
+            c.leases--;
+            c.lastUsedNanos = System.nanoTime();
+            if (c.leases <= 0 && (c.broken || closed || idleTimeoutMillis <= 0)) {
+                removeLocked(c);
+                toClose = c;
+            } else if (c.leases <= 0) {
+                scheduleEvictionCheckLocked(idleTimeoutMillis);
+            }
+        }
+        if (toClose != null) disconnectQuietly(toClose.tool);
+    }
+
+    /**
+     * Marks the connection used by this tool as not to be handed out again (e.g. after an error using it);
+     * it is disconnected once all those using it have released it.
+     */
+    public synchronized void invalidate(SshjTool tool) {
+        PooledConnection c = byTool.get(tool);
+        if (c != null) c.broken = true;
+    }
+
+    /** Disconnects connections which have been unused for longer than the idle timeout. */
+    public void evictIdle() {
+        List<PooledConnection> idle = new ArrayList<PooledConnection>();
+        synchronized (this) {
+            evictionCheck = null;
+            long now = System.nanoTime();
+            long nextCheckMillis = -1;
+            for (List<PooledConnection> candidates : connections.values()) {
+                for (PooledConnection c : candidates) {
+                    if (c.leases > 0) continue;
+                    long idleMillis = TimeUnit.NANOSECONDS.toMillis(now - c.lastUsedNanos);
+                    if (idleMillis >= idleTimeoutMillis) {
+                        idle.add(c);
+                    } else {
+                        long remaining = idleTimeoutMillis - idleMillis;
+                        if (nextCheckMillis < 0 || remaining < nextCheckMillis) nextCheckMillis = remaining;
+                    }
+                }
+            }
+            for (PooledConnection c : idle) {
+                removeLocked(c);
+            }
+            if (nextCheckMillis >= 0) scheduleEvictionCheckLocked(nextCheckMillis);
+        }
+        evictions.addAndGet(idle.size());
+        if (LOG.isDebugEnabled() && !idle.isEmpty()) LOG.debug("Evicting {} idle ssh connection(s) from pool {}", idle.size(), name);
+        disconnectAll(idle);
+    }
+
+    /**
+     * Disconnects all unused connections, and those in use once they are released;
+     * subsequent calls to {@link #borrow(Map)} will fail.
+     */
+    public void close() {
+        List<PooledConnection> unused = new ArrayList<PooledConnection>();
+        synchronized (this) {
+            closed = true;
+            if (evictionCheck != null) {
+                evictionCheck.cancel(false);
+                evictionCheck = null;
+            }
+            for (List<PooledConnection> candidates : connections.values()) {
+                for (PooledConnection c : candidates) {
+                    if (c.leases <= 0) unused.add(c);
+                }
+            }
+            for (PooledConnection c : unused) {
+                removeLocked(c);
+            }
+        }
+        // also discards the pool's statistics in the scheduler
+        scheduler.cancelAll(this);
+        disconnectAll(unused);
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /** Creates the (unconnected) tool for a new connection; overridable for testing. */
+    protected SshjTool newTool(Map<String,?> props) {
+        return new SshjTool(props);
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public int getMaxSessionsPerConnection() {
+        return maxSessionsPerConnection;
+    }
+
+    /** Number of open connections, in use or idle. */
+    public synchronized int getNumConnections() {
+        return byTool.size();
+    }
+
+    /** Number of callers currently using a connection. */
+    public synchronized int getNumLeases() {
+        int result = 0;
+        for (PooledConnection c : byTool.values()) {
+            result += c.leases;
+        }
+        return result;
+    }
+
+    /** Number of times {@link #borrow(Map)} has re-used an open connection. */
+    public long getNumHits() {
+        return hits.get();
+    }
+
+    /** Number of connections opened (i.e. handshakes and authentications performed). */
+    public long getNumOpens() {
+        return opens.get();
+    }
+
+    /** Number of connections disconnected for being idle. */
+    public long getNumEvictions() {
+        return evictions.get();
+    }
+
+    /** Number of open connections found to have been disconnected when about to be re-used. */
+    public long getNumFailedHealthChecks() {
+        return failedHealthChecks.get();
+    }
+
+    /** Mean time to connect and authenticate a new connection. */
+    public double getMeanHandshakeMillis() {
+        long count = opens.get();
+        return (count == 0) ? 0 : ((double)totalHandshakeNanos.get()/count) / 1000000;
+    }
+
+    /** Longest time taken to connect and authenticate a new connection. */
+    public double getMaxHandshakeMillis() {
+        return ((double)maxHandshakeNanos.get()) / 1000000;
+    }
+
+    private void recordHandshake(long nanos) {
+        totalHandshakeNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxHandshakeNanos.get())) {
+            if (maxHandshakeNanos.compareAndSet(max, nanos)) break;
+        }
+    }
+
+    private void removeLocked(PooledConnection c) {
+        byTool.remove(c.tool);
+        for (Iterator<List<PooledConnection>> it = connections.values().iterator(); it.hasNext();) {
+            List<PooledConnection> candidates = it.next();
+            if (candidates.remove(c)) {
+                if (candidates.isEmpty()) it.remove();
+                break;
+            }
+        }
+    }
+
+    private void scheduleEvictionCheckLocked(long delayMillis) {
+        if (closed || evictionCheck != null) return;
+        evictionCheck = scheduler.schedule(this, new Runnable() {
+            public void run() {
+                try {
+                    evictIdle();
+                } catch (Exception e) {
+                    LOG.warn("Error evicting idle ssh connections from pool "+name, e);
+                }
+            }
+            @Override public String toString() { return "idle check for "+SshConnectionPool.this; }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void disconnectAll(List<PooledConnection> conns) {
+        for (PooledConnection c : conns) {
+            disconnectQuietly(c.tool);
+        }
+    }
+
+    private void disconnectQuietly(SshjTool tool) {
+        try {
+            tool.disconnect();
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled()) LOG.debug("Error disconnecting ssh connection "+tool+" in pool "+name+" (continuing)", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SshConnectionPool["+name+"]";
+    }
+
+    private static class PooledConnection {
+        final SshjTool tool;
+        int leases;
+        long lastUsedNanos = System.nanoTime();
+        boolean connecting;
+        boolean broken;
+        Exception failure;
+
+        PooledConnection(SshjTool tool) {
+            this.tool = tool;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package brooklyn.util.internal.ssh;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.InputStream;
+
+import net.schmizz.sshj.connection.channel.direct.Session.Command;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A command left running on a remote machine, over a connection of its own, for its output to be read
+ * as it is produced (e.g. {@code tail -F} of a log file). {@link #close()} ends the command and disconnects;
+ * a thread blocked reading its output then sees the end of the stream (or an exception).
+ */
+public class SshProcess {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SshProcess.class);
+
+    private final SshjTool ssh;
+    private final Command command;
+
+    /**
+     * @param ssh the connection the command is running on, which will be disconnected when closed
+     */
+    public SshProcess(SshjTool ssh, Command command) {
+        this.ssh = checkNotNull(ssh, "ssh");
+        this.command = checkNotNull(command, "command");
+    }
+
+    /** the command's stdout */
+    public InputStream getInputStream() {
+        return command.getInputStream();
+    }
+
+    public boolean isOpen() {
+        return command.isOpen();
+    }
+
+    public void close() {
+        try {
+            command.close();
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled()) LOG.debug("Error closing command on "+ssh+" (continuing)", e);
+        }
+        try {
+            ssh.disconnect();
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled()) LOG.debug("Error disconnecting "+ssh+" (continuing)", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SshProcess["+ssh+"]";
+    }
+}
@@ -0,0 +1,264 @@
+package brooklyn.util.internal.ssh;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.schmizz.sshj.connection.channel.direct.Session.Command;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.util.IdGenerator;
+import brooklyn.util.task.SharedScheduler;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A long-lived shell on a remote machine, to which batches of commands are sent (e.g. by a sensor adapter
+ * each time it polls), so that running them costs one round-trip rather than a new session (and script
+ * upload, and login shell) per command.
+ * <p>
+ * The shell is run without a pty, so commands are not echoed and their output is not translated. After each
+ * command the shell prints a line with a marker unique to this channel and the command's exit status; the
+ * output up to that line is the command's output. Commands' stdin is /dev/null and stderr is discarded.
+ * Commands must not read from stdin or exit the shell, and are run in a non-login shell (so should not rely
+ * on the user's profile, e.g. for the PATH).
+ * <p>
+ * The shell is started when first used, and again after any failure (including a batch taking longer than
+ * the timeout, which is enforced by a job of the given {@link SharedScheduler}, owned by the channel).
+ * The channel owns its connection, and {@link #close()} disconnects it.
+ */
+public class SshShellChannel {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SshShellChannel.class);
+
+    /**
+     * Time (in milliseconds) allowed for a batch of commands to complete, after which the shell is closed.
+     * Defaults to 30000 if system property is not set.
+     */
+    public static final long TIMEOUT_MILLIS = Long.getLong("brooklyn.ssh.shellChannel.timeoutMillis", 30*1000);
+
+    /** The exit status and output of one command in a batch. */
+    public static class Result {
+        private final int exitStatus;
+        private final String output;
+
+        public Result(int exitStatus, String output) {
+            this.exitStatus = exitStatus;
+            this.output = output;
+        }
+
+        public int getExitStatus() {
+            return exitStatus;
+        }
+
+        /** the command's stdout */
+        public String getOutput() {
+            return output;
+        }
+
+        @Override
+        public String toString() {
+            return "Result[exitStatus="+exitStatus+"; output="+output+"]";
+        }
+    }
+
+    private final SshjTool ssh;
+    private final String shellCommand;
+    private final long timeoutMillis;
+    private final SharedScheduler scheduler;
+    private final String marker = "BROOKLYN-SHELL-CHANNEL-"+IdGenerator.makeRandomId(8);
+
+    // guarded by this, except for being closed by a timed out batch's job
+    private volatile Command shell;
+    private BufferedReader reader;
+    private Writer writer;
+
+    private final AtomicLong opens = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong commands = new AtomicLong();
+
+    public SshShellChannel(SshjTool ssh, SharedScheduler scheduler) {
+        this(ssh, "/bin/sh", TIMEOUT_MILLIS, scheduler);
+    }
+
+    /**
+     * @param ssh the connection to use, which the channel will disconnect when closed
+     * @param shellCommand the shell to run, e.g. /bin/sh
+     * @param timeoutMillis time allowed for each batch of commands
+     * @param scheduler closes the shell of a batch which has timed out
+     */
+    public SshShellChannel(SshjTool ssh, String shellCommand, long timeoutMillis, SharedScheduler scheduler) {
+        this.ssh = checkNotNull(ssh, "ssh");
+        this.shellCommand = checkNotNull(shellCommand, "shellCommand");
+        this.timeoutMillis = timeoutMillis;
+        this.scheduler = checkNotNull(scheduler, "scheduler");
+    }
+
+    /**
+     * Runs the given commands in the shell, in order, in one round-trip.
+     *
+     * @return the result of each command, in the same order
+     * @throws IOException if the shell fails or is closed before all commands complete (it will be restarted for the next batch)
+     */
+    public synchronized List<Result> exec(List<String> cmds) throws IOException {
+        return execBatch(cmds, null, timeoutMillis);
+    }
+
+    /**
+     * Runs one command in the shell, allowing it the given time (rather than the channel's timeout, e.g. for a
+     * long-running install script). Its output is written to the given stream as each line is read (on the
+     * calling thread), rather than returned.
+     *
+     * @return the command's exit status
+     * @throws IOException if the shell fails or is closed before the command completes (it will be restarted for the next command)
+     */
+    public synchronized int exec(String cmd, OutputStream out, long timeoutMillis) throws IOException {
+        checkNotNull(out, "out");
+        return execBatch(Collections.singletonList(cmd), out, timeoutMillis).get(0).getExitStatus();
+    }
+
+    private List<Result> execBatch(List<String> cmds, OutputStream out, final long timeoutMillis) throws IOException {
+        if (cmds.isEmpty()) return Collections.emptyList();
+        if (shell == null || !shell.isOpen()) open();
+
+        StringBuilder script = new StringBuilder();
+        for (String cmd : cmds) {
+            // braces on their own lines, so commands ending with & or a comment still work
+            script.append("{\n").append(cmd).append("\n} </dev/null\n");
+            script.append("printf '\\n").append(marker).append(" %d\\n' $?\n");
+        }
+
+        final Command current = shell;
+        ScheduledFuture<?> timeout = scheduler.schedule(this, new Runnable() {
+            public void run() {
+                LOG.warn("Batch of commands in shell on {} took more than {}ms; closing shell", ssh, timeoutMillis);
+                closeQuietly(current);
+            }
+            @Override public String toString() { return "timeout for batch in "+SshShellChannel.this; }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            writer.write(script.toString());
+            writer.flush();
+            List<Result> result = new ArrayList<Result>(cmds.size());
+            for (int i = 0; i < cmds.size(); i++) {
+                result.add(readResult(out));
+            }
+            batches.incrementAndGet();
+            commands.addAndGet(cmds.size());
+            return result;
+        } catch (IOException e) {
+            closeShell();
+            throw e;
+        } catch (RuntimeException e) {
+            closeShell();
+            throw e;
+        } finally {
+            timeout.cancel(false);
+        }
+    }
+
+    /** Closes the shell and disconnects; the next {@link #exec(List)} will reconnect. */
+    public synchronized void close() {
+        closeShell();
+        // discards the channel's statistics in the scheduler (any batch's timeout has already been cancelled)
+        scheduler.cancelAll(this);
+        try {
+            ssh.disconnect();
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled()) LOG.debug("Error disconnecting "+ssh+" (continuing)", e);
+        }
+    }
+
+    /** number of times the shell has been started */
+    public long getNumOpens() {
+        return opens.get();
+    }
+
+    /** number of batches of commands completed */
+    public long getNumBatches() {
+        return batches.get();
+    }
+
+    /** number of commands completed */
+    public long getNumCommands() {
+        return commands.get();
+    }
+
+    private void open() throws IOException {
+        closeShell();
+        if (!ssh.isConnected()) ssh.connect();
+        shell = ssh.startCommand(shellCommand);
+        reader = new BufferedReader(new InputStreamReader(shell.getInputStream(), Charsets.UTF_8));
+        writer = new OutputStreamWriter(shell.getOutputStream(), Charsets.UTF_8);
+        // nothing reads the channel's stderr, so stop the shell's own errors filling it
+        writer.write("exec 2>/dev/null\n");
+        writer.flush();
+        opens.incrementAndGet();
+        if (LOG.isDebugEnabled()) LOG.debug("Started shell {} on {}", shellCommand, ssh);
+    }
+
+    /** reads the output of a command up to its marker; if a stream is given, the output is written to it rather than returned */
+    private Result readResult(OutputStream out) throws IOException {
+        StringBuilder output = new StringBuilder();
+        // when streaming, each line is held back until the next is read, as the last may be the newline printed before the marker
+        String pending = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(marker+" ")) {
+                if (out != null) {
+                    if (pending != null && pending.length() > 0) writeLine(out, pending);
+                    out.flush();
+                }
+                // drop the newline printed before the marker
+                if (output.length() > 0) output.setLength(output.length()-1);
+                return new Result(Integer.parseInt(line.substring(marker.length()+1).trim()), output.toString());
+            }
+            if (out != null) {
+                if (pending != null) writeLine(out, pending);
+                pending = line;
+            } else {
+                output.append(line).append('\n');
+            }
+        }
+        throw new IOException("Shell on "+ssh+" closed before command completed");
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(Charsets.UTF_8));
+        out.write('\n');
+    }
+
+    private void closeShell() {
+        Command toClose = shell;
+        shell = null;
+        reader = null;
+        writer = null;
+        if (toClose != null) closeQuietly(toClose);
+    }
+
+    private void closeQuietly(Command toClose) {
+        try {
+            toClose.close();
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled()) LOG.debug("Error closing shell on "+ssh+" (continuing)", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SshShellChannel["+ssh+"]";
+    }
+}
@@ -114,7 +114,7 @@ public class SshjClientConnection implements SshAction<SSHClient> {
     private final int connectTimeout;
     private final int sessionTimeout;
     
-    SSHClient ssh;
+    volatile SSHClient ssh;
 
     private SshjClientConnection(Builder builder) {
         this.hostAndPort = checkNotNull(builder.hostAndPort);
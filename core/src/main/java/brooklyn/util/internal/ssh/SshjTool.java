@@ -24,7 +24,6 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Throwables.getCausalChain;
 import static com.google.common.collect.Iterables.any;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -46,7 +45,6 @@ import net.schmizz.sshj.connection.channel.direct.SessionChannel;
 import net.schmizz.sshj.sftp.FileAttributes;
 import net.schmizz.sshj.sftp.SFTPClient;
 import net.schmizz.sshj.transport.TransportException;
-import net.schmizz.sshj.xfer.InMemorySourceFile;
 
 import org.apache.commons.io.input.ProxyInputStream;
 import org.bouncycastle.util.Strings;
@@ -73,7 +71,6 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
-import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.common.io.LimitInputStream;
 import com.google.common.net.HostAndPort;
@@ -84,8 +81,14 @@ import com.google.common.net.HostAndPort;
  * The implementation is based on a combination of the existing brooklyn SshJschTool,
  * and the jclouds SshjSshClient.
  * <p>
- * Not thread-safe. Use a different SshjTool for each concurrent thread. 
- * If passing from one thread to another, ensure code goes through a synchronized block.
+ * Once connected, commands and file transfers may be run concurrently from different threads:
+ * each opens its own session or sftp channel, multiplexed over the one ssh connection
+ * (which is how {@link SshConnectionPool} shares a connection).
+ * Connecting and disconnecting are synchronized, but will disrupt any operations in progress.
+ * <p>
+ * A failed operation is retried (up to sshTries times) after closing its own session or channel; a tool not in a
+ * pool also reconnects before retrying, whereas a pooled tool leaves its connection to the pool, so as not to disrupt
+ * the others using it (the caller invalidates it if the operation still fails).
  */
 public class SshjTool implements SshTool {
 
@@ -130,6 +133,7 @@ public class SshjTool implements SshTool {
     private String privateKey;
     private File privateKeyFile;
     private boolean strictHostKeyChecking;
+    private volatile boolean pooled;
 
     public static Builder builder() {
         return new Builder();
@@ -261,7 +265,7 @@ public class SshjTool implements SshTool {
     }
 
     @Override
-    public void connect() {
+    public synchronized void connect() {
         try {
             acquire(sshClientConnection);
         } catch (Exception e) {
@@ -275,7 +279,7 @@ public class SshjTool implements SshTool {
     }
 
     @Override
-    public void disconnect() {
+    public synchronized void disconnect() {
         if (LOG.isDebugEnabled()) LOG.debug("Disconnecting {}", toString());
         try {
             sshClientConnection.clear();
@@ -288,6 +292,16 @@ public class SshjTool implements SshTool {
     public boolean isConnected() {
         return sshClientConnection.isConnected();
     }
+
+    /** Whether this tool's connection is shared by the callers of a {@link SshConnectionPool}. */
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    /** Marks this tool as shared by a pool, so a failed operation does not disconnect it; see {@link #acquire(SshAction)}. */
+    void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
     
     @Override
     public int transferFileTo(Map<String,?> props, InputStream input, String pathAndFileOnRemoteServer) {
@@ -433,6 +447,39 @@ public class SshjTool implements SshTool {
         return result.getExitStatus();
     }
 
+    /**
+     * Starts the given command in a new session (without a pty, so input is not echoed), leaving it running
+     * for the caller to write to its stdin and read its stdout, e.g. a shell for a {@link SshShellChannel}.
+     * The caller must close the returned command.
+     *
+     * @throws SshException
+     */
+    public Command startCommand(final String command) {
+        return acquire(new SshAction<Command>() {
+            private Session session;
+
+            @Override
+            public void clear() throws TransportException, ConnectionException {
+                if (session != null) {
+                    session.close();
+                    session = null;
+                }
+            }
+
+            @Override
+            public Command create() throws Exception {
+                checkConnected();
+                session = sshClientConnection.ssh.startSession();
+                return session.exec(command);
+            }
+
+            @Override
+            public String toString() {
+                return "Command(command=[" + command + "])";
+            }
+        });
+    }
+
     private String toScript(List<String> commands, Map<String,?> env) {
         List<String> allcmds = toCommandSequence(commands, env);
         
@@ -486,17 +533,26 @@ public class SshjTool implements SshTool {
                 if (LOG.isTraceEnabled()) LOG.trace("<< ({}) acquired {}", toString(), returnVal);
                 return returnVal;
             } catch (Exception from) {
+                // a pooled connection is shared, so only close what this action opened
+                boolean reconnect = !pooled || connection == sshClientConnection;
                 try {
-                    disconnect();
+                    if (reconnect) disconnect();
+                    else connection.clear();
                 } catch (Exception e1) {
-                    LOG.warn("<< ("+toString()+") error closing connection", from);
+                    LOG.warn("<< ("+toString()+") error closing "+(reconnect ? "connection" : connection.toString()), e1);
                 }
                 if (i + 1 == sshTries) {
                     throw propagate(from, errorMessage + " (out of retries - max " + sshTries + ")");
+                } else if (connection instanceof PutFileAction && !((PutFileAction)connection).isRepeatable()) {
+                    // a retry would upload the rest of the partly read stream, as though it were the whole file
+                    throw propagate(from, errorMessage + " (not retried, as the contents cannot be read again)");
+                } else if (!reconnect && !isConnected()) {
+                    // the pool discards the connection when the caller invalidates it, after which others reconnect
+                    throw propagate(from, errorMessage + " (pooled connection lost)");
                 } else {
                     LOG.info("<< " + errorMessage + " (attempt " + (i + 1) + " of " + sshTries + "): " + from.getMessage());
                     backoffForAttempt(i + 1, errorMessage + ": " + from.getMessage());
-                    if (connection != sshClientConnection)
+                    if (reconnect && connection != sshClientConnection)
                         connect();
                     continue;
                 }
@@ -506,32 +562,35 @@ public class SshjTool implements SshTool {
         return null;
     }
 
-    private final SshAction<SFTPClient> sftpConnection = new SshAction<SFTPClient>() {
+    /** A new action for each use, as a connected tool may have several sftp channels open concurrently. */
+    private SshAction<SFTPClient> newSftpAction() {
+        return new SshAction<SFTPClient>() {
 
-        private SFTPClient sftp;
+            private SFTPClient sftp;
 
-        @Override
-        public void clear() {
-            if (sftp != null)
-                try {
-                    sftp.close();
-                } catch (IOException e) {
-                    Throwables.propagate(e);
-                }
-        }
+            @Override
+            public void clear() {
+                if (sftp != null)
+                    try {
+                        sftp.close();
+                    } catch (IOException e) {
+                        Throwables.propagate(e);
+                    }
+            }
 
-        @Override
-        public SFTPClient create() throws IOException {
-            checkConnected();
-            sftp = sshClientConnection.ssh.newSFTPClient();
-            return sftp;
-        }
+            @Override
+            public SFTPClient create() throws IOException {
+                checkConnected();
+                sftp = sshClientConnection.ssh.newSFTPClient();
+                return sftp;
+            }
 
-        @Override
-        public String toString() {
-            return "SFTPClient()";
-        }
-    };
+            @Override
+            public String toString() {
+                return "SFTPClient()";
+            }
+        };
+    }
 
     private class GetFileAction implements SshAction<Payload> {
         private final String path;
@@ -549,7 +608,7 @@ public class SshjTool implements SshTool {
 
         @Override
         public Payload create() throws Exception {
-            sftp = acquire(sftpConnection);
+            sftp = acquire(newSftpAction());
             return Payloads.newInputStreamPayload(new CloseFtpChannelOnCloseInputStream(
                     sftp.getSFTPEngine().open(path).getInputStream(), sftp));
         }
@@ -593,21 +652,18 @@ public class SshjTool implements SshTool {
                 }
         }
 
+        /** whether the contents can be read again, so that a failed upload can be retried */
+        boolean isRepeatable() {
+            return contents.isRepeatable();
+        }
+
         @Override
         public Void create() throws Exception {
-            sftp = acquire(sftpConnection);
+            sftp = acquire(newSftpAction());
             try {
-                sftp.put(new InMemorySourceFile() {
-                    @Override public String getName() {
-                        return path;
-                    }
-                    @Override public long getLength() {
-                        return contents.getContentMetadata().getContentLength();
-                    }
-                    @Override public InputStream getInputStream() throws IOException {
-                        return checkNotNull(contents.getInput(), "inputstream for path %s", path);
-                    }
-                }, path);
+                Long length = contents.getContentMetadata().getContentLength();
+                InputStream input = checkNotNull(contents.getInput(), "inputstream for path %s", path);
+                new PipelinedSftpUpload(sftp.getSFTPEngine(), path).upload(input, (length != null) ? length : -1);
                 sftp.chmod(path, permissionsMask);
                 if (lastAccessDate > 0) {
                     sftp.setattr(path, new FileAttributes.Builder()
@@ -853,36 +909,18 @@ public class SshjTool implements SshTool {
     }
 
     private Payload toPayload(InputStream input, long length) {
+        if (length < 0) return toPayload(input);
         InputStreamPayload payload = new InputStreamPayload(new LimitInputStream(input, length));
         payload.getContentMetadata().setContentLength(length);
         return payload;
     }
     
+    /**
+     * The stream is uploaded as it is read (see {@link PipelinedSftpUpload}), so its length need not be known in advance
+     * and it need not be held in memory; but it can only be read once, so a failed upload is not retried.
+     */
     private Payload toPayload(InputStream input) {
-        /*
-         * TODO sshj needs to know the length of the InputStream to copy the file:
-         *   java.lang.NullPointerException
-         *     at brooklyn.util.internal.ssh.SshjTool$PutFileAction$1.getLength(SshjTool.java:574)
-         *     at net.schmizz.sshj.sftp.SFTPFileTransfer$Uploader.upload(SFTPFileTransfer.java:174)
-         *     at net.schmizz.sshj.sftp.SFTPFileTransfer$Uploader.access$100(SFTPFileTransfer.java:162)
-         *     at net.schmizz.sshj.sftp.SFTPFileTransfer.upload(SFTPFileTransfer.java:61)
-         *     at net.schmizz.sshj.sftp.SFTPClient.put(SFTPClient.java:248)
-         *     at brooklyn.util.internal.ssh.SshjTool$PutFileAction.create(SshjTool.java:569)
-         * 
-         * Unfortunately that requires consuming the input stream to find out! We can't just do:
-         *   new InputStreamPayload(input)
-         * 
-         * This is nasty: we have to hold the entire file in-memory.
-         * It's worth a look at changing sshj to not need the length, if possible.
-         */
-        try {
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            ByteStreams.copy(input, byteArrayOutputStream);
-            return new ByteArrayPayload(byteArrayOutputStream.toByteArray());
-        } catch (IOException e) {
-            LOG.warn("Error consuming stream", e);
-            throw Throwables.propagate(e);
-        }
+        return new InputStreamPayload(input);
     }
     
     private static <T> T getMandatoryVal(Map<String,?> map, String key, Class<T> clazz) {
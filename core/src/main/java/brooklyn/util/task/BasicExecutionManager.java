@@ -3,7 +3,6 @@ package brooklyn.util.task;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -13,14 +12,10 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -53,6 +48,51 @@ public class BasicExecutionManager implements ExecutionManager {
      */
     private static final boolean RENAME_THREADS = Boolean.parseBoolean(System.getProperty("brooklyn.executionManager.renameThreads"));
     
+    /**
+     * Whether to run tasks on bounded thread pools (see {@link #BasicExecutionManager(boolean)}).
+     * <p>
+     * Defaults to false if system property is not set.
+     */
+    private static final boolean BOUNDED = Boolean.parseBoolean(System.getProperty("brooklyn.executionManager.bounded"));
+    
+    /** max threads for the non-blocking lane when bounded; defaults to twice the number of processors */
+    private static final int NON_BLOCKING_THREADS = Integer.getInteger("brooklyn.executionManager.nonBlockingThreads", 2*Runtime.getRuntime().availableProcessors());
+    
+    /** max threads for the blocking lane when bounded; defaults to 200 */
+    private static final int BLOCKING_THREADS = Integer.getInteger("brooklyn.executionManager.blockingThreads", 200);
+    
+    /** max tasks queued in each lane when bounded, beyond which submitters run tasks themselves; defaults to 10000 */
+    private static final int QUEUE_CAPACITY = Integer.getInteger("brooklyn.executionManager.queueCapacity", 10000);
+    
+    /**
+     * Granularity (in milliseconds) of the timer used for {@link ScheduledTask}s; they run up to this much after they are due.
+     * <p>
+     * Defaults to 10 if system property is not set.
+     */
+    private static final long SCHEDULER_TICK_MILLIS = Long.getLong("brooklyn.executionManager.schedulerTickMillis", 10L);
+    
+    /**
+     * Max number of completed tasks retained per tag (for tasks whose {@link ExpirationPolicy} is not
+     * {@link ExpirationPolicy#IMMEDIATE}), oldest being forgotten first; -1 for no limit.
+     * Can be overridden per tag with {@link #setTaskRetentionForTag(Object, int, long)}.
+     * <p>
+     * Defaults to 1000 if system property is not set.
+     */
+    private static final int MAX_COMPLETED_TASKS_PER_TAG = Integer.getInteger("brooklyn.executionManager.maxCompletedTasksPerTag", 1000);
+    
+    /**
+     * Max time (in milliseconds) for which completed tasks are retained per tag; -1 for no limit.
+     * <p>
+     * Defaults to -1 if system property is not set.
+     */
+    private static final long MAX_COMPLETED_TASK_AGE_MILLIS = Long.getLong("brooklyn.executionManager.maxCompletedTaskAgeMillis", -1L);
+    
+    /**
+     * Flag which can be passed on submission to indicate the task is short and does not block
+     * (e.g. event delivery), so it can use the non-blocking lane.
+     */
+    public static final String NON_BLOCKING_FLAG = "nonBlocking";
+    
     private static class PerThreadCurrentTaskHolder {
         public static final ThreadLocal<Task> perThreadCurrentTask = new ThreadLocal<Task>();
     }
@@ -72,20 +112,45 @@ public class BasicExecutionManager implements ExecutionManager {
         }
     };
     
-    private ExecutorService runner = 
-		new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), daemonThreadFactory);
-//      above is Executors.newCachedThreadPool(daemonThreadFactory)  but timeout of 1s rather than 60s for better shutdown!
+    /** lane for tasks which may block for a long time (ssh, provisioning, effectors); and all tasks, if not bounded */
+    private final InstrumentedThreadPoolExecutor runner;
+    
+    /** lane for short non-blocking tasks, including those run via a {@link TaskScheduler}; same as {@link #runner} if not bounded */
+    private final InstrumentedThreadPoolExecutor nonBlockingRunner;
         
-	private ScheduledExecutorService delayedRunner = new ScheduledThreadPoolExecutor(1, daemonThreadFactory);
+    /** runs {@link ScheduledTask}s; see {@link TimingWheelScheduler} */
+    private final TimingWheelScheduler delayedRunner = new TimingWheelScheduler("scheduled-tasks", SCHEDULER_TICK_MILLIS, daemonThreadFactory);
+    
+    /** runs delayed and recurring jobs of entities and policies, timed by {@link #delayedRunner} and run in {@link #runner} */
+    private final SharedScheduler sharedScheduler;
 	
-    // TODO Could have a set of all knownTasks; but instead we're having a separate set per tag,
-    // so the same task could be listed multiple times if it has multiple tags...
-
-    //access to the below is synchronized in code in this class, to allow us to preserve order while guaranteeing thread-safe
-    //(but more testing is needed before we are sure it is thread-safe!)
-    //synch blocks are as finely grained as possible for efficiency
-    //Not using a CopyOnWriteArraySet for each, because profiling showed this being a massive perf bottleneck.
-    private ConcurrentMap<Object,Set<Task>> tasksByTag = new ConcurrentHashMap();
+    public BasicExecutionManager() {
+        this(BOUNDED);
+    }
+    
+    /**
+     * @param bounded whether to use bounded thread pools, with separate lanes for short non-blocking tasks (event delivery,
+     *        and anything else run via a {@link TaskScheduler} or submitted with the {@link #NON_BLOCKING_FLAG}) and for other tasks;
+     *        thread counts and queue sizes are taken from system properties <code>brooklyn.executionManager.nonBlockingThreads</code>,
+     *        <code>brooklyn.executionManager.blockingThreads</code> and <code>brooklyn.executionManager.queueCapacity</code>.
+     *        If false, a single pool is used which starts a new thread whenever none is idle.
+     *        <p>
+     *        Note that when bounded, tasks which block waiting for other tasks in the same lane can starve it,
+     *        so the blocking lane should be sized generously, and event listeners should hand off any long-running work.
+     */
+    public BasicExecutionManager(boolean bounded) {
+        if (bounded) {
+            runner = InstrumentedThreadPoolExecutor.newBounded("blocking", BLOCKING_THREADS, QUEUE_CAPACITY, daemonThreadFactory);
+            nonBlockingRunner = InstrumentedThreadPoolExecutor.newBounded("non-blocking", NON_BLOCKING_THREADS, QUEUE_CAPACITY, daemonThreadFactory);
+        } else {
+            runner = InstrumentedThreadPoolExecutor.newUnbounded("default", daemonThreadFactory);
+            nonBlockingRunner = runner;
+        }
+        sharedScheduler = new SharedScheduler("shared", delayedRunner, runner.getRejectingExecutor());
+    }
+	
+    /** tasks by tag; see {@link TaskTagIndex} */
+    private final TaskTagIndex tasksByTag = new TaskTagIndex(MAX_COMPLETED_TASKS_PER_TAG, MAX_COMPLETED_TASK_AGE_MILLIS);
 
     private ConcurrentMap<Object, TaskPreprocessor> preprocessorByTag = new ConcurrentHashMap();
 
@@ -104,6 +169,46 @@ public class BasicExecutionManager implements ExecutionManager {
 	
     public void shutdownNow() {
         runner.shutdownNow();
+        nonBlockingRunner.shutdownNow();
+        delayedRunner.shutdownNow();
+    }
+    
+    /**
+     * Scheduler for delayed and recurring jobs (sensor polls, policy re-evaluations, etc), run on this manager's
+     * threads rather than each job's owner having its own; see {@link SharedScheduler}.
+     */
+    public SharedScheduler getSharedScheduler() {
+        return sharedScheduler;
+    }
+    
+    /** whether separate bounded lanes are in use */
+    public boolean isBounded() {
+        return runner!=nonBlockingRunner;
+    }
+    
+    /** the pool for tasks which may block; this is the only pool if not {@link #isBounded() bounded} */
+    public InstrumentedThreadPoolExecutor getBlockingExecutor() {
+        return runner;
+    }
+    
+    /** the pool for short non-blocking tasks; the same as {@link #getBlockingExecutor()} if not {@link #isBounded() bounded} */
+    public InstrumentedThreadPoolExecutor getNonBlockingExecutor() {
+        return nonBlockingRunner;
+    }
+    
+    /** number of tasks waiting for a thread, across all lanes */
+    public int getNumQueuedTasks() {
+        return runner.getQueueDepth() + (isBounded() ? nonBlockingRunner.getQueueDepth() : 0);
+    }
+    
+    /** number of tasks which a saturated lane could not accept (and which were run by the submitter), across all lanes */
+    public long getTotalTasksRejected() {
+        return runner.getRejectedCount() + (isBounded() ? nonBlockingRunner.getRejectedCount() : 0);
+    }
+    
+    /** number of threads currently in the pools, across all lanes */
+    public int getNumPoolThreads() {
+        return runner.getPoolSize() + (isBounded() ? nonBlockingRunner.getPoolSize() : 0);
     }
     
     public long getTotalTasksSubmitted() {
@@ -118,47 +223,39 @@ public class BasicExecutionManager implements ExecutionManager {
         return activeTaskCount.get();
     }
     
-    private Set<Task> getMutableTasksWithTag(Object tag) {
-        tasksByTag.putIfAbsent(tag, Collections.synchronizedSet(new LinkedHashSet<Task>()));
-        return tasksByTag.get(tag);
-    }
-
     public Set<Task<?>> getTasksWithTag(Object tag) {
-        Set<Task> result = getMutableTasksWithTag(tag);
-        synchronized (result) {
-            return (Set)Collections.unmodifiableSet(new LinkedHashSet<Task>(result));
-        }
+        return tasksByTag.getTasksWithTag(tag);
     }
     
     public Set<Task<?>> getTasksWithAnyTag(Iterable tags) {
-        Set result = new LinkedHashSet<Task>();
-        Iterator ti = tags.iterator();
-        while (ti.hasNext()) {
-            result.addAll(getTasksWithTag(ti.next()));
-        }
-        return result;
+        return tasksByTag.getTasksWithAnyTag(tags);
     }
 
+    /** starts from the tag with the fewest tasks, and checks each of those against the other tags */
     public Set<Task<?>> getTasksWithAllTags(Iterable tags) {
-        //NB: for this method retrieval for multiple tags could be made (much) more efficient (if/when it is used with multiple tags!)
-        //by first looking for the least-used tag, getting those tasks, and then for each of those tasks
-        //checking whether it contains the other tags (looking for second-least used, then third-least used, etc)
-        Set result = new LinkedHashSet<Task>();
-        boolean first = true;
-        Iterator ti = tags.iterator();
-        while (ti.hasNext()) {
-            Object tag = ti.next();
-            if (first) { 
-                first = false;
-                result.addAll(getTasksWithTag(tag));
-            } else {
-                result.retainAll(getTasksWithTag(tag));
-            }
-        }
-        return result;
+        return tasksByTag.getTasksWithAllTags(tags);
     }
 
-    public Set<Object> getTaskTags() { return tasksByTag.keySet(); }
+    public Set<Object> getTaskTags() { return tasksByTag.getTags(); }
+
+    /** number of tasks known with the given tag (running, or completed and retained) */
+    public int getNumTasksWithTag(Object tag) {
+        return tasksByTag.getNumTasksWithTag(tag);
+    }
+
+    /**
+     * Sets how many completed tasks with the given tag are retained, and for how long (-1 meaning no limit),
+     * for tasks submitted with an {@link ExpirationPolicy} other than {@link ExpirationPolicy#IMMEDIATE};
+     * a task is forgotten for a tag once it is the oldest beyond either limit. 
+     */
+    public void setTaskRetentionForTag(Object tag, int maxCompletedTasks, long maxAgeMillis) {
+        tasksByTag.setRetention(tag, maxCompletedTasks, maxAgeMillis);
+    }
+
+    /** As {@link #setTaskRetentionForTag(Object, int, long)}, for all tags which have not had specific limits set. */
+    public void setDefaultTaskRetention(int maxCompletedTasks, long maxAgeMillis) {
+        tasksByTag.setDefaultRetention(maxCompletedTasks, maxAgeMillis);
+    }
 
     public Task<?> submit(Runnable r) { return submit(new LinkedHashMap(1), r); }
     public Task<?> submit(Map<?,?> flags, Runnable r) { return submit(flags, new BasicTask(flags, r)); }
@@ -185,34 +282,72 @@ public class BasicExecutionManager implements ExecutionManager {
 	protected Task submitNewScheduledTask(final Map flags, final ScheduledTask task) {
 		task.submitTimeUtc = System.currentTimeMillis();
 		if (!task.isDone()) {
-			task.result = delayedRunner.schedule(new Callable() { public Object call() {
-				if (task.startTimeUtc==-1) task.startTimeUtc = System.currentTimeMillis();
-				final BasicTask taskScheduled = (BasicTask) task.newTask();
-				taskScheduled.submittedByTask = task;
-				final Callable oldJob = taskScheduled.job;
-				taskScheduled.job = new Callable() { public Object call() {
-					task.recentRun = taskScheduled;
-					Object result;
+			// the same timer entry is re-armed for each iteration
+			TimingWheelScheduler.Entry entry = (TimingWheelScheduler.Entry) task.result;
+			if (entry==null) {
+				entry = delayedRunner.newEntry(new Callable() { public Object call() {
+					if (task.startTimeUtc==-1) task.startTimeUtc = System.currentTimeMillis();
+					final BasicTask taskScheduled = (BasicTask) task.newTask();
+					taskScheduled.submittedByTask = task;
+					final Callable oldJob = taskScheduled.job;
+					taskScheduled.job = new Callable() { public Object call() {
+						task.recentRun = taskScheduled;
+						Object result;
+						try {
+						    result = oldJob.call();
+						} catch (Exception e) { throw Throwables.propagate(e); }
+						task.runCount++;
+						if (task.period!=null) {
+							task.delay = task.period;
+							submitNewScheduledTask(flags, task);
+						}
+						return result;
+					}};
+					// hand the submission to the blocking lane, so that when it is saturated the iteration is not run
+					// here by the caller-runs policy, holding up every other timer; it is tried again shortly instead
 					try {
-					    result = oldJob.call();
-					} catch (Exception e) { throw Throwables.propagate(e); }
-					task.runCount++;
-					if (task.period!=null) {
-						task.delay = task.period;
-						submitNewScheduledTask(flags, task);
+						runner.getRejectingExecutor().execute(new Runnable() { public void run() {
+							submit(taskScheduled);
+						}});
+					} catch (RejectedExecutionException e) {
+						if (log.isDebugEnabled()) log.debug("Blocking lane rejected "+task+"; will retry", e);
+						scheduleUnlessCancelled((TimingWheelScheduler.Entry) task.result,
+								System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SharedScheduler.REJECTED_RETRY_DELAY_MILLIS));
+						return null;
 					}
-					return result;
-				}};
-				task.nextRun = taskScheduled;
-				return submit(taskScheduled);
-			}},
-			task.delay.toMilliseconds(), TimeUnit.MILLISECONDS);
+					task.nextRun = taskScheduled;
+					return taskScheduled;
+				}
+				@Override public String toString() { return "scheduler for "+task; }
+				});
+				task.result = entry;
+				entry.schedule(task.getInitialDelayMillis(), TimeUnit.MILLISECONDS);
+			} else if (task.isFixedRate()) {
+				long periodNanos = TimeUnit.MILLISECONDS.toNanos(task.delay.toMilliseconds());
+				long next = entry.getDeadlineNanos() + periodNanos;
+				long now = System.nanoTime();
+				if (periodNanos > 0 && next < now) {
+					// skip the runs we have missed, rather than running them back-to-back
+					next += ((now - next) / periodNanos + 1) * periodNanos;
+				}
+				scheduleUnlessCancelled(entry, next);
+			} else {
+				scheduleUnlessCancelled(entry, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(task.delay.toMilliseconds()));
+			}
 		} else {
 			task.endTimeUtc = System.currentTimeMillis();
 		}
 		return task;
 	}
 
+	private void scheduleUnlessCancelled(TimingWheelScheduler.Entry entry, long deadlineNanos) {
+		try {
+			entry.scheduleAt(deadlineNanos);
+		} catch (CancellationException e) {
+			// cancelled while the last iteration was running; nothing more to do
+		}
+	}
+
     protected <T> Task<T> submitNewTask(final Map flags, final Task<T> task) {
         if (task instanceof ScheduledTask)
             return submitNewScheduledTask(flags, (ScheduledTask)task);
@@ -267,6 +402,8 @@ public class BasicExecutionManager implements ExecutionManager {
         if (schedulers!=null && !schedulers.isEmpty()) {
 			if (schedulers.size()>1) log.warn("multiple schedulers detected, using only the first, for "+task+": "+schedulers);
             future = schedulers.iterator().next().submit(job);
+        } else if (Boolean.TRUE.equals(flags.get(NON_BLOCKING_FLAG))) {
+            future = nonBlockingRunner.submit(job);
         } else {
             future = runner.submit(job);
         }
@@ -285,9 +422,7 @@ public class BasicExecutionManager implements ExecutionManager {
         if (flags.get("tag")!=null) ((BasicTask)task).tags.add(flags.remove("tag"));
         if (flags.get("tags")!=null) ((BasicTask)task).tags.addAll((Collection)flags.remove("tags"));
 
-        for (Object tag: ((BasicTask)task).tags) {
-            getMutableTasksWithTag(tag).add(task);
-        }
+        tasksByTag.add((BasicTask)task);
         
         List tagLinkedPreprocessors = new ArrayList();
         for (Object tag: ((BasicTask)task).tags) {
@@ -348,9 +483,9 @@ public class BasicExecutionManager implements ExecutionManager {
         ExpirationPolicy expirationPolicy = (ExpirationPolicy) flags.get("expirationPolicy");
         if (expirationPolicy==null) expirationPolicy = ExpirationPolicy.IMMEDIATE;
         if (expirationPolicy == ExpirationPolicy.IMMEDIATE) {
-            for (Object t : ((BasicTask)task).tags) {
-                getMutableTasksWithTag(t).remove(task);
-            }
+            tasksByTag.remove((BasicTask)task);
+        } else {
+            tasksByTag.retainCompleted((BasicTask)task);
         }
     }
 
@@ -448,7 +583,7 @@ public class BasicExecutionManager implements ExecutionManager {
      */
     public void setTaskSchedulerForTag(Object tag, TaskScheduler scheduler) {
         synchronized (schedulerByTag) {
-            scheduler.injectExecutor(runner);
+            scheduler.injectExecutor(nonBlockingRunner);
 
             Object old = schedulerByTag.put(tag, scheduler);
             if (old!=null && old!=scheduler) {
@@ -137,6 +137,9 @@ public class BasicTask<T> extends BasicTaskStub implements Task<T> {
 
     protected ExecutionManager em = null;
 
+    /** order of submission to the execution manager, used by its {@link TaskTagIndex} */
+    long submissionSequence = -1;
+
     void initExecutionManager(ExecutionManager em) {
         this.em = em;
     }
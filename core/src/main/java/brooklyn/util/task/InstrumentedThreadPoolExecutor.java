@@ -0,0 +1,122 @@
+package brooklyn.util.task;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ThreadPoolExecutor} used as one of the lanes of a {@link BasicExecutionManager},
+ * which reports its queue depth and counts the submissions it could not accept.
+ * <p>
+ * When a bounded pool has all its threads busy and its queue full, the submitting thread runs the job itself
+ * (as {@link ThreadPoolExecutor.CallerRunsPolicy}), so a burst slows down its producers rather than
+ * growing without limit. Each such rejection is counted (see {@link #getRejectedCount()}).
+ * Submitters which must not run jobs themselves (such as a timer thread) can use {@link #getRejectingExecutor()}.
+ * Once the pool is shut down, all submissions are rejected with {@link RejectedExecutionException} (and not counted).
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+    private static final Logger log = LoggerFactory.getLogger(InstrumentedThreadPoolExecutor.class);
+
+    private final String name;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /** set while submitting through {@link #rejectingExecutor}, so the job is rejected rather than run by the caller */
+    private final ThreadLocal<Boolean> rejectInCaller = new ThreadLocal<Boolean>();
+
+    private final Executor rejectingExecutor = new Executor() {
+        public void execute(Runnable command) {
+            rejectInCaller.set(Boolean.TRUE);
+            try {
+                InstrumentedThreadPoolExecutor.this.execute(command);
+            } finally {
+                rejectInCaller.remove();
+            }
+        }
+        @Override public String toString() { return "rejecting view of "+InstrumentedThreadPoolExecutor.this; }
+    };
+
+    /**
+     * Creates a pool which grows on demand with no limit on threads, and hands each job straight to a thread
+     * (as {@link java.util.concurrent.Executors#newCachedThreadPool(ThreadFactory)}, but with a 1s keep-alive
+     * for better shutdown).
+     */
+    public static InstrumentedThreadPoolExecutor newUnbounded(String name, ThreadFactory threadFactory) {
+        return new InstrumentedThreadPoolExecutor(name, 0, Integer.MAX_VALUE, 1L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), threadFactory);
+    }
+
+    /**
+     * Creates a pool with at most the given number of threads (which time out when idle),
+     * queueing up to <code>queueCapacity</code> jobs beyond those.
+     */
+    public static InstrumentedThreadPoolExecutor newBounded(String name, int maxThreads, int queueCapacity, ThreadFactory threadFactory) {
+        InstrumentedThreadPoolExecutor result = new InstrumentedThreadPoolExecutor(name, maxThreads, maxThreads, 10L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity), threadFactory);
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
+    protected InstrumentedThreadPoolExecutor(String name, int coreThreads, int maxThreads, long keepAlive, TimeUnit unit,
+            BlockingQueue<Runnable> queue, ThreadFactory threadFactory) {
+        super(coreThreads, maxThreads, keepAlive, unit, queue, threadFactory);
+        this.name = name;
+        setRejectedExecutionHandler(new CountingCallerRunsPolicy());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * A view of this pool which, when it is saturated, throws {@link RejectedExecutionException}
+     * rather than running the job in the submitting thread (the rejection is still counted).
+     */
+    public Executor getRejectingExecutor() {
+        return rejectingExecutor;
+    }
+
+    /** number of jobs waiting for a thread */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /** number of jobs which could not be accepted (and so were run by the submitting thread, or rejected) */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "InstrumentedThreadPoolExecutor["+name+"; threads="+getPoolSize()+"/"+getMaximumPoolSize()+
+                "; active="+getActiveCount()+"; queued="+getQueueDepth()+"; rejected="+getRejectedCount()+"]";
+    }
+
+    private class CountingCallerRunsPolicy implements RejectedExecutionHandler {
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                // not a saturation; and dropping the job silently would leave its future never completing
+                throw new RejectedExecutionException(InstrumentedThreadPoolExecutor.this+" is shut down; rejected "+r);
+            }
+            boolean reject = rejectInCaller.get()!=null;
+            long count = rejectedCount.incrementAndGet();
+            if (count==1 || (count%1000)==0) {
+                log.warn(InstrumentedThreadPoolExecutor.this+" is saturated; "+(reject ? "rejecting job" : "running job in submitting thread")+
+                        " ("+count+" times so far)");
+            }
+            if (reject) {
+                throw new RejectedExecutionException(InstrumentedThreadPoolExecutor.this+" is saturated; rejected "+r);
+            }
+            r.run();
+        }
+    }
+}
@@ -21,6 +21,12 @@ class ScheduledTask extends BasicTask {
 	protected TimeDuration period = null;
 	/** optional, set as flag in constructor; defaults to null meaning no limit */
 	protected Integer maxIterations = null;
+	/** whether each period is measured from when the previous run was due (fixed-rate), rather than from when it
+	 * finished (fixed-delay, the default), set as flag in constructor; runs which would already be overdue are skipped */
+	protected boolean fixedRate = false;
+	/** optional maximum random amount to add to the initial delay, set as flag in constructor,
+	 * so that many tasks created at once (e.g. polls for a new cluster) do not all run together */
+	protected TimeDuration jitter = null;
 	
 	protected int runCount=0;
 	protected Task recentRun, nextRun;
@@ -37,6 +43,17 @@ class ScheduledTask extends BasicTask {
 		delay = flags.remove("delay") ?: 0*TimeUnit.SECONDS;
 		period = flags.remove("period") ?: null;
 		maxIterations = flags.remove("maxIterations") ?: null;
+		fixedRate = flags.remove("fixedRate") ?: false;
+		jitter = flags.remove("jitter") ?: null;
+	}
+	
+	public boolean isFixedRate() { fixedRate }
+	
+	/** the initial delay, plus a random amount up to the jitter (if set), in milliseconds */
+	protected long getInitialDelayMillis() {
+		long result = delay.toMilliseconds()
+		if (jitter!=null && jitter.toMilliseconds()>0) result += (long)(Math.random()*jitter.toMilliseconds())
+		return result
 	}
 	
 	public Task newTask() { taskFactory.call() }
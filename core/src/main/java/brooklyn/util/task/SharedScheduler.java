@@ -0,0 +1,465 @@
+package brooklyn.util.task;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs delayed and recurring jobs (sensor polls, policy re-evaluations, metrics refreshes, etc) for many owners
+ * on shared threads, instead of each owner having its own {@link ScheduledExecutorService}, and threads.
+ * <p>
+ * Jobs are timed by a {@link TimingWheelScheduler} and run in the given executor (normally the blocking lane of the
+ * {@link BasicExecutionManager}), so they may block, though they hold a pool thread while they do.
+ * A job never overlaps with itself: its next run is only scheduled once the previous one has finished.
+ * Jobs scheduled with {@link #scheduleSerial(Object, Runnable, long, TimeUnit)} also never overlap with the owner's
+ * other serial jobs, as though the owner had a single-threaded executor of its own.
+ * Unlike with a {@link ScheduledExecutorService}, a periodic job which throws an exception is logged and keeps running.
+ * <p>
+ * The executor is called from the wheel thread, so should reject jobs when saturated rather than run them in the
+ * calling thread (see {@link InstrumentedThreadPoolExecutor#getRejectingExecutor()}), as that would hold up every
+ * other timer. A rejected job is tried again after {@link #REJECTED_RETRY_DELAY_MILLIS}, until it is cancelled
+ * or the wheel is shut down.
+ * <p>
+ * Each job is scheduled on behalf of an owner (typically an entity or policy). The jobs, runs and CPU time used are
+ * recorded per owner (see {@link #getOwnerStats(Object)}), until all of an owner's jobs are cancelled with
+ * {@link #cancelAll(Object)}, as is done when an entity is unmanaged or a policy destroyed.
+ */
+public class SharedScheduler {
+    private static final Logger log = LoggerFactory.getLogger(SharedScheduler.class);
+
+    /** delay before handing a job to the executor again, after the executor rejected it */
+    public static final long REJECTED_RETRY_DELAY_MILLIS = 100;
+
+    private final String name;
+    private final TimingWheelScheduler wheel;
+    private final Executor executor;
+
+    private final ConcurrentMap<Object, OwnerStats> statsByOwner = new ConcurrentHashMap<Object, OwnerStats>();
+    /** serial queues of cancelled owners which were still running a job, for the owner's next serial jobs to wait for */
+    private final ConcurrentMap<Object, SerialQueue> drainingQueues = new ConcurrentHashMap<Object, SerialQueue>();
+    private final AtomicLong totalScheduled = new AtomicLong();
+    private final AtomicLong totalRuns = new AtomicLong();
+    private final AtomicLong totalRejected = new AtomicLong();
+    private final AtomicLong totalCpuTimeNanos = new AtomicLong();
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported();
+
+    public SharedScheduler(String name, TimingWheelScheduler wheel, Executor executor) {
+        if (wheel==null) throw new NullPointerException("wheel");
+        if (executor==null) throw new NullPointerException("executor");
+        this.name = name;
+        this.wheel = wheel;
+        this.executor = executor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Runs the job once, after the given delay. */
+    public ScheduledFuture<?> schedule(Object owner, Runnable job, long delay, TimeUnit unit) {
+        return submit(owner, job, delay, 0, false, unit);
+    }
+
+    /**
+     * Runs the job once, after the given delay, but never at the same time as any other serial job of the same owner;
+     * if one is running when this is due, this runs (in the same pool thread) when it finishes.
+     * Serial jobs of an owner run in the order they fall due.
+     */
+    public ScheduledFuture<?> scheduleSerial(Object owner, Runnable job, long delay, TimeUnit unit) {
+        return submit(owner, job, delay, 0, true, unit);
+    }
+
+    /**
+     * Runs the job after the given initial delay, and then every period (measured from when each run was due);
+     * runs missed because the previous one overran are skipped, rather than run back-to-back.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Object owner, Runnable job, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) throw new IllegalArgumentException("period must be positive, not "+period);
+        return submit(owner, job, initialDelay, unit.toNanos(period), false, unit);
+    }
+
+    /** Runs the job after the given initial delay, and then again each time the given delay after the previous run finishes. */
+    public ScheduledFuture<?> scheduleWithFixedDelay(Object owner, Runnable job, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) throw new IllegalArgumentException("delay must be positive, not "+delay);
+        return submit(owner, job, initialDelay, -unit.toNanos(delay), false, unit);
+    }
+
+    /**
+     * Cancels all jobs of the given owner, interrupting any which are running, and discards its statistics.
+     * A serial job still running (e.g. not responding to the interrupt) continues to hold up the owner's
+     * subsequent serial jobs, as though it had not been cancelled, until it finishes.
+     * @return the number of jobs cancelled
+     */
+    public int cancelAll(Object owner) {
+        OwnerStats stats = statsByOwner.get(owner);
+        if (stats==null) return 0;
+        SerialQueue queue = stats.serialQueue;
+        if (queue.isActive()) {
+            // before removing the stats, so that any new stats for the owner will take over this queue
+            drainingQueues.put(owner, queue);
+            if (!queue.isActive()) drainingQueues.remove(owner, queue);
+        }
+        statsByOwner.remove(owner, stats);
+        int count = 0;
+        for (Job job : new ArrayList<Job>(stats.jobs)) {
+            if (job.cancel(true)) count++;
+        }
+        if (count>0 && log.isDebugEnabled()) log.debug("Cancelled {} scheduled job(s) of {} in {}", new Object[] {count, owner, this});
+        return count;
+    }
+
+    /** statistics for the jobs of the given owner, or null if it has none (or they have all been {@link #cancelAll(Object) cancelled}) */
+    public OwnerStats getOwnerStats(Object owner) {
+        return statsByOwner.get(owner);
+    }
+
+    /** owners whose jobs are known (scheduled or already run), and have not been {@link #cancelAll(Object) cancelled} */
+    public Set<Object> getOwners() {
+        return Collections.unmodifiableSet(statsByOwner.keySet());
+    }
+
+    /** number of jobs currently scheduled, across all owners */
+    public int getNumJobs() {
+        int result = 0;
+        for (OwnerStats stats : statsByOwner.values()) result += stats.getNumJobs();
+        return result;
+    }
+
+    /** number of jobs ever scheduled */
+    public long getTotalScheduled() {
+        return totalScheduled.get();
+    }
+
+    /** number of times any job has been run */
+    public long getTotalRuns() {
+        return totalRuns.get();
+    }
+
+    /** number of times the executor has rejected a job which was due, so that it had to be tried again */
+    public long getTotalRejected() {
+        return totalRejected.get();
+    }
+
+    /** CPU time used by all job runs, in nanoseconds; 0 if the JVM does not support measuring thread CPU time */
+    public long getTotalCpuTimeNanos() {
+        return totalCpuTimeNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedScheduler["+name+"; owners="+statsByOwner.size()+"; runs="+totalRuns.get()+"]";
+    }
+
+    private ScheduledFuture<?> submit(Object owner, Runnable job, long initialDelay, long periodNanos, boolean serial, TimeUnit unit) {
+        if (owner==null) throw new NullPointerException("owner");
+        if (job==null) throw new NullPointerException("job");
+        OwnerStats stats = statsByOwner.get(owner);
+        if (stats==null) {
+            // take over the queue of a cancelled serial job still running, so new serial jobs wait for it
+            SerialQueue draining = drainingQueues.get(owner);
+            OwnerStats newStats = new OwnerStats(this, owner, draining);
+            stats = statsByOwner.putIfAbsent(owner, newStats);
+            if (stats==null) {
+                stats = newStats;
+                if (draining!=null) drainingQueues.remove(owner, draining);
+            }
+        }
+        Job result = new Job(stats, job, periodNanos, serial);
+        stats.jobs.add(result);
+        totalScheduled.incrementAndGet();
+        result.entry.schedule(initialDelay, unit);
+        return result;
+    }
+
+    private long currentThreadCpuTime() {
+        return (cpuTimeSupported && threadMXBean.isThreadCpuTimeEnabled()) ? threadMXBean.getCurrentThreadCpuTime() : -1;
+    }
+
+    /** Jobs, runs and time used on behalf of one owner. */
+    public static class OwnerStats {
+        private final Object owner;
+        final Set<Job> jobs = Collections.newSetFromMap(new ConcurrentHashMap<Job, Boolean>());
+        private final AtomicLong numRuns = new AtomicLong();
+        private final AtomicLong numFailures = new AtomicLong();
+        private final AtomicLong cpuTimeNanos = new AtomicLong();
+        private final AtomicLong runTimeNanos = new AtomicLong();
+        final SerialQueue serialQueue;
+
+        OwnerStats(SharedScheduler scheduler, Object owner, SerialQueue serialQueue) {
+            this.owner = owner;
+            this.serialQueue = (serialQueue!=null) ? serialQueue : scheduler.new SerialQueue(owner);
+        }
+
+        public Object getOwner() {
+            return owner;
+        }
+
+        /** number of this owner's jobs currently scheduled (or running) */
+        public int getNumJobs() {
+            return jobs.size();
+        }
+
+        /** number of times this owner's jobs have been run */
+        public long getNumRuns() {
+            return numRuns.get();
+        }
+
+        /** number of runs which threw an exception */
+        public long getNumFailures() {
+            return numFailures.get();
+        }
+
+        /** CPU time used by this owner's job runs, in nanoseconds; 0 if the JVM does not support measuring thread CPU time */
+        public long getCpuTimeNanos() {
+            return cpuTimeNanos.get();
+        }
+
+        /** elapsed time spent in this owner's job runs, in nanoseconds */
+        public long getRunTimeNanos() {
+            return runTimeNanos.get();
+        }
+
+        @Override
+        public String toString() {
+            return "OwnerStats["+owner+"; jobs="+jobs.size()+"; runs="+numRuns.get()+"; cpu="+
+                    TimeUnit.NANOSECONDS.toMillis(cpuTimeNanos.get())+"ms]";
+        }
+    }
+
+    /**
+     * An owner's serial jobs which are due, run one at a time in a single pool thread
+     * (which is only held while there are jobs waiting).
+     */
+    private class SerialQueue implements Runnable {
+        private final Object owner;
+        private final Queue<Job> due = new ConcurrentLinkedQueue<Job>();
+        private final AtomicBoolean active = new AtomicBoolean();
+
+        SerialQueue(Object owner) {
+            this.owner = owner;
+        }
+
+        /** whether a job is running (or about to), in which case others must wait for it */
+        boolean isActive() {
+            return active.get();
+        }
+
+        /** @throws RejectedExecutionException if the executor rejected it, in which case the job is not queued */
+        void add(Job job) {
+            due.add(job);
+            if (active.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // nothing else takes from the queue while we hold the flag
+                    due.remove(job);
+                    active.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        public void run() {
+            while (true) {
+                Job job;
+                while ((job = due.poll())!=null) job.run();
+                active.set(false);
+                // a job may have been added after we last looked, by a thread which saw us still active
+                if (due.isEmpty() || !active.compareAndSet(false, true)) {
+                    // nothing left to hold up, if the owner was cancelled and no new jobs have taken over this queue
+                    drainingQueues.remove(owner, this);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "serial jobs of "+SharedScheduler.this;
+        }
+    }
+
+    /**
+     * A scheduled job; the timer entry only hands the job to the executor, so slow jobs never hold up the wheel thread.
+     * {@link #get()} waits for a one-off job to run, or for a periodic job to be cancelled.
+     */
+    private class Job implements ScheduledFuture<Object>, Runnable {
+        private final OwnerStats stats;
+        private final Runnable task;
+        /** 0 for a one-off job; positive for fixed-rate; negative for fixed-delay */
+        private final long periodNanos;
+        private final boolean serial;
+        final TimingWheelScheduler.Entry entry;
+
+        private volatile boolean done = false;
+        private volatile boolean cancelled = false;
+        private Thread runningThread;
+        private Throwable error;
+
+        Job(OwnerStats stats, Runnable task, long periodNanos, boolean serial) {
+            this.stats = stats;
+            this.task = task;
+            this.periodNanos = periodNanos;
+            this.serial = serial;
+            this.entry = wheel.newEntry(new Callable<Void>() {
+                public Void call() {
+                    if (done) return null;
+                    try {
+                        if (Job.this.serial) Job.this.stats.serialQueue.add(Job.this);
+                        else executor.execute(Job.this);
+                    } catch (RejectedExecutionException e) {
+                        // try again shortly, rather than run it here and hold up the wheel
+                        totalRejected.incrementAndGet();
+                        if (log.isDebugEnabled()) log.debug("Executor for "+SharedScheduler.this+" rejected "+Job.this+"; will retry", e);
+                        rearm(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REJECTED_RETRY_DELAY_MILLIS));
+                    }
+                    return null;
+                }
+                @Override public String toString() { return "dispatcher for "+Job.this; }
+            });
+        }
+
+        public void run() {
+            synchronized (this) {
+                if (done) return;
+                runningThread = Thread.currentThread();
+            }
+            long cpuStart = currentThreadCpuTime();
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                stats.numFailures.incrementAndGet();
+                if (periodNanos==0) error = t;
+                if (cancelled) {
+                    if (log.isDebugEnabled()) log.debug("Error running "+this+", after it was cancelled", t);
+                } else {
+                    log.warn("Error running "+this+(periodNanos!=0 ? " (will run again)" : "")+": "+t, t);
+                }
+            } finally {
+                synchronized (this) {
+                    runningThread = null;
+                    // clear any interrupt from cancel, so it does not leak to the pool's next job
+                    if (cancelled) Thread.interrupted();
+                }
+                long runTime = System.nanoTime() - start;
+                long cpuEnd = (cpuStart >= 0) ? currentThreadCpuTime() : -1;
+                long cpuTime = (cpuEnd >= 0) ? cpuEnd - cpuStart : 0;
+                stats.numRuns.incrementAndGet();
+                stats.runTimeNanos.addAndGet(runTime);
+                stats.cpuTimeNanos.addAndGet(cpuTime);
+                totalRuns.incrementAndGet();
+                totalCpuTimeNanos.addAndGet(cpuTime);
+            }
+            if (periodNanos==0) {
+                finish();
+            } else if (!done) {
+                long next;
+                if (periodNanos > 0) {
+                    next = entry.getDeadlineNanos() + periodNanos;
+                    long now = System.nanoTime();
+                    if (next < now) next += ((now - next) / periodNanos + 1) * periodNanos;
+                } else {
+                    next = System.nanoTime() - periodNanos;
+                }
+                rearm(next);
+            }
+        }
+
+        private void rearm(long deadlineNanos) {
+            try {
+                entry.scheduleAt(deadlineNanos);
+            } catch (CancellationException e) {
+                // cancelled while running; nothing more to do
+            }
+            // if the wheel has been shut down, the entry is cancelled instead
+            if (entry.isCancelled()) finish();
+        }
+
+        private void finish() {
+            synchronized (this) {
+                if (done) return;
+                done = true;
+                notifyAll();
+            }
+            stats.jobs.remove(this);
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (this) {
+                if (done) return false;
+                cancelled = true;
+                if (mayInterruptIfRunning && runningThread!=null) runningThread.interrupt();
+            }
+            entry.cancel(false);
+            finish();
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public synchronized Object get() throws InterruptedException, ExecutionException {
+            while (!done) wait();
+            return report();
+        }
+
+        public synchronized Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long end = System.nanoTime() + unit.toNanos(timeout);
+            while (!done) {
+                long remaining = end - System.nanoTime();
+                if (remaining <= 0) throw new TimeoutException();
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return report();
+        }
+
+        private Object report() throws ExecutionException {
+            if (cancelled) throw new CancellationException();
+            if (error!=null) throw new ExecutionException(error);
+            return null;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return entry.getDelay(unit);
+        }
+
+        public int compareTo(Delayed o) {
+            long d = getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+            return (d < 0) ? -1 : (d > 0) ? 1 : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "scheduled job "+task+" of "+stats.owner;
+        }
+    }
+}
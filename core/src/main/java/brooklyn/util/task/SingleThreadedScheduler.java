@@ -0,0 +1,116 @@
+package brooklyn.util.task;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.management.Task;
+
+/**
+ * Instances of this class ensures that {@link Task}s it is shown execute with in-order
+ * single-threaded semantics.
+ * <p>
+ * Submissions are appended to a queue (a "mailbox"). Whenever the queue goes from idle to non-empty,
+ * a single drain job is handed to the executor; it runs the queued submissions one after another in
+ * the thread it was given, including any added while it is running. Submitting to a busy scheduler
+ * therefore costs no thread handoff and takes no lock.
+ * <p>
+ * For fairness to other users of the executor, a drain job runs at most {@link #DRAIN_BUDGET} submissions
+ * before handing the rest of the queue to a new drain job at the back of the executor's queue.
+ * <p>
+ * The futures returned are {@link FutureTask}s, which complete without monitors; cancelling one which has not
+ * yet been reached means it is skipped.
+ */
+public class SingleThreadedScheduler implements TaskScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(SingleThreadedScheduler.class);
+
+    /**
+     * Maximum number of submissions run by one drain job before yielding its thread.
+     * <p>
+     * Defaults to 100 if system property <code>brooklyn.singleThreadedScheduler.drainBudget</code> is not set.
+     */
+    public static final int DRAIN_BUDGET = Integer.getInteger("brooklyn.singleThreadedScheduler.drainBudget", 100);
+
+    private final Queue<FutureTask<?>> order = new ConcurrentLinkedQueue<FutureTask<?>>();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong totalDrainJobs = new AtomicLong();
+    private volatile int lastSizeWarn = 0;
+
+    private final Runnable drainJob = new Runnable() {
+        public void run() { drain(); }
+        @Override public String toString() { return "drain of "+SingleThreadedScheduler.this; }
+    };
+
+    private ExecutorService executor;
+
+    public void injectExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public <T> Future<T> submit(Callable<T> c) {
+        FutureTask<T> f = new FutureTask<T>(c);
+        order.add(f);
+        int size = queueSize.incrementAndGet();
+        if (size>1 && (size == 10 || (size<=500 && (size%100)==0) || (size%1000)==0) && size!=lastSizeWarn) {
+            LOG.warn(this+" is backing up, "+size+" tasks queued");
+            lastSizeWarn = size;
+        }
+        if (running.compareAndSet(false, true)) {
+            submitDrain();
+        }
+        return f;
+    }
+
+    /** number of submissions not yet started */
+    public int getQueueSize() {
+        return queueSize.get();
+    }
+
+    /** number of times a drain job has been given to the executor */
+    public long getTotalDrainJobs() {
+        return totalDrainJobs.get();
+    }
+
+    private void submitDrain() {
+        totalDrainJobs.incrementAndGet();
+        executor.execute(drainJob);
+    }
+
+    private void drain() {
+        int budget = DRAIN_BUDGET;
+        while (true) {
+            FutureTask<?> f;
+            while ((f = order.poll()) != null) {
+                queueSize.decrementAndGet();
+                // no-op if cancelled while queued
+                f.run();
+                // don't let an interrupt aimed at a cancelled submission hit the next one
+                Thread.interrupted();
+                if (--budget <= 0 && !order.isEmpty()) {
+                    // still running (as far as submitters are concerned); continue in a fresh job
+                    submitDrain();
+                    return;
+                }
+            }
+            running.set(false);
+            // something may have been added after our last poll but before we cleared the flag;
+            // if so (and nobody else has started a drain) keep going in this job
+            if (order.isEmpty() || !running.compareAndSet(false, true)) return;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SingleThreadedScheduler@"+Integer.toHexString(System.identityHashCode(this))+"[queued="+queueSize.get()+"]";
+    }
+}
@@ -0,0 +1,245 @@
+package brooklyn.util.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import brooklyn.management.Task;
+
+/**
+ * The tasks known to a {@link BasicExecutionManager}, by tag, in order of submission.
+ * <p>
+ * Each tag's tasks are held in a concurrent sorted map keyed by submission sequence, with a count kept alongside
+ * so that {@link #getTasksWithAllTags(Iterable)} can start from the smallest set and look up the others
+ * (rather than copying and intersecting every set).
+ * <p>
+ * Completed tasks which are retained (i.e. not {@link brooklyn.management.ExpirationPolicy#IMMEDIATE}) are also
+ * recorded per tag in order of completion, and evicted from that tag once there are more than the tag's
+ * maximum count or they are older than its maximum age (see {@link #setRetention(Object, int, long)}).
+ * Age limits are applied whenever a task with that tag completes or the tag is queried.
+ * <p>
+ * A tag is forgotten once it has no tasks (unless it has had retention limits set), so that short-lived tags
+ * do not accumulate. Its bucket is then retired, so a task being added concurrently goes to a new bucket
+ * rather than to the one being removed.
+ */
+class TaskTagIndex {
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentMap<Object, Bucket> buckets = new ConcurrentHashMap<Object, Bucket>();
+
+    private volatile int defaultMaxCompleted;
+    private volatile long defaultMaxAgeMillis;
+
+    /**
+     * @param defaultMaxCompleted max completed tasks retained per tag (unless set for the tag), or -1 for no limit
+     * @param defaultMaxAgeMillis max time since completion for which tasks are retained per tag (unless set for the tag), or -1 for no limit
+     */
+    TaskTagIndex(int defaultMaxCompleted, long defaultMaxAgeMillis) {
+        this.defaultMaxCompleted = defaultMaxCompleted;
+        this.defaultMaxAgeMillis = defaultMaxAgeMillis;
+    }
+
+    public void setDefaultRetention(int maxCompleted, long maxAgeMillis) {
+        this.defaultMaxCompleted = maxCompleted;
+        this.defaultMaxAgeMillis = maxAgeMillis;
+    }
+
+    /** Sets the retention limits for completed tasks with the given tag; -1 means no limit. */
+    public void setRetention(Object tag, int maxCompleted, long maxAgeMillis) {
+        while (true) {
+            Bucket b = getBucket(tag);
+            synchronized (b) {
+                if (b.isRetired()) continue;
+                b.maxCompleted = maxCompleted;
+                b.maxAgeMillis = maxAgeMillis;
+                b.retentionSet = true;
+            }
+            b.trim(System.currentTimeMillis());
+            return;
+        }
+    }
+
+    /** Records a newly submitted task under each of its tags. */
+    public void add(BasicTask<?> task) {
+        if (task.submissionSequence < 0) task.submissionSequence = sequence.incrementAndGet();
+        for (Object tag : task.tags) {
+            while (!getBucket(tag).add(task)) {
+                // bucket was retired as we found it; retry with its replacement
+            }
+        }
+    }
+
+    /** Forgets a completed task immediately. */
+    public void remove(BasicTask<?> task) {
+        for (Object tag : task.tags) {
+            Bucket b = buckets.get(tag);
+            if (b!=null) b.remove(task);
+        }
+    }
+
+    /** Records that a task has completed and should be retained, subject to the limits for each of its tags. */
+    public void retainCompleted(BasicTask<?> task) {
+        long now = System.currentTimeMillis();
+        for (Object tag : task.tags) {
+            Bucket b = buckets.get(tag);
+            if (b!=null) b.completed(task, now);
+        }
+    }
+
+    public Set<Object> getTags() {
+        return buckets.keySet();
+    }
+
+    public int getNumTasksWithTag(Object tag) {
+        Bucket b = buckets.get(tag);
+        return (b==null) ? 0 : b.size();
+    }
+
+    public Set<Task<?>> getTasksWithTag(Object tag) {
+        Bucket b = buckets.get(tag);
+        if (b==null) return Collections.emptySet();
+        b.trim(System.currentTimeMillis());
+        return Collections.unmodifiableSet(new LinkedHashSet<Task<?>>(b.tasks.values()));
+    }
+
+    public Set<Task<?>> getTasksWithAnyTag(Iterable<?> tags) {
+        Set<Task<?>> result = new LinkedHashSet<Task<?>>();
+        for (Object tag : tags) {
+            result.addAll(getTasksWithTag(tag));
+        }
+        return result;
+    }
+
+    public Set<Task<?>> getTasksWithAllTags(Iterable<?> tags) {
+        long now = System.currentTimeMillis();
+        List<Bucket> bs = new ArrayList<Bucket>();
+        Bucket smallest = null;
+        for (Object tag : tags) {
+            Bucket b = buckets.get(tag);
+            if (b==null) return new LinkedHashSet<Task<?>>();
+            b.trim(now);
+            bs.add(b);
+            if (smallest==null || b.size() < smallest.size()) smallest = b;
+        }
+        Set<Task<?>> result = new LinkedHashSet<Task<?>>();
+        if (smallest==null) return result;
+        for (BasicTask<?> t : smallest.tasks.values()) {
+            boolean all = true;
+            for (Bucket b : bs) {
+                if (b!=smallest && !b.contains(t)) { all = false; break; }
+            }
+            if (all) result.add(t);
+        }
+        return result;
+    }
+
+    private Bucket getBucket(Object tag) {
+        Bucket b = buckets.get(tag);
+        if (b==null) {
+            Bucket b2 = new Bucket(tag);
+            b = buckets.putIfAbsent(tag, b2);
+            if (b==null) b = b2;
+        }
+        return b;
+    }
+
+    private class Bucket {
+        final Object tag;
+        final ConcurrentNavigableMap<Long, BasicTask<?>> tasks = new ConcurrentSkipListMap<Long, BasicTask<?>>();
+        /** as {@link ConcurrentSkipListMap#size()} is not constant-time; -1 once retired */
+        final AtomicInteger size = new AtomicInteger();
+        final Queue<BasicTask<?>> completed = new ConcurrentLinkedQueue<BasicTask<?>>();
+        final AtomicInteger numCompleted = new AtomicInteger();
+        volatile boolean retentionSet = false;
+        volatile int maxCompleted;
+        volatile long maxAgeMillis;
+
+        Bucket(Object tag) {
+            this.tag = tag;
+        }
+
+        int size() {
+            return Math.max(0, size.get());
+        }
+
+        boolean isRetired() {
+            return size.get() < 0;
+        }
+
+        /** @return false if this bucket has been retired, in which case the task is not added */
+        boolean add(BasicTask<?> t) {
+            // reserve a place first, so the bucket cannot be retired while the task is being put
+            int s;
+            do {
+                s = size.get();
+                if (s < 0) return false;
+            } while (!size.compareAndSet(s, s+1));
+            if (tasks.put(t.submissionSequence, t)!=null) released();
+            return true;
+        }
+
+        boolean remove(BasicTask<?> t) {
+            if (tasks.remove(t.submissionSequence, t)) {
+                released();
+                return true;
+            }
+            return false;
+        }
+
+        private void released() {
+            if (size.decrementAndGet()==0 && !retentionSet) retireIfEmpty();
+        }
+
+        private synchronized void retireIfEmpty() {
+            // retention limits are kept with the bucket, so a bucket which has them is never retired
+            if (!retentionSet && size.compareAndSet(0, -1)) {
+                buckets.remove(tag, this);
+            }
+        }
+
+        boolean contains(BasicTask<?> t) {
+            return tasks.get(t.submissionSequence)==t;
+        }
+
+        void completed(BasicTask<?> t, long now) {
+            // may have been evicted already, if completed with the same tag listed twice
+            if (!contains(t)) return;
+            completed.add(t);
+            numCompleted.incrementAndGet();
+            trim(now);
+        }
+
+        void trim(long now) {
+            int max = retentionSet ? maxCompleted : defaultMaxCompleted;
+            long maxAge = retentionSet ? maxAgeMillis : defaultMaxAgeMillis;
+            if (max >= 0) {
+                while (numCompleted.get() > max) {
+                    BasicTask<?> t = completed.poll();
+                    if (t==null) break;
+                    numCompleted.decrementAndGet();
+                    remove(t);
+                }
+            }
+            if (maxAge >= 0) {
+                BasicTask<?> t;
+                while ((t = completed.peek())!=null && t.endTimeUtc < now - maxAge) {
+                    // concurrent trims may race on the head; only the one which removes it evicts it
+                    if (completed.remove(t)) {
+                        numCompleted.decrementAndGet();
+                        remove(t);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package brooklyn.util.task;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hierarchical timing wheel, for running large numbers of (typically recurring) short jobs at roughly the right time.
+ * <p>
+ * Time advances in ticks (default 10ms). There are 4 levels of 256 slots: an entry due within 256 ticks sits in the
+ * level-0 slot for its tick, one due later sits in a coarser level and is moved ("cascaded") down when its slot comes round.
+ * Scheduling and cancelling are therefore constant-time, regardless of how many entries are waiting (rather than
+ * <code>O(log n)</code> under the single lock of a {@link java.util.concurrent.ScheduledThreadPoolExecutor}), and
+ * jobs run at most one tick late (unless the wheel thread is kept busy).
+ * <p>
+ * {@link Entry Entries} are reusable: a recurring job re-arms the same entry for its next run (with
+ * {@link Entry#schedule(long, TimeUnit)} or {@link Entry#scheduleAt(long)}), which allocates nothing.
+ * Callers hand entries to the wheel thread through a lock-free stack linked through the entries themselves;
+ * only the wheel thread touches the slots.
+ * <p>
+ * Jobs are run in the wheel thread, so must be quick (e.g. submitting a task to an executor).
+ */
+public class TimingWheelScheduler {
+    private static final Logger log = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    private static final int BITS = 8;
+    private static final int WHEEL_SIZE = 1 << BITS;
+    private static final int MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private static final AtomicIntegerFieldUpdater<Entry> STATE = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+    private static final AtomicIntegerFieldUpdater<Entry> QUEUED = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "queued");
+
+    private final String name;
+    private final long tickNanos;
+    private final ThreadFactory threadFactory;
+
+    /** slot sentinels, for doubly-linked circular lists; only accessed by the wheel thread */
+    private final Entry[][] slots = new Entry[LEVELS][WHEEL_SIZE];
+
+    /** entries which have been (re)scheduled or cancelled since the wheel thread last looked */
+    private final AtomicReference<Entry> pending = new AtomicReference<Entry>();
+
+    private final Object lifecycleLock = new Object();
+    private volatile Thread worker;
+    private volatile boolean shutdown = false;
+    private volatile long startNanos;
+    /** ticks elapsed since start; only written by the wheel thread */
+    private volatile long currentTick = 0;
+
+    private volatile int numScheduled = 0;
+    private final AtomicLong totalFired = new AtomicLong();
+    private volatile long totalLatenessNanos = 0;
+    private volatile long maxLatenessNanos = 0;
+
+    public TimingWheelScheduler(String name, long tickMillis, ThreadFactory threadFactory) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("tick must be positive, not "+tickMillis);
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.threadFactory = threadFactory;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                Entry sentinel = new Entry(null);
+                sentinel.prev = sentinel.next = sentinel;
+                slots[level][i] = sentinel;
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getTickMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+    }
+
+    /** Creates an entry for the given job, which does not run until it is {@link Entry#schedule(long, TimeUnit) scheduled}. */
+    public Entry newEntry(Callable<?> job) {
+        if (job==null) throw new NullPointerException("job");
+        return new Entry(job);
+    }
+
+    /** Creates and schedules an entry to run the given job once, after the given delay. */
+    public Entry schedule(Callable<?> job, long delay, TimeUnit unit) {
+        Entry result = newEntry(job);
+        result.schedule(delay, unit);
+        return result;
+    }
+
+    /** Stops the wheel thread; entries still waiting never run. */
+    public void shutdownNow() {
+        shutdown = true;
+        Thread t = worker;
+        if (t!=null) LockSupport.unpark(t);
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /** number of entries waiting in the wheel (as of the last tick) */
+    public int getNumScheduled() {
+        return numScheduled;
+    }
+
+    /** number of times a job has been run */
+    public long getTotalFired() {
+        return totalFired.get();
+    }
+
+    /** mean time (in milliseconds) between when jobs were due and when they were run */
+    public double getMeanLatenessMillis() {
+        long fired = totalFired.get();
+        return (fired==0) ? 0 : ((double)totalLatenessNanos / fired) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /** longest time (in milliseconds) between when a job was due and when it was run */
+    public double getMaxLatenessMillis() {
+        return ((double)maxLatenessNanos) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "TimingWheelScheduler["+name+"; scheduled="+numScheduled+"; fired="+totalFired.get()+"]";
+    }
+
+    private void ensureStarted() {
+        if (worker!=null) return;
+        synchronized (lifecycleLock) {
+            if (worker!=null || shutdown) return;
+            startNanos = System.nanoTime();
+            Thread t = threadFactory.newThread(new Runnable() {
+                public void run() { runWheel(); }
+            });
+            t.setName("brooklyn-timing-wheel-"+name);
+            worker = t;
+            t.start();
+        }
+    }
+
+    private void enqueue(Entry e) {
+        if (!QUEUED.compareAndSet(e, 0, 1)) return;
+        Entry head;
+        do {
+            head = pending.get();
+            e.nextPending = head;
+        } while (!pending.compareAndSet(head, e));
+        ensureStarted();
+    }
+
+    private void runWheel() {
+        while (!shutdown) {
+            long sleep = startNanos + (currentTick+1)*tickNanos - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+            // if we have fallen behind (e.g. a long GC) we catch up one tick at a time, without sleeping
+            long tick = currentTick + 1;
+            currentTick = tick;
+            drainPending(tick);
+            for (int level = LEVELS-1; level >= 1; level--) {
+                if ((tick & ((1L << (BITS*level)) - 1)) == 0) {
+                    cascade(level, tick);
+                }
+            }
+            fireSlot(slots[0][(int)(tick & MASK)], tick);
+        }
+    }
+
+    private void drainPending(long tick) {
+        Entry e = pending.getAndSet(null);
+        while (e!=null) {
+            Entry next = e.nextPending;
+            e.nextPending = null;
+            // clear before reading the state, so a concurrent change re-queues it
+            QUEUED.set(e, 0);
+            if (e.isLinked()) unlink(e);
+            if (e.state==Entry.WAITING) insert(e, tick);
+            e = next;
+        }
+    }
+
+    private void insert(Entry e, long tick) {
+        long due = e.dueTick;
+        if (due <= tick) {
+            fire(e, tick);
+            return;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = BITS*level;
+            if ((due >>> shift) - (tick >>> shift) < WHEEL_SIZE) {
+                link(slots[level][(int)((due >>> shift) & MASK)], e);
+                return;
+            }
+        }
+        // further away than the top level covers; park in its furthest slot, and re-insert when that comes round
+        int shift = BITS*(LEVELS-1);
+        link(slots[LEVELS-1][(int)(((tick >>> shift) + MASK) & MASK)], e);
+    }
+
+    private void cascade(int level, long tick) {
+        Entry sentinel = slots[level][(int)((tick >>> (BITS*level)) & MASK)];
+        Entry e = sentinel.next;
+        while (e!=sentinel) {
+            Entry next = e.next;
+            unlink(e);
+            insert(e, tick);
+            e = next;
+        }
+    }
+
+    private void fireSlot(Entry sentinel, long tick) {
+        Entry e = sentinel.next;
+        while (e!=sentinel) {
+            Entry next = e.next;
+            unlink(e);
+            // may have been rescheduled for later, and not yet moved
+            if (e.dueTick > tick) insert(e, tick);
+            else fire(e, tick);
+            e = next;
+        }
+    }
+
+    private void fire(Entry e, long tick) {
+        if (!STATE.compareAndSet(e, Entry.WAITING, Entry.RUNNING)) return;
+        long lateness = System.nanoTime() - e.deadlineNanos;
+        if (lateness > 0) {
+            // only written by this thread
+            totalLatenessNanos += lateness;
+            if (lateness > maxLatenessNanos) maxLatenessNanos = lateness;
+        }
+        totalFired.incrementAndGet();
+        Object result = null;
+        Throwable error = null;
+        try {
+            result = e.job.call();
+        } catch (Throwable t) {
+            log.warn("Error running scheduled job "+e.job+" in "+this+" (continuing): "+t, t);
+            error = t;
+        }
+        e.completed(result, error);
+    }
+
+    private void link(Entry sentinel, Entry e) {
+        e.next = sentinel;
+        e.prev = sentinel.prev;
+        sentinel.prev.next = e;
+        sentinel.prev = e;
+        numScheduled++;
+    }
+
+    private void unlink(Entry e) {
+        e.prev.next = e.next;
+        e.next.prev = e.prev;
+        e.prev = e.next = null;
+        numScheduled--;
+    }
+
+    /**
+     * A job in a {@link TimingWheelScheduler}, which can be scheduled any number of times (but is only ever waiting
+     * for one run at a time).
+     * <p>
+     * As a {@link ScheduledFuture}, {@link #get()} waits for the current or next run to finish and returns its result;
+     * once cancelled the entry can not be scheduled again.
+     */
+    public class Entry implements ScheduledFuture<Object> {
+        static final int WAITING = 0;
+        static final int RUNNING = 1;
+        static final int DONE = 2;
+        static final int CANCELLED = 3;
+
+        private final Callable<?> job;
+        volatile int state = DONE;
+        volatile int queued = 0;
+        volatile long deadlineNanos;
+        volatile long dueTick;
+        private Object result;
+        private Throwable error;
+
+        // only accessed by the wheel thread
+        Entry prev, next;
+        // only written before being pushed, and read by the wheel thread after popping
+        Entry nextPending;
+
+        Entry(Callable<?> job) {
+            this.job = job;
+        }
+
+        public TimingWheelScheduler getScheduler() {
+            return TimingWheelScheduler.this;
+        }
+
+        /** (Re)schedules this entry to run after the given delay, replacing any run it is waiting for. */
+        public void schedule(long delay, TimeUnit unit) {
+            scheduleAt(System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        }
+
+        /**
+         * (Re)schedules this entry to run at the given time, as per {@link System#nanoTime()}.
+         * If the scheduler has been shut down the entry is instead cancelled (quietly, as a
+         * {@link java.util.concurrent.ScheduledThreadPoolExecutor} drops periodic tasks on shutdown),
+         * so that a recurring job re-arming itself does not fail.
+         * @throws CancellationException if the entry has been cancelled (and the scheduler is not shut down)
+         */
+        public void scheduleAt(long deadlineNanos) {
+            if (shutdown) {
+                cancel(false);
+                return;
+            }
+            this.deadlineNanos = deadlineNanos;
+            ensureStarted();
+            // rounded up, so we never run early
+            long fromStart = deadlineNanos - startNanos;
+            this.dueTick = (fromStart <= 0) ? 0 : (fromStart + tickNanos - 1) / tickNanos;
+            while (true) {
+                int s = state;
+                if (s==CANCELLED) throw new CancellationException("Cannot schedule "+this+"; it has been cancelled");
+                if (STATE.compareAndSet(this, s, WAITING)) break;
+            }
+            enqueue(this);
+        }
+
+        /** the time this entry is (or was most recently) due to run, as per {@link System#nanoTime()} */
+        public long getDeadlineNanos() {
+            return deadlineNanos;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed o) {
+            long d = getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+            return (d < 0) ? -1 : (d > 0) ? 1 : 0;
+        }
+
+        /** Stops this entry from running again; a run in progress is not interrupted. */
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            int s;
+            do {
+                s = state;
+                if (s==CANCELLED) return false;
+            } while (!STATE.compareAndSet(this, s, CANCELLED));
+            synchronized (this) { notifyAll(); }
+            // have the wheel thread unlink it, rather than leaving it until its slot comes round
+            if (s==WAITING && worker!=null && !shutdown) enqueue(this);
+            return s==WAITING;
+        }
+
+        public boolean isCancelled() {
+            return state==CANCELLED;
+        }
+
+        public boolean isDone() {
+            int s = state;
+            return s==DONE || s==CANCELLED;
+        }
+
+        void completed(Object result, Throwable error) {
+            synchronized (this) {
+                this.result = result;
+                this.error = error;
+                // if the job (or something it started) has already rescheduled us, we stay waiting
+                STATE.compareAndSet(this, RUNNING, DONE);
+                notifyAll();
+            }
+        }
+
+        public Object get() throws InterruptedException, ExecutionException {
+            synchronized (this) {
+                while (state==WAITING || state==RUNNING) wait();
+                return report();
+            }
+        }
+
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long end = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (this) {
+                while (state==WAITING || state==RUNNING) {
+                    long remaining = end - System.nanoTime();
+                    if (remaining <= 0) throw new TimeoutException();
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                return report();
+            }
+        }
+
+        private Object report() throws ExecutionException {
+            if (state==CANCELLED && result==null && error==null) throw new CancellationException();
+            if (error!=null) throw new ExecutionException(error);
+            return result;
+        }
+
+        boolean isLinked() {
+            return next!=null;
+        }
+
+        @Override
+        public String toString() {
+            return "TimingWheelScheduler.Entry["+job+"]";
+        }
+    }
+}
@@ -156,4 +156,90 @@ class CustomAggregatingEnricherTest {
         assertEquals cae.getAggregate(), 1
         
     }
+
+    @Test
+    public void testRemovingProducerRepublishesAggregate() {
+        LocallyManagedEntity p1 = [owner: app]
+        LocallyManagedEntity p2 = [owner: app]
+        CustomAggregatingEnricher<Integer> cae = CustomAggregatingEnricher.<Integer>getSummingEnricher([p1, p2],
+                intSensor, target)
+        producer.addEnricher(cae)
+        cae.onEvent(intSensor.newEvent(p1, 1))
+        cae.onEvent(intSensor.newEvent(p2, 4))
+        assertEquals producer.getAttribute(target), 5
+        
+        cae.removeProducer(p2)
+        assertEquals producer.getAttribute(target), 1
+    }
+    
+    @Test
+    public void testSumOfNonIntegralValues() {
+        List<LocallyManagedEntity> producers = [
+                [owner: app] as LocallyManagedEntity,
+                [owner: app] as LocallyManagedEntity]
+        CustomAggregatingEnricher<Double> cae = CustomAggregatingEnricher.<Double>getSummingEnricher(producers,
+            intSensor, new BasicAttributeSensor<Double>(Double.class, "target sensor"))
+        producer.addEnricher(cae)
+        
+        cae.onEvent(intSensor.newEvent(producers[0], 0.1))
+        for (int i = 0; i < 1000; i++) {
+            cae.onEvent(intSensor.newEvent(producers[1], 0.1*i))
+        }
+        cae.onEvent(intSensor.newEvent(producers[1], 2))
+        assertEquals cae.getAggregate(), 2.1d, 0.0000001d
+        
+        cae.onEvent(intSensor.newEvent(producers[0], 3))
+        assertEquals cae.getAggregate(), 5d
+    }
+    
+    @Test
+    public void testCountingEnricher() {
+        List<LocallyManagedEntity> producers = [
+                [owner: app] as LocallyManagedEntity,
+                [owner: app] as LocallyManagedEntity]
+        CustomAggregatingEnricher<Integer> cae = CustomAggregatingEnricher.<Integer>getCountingEnricher(producers,
+                intSensor, target)
+        producer.addEnricher(cae)
+        assertEquals cae.getAggregate(), 0
+        
+        cae.onEvent(intSensor.newEvent(producers[0], 3))
+        assertEquals cae.getAggregate(), 1
+        cae.onEvent(intSensor.newEvent(producers[1], 0))
+        assertEquals cae.getAggregate(), 2
+        cae.onEvent(intSensor.newEvent(producers[0], null))
+        assertEquals cae.getAggregate(), 1
+        cae.removeProducer(producers[1])
+        assertEquals cae.getAggregate(), 0
+    }
+    
+    @Test
+    public void testMinAndMaxEnrichers() {
+        List<LocallyManagedEntity> producers = [
+                [owner: app] as LocallyManagedEntity,
+                [owner: app] as LocallyManagedEntity,
+                [owner: app] as LocallyManagedEntity]
+        CustomAggregatingEnricher<Integer> min = CustomAggregatingEnricher.<Integer>getMinEnricher(producers,
+                intSensor, target)
+        CustomAggregatingEnricher<Integer> max = CustomAggregatingEnricher.<Integer>getMaxEnricher(producers,
+                intSensor, new BasicAttributeSensor<Integer>(Integer.class, "max sensor"))
+        producer.addEnricher(min)
+        producer.addEnricher(max)
+        assertNull min.getAggregate()
+        assertNull max.getAggregate()
+        
+        [min, max].each { it.onEvent(intSensor.newEvent(producers[0], 5)) }
+        [min, max].each { it.onEvent(intSensor.newEvent(producers[1], 2)) }
+        [min, max].each { it.onEvent(intSensor.newEvent(producers[2], 5)) }
+        assertEquals min.getAggregate(), 2
+        assertEquals max.getAggregate(), 5
+        
+        // one of the two 5s changing leaves the max at 5
+        [min, max].each { it.onEvent(intSensor.newEvent(producers[0], 3)) }
+        assertEquals max.getAggregate(), 5
+        
+        [min, max].each { it.removeProducer(producers[1]) }
+        assertEquals min.getAggregate(), 3
+        [min, max].each { it.removeProducer(producers[2]) }
+        assertEquals max.getAggregate(), 3
+    }
 }
@@ -1,9 +1,11 @@
 package brooklyn.entity
 
 import brooklyn.entity.basic.AbstractEntity
+import brooklyn.entity.trait.Startable
 import brooklyn.event.Sensor
 import brooklyn.event.SensorEvent
 import brooklyn.event.SensorEventListener
+import brooklyn.event.basic.BasicConfigKey
 import brooklyn.event.basic.BasicSensor
 import brooklyn.test.entity.TestEntity
 import brooklyn.util.internal.TimeExtras
@@ -27,15 +29,42 @@ public class AbstractEntityTest {
 
     @Test
     public void testAddSensors() throws Exception{
-        assertEquals(2, entity.getSensors().size())
+        // sensor added/removed and child added/removed
+        assertEquals(4, entity.getSensors().size())
         entity.addSensor(sensor)
-        assertEquals(3, entity.getSensors().size())
+        assertEquals(5, entity.getSensors().size())
+    }
+
+    @Test
+    public void testDynamicSensorsAreNotSharedBetweenInstances() throws Exception {
+        AbstractEntity other = new LocallyManagedEntity()
+        entity.addSensor(sensor)
+        other.removeSensor("entity.sensor.added")
+        assertEquals(5, entity.getSensors().size())
+        assertEquals(3, other.getSensors().size())
+        assertEquals(4, new LocallyManagedEntity().getSensors().size())
+    }
+
+    @Test
+    public void testEffectorsAndConfigKeysAddedToOneInstanceAreNotShared() throws Exception {
+        int numEffectors = entity.getEffectors().size()
+        int numConfigKeys = entity.getConfigKeys().size()
+        Effector effector = Startable.START
+        entity.effectors.putAll([extra: effector])
+        entity.getConfigKeys().put("extra.config", new BasicConfigKey(String.class, "extra.config"))
+
+        assertEquals(effector, entity.getEffector("extra"))
+        assertEquals(numEffectors+1, entity.getEffectors().size())
+        assertEquals(numConfigKeys+1, entity.getConfigKeys().size())
+        AbstractEntity other = new LocallyManagedEntity()
+        assertEquals(numEffectors, other.getEffectors().size())
+        assertEquals(numConfigKeys, other.getConfigKeys().size())
     }
 
     @Test
     public void testRemoveSensors() throws Exception {
         entity.removeSensor("entity.sensor.added")
-        assertEquals(1, entity.getSensors().size())
+        assertEquals(3, entity.getSensors().size())
     }
 
     @Test
@@ -1,6 +1,6 @@
 package brooklyn.entity.basic;
 
-import static org.testng.Assert.assertEquals
+import static org.testng.Assert.*
 
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
@@ -10,8 +10,10 @@ import org.testng.annotations.BeforeMethod
 import org.testng.annotations.Test
 
 import brooklyn.entity.LocallyManagedEntity
+import brooklyn.event.basic.AttributeLayout
 import brooklyn.event.basic.AttributeMap
 import brooklyn.event.basic.BasicAttributeSensor
+import brooklyn.util.internal.LanguageUtils
 
 public class AttributeMapTest {
 
@@ -122,4 +124,83 @@ public class AttributeMapTest {
         assertEquals(map.getValue(childSensor), "childValue")
         assertEquals(map.getValue(sensor), "parentValue")
     }
+
+    @Test
+    public void testEntitiesOfSameClassShareSlots() {
+        AttributeMap map2 = new AttributeMap(new LocallyManagedEntity())
+        BasicAttributeSensor<String> sensor = [ String, "attributeMapTest.shared", "" ]
+        
+        map.update(sensor, "1val")
+        map2.update(sensor, "2val")
+        
+        AttributeLayout layout = AttributeLayout.forType(LocallyManagedEntity.class)
+        assertTrue(layout.findSlot("attributeMapTest.shared") >= 0)
+        assertEquals(map.getValue(sensor), "1val")
+        assertEquals(map2.getValue(sensor), "2val")
+    }
+    
+    @Test
+    public void testUnsetAndNullValuesAreNull() {
+        BasicAttributeSensor<String> sensor = [ String, "attributeMapTest.nullable", "" ]
+        BasicAttributeSensor<String> neverSet = [ String, "attributeMapTest.neverSet", "" ]
+        
+        assertNull(map.getValue(neverSet))
+        map.update(sensor, "val")
+        assertEquals(map.update(["attributeMapTest", "nullable"], null), "val")
+        assertNull(map.getValue(sensor))
+    }
+    
+    @Test
+    public void testAttributesBeyondMaxSlotsAreKept() {
+        AttributeMap overflowing = new AttributeMap(new OverflowingEntity())
+        int num = AttributeLayout.MAX_SLOTS + 10
+        for (int i = 0; i < num; i++) {
+            overflowing.update(new BasicAttributeSensor<Integer>(Integer, "attributeMapTest.overflow"+i, ""), i)
+        }
+        assertEquals(AttributeLayout.forType(OverflowingEntity.class).size(), AttributeLayout.MAX_SLOTS)
+        for (int i = 0; i < num; i++) {
+            assertEquals(overflowing.getValue(["attributeMapTest", "overflow"+i]), i)
+        }
+        assertEquals(overflowing.asMap().size(), num)
+    }
+    
+    @Test
+    public void testEntityRoundTripsThroughSerializationWhenLayoutChanges() {
+        BasicAttributeSensor<String> a = [ String, "attributeMapTest.a", "" ]
+        BasicAttributeSensor<String> b = [ String, "attributeMapTest.b", "" ]
+        BasicAttributeSensor<Integer> c = [ Integer, "attributeMapTest.c", "" ]
+        BasicAttributeSensor<String> unset = [ String, "attributeMapTest.unset", "" ]
+        AttributeLayout.forget(SerializableEntity.class)
+        SerializableEntity entity = new SerializableEntity()
+        entity.setAttribute(a, "aval")
+        entity.setAttribute(b, "bval")
+        entity.setAttribute(c, 3)
+        int slotOfAWhenWritten = AttributeLayout.forType(SerializableEntity.class).findSlot(a.name)
+        byte[] bytes = LanguageUtils.serialize(entity)
+
+        // as though read by another process, where the attributes were first set in a different order
+        AttributeLayout.forget(SerializableEntity.class)
+        AttributeLayout layout = AttributeLayout.forType(SerializableEntity.class)
+        [unset.name, c.name, b.name].each { layout.slotFor(it) }
+        SerializableEntity copy = LanguageUtils.deserialize(bytes, getClass().classLoader)
+
+        assertTrue(layout.findSlot(a.name) != slotOfAWhenWritten)
+        assertEquals(copy.getAttribute(a), "aval")
+        assertEquals(copy.getAttribute(b), "bval")
+        assertEquals(copy.getAttribute(c), 3)
+        assertNull(copy.getAttribute(unset))
+        assertEquals(copy.attributesInternal.asMap(), entity.attributesInternal.asMap())
+
+        // and the copy's values can be updated in the new layout
+        copy.setAttribute(unset, "now set")
+        assertEquals(copy.getAttribute(unset), "now set")
+        assertEquals(copy.getAttribute(a), "aval")
+    }
+
+    private static class OverflowingEntity extends LocallyManagedEntity {
+    }
+
+    /** unlike {@link LocallyManagedEntity}, has no (non-serializable) management context of its own */
+    private static class SerializableEntity extends AbstractEntity {
+    }
 }
@@ -11,6 +11,7 @@ import org.testng.annotations.Test
 
 import brooklyn.event.SensorEvent
 import brooklyn.event.SensorEventListener
+import brooklyn.event.basic.AttributePublication
 import brooklyn.event.basic.BasicSensorEvent
 import brooklyn.location.basic.SimulatedLocation
 import brooklyn.management.SubscriptionHandle
@@ -149,6 +150,83 @@ public class EntitySubscriptionTest {
         }
     }
 
+    @Test
+    public void testOnChangeAttributeOnlyPublishesChanges() {
+        observedEntity.setAttributePublicationMode(TestEntity.SEQUENCE, AttributePublication.Mode.ON_CHANGE)
+        entity.subscribe(observedEntity, TestEntity.SEQUENCE, listener);
+        
+        observedEntity.setAttribute(TestEntity.SEQUENCE, 1);
+        observedEntity.setAttribute(TestEntity.SEQUENCE, 1);
+        observedEntity.setAttribute(TestEntity.SEQUENCE, 1);
+        observedEntity.setAttribute(TestEntity.SEQUENCE, 2);
+        
+        executeUntilSucceeds(timeout:TIMEOUT_MS) {
+            assertEquals(listener.events, [
+                new BasicSensorEvent(TestEntity.SEQUENCE, observedEntity, 1),
+                new BasicSensorEvent(TestEntity.SEQUENCE, observedEntity, 2)
+            ])
+        }
+        Thread.sleep(SHORT_WAIT_MS)
+        assertEquals(listener.events.size(), 2)
+        assertEquals(observedEntity.getAttribute(TestEntity.SEQUENCE), 2)
+        assertEquals(observedEntity.getAttributePublication(TestEntity.SEQUENCE).numPublished, 2)
+        assertEquals(observedEntity.getAttributePublication(TestEntity.SEQUENCE).numSuppressed, 2)
+        assertEquals(observedEntity.numAttributeEventsSuppressed, 2)
+    }
+    
+    @Test
+    public void testOnChangeOrHeartbeatAttributeRepublishesAfterHeartbeat() {
+        observedEntity.setAttributePublicationMode(TestEntity.SEQUENCE, AttributePublication.Mode.ON_CHANGE_OR_HEARTBEAT, 50)
+        entity.subscribe(observedEntity, TestEntity.SEQUENCE, listener);
+        
+        observedEntity.setAttribute(TestEntity.SEQUENCE, 1);
+        observedEntity.setAttribute(TestEntity.SEQUENCE, 1);
+        Thread.sleep(100)
+        observedEntity.setAttribute(TestEntity.SEQUENCE, 1);
+        
+        executeUntilSucceeds(timeout:TIMEOUT_MS) {
+            assertEquals(listener.events.size(), 2)
+        }
+        assertEquals(observedEntity.getAttributePublication(TestEntity.SEQUENCE).numSuppressed, 1)
+    }
+    
+    @Test
+    public void testConcurrentUpdatesPublishCurrentValueLast() {
+        final int NUM_THREADS = 10
+        final int NUM_UPDATES = 200
+        observedEntity.setAttributePublicationMode(TestEntity.SEQUENCE, AttributePublication.Mode.ON_CHANGE)
+        entity.subscribe(observedEntity, TestEntity.SEQUENCE, listener);
+
+        List<Thread> threads = (0..<NUM_THREADS).collect { int t ->
+            new Thread({
+                for (int i = 0; i < NUM_UPDATES; i++) {
+                    observedEntity.setAttribute(TestEntity.SEQUENCE, t*NUM_UPDATES + i)
+                }
+            })
+        }
+        threads*.start()
+        threads*.join()
+
+        // if an older value were published after a newer one, and the newer one not again, the last event would be stale
+        Integer finalValue = observedEntity.getAttribute(TestEntity.SEQUENCE)
+        executeUntilSucceeds(timeout:TIMEOUT_MS) {
+            assertEquals(listener.events.last().getValue(), finalValue)
+        }
+        Thread.sleep(SHORT_WAIT_MS)
+        assertEquals(listener.events.last().getValue(), finalValue)
+    }
+
+    @Test
+    public void testServiceUpIsPublishedOnChangeByDefault() {
+        entity.subscribe(observedEntity, TestEntity.SERVICE_UP, listener);
+        
+        observedEntity.setAttribute(TestEntity.SERVICE_UP, false);
+        observedEntity.setAttribute(TestEntity.SERVICE_UP, false);
+        
+        assertEquals(observedEntity.getAttributePublication(TestEntity.SERVICE_UP).mode, AttributePublication.Mode.ON_CHANGE_OR_HEARTBEAT)
+        assertTrue(observedEntity.getAttributePublication(TestEntity.SERVICE_UP).numSuppressed >= 1)
+    }
+    
     private static class RecordingSensorEventListener implements SensorEventListener<Object> {
         final List<SensorEvent<?>> events = new CopyOnWriteArrayList<SensorEvent<?>>();
         
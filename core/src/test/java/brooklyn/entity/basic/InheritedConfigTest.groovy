@@ -291,4 +291,68 @@ public class InheritedConfigTest {
         
         assertEquals(entity.getConfig(TestEntity.CONF_LIST_THING), ["aval","bval"])
     }
+    
+    @Test
+    public void testConfigChangedOnGrandparentAfterLookupIsSeenByGrandchild() throws Exception {
+        TestEntity e = new TestEntity([owner:app])
+        TestEntity e2 = new TestEntity([owner:e])
+        app.setConfig(strKey, "aval")
+        assertEquals(e2.getConfig(strKey), "aval")
+        
+        app.setConfig(strKey, "bval")
+        assertEquals(e2.getConfig(strKey), "bval")
+        
+        e.setConfig(strKey, "cval")
+        assertEquals(e2.getConfig(strKey), "cval")
+        assertEquals(app.getConfig(strKey), "bval")
+    }
+    
+    @Test
+    public void testChildWithoutOwnConfigSharesOwnersMergedConfig() throws Exception {
+        TestEntity e = new TestEntity([owner:app, config:[(strKey):"aval"]])
+        TestEntity e2 = new TestEntity([owner:e])
+        TestEntity e3 = new TestEntity([owner:e])
+        
+        assertSame(e2.getAllConfig(), e.getAllConfig())
+        assertSame(e3.getAllConfig(), e.getAllConfig())
+        assertEquals(e2.getAllConfig().get(strKey), "aval")
+    }
+    
+    @Test
+    public void testAllConfigPrefersOwnValueToInherited() throws Exception {
+        TestEntity e = new TestEntity([owner:app, config:[(strKey):"aval"]])
+        TestEntity e2 = new TestEntity([owner:e, config:[(strKey):"diffval"]])
+        TestEntity e3 = new TestEntity([owner:e2])
+        
+        assertEquals(e2.getAllConfig().get(strKey), "diffval")
+        assertEquals(e3.getConfig(strKey), "diffval")
+    }
+
+    @Test
+    public void testConfigChangeDoesNotInvalidateUnrelatedEntitiesCachedConfig() throws Exception {
+        TestEntity e = new TestEntity([owner:app, config:[(strKey):"aval"]])
+        TestEntity sibling = new TestEntity([owner:app, config:[(intKey):1]])
+        TestEntity child = new TestEntity([owner:e, config:[(intKey):2]])
+        TestEntity siblingChild = new TestEntity([owner:sibling, config:[(intKey):3]])
+        Map<ConfigKey,Object> siblingConfig = siblingChild.getAllConfig()
+        Map<ConfigKey,Object> childConfig = child.getAllConfig()
+
+        e.setConfig(strKey, "diffval")
+
+        assertSame(siblingChild.getAllConfig(), siblingConfig)
+        assertNotSame(child.getAllConfig(), childConfig)
+        assertEquals(child.getConfig(strKey), "diffval")
+        assertEquals(child.getConfig(intKey), 2)
+    }
+
+    @Test
+    public void testChildNoLongerInheritsAfterOwnerCleared() throws Exception {
+        TestEntity e = new TestEntity([owner:app, config:[(strKey):"aval"]])
+        TestEntity child = new TestEntity([owner:e, config:[(intKey):2]])
+        assertEquals(child.getConfig(strKey), "aval")
+
+        child.clearOwner()
+        assertNull(child.getConfig(strKey))
+        assertEquals(child.getConfig(intKey), 2)
+    }
 }
@@ -0,0 +1,209 @@
+package brooklyn.event.adapter
+
+import static brooklyn.test.TestUtils.*
+import static org.testng.Assert.*
+
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+
+import org.eclipse.jetty.server.Request
+import org.eclipse.jetty.server.Server
+import org.eclipse.jetty.server.handler.AbstractHandler
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.entity.basic.AbstractApplication
+import brooklyn.event.basic.BasicAttributeSensor
+import brooklyn.location.basic.SimulatedLocation
+import brooklyn.test.entity.TestEntity
+
+import com.google.common.io.CharStreams
+
+/**
+ * Polls an embedded Jetty server with {@link HttpSensorAdapter}s, and with their {@link HttpPollEngine} directly.
+ */
+public class HttpSensorAdapterIntegrationTest {
+
+    private static final int TIMEOUT = 10*1000
+
+    final static BasicAttributeSensor<String> SENSOR_STRING = [String.class, "aString", ""]
+    final static BasicAttributeSensor<Long> SENSOR_LONG = [Long.class, "aLong", ""]
+    final static BasicAttributeSensor<Integer> SENSOR_CODE = [Integer.class, "aCode", ""]
+
+    private Server server
+    private String baseUrl
+    private Set<Integer> clientPorts = new CopyOnWriteArraySet<Integer>()
+    private AtomicInteger numRequests = new AtomicInteger()
+    private AtomicInteger numNotModified = new AtomicInteger()
+
+    private HttpPollEngine engine
+    private AbstractApplication app
+    private TestEntity entity
+    private SensorRegistry registry
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        server = new Server(0)
+        server.setHandler(new AbstractHandler() {
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) {
+                clientPorts << request.getRemotePort()
+                numRequests.incrementAndGet()
+                baseRequest.setHandled(true)
+                switch (target) {
+                    case "/count":
+                        response.writer.print('{"count":'+numRequests.get()+'}')
+                        break
+                    case "/etag":
+                        if (request.getHeader("If-None-Match") == '"v1"') {
+                            numNotModified.incrementAndGet()
+                            response.setStatus(304)
+                        } else {
+                            response.setHeader("ETag", '"v1"')
+                            response.writer.print("unchanging")
+                        }
+                        break
+                    case "/redirect":
+                        response.sendRedirect("/count")
+                        break
+                    case "/echo":
+                        response.writer.print(request.method+":"+CharStreams.toString(request.reader))
+                        break
+                    case "/large":
+                        response.outputStream.write(new byte[64*1024])
+                        break
+                    case "/slow":
+                        Thread.sleep(5*1000)
+                        response.writer.print("slow")
+                        break
+                    case "/error":
+                        response.setStatus(500)
+                        response.writer.print("oops")
+                        break
+                    default:
+                        response.setStatus(404)
+                }
+            }
+        })
+        server.start()
+        baseUrl = "http://localhost:"+server.connectors[0].localPort
+
+        engine = new HttpPollEngine("test", 5*1000, 5*1000, 2, 60*1000, 4)
+        app = new AbstractApplication() {}
+        entity = new TestEntity(owner:app)
+        app.start([new SimulatedLocation()])
+        registry = new SensorRegistry(entity)
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        registry?.close()
+        engine?.stop()
+        server?.stop()
+    }
+
+    @Test(groups="Integration")
+    public void testPollsReuseOneConnection() {
+        for (int i = 1; i <= 5; i++) {
+            HttpResponseContext response = engine.execute(new HttpPollEngine.Request(baseUrl+"/count"))
+            assertNull(response.error)
+            assertEquals(response.responseCode, 200)
+            assertEquals(response.json.count, i)
+        }
+        assertEquals(clientPorts.size(), 1, "ports="+clientPorts)
+        assertEquals(engine.numResponses, 5)
+    }
+
+    @Test(groups="Integration")
+    public void testAdapterPollsSensors() {
+        HttpSensorAdapter adapter = registry.register(new HttpSensorAdapter(baseUrl+"/count", period:50*TimeUnit.MILLISECONDS, engine:engine))
+        adapter.poll(SENSOR_LONG, { json.count })
+        adapter.poll(SENSOR_CODE, { responseCode })
+        registry.activateAdapters()
+
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertTrue(entity.getAttribute(SENSOR_LONG) >= 3)
+            assertEquals(entity.getAttribute(SENSOR_CODE), 200)
+        }
+        assertEquals(clientPorts.size(), 1, "ports="+clientPorts)
+    }
+
+    @Test(groups="Integration")
+    public void testConditionalPollsLeaveSensorsWhenNotModified() {
+        AtomicInteger evaluations = new AtomicInteger()
+        HttpSensorAdapter adapter = registry.register(new HttpSensorAdapter(baseUrl+"/etag", period:50*TimeUnit.MILLISECONDS, engine:engine))
+        adapter.poll(SENSOR_STRING, { evaluations.incrementAndGet(); content })
+        registry.activateAdapters()
+
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals(entity.getAttribute(SENSOR_STRING), "unchanging")
+            assertTrue(adapter.poller.numNotModified >= 3)
+        }
+        assertEquals(evaluations.get(), 1)
+        assertTrue(numNotModified.get() >= 3)
+    }
+
+    @Test(groups="Integration")
+    public void testAdapterFollowsRedirects() {
+        HttpSensorAdapter adapter = registry.register(new HttpSensorAdapter(baseUrl+"/redirect", period:50*TimeUnit.MILLISECONDS, engine:engine))
+        adapter.poll(SENSOR_LONG, { json.count })
+        adapter.poll(SENSOR_CODE, { responseCode })
+        registry.activateAdapters()
+
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals(entity.getAttribute(SENSOR_CODE), 200)
+            assertTrue(entity.getAttribute(SENSOR_LONG) >= 2)
+        }
+    }
+
+    @Test(groups="Integration")
+    public void testPostsContentAndVars() {
+        HttpSensorAdapter adapter = registry.register(new HttpSensorAdapter(baseUrl+"/echo", period:50*TimeUnit.MILLISECONDS, engine:engine))
+        adapter.post("hello", "text/plain").poll(SENSOR_STRING)
+        adapter.vars(a:"1").post().poll(SENSOR_LONG, { content == "POST:a=1" ? 1 : 0 })
+        registry.activateAdapters()
+
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals(entity.getAttribute(SENSOR_STRING), "POST:hello")
+            assertEquals(entity.getAttribute(SENSOR_LONG), 1)
+        }
+    }
+
+    @Test(groups="Integration")
+    public void testResponseLongerThanMaxIsRejected() {
+        HttpResponseContext response = engine.execute(new HttpPollEngine.Request(baseUrl+"/large").maxContentLength(1024))
+        assertTrue(response.error instanceof IOException, "error="+response.error)
+        assertEquals(engine.numTooLarge, 1)
+
+        // and the engine is still usable
+        assertEquals(engine.execute(new HttpPollEngine.Request(baseUrl+"/count")).responseCode, 200)
+    }
+
+    @Test(groups="Integration")
+    public void testSlowResponseTimesOut() {
+        long start = System.currentTimeMillis()
+        HttpResponseContext response = engine.execute(new HttpPollEngine.Request(baseUrl+"/slow").timeout(200, TimeUnit.MILLISECONDS))
+        assertTrue(response.error instanceof TimeoutException, "error="+response.error)
+        assertTrue(System.currentTimeMillis() - start < 4*1000)
+        assertEquals(engine.numTimeouts, 1)
+    }
+
+    @Test(groups="Integration")
+    public void testErrorStatusIsErrorWithResponseAvailable() {
+        HttpSensorAdapter adapter = registry.register(new HttpSensorAdapter(baseUrl+"/error", period:50*TimeUnit.MILLISECONDS, engine:engine))
+        adapter.poll(SENSOR_CODE, { error!=null ? responseCode : -1 })
+        adapter.poll(SENSOR_STRING, { content })
+        registry.activateAdapters()
+
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals(entity.getAttribute(SENSOR_CODE), 500)
+            assertEquals(entity.getAttribute(SENSOR_STRING), "oops")
+        }
+        assertFalse(adapter.poller.lastWasSuccessful)
+    }
+}
@@ -0,0 +1,141 @@
+package brooklyn.event.adapter
+
+import static brooklyn.test.TestUtils.*
+import static org.testng.Assert.*
+
+import java.sql.Connection
+import java.sql.DriverManager
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.entity.basic.AbstractApplication
+import brooklyn.event.basic.BasicAttributeSensor
+import brooklyn.location.basic.SimulatedLocation
+import brooklyn.test.entity.TestEntity
+import brooklyn.util.internal.TimeExtras
+
+/**
+ * Polls an in-memory H2 database with {@link JdbcSensorAdapter}s; its global_status table stands in for
+ * the result of MySQL's SHOW GLOBAL STATUS.
+ */
+public class JdbcSensorAdapterTest {
+
+    static { TimeExtras.init() }
+
+    private static final int TIMEOUT = 10*1000
+
+    final static BasicAttributeSensor<Integer> THREADS_CONNECTED = [Integer.class, "threadsConnected", ""]
+    final static BasicAttributeSensor<Long> QUERIES = [Long.class, "queries", ""]
+    final static BasicAttributeSensor<Long> NEW_ORDERS = [Long.class, "newOrders", ""]
+    final static BasicAttributeSensor<Integer> NUM_ROWS = [Integer.class, "numRows", ""]
+
+    private String url
+    private Connection setupConnection
+    private AbstractApplication app
+    private TestEntity entity
+    private SensorRegistry registry
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        url = "jdbc:h2:mem:jdbcSensorAdapterTest"+System.identityHashCode(this)
+        // kept open, so the in-memory database lasts for the test
+        setupConnection = DriverManager.getConnection(url)
+        update("CREATE TABLE global_status (variable_name VARCHAR(64), variable_value VARCHAR(64))")
+        update("INSERT INTO global_status VALUES ('Threads_connected', '3'), ('Queries', '1000')")
+        update("CREATE TABLE orders (id INT, status VARCHAR(16))")
+        update("INSERT INTO orders VALUES (1, 'new'), (2, 'new'), (3, 'shipped')")
+
+        app = new AbstractApplication() {}
+        entity = new TestEntity(owner:app)
+        app.start([new SimulatedLocation()])
+        registry = new SensorRegistry(entity)
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        registry?.close()
+        setupConnection?.close()
+    }
+
+    private void update(String sql) {
+        setupConnection.createStatement().executeUpdate(sql)
+    }
+
+    @Test
+    public void testPollsVariablesAndValues() {
+        JdbcSensorAdapter jdbc = registry.register(new JdbcSensorAdapter(url, period:50*TimeUnit.MILLISECONDS))
+        jdbc.query("SELECT * FROM global_status").with {
+            poll(THREADS_CONNECTED) { variables.Threads_connected }
+            poll(QUERIES) { variables.queries }
+        }
+        jdbc.query("SELECT COUNT(*) FROM orders WHERE status = ?", "new").poll(NEW_ORDERS) { value }
+        registry.activateAdapters()
+
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals(entity.getAttribute(THREADS_CONNECTED), 3)
+            assertEquals(entity.getAttribute(QUERIES), 1000L)
+            assertEquals(entity.getAttribute(NEW_ORDERS), 2L)
+        }
+        update("UPDATE global_status SET variable_value = '5' WHERE variable_name = 'Threads_connected'")
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals(entity.getAttribute(THREADS_CONNECTED), 5)
+            assertTrue(jdbc.numExecutions >= 6)
+        }
+        // one connection, and one prepared statement per query, re-used for every poll
+        assertEquals(jdbc.numConnects, 1)
+        assertEquals(jdbc.numPrepares, 2)
+    }
+
+    @Test
+    public void testQueriesHaveTheirOwnPeriods() {
+        AtomicInteger fastPolls = new AtomicInteger()
+        AtomicInteger slowPolls = new AtomicInteger()
+        JdbcSensorAdapter jdbc = registry.register(new JdbcSensorAdapter(url, period:50*TimeUnit.MILLISECONDS))
+        jdbc.query("SELECT * FROM global_status").poll(THREADS_CONNECTED) { fastPolls.incrementAndGet(); variables.Threads_connected }
+        jdbc.query("SELECT * FROM orders", period:60*TimeUnit.SECONDS).poll(NUM_ROWS) { slowPolls.incrementAndGet(); rows.size() }
+        registry.activateAdapters()
+
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertTrue(fastPolls.get() >= 5)
+        }
+        assertEquals(slowPolls.get(), 1)
+        assertEquals(entity.getAttribute(NUM_ROWS), 3)
+    }
+
+    @Test
+    public void testReconnectsAfterQueryFails() {
+        JdbcSensorAdapter jdbc = registry.register(new JdbcSensorAdapter(url, period:50*TimeUnit.MILLISECONDS))
+        jdbc.query("SELECT COUNT(*) FROM orders").poll(NUM_ROWS) { value }
+        registry.activateAdapters()
+
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals(entity.getAttribute(NUM_ROWS), 3)
+        }
+        update("DROP TABLE orders")
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertTrue(jdbc.numConnects >= 2)
+        }
+        update("CREATE TABLE orders (id INT, status VARCHAR(16))")
+        update("INSERT INTO orders VALUES (1, 'new')")
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals(entity.getAttribute(NUM_ROWS), 1)
+        }
+    }
+
+    @Test
+    public void testClosesConnectionWhenDeactivated() {
+        JdbcSensorAdapter jdbc = registry.register(new JdbcSensorAdapter(url, period:50*TimeUnit.MILLISECONDS))
+        jdbc.query("SELECT COUNT(*) FROM orders").poll(NUM_ROWS) { value }
+        registry.activateAdapters()
+
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertTrue(jdbc.isConnected())
+        }
+        registry.deactivateAdapters()
+        assertFalse(jdbc.hasConnection())
+    }
+}
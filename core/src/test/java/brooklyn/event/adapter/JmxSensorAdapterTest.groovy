@@ -117,6 +117,59 @@ public class JmxSensorAdapterTest {
         }
     }
 
+    @Test
+    public void jmxAttributesOfSameObjectNameAreFetchedTogether() {
+        BasicAttributeSensor<Integer> intAttribute2 = [ Integer, "brooklyn.test.intAttribute2", "Brooklyn testing int attribute 2" ]
+        GeneralisedDynamicMBean mbean = jmxService.registerMBean(objectName, (attributeName): 42, "otherattrib": "abc")
+
+        JmxAttributeAdapter attributeAdapter
+        jmxAdapter.objectName(objectName).with {
+            attributeAdapter = attribute(attributeName)
+            attribute(attributeName).subscribe(intAttribute)
+            attribute(attributeName).subscribe(intAttribute2, { it+1 })
+            attribute("otherattrib").subscribe(stringAttribute)
+        }
+        assertSame(jmxAdapter.objectName(objectName).attribute(attributeName), attributeAdapter)
+        registry.activateAdapters()
+
+        TestUtils.executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals entity.getAttribute(intAttribute), 42
+            assertEquals entity.getAttribute(intAttribute2), 43
+            assertEquals entity.getAttribute(stringAttribute), "abc"
+        }
+
+        // each poll fetches both attributes in one round trip (allowing for a poll in progress at either end)
+        JmxHelper helper = jmxAdapter.helper
+        long roundTrips = helper.numRoundTrips
+        long fetched = helper.numAttributesFetched
+        Thread.sleep(1000)
+        long polls = helper.numRoundTrips - roundTrips
+        assertTrue(polls > 0)
+        assertTrue(Math.abs((helper.numAttributesFetched - fetched) - 2*polls) <= 2,
+                "roundTrips="+polls+"; attributesFetched="+(helper.numAttributesFetched - fetched))
+
+        mbean.updateAttributeValue(attributeName, 64)
+        TestUtils.executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals entity.getAttribute(intAttribute), 64
+            assertEquals entity.getAttribute(intAttribute2), 65
+        }
+    }
+
+    @Test
+    public void jmxAttributeWhichCannotBeReadDoesNotStopOthers() {
+        jmxService.registerMBean(objectName, (attributeName): 42)
+
+        jmxAdapter.objectName(objectName).with {
+            attribute("doesnotexist").subscribe(stringAttribute)
+            attribute(attributeName).subscribe(intAttribute)
+        }
+        registry.activateAdapters()
+
+        TestUtils.executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals entity.getAttribute(intAttribute), 42
+        }
+    }
+
     @Test(expectedExceptions=[IllegalStateException.class])
     public void jmxCheckInstanceExistsEventuallyThrowsIfNotFound() {
         jmxHelper.connect(TIMEOUT)
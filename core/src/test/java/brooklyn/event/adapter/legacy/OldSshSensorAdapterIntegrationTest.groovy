@@ -0,0 +1,92 @@
+package brooklyn.event.adapter.legacy
+
+import static org.testng.Assert.*
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.entity.Entity
+import brooklyn.entity.basic.AbstractEntity
+import brooklyn.location.basic.SshMachineLocation
+import brooklyn.util.internal.ssh.InProcessSshServer
+
+/**
+ * Polls command providers of an {@link OldSshSensorAdapter} against an {@link InProcessSshServer},
+ * with and without a persistent shell.
+ */
+public class OldSshSensorAdapterIntegrationTest {
+
+    private InProcessSshServer server
+    private SshMachineLocation machine
+    private Entity entity
+    private OldSshSensorAdapter adapter
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        server = new InProcessSshServer().start()
+        machine = server.newMachine()
+        entity = new AbstractEntity() {}
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        adapter?.close()
+        machine?.close()
+        server?.stop()
+    }
+
+    @Test(groups="Integration")
+    public void testProvidersInPersistentShell() {
+        adapter = new OldSshSensorAdapter(entity, machine, persistentShell:true)
+        assertProviders()
+        assertNotNull(adapter.shellChannel)
+    }
+
+    @Test(groups="Integration")
+    public void testProvidersRunningEachCommand() {
+        adapter = new OldSshSensorAdapter(entity, machine, persistentShell:false)
+        assertProviders()
+        assertNull(adapter.shellChannel)
+    }
+
+    private void assertProviders() {
+        assertEquals(adapter.newReturnValueProvider("(exit 2)").compute(), 2)
+        assertTrue(adapter.newOutputValueProvider("echo hello").compute().contains("hello"))
+        assertNull(adapter.newOutputValueProvider("echo hello; false").compute())
+        assertTrue(adapter.newMatchValueProvider("echo PONG", /PONG/).compute())
+        assertFalse(adapter.newMatchValueProvider("echo PING", /PONG/).compute())
+    }
+
+    /** a command which increments a counter in a file, and outputs its new value */
+    private String newCounterCommand() {
+        File file = File.createTempFile("oldSshSensorAdapterTest", ".txt")
+        file.delete()
+        file.deleteOnExit()
+        return "n=\$(cat ${file.absolutePath} 2>/dev/null || echo 0); n=\$((n+1)); echo \$n > ${file.absolutePath}; echo \$n"
+    }
+
+    @Test(groups="Integration")
+    public void testProvidersPolledTogetherShareOneRoundTrip() {
+        adapter = new OldSshSensorAdapter(entity, machine, persistentShell:true, maxResultAge:60*1000)
+        ValueProvider<String> counter = adapter.newOutputValueProvider(newCounterCommand())
+        ValueProvider<Boolean> up = adapter.newMatchValueProvider("echo PONG", /PONG/)
+
+        assertEquals(counter.compute(), "1\n")
+        assertTrue(up.compute())
+        assertEquals(counter.compute(), "1\n")
+        assertEquals(adapter.shellChannel.numBatches, 1)
+        assertEquals(adapter.shellChannel.numCommands, 2)
+    }
+
+    @Test(groups="Integration")
+    public void testStaleResultsAreRefreshed() {
+        adapter = new OldSshSensorAdapter(entity, machine, persistentShell:true, maxResultAge:0)
+        ValueProvider<String> counter = adapter.newOutputValueProvider(newCounterCommand())
+
+        assertEquals(counter.compute(), "1\n")
+        assertEquals(counter.compute(), "2\n")
+        assertEquals(adapter.shellChannel.numBatches, 2)
+        assertEquals(adapter.shellChannel.numOpens, 1)
+    }
+}
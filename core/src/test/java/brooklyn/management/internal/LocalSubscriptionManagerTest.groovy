@@ -1,5 +1,6 @@
 package brooklyn.management.internal;
 
+import static brooklyn.test.TestUtils.*
 import static org.testng.Assert.*
 
 import java.util.concurrent.CountDownLatch
@@ -10,6 +11,7 @@ import org.testng.annotations.Test
 import brooklyn.entity.basic.AbstractGroup
 import brooklyn.event.SensorEvent
 import brooklyn.event.SensorEventListener
+import brooklyn.event.basic.BasicSensorEvent
 import brooklyn.test.entity.TestApplication
 import brooklyn.test.entity.TestEntity
 
@@ -61,4 +63,165 @@ public class LocalSubscriptionManagerTest {
         assertEquals(events.getAt(0).sensor, TestEntity.SEQUENCE)
         assertEquals(events.getAt(0).source.id, member.id)
     }
+
+    @Test
+    public void testSubscriptionsForEntitySensorIncludeWildcardsAndAreRemovedOnUnsubscribe() {
+        TestApplication app = new TestApplication()
+        TestEntity entity = new TestEntity([owner:app])
+        TestEntity other = new TestEntity([owner:app])
+        LocalSubscriptionManager manager = new LocalSubscriptionManager(app.managementContext.executionManager)
+        SensorEventListener listener = { } as SensorEventListener
+
+        def exact = manager.subscribe(entity, TestEntity.SEQUENCE, listener)
+        def anyProducer = manager.subscribe(null, TestEntity.SEQUENCE, listener)
+        def anySensor = manager.subscribe(entity, null, listener)
+        def otherSensor = manager.subscribe(entity, TestEntity.NAME, listener)
+        def otherProducer = manager.subscribe(other, TestEntity.SEQUENCE, listener)
+
+        assertEquals(manager.getSubscriptionsForEntitySensor(entity, TestEntity.SEQUENCE), [exact, anyProducer, anySensor] as Set)
+        assertEquals(manager.getSubscriptionsForEntitySensor(other, TestEntity.SEQUENCE), [otherProducer, anyProducer] as Set)
+        assertEquals(manager.numSubscriptions, 5)
+
+        assertTrue(manager.unsubscribe(exact))
+        assertTrue(manager.unsubscribe(anySensor))
+        assertFalse(manager.unsubscribe(exact))
+        assertEquals(manager.getSubscriptionsForEntitySensor(entity, TestEntity.SEQUENCE), [anyProducer] as Set)
+        assertEquals(manager.getSubscriptionsForEntitySensor(entity, TestEntity.NAME), [otherSensor] as Set)
+        assertEquals(manager.numSubscriptions, 3)
+    }
+
+    @Test
+    public void testBatchedDeliveryPreservesOrderPerSubscriber() {
+        TestApplication app = new TestApplication()
+        TestEntity entity = new TestEntity([owner:app])
+        LocalSubscriptionManager manager = new LocalSubscriptionManager(app.managementContext.executionManager)
+        manager.setBatchedDelivery(true)
+        int numEvents = 1000
+        
+        List<Integer> received = Collections.synchronizedList([])
+        CountDownLatch latch = new CountDownLatch(numEvents)
+        // the subscriber is held up on the first event until all are published, so the rest queue up behind it
+        CountDownLatch published = new CountDownLatch(1)
+        manager.subscribe([subscriber:"batched"], entity, TestEntity.SEQUENCE, 
+                { published.await(10, TimeUnit.SECONDS); received.add(it.value); latch.countDown() } as SensorEventListener)
+        
+        for (int i = 0; i < numEvents; i++) {
+            manager.publish(new BasicSensorEvent(TestEntity.SEQUENCE, entity, i))
+        }
+        published.countDown()
+        if (!latch.await(10, TimeUnit.SECONDS)) {
+            fail "Timeout waiting for batched events; received ${received.size()}"
+        }
+        assertEquals(received, (0..<numEvents).toList())
+        assertEquals(manager.totalEventsDelivered, numEvents)
+        executeUntilSucceeds(timeout:10*1000) {
+            // metrics are updated when each delivery task finishes, which may be just after the last event
+            assertEquals(manager.numQueuedEvents, 0)
+            assertEquals(manager.totalEventsDelivered, numEvents)
+            // the events queued while the first was being delivered were delivered together
+            assertTrue(manager.totalDeliveryTasks < numEvents, "tasks="+manager.totalDeliveryTasks)
+            assertTrue(manager.meanEventsPerDeliveryTask > 1, "mean="+manager.meanEventsPerDeliveryTask)
+        }
+    }
+
+    @Test
+    public void testConflatedSubscriptionOnlyReceivesLatestValueWhenBehind() {
+        TestApplication app = new TestApplication()
+        TestEntity entity = new TestEntity([owner:app])
+        LocalSubscriptionManager manager = new LocalSubscriptionManager(app.managementContext.executionManager)
+        
+        CountDownLatch firstEventLatch = new CountDownLatch(1)
+        CountDownLatch releaseLatch = new CountDownLatch(1)
+        List<Integer> received = Collections.synchronizedList([])
+        manager.subscribe([subscriber:"slow", conflate:true], entity, TestEntity.SEQUENCE, { 
+                received.add(it.value)
+                firstEventLatch.countDown()
+                releaseLatch.await(10, TimeUnit.SECONDS)
+            } as SensorEventListener)
+        
+        manager.publish(new BasicSensorEvent(TestEntity.SEQUENCE, entity, 0))
+        assertTrue(firstEventLatch.await(10, TimeUnit.SECONDS))
+        for (int i = 1; i <= 100; i++) {
+            manager.publish(new BasicSensorEvent(TestEntity.SEQUENCE, entity, i))
+        }
+        releaseLatch.countDown()
+        
+        executeUntilSucceeds(timeout:10*1000) {
+            assertEquals(received, [0, 100])
+        }
+        assertEquals(manager.totalEventsConflated, 99)
+        assertEquals(manager.totalEventsDelivered, 2)
+    }
+    
+    @Test
+    public void testConflatedEventsPendingOnUnsubscribeAreDropped() {
+        TestApplication app = new TestApplication()
+        TestEntity entity = new TestEntity([owner:app])
+        LocalSubscriptionManager manager = new LocalSubscriptionManager(app.managementContext.executionManager)
+        
+        CountDownLatch firstEventLatch = new CountDownLatch(1)
+        CountDownLatch releaseLatch = new CountDownLatch(1)
+        List<Integer> received = Collections.synchronizedList([])
+        def handle = manager.subscribe([subscriber:"slow", conflate:true], entity, TestEntity.SEQUENCE, { 
+                received.add(it.value)
+                firstEventLatch.countDown()
+                releaseLatch.await(10, TimeUnit.SECONDS)
+            } as SensorEventListener)
+        
+        manager.publish(new BasicSensorEvent(TestEntity.SEQUENCE, entity, 0))
+        assertTrue(firstEventLatch.await(10, TimeUnit.SECONDS))
+        manager.publish(new BasicSensorEvent(TestEntity.SEQUENCE, entity, 1))
+        manager.unsubscribe(handle)
+        releaseLatch.countDown()
+        
+        assertSucceedsContinually(timeout:500) {
+            assertEquals(received, [0])
+        }
+        assertEquals(manager.totalEventsDropped, 1)
+    }
+
+    @Test
+    public void testSubscribeToMembersTracksMembershipChanges() {
+        TestApplication app = new TestApplication()
+        AbstractGroup group = new AbstractGroup([owner:app]) {}
+        TestEntity member = new TestEntity([owner:app])
+        TestEntity laterMember = new TestEntity([owner:app])
+        TestEntity nonMember = new TestEntity([owner:app])
+        group.addMember(member)
+
+        List<SensorEvent<Integer>> events = Collections.synchronizedList([])
+        app.subscribeToMembers(group, TestEntity.SEQUENCE, { events.add(it) } as SensorEventListener)
+        group.addMember(laterMember)
+        
+        member.setAttribute(TestEntity.SEQUENCE, 1)
+        laterMember.setAttribute(TestEntity.SEQUENCE, 2)
+        nonMember.setAttribute(TestEntity.SEQUENCE, 3)
+        executeUntilSucceeds(timeout:10*1000) {
+            assertEquals(events.collect { it.value } as Set, [1, 2] as Set)
+        }
+        
+        group.removeMember(member)
+        member.setAttribute(TestEntity.SEQUENCE, 4)
+        laterMember.setAttribute(TestEntity.SEQUENCE, 5)
+        executeUntilSucceeds(timeout:10*1000) {
+            assertEquals(events.size(), 3)
+            assertEquals(events.get(2).value, 5)
+        }
+    }
+    
+    @Test
+    public void testSubscribeToChildrenTracksNewChildren() {
+        TestApplication app = new TestApplication()
+        List<SensorEvent<Integer>> events = Collections.synchronizedList([])
+        app.subscribeToChildren(app, TestEntity.SEQUENCE, { events.add(it) } as SensorEventListener)
+        TestEntity child = new TestEntity([owner:app])
+        TestEntity grandchild = new TestEntity([owner:child])
+        
+        child.setAttribute(TestEntity.SEQUENCE, 1)
+        grandchild.setAttribute(TestEntity.SEQUENCE, 2)
+        executeUntilSucceeds(timeout:10*1000) {
+            assertEquals(events.collect { it.value }, [1])
+        }
+        assertEquals(app.managementContext.subscriptionManager.getSubscriptionsForEntitySensor(child, TestEntity.SEQUENCE).size(), 1)
+    }
 }
@@ -0,0 +1,96 @@
+package brooklyn.qa.performance
+
+import static org.testng.Assert.*
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.enricher.CustomAggregatingEnricher
+import brooklyn.entity.Entity
+import brooklyn.entity.LocallyManagedEntity
+import brooklyn.event.AttributeSensor
+import brooklyn.event.basic.BasicAttributeSensor
+
+/**
+ * Measures handling a change to one member's value, when aggregating over 5000 members: with the built-in
+ * (incremental) enrichers, and with equivalent closures which are given all the values each time.
+ */
+public class AggregatingEnricherPerformanceTest extends AbstractPerformanceTest {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(AggregatingEnricherPerformanceTest.class)
+
+    private static final int NUM_MEMBERS = 5000
+
+    AttributeSensor<Integer> source = new BasicAttributeSensor<Integer>(Integer.class, "source")
+    AttributeSensor<Integer> intTarget = new BasicAttributeSensor<Integer>(Integer.class, "int target")
+    AttributeSensor<Double> doubleTarget = new BasicAttributeSensor<Double>(Double.class, "double target")
+
+    LocallyManagedEntity entity
+    List<Entity> members
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        super.setUp()
+        entity = new LocallyManagedEntity(owner:app)
+        members = []
+        for (int i = 0; i < NUM_MEMBERS; i++) {
+            members.add(new LocallyManagedEntity(owner:app))
+        }
+    }
+
+    private void measureEvents(String prefix, int numIterations, double minRatePerSec, CustomAggregatingEnricher enricher) {
+        entity.addEnricher(enricher)
+        int i = 0
+        measureAndAssert(prefix, numIterations, minRatePerSec) {
+            enricher.onEvent(source.newEvent(members[i % NUM_MEMBERS], i % 100))
+            i++
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testIncrementalSum() {
+        measureEvents("aggregate-sum-incremental", 100000, 10000, CustomAggregatingEnricher.getSummingEnricher(members, source, intTarget))
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testIncrementalMean() {
+        measureEvents("aggregate-mean-incremental", 100000, 10000, CustomAggregatingEnricher.getAveragingEnricher(members, source, doubleTarget))
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testIncrementalMax() {
+        measureEvents("aggregate-max-incremental", 100000, 10000, CustomAggregatingEnricher.getMaxEnricher(members, source, intTarget))
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testClosureSum() {
+        // as the summing enricher was before it was incremental
+        measureEvents("aggregate-sum-closure", 1000, 10, new CustomAggregatingEnricher<Integer,Integer>(members, source, intTarget,
+                { it?.sum(0, {it ?: 0}) ?: 0 }, 0))
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testClosureMax() {
+        measureEvents("aggregate-max-closure", 1000, 10, new CustomAggregatingEnricher<Integer,Integer>(members, source, intTarget,
+                { it.findAll { it!=null }.max() }, null))
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testIncrementalAddAndRemoveMembers() {
+        CustomAggregatingEnricher<Integer,Integer> enricher = CustomAggregatingEnricher.getSummingEnricher(members, source, intTarget)
+        entity.addEnricher(enricher)
+        for (int i = 0; i < NUM_MEMBERS; i++) {
+            enricher.onEvent(source.newEvent(members[i], 1))
+        }
+        int i = 0
+        measureAndAssert("aggregate-sum-remove-and-add", 10000, 1000) {
+            Entity member = members[i++ % NUM_MEMBERS]
+            enricher.removeProducer(member)
+            enricher.addProducer(member)
+            enricher.onEvent(source.newEvent(member, 1))
+        }
+        assertEquals(enricher.getAggregate(), NUM_MEMBERS)
+    }
+}
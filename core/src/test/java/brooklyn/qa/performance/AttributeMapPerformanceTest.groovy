@@ -0,0 +1,95 @@
+package brooklyn.qa.performance
+
+import static org.testng.Assert.*
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.event.basic.AttributeMap
+import brooklyn.event.basic.BasicAttributeSensor
+import brooklyn.test.entity.TestEntity
+
+/**
+ * Measures reading and writing an entity's attributes, and the memory used by its {@link AttributeMap},
+ * for an entity with 20 attributes set.
+ */
+public class AttributeMapPerformanceTest extends AbstractPerformanceTest {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(AttributeMapPerformanceTest.class)
+
+    private static final int NUM_ATTRIBUTES = 20
+
+    TestEntity entity
+    List<BasicAttributeSensor<Integer>> sensors
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        super.setUp()
+        entity = new TestEntity(owner:app)
+        sensors = []
+        for (int i = 0; i < NUM_ATTRIBUTES; i++) {
+            sensors.add(new BasicAttributeSensor<Integer>(Integer, "attributeMapPerformanceTest.sensor"+i, ""))
+        }
+        app.start([loc])
+        sensors.each { entity.setAttribute(it, 1) }
+    }
+
+    /** a map for the entity (as it would have), with the attributes set by path so no events are published */
+    private AttributeMap newPopulatedMap() {
+        AttributeMap result = new AttributeMap(entity)
+        sensors.each { result.update(it.nameParts, 1) }
+        return result
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testGetAttribute() {
+        int i = 0
+        measureAndAssert("getAttribute", 1000000, 100000) {
+            entity.getAttribute(sensors[(i++) % NUM_ATTRIBUTES])
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testAttributeMapGetValue() {
+        AttributeMap map = newPopulatedMap()
+        int i = 0
+        measureAndAssert("attributeMap-getValue", 1000000, 1000000) {
+            map.getValue(sensors[(i++) % NUM_ATTRIBUTES])
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testAttributeMapUpdateByPath() {
+        // by path, so not publishing an event
+        AttributeMap map = newPopulatedMap()
+        List<List<String>> paths = sensors.collect { it.nameParts }
+        int i = 0
+        measureAndAssert("attributeMap-updateByPath", 1000000, 100000) {
+            map.update(paths[i % NUM_ATTRIBUTES], i++)
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testMemoryPerEntity() {
+        int numMaps = 10000
+        List<AttributeMap> maps = new ArrayList<AttributeMap>(numMaps)
+        Runtime runtime = Runtime.getRuntime()
+
+        for (int i = 0; i < 5; i++) System.gc()
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory()
+        for (int i = 0; i < numMaps; i++) {
+            maps.add(newPopulatedMap())
+        }
+        for (int i = 0; i < 5; i++) System.gc()
+        long usedAfter = runtime.totalMemory() - runtime.freeMemory()
+
+        long bytesPerEntity = (usedAfter - usedBefore) / numMaps
+        String msg = "attributeMap memory: about "+bytesPerEntity+" bytes per entity with "+NUM_ATTRIBUTES+" attributes"
+        LOG.info(msg)
+        System.out.println("\n"+msg+"\n")
+        assertEquals(maps.size(), numMaps)
+        assertTrue(bytesPerEntity < 1024, msg)
+    }
+}
@@ -0,0 +1,76 @@
+package brooklyn.qa.performance
+
+import static org.testng.Assert.*
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.event.basic.BasicConfigKey
+import brooklyn.test.entity.TestEntity
+
+/**
+ * Measures setting config near the root of a tree of 10,000 entities, and looking it up in the leaves.
+ */
+public class ConfigInheritancePerformanceTest extends AbstractPerformanceTest {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(ConfigInheritancePerformanceTest.class)
+
+    private static final int NUM_CHILDREN = 100
+    private static final int NUM_GRANDCHILDREN_EACH = 99
+
+    BasicConfigKey<String> rootKey = [ String, "configInheritancePerformanceTest.root", "set on the app" ]
+    BasicConfigKey<String> childKey = [ String, "configInheritancePerformanceTest.child", "set on each child" ]
+
+    List<TestEntity> leaves
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        super.setUp()
+        app.setConfig(rootKey, "initial")
+        leaves = []
+        for (int i = 0; i < NUM_CHILDREN; i++) {
+            TestEntity child = new TestEntity(owner:app, config:[(childKey):"child"+i])
+            for (int j = 0; j < NUM_GRANDCHILDREN_EACH; j++) {
+                leaves.add(new TestEntity(owner:child))
+            }
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testLookupInheritedConfig() {
+        int i = 0
+        measureAndAssert("getConfig-inherited", 100000, 10000) {
+            leaves[(i++) % leaves.size()].getConfig(rootKey)
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testSetConfigAtRoot() {
+        int i = 0
+        measureAndAssert("setConfig-root", 10000, 1000) {
+            app.setConfig(rootKey, "val"+(i++))
+        }
+        assertEquals(leaves[0].getConfig(rootKey), "val"+(i-1))
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testSetConfigAtRootThenLookupInLeaf() {
+        int i = 0
+        measureAndAssert("setConfig-root-then-getConfig-leaf", 10000, 1000) {
+            String val = "val"+i
+            app.setConfig(rootKey, val)
+            assertEquals(leaves[(i++) % leaves.size()].getConfig(rootKey), val)
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testSetConfigAtRootThenLookupInAllLeaves() {
+        int i = 0
+        measureAndAssert("setConfig-root-then-getConfig-all-leaves", 10, 1) {
+            app.setConfig(rootKey, "val"+(i++))
+            leaves.each { it.getConfig(rootKey) }
+        }
+    }
+}
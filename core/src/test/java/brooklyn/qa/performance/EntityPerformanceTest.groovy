@@ -84,6 +84,18 @@ public class EntityPerformanceTest extends AbstractPerformanceTest {
         }
     }
 
+    @Test(groups=["Integration", "Acceptance"])
+    public void testCreateEntities() {
+        int numIterations = numIterations()
+        double minRatePerSec = 1000
+        int i = 0
+        
+        // as a cluster does when creating members: a new entity, with config, owned by an existing one
+        measureAndAssert("createEntity", numIterations, minRatePerSec) {
+            new TestEntity(owner:app, config:[(TestEntity.CONF_NAME):"entity-"+(i++)])
+        }
+    }
+
     @Test(groups=["Integration", "Acceptance"])
     public void testInvokeEffector() {
         int numIterations = numIterations()
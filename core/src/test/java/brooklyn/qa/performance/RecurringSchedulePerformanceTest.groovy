@@ -0,0 +1,163 @@
+package brooklyn.qa.performance
+
+import static org.testng.Assert.*
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.testng.annotations.Test
+
+import brooklyn.util.task.TimingWheelScheduler
+
+/**
+ * Compares scheduling accuracy and allocation of a {@link ScheduledThreadPoolExecutor} (which is what
+ * {@link brooklyn.util.task.BasicExecutionManager} used to run scheduled tasks, re-scheduling each iteration as a new job)
+ * with a {@link TimingWheelScheduler} (re-arming a single entry per schedule), with 100k recurring schedules of 1-5s.
+ * <p>
+ * Allocation is measured with the HotSpot-specific thread MXBean, so is reported as -1 on other JVMs.
+ */
+public class RecurringSchedulePerformanceTest {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(RecurringSchedulePerformanceTest.class)
+
+    private static final int NUM_SCHEDULES = 100000
+    private static final long MEASURE_MS = 20*1000
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testScheduledThreadPoolExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, daemonThreadFactory())
+        try {
+            Stats stats = new Stats()
+            for (int i = 0; i < NUM_SCHEDULES; i++) {
+                long period = periodMillis(i)
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(period)
+                executor.schedule(new ReschedulingJob(executor, stats, period, deadline), period, TimeUnit.MILLISECONDS)
+            }
+            report("scheduledThreadPoolExecutor", stats, executor)
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testTimingWheel() {
+        TimingWheelScheduler wheel = new TimingWheelScheduler("perf", 10, daemonThreadFactory())
+        try {
+            Stats stats = new Stats()
+            for (int i = 0; i < NUM_SCHEDULES; i++) {
+                final long periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis(i))
+                final TimingWheelScheduler.Entry[] entry = new TimingWheelScheduler.Entry[1]
+                entry[0] = wheel.newEntry(new Callable() { public Object call() {
+                    long deadline = entry[0].deadlineNanos
+                    stats.record(System.nanoTime() - deadline)
+                    entry[0].scheduleAt(deadline + periodNanos)
+                    return null
+                }})
+                entry[0].schedule(periodMillis(i), TimeUnit.MILLISECONDS)
+            }
+            report("timingWheel", stats, wheel)
+        } finally {
+            wheel.shutdownNow()
+        }
+    }
+
+    private static long periodMillis(int i) {
+        return 1000 + (i % 4001)
+    }
+
+    private void report(String prefix, Stats stats, Object scheduler) {
+        // let every schedule run a few times before measuring
+        Thread.sleep(6*1000)
+        stats.reset()
+        long allocatedBefore = allocatedBytes()
+        Thread.sleep(MEASURE_MS)
+        long allocated = (allocatedBefore < 0) ? -1 : (allocatedBytes() - allocatedBefore)
+
+        long runs = stats.count.get()
+        double meanLatenessMs = (runs==0) ? 0 : ((double)stats.totalLatenessNanos.get()/runs) / 1000000
+        double maxLatenessMs = ((double)stats.maxLatenessNanos.get()) / 1000000
+        String msg = prefix+": "+NUM_SCHEDULES+" recurring schedules; "+runs+" runs in "+MEASURE_MS+"ms; "+
+                "mean lateness "+meanLatenessMs+"ms; max lateness "+maxLatenessMs+"ms; "+
+                "allocated "+allocated+" bytes ("+(runs==0 || allocated<0 ? "?" : allocated/runs)+" per run); "+scheduler
+        LOG.info(msg)
+        System.out.println("\n"+msg+"\n")
+        // each schedule runs at least every 5s
+        assertTrue(runs >= NUM_SCHEDULES*(MEASURE_MS/5000 - 1), msg)
+    }
+
+    private static long allocatedBytes() {
+        def threadMxBean = ManagementFactory.getThreadMXBean()
+        long[] allocatedPerThread
+        try {
+            allocatedPerThread = threadMxBean.getThreadAllocatedBytes(threadMxBean.allThreadIds)
+        } catch (MissingMethodException e) {
+            return -1
+        }
+        long total = 0
+        for (long bytes : allocatedPerThread) {
+            if (bytes > 0) total += bytes
+        }
+        return total
+    }
+
+    private static ThreadFactory daemonThreadFactory() {
+        return new ThreadFactory() {
+            ThreadFactory delegate = Executors.defaultThreadFactory()
+            public Thread newThread(Runnable r) {
+                Thread t = delegate.newThread(r)
+                t.setDaemon(true)
+                return t
+            }
+        }
+    }
+
+    private static class Stats {
+        final AtomicLong count = new AtomicLong()
+        final AtomicLong totalLatenessNanos = new AtomicLong()
+        final AtomicLong maxLatenessNanos = new AtomicLong()
+
+        void record(long latenessNanos) {
+            count.incrementAndGet()
+            totalLatenessNanos.addAndGet(Math.max(0, latenessNanos))
+            long max
+            while (latenessNanos > (max = maxLatenessNanos.get())) {
+                if (maxLatenessNanos.compareAndSet(max, latenessNanos)) break
+            }
+        }
+
+        void reset() {
+            count.set(0)
+            totalLatenessNanos.set(0)
+            maxLatenessNanos.set(0)
+        }
+    }
+
+    /** as scheduled tasks were previously run: a fresh job is scheduled for each iteration */
+    private static class ReschedulingJob implements Runnable {
+        final ScheduledThreadPoolExecutor executor
+        final Stats stats
+        final long periodMillis
+        final long deadlineNanos
+
+        ReschedulingJob(ScheduledThreadPoolExecutor executor, Stats stats, long periodMillis, long deadlineNanos) {
+            this.executor = executor
+            this.stats = stats
+            this.periodMillis = periodMillis
+            this.deadlineNanos = deadlineNanos
+        }
+
+        public void run() {
+            stats.record(System.nanoTime() - deadlineNanos)
+            long next = deadlineNanos + TimeUnit.MILLISECONDS.toNanos(periodMillis)
+            executor.schedule(new ReschedulingJob(executor, stats, periodMillis, next),
+                    next - System.nanoTime(), TimeUnit.NANOSECONDS)
+        }
+    }
+}
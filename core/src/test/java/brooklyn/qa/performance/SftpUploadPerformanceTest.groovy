@@ -0,0 +1,134 @@
+package brooklyn.qa.performance
+
+import static org.testng.Assert.*
+
+import net.schmizz.sshj.SSHClient
+import net.schmizz.sshj.sftp.SFTPClient
+import net.schmizz.sshj.transport.verification.PromiscuousVerifier
+import net.schmizz.sshj.xfer.InMemorySourceFile
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.location.basic.SshMachineLocation
+import brooklyn.util.internal.ssh.InProcessSshServer
+
+/**
+ * Uploads a multi-hundred-megabyte stream to an in-process ssh server, comparing sshj's own sftp upload
+ * (one write request outstanding at a time, as {@link brooklyn.util.internal.ssh.SshjTool} used to do)
+ * with {@link SshMachineLocation#copyTo(Map, InputStream, String)} (pipelined, and streaming a stream of unknown length).
+ * Reports throughput, and peak heap usage sampled during the upload.
+ */
+public class SftpUploadPerformanceTest {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SftpUploadPerformanceTest.class)
+
+    private static final long FILE_SIZE = 300*1024*1024
+
+    private InProcessSshServer server
+    private File dest
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        server = new InProcessSshServer().start()
+        dest = File.createTempFile("sftpUploadPerformanceTest", ".bin")
+        dest.deleteOnExit()
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        server?.stop()
+        dest?.delete()
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testSshjUpload() {
+        SSHClient ssh = new SSHClient()
+        ssh.addHostKeyVerifier(new PromiscuousVerifier())
+        ssh.connect("localhost", server.port)
+        try {
+            ssh.authPassword("test", InProcessSshServer.PASSWORD)
+            SFTPClient sftp = ssh.newSFTPClient()
+            measure("sshjUpload") {
+                sftp.put(new InMemorySourceFile() {
+                    public String getName() { return dest.name }
+                    public long getLength() { return FILE_SIZE }
+                    public InputStream getInputStream() { return new GeneratedInputStream(FILE_SIZE) }
+                }, dest.absolutePath)
+            }
+            sftp.close()
+        } finally {
+            ssh.disconnect()
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testPipelinedStreamingUpload() {
+        SshMachineLocation machine = server.newMachine()
+        try {
+            measure("pipelinedStreamingUpload") {
+                assertEquals(machine.copyTo(new GeneratedInputStream(FILE_SIZE), dest.absolutePath), 0)
+            }
+        } finally {
+            machine.close()
+        }
+    }
+
+    private void measure(String prefix, Closure upload) {
+        for (int i = 0; i < 5; i++) System.gc()
+        Runtime r = Runtime.getRuntime()
+        long usedBefore = r.totalMemory() - r.freeMemory()
+        long peakUsed = usedBefore
+        boolean done = false
+        Thread sampler = new Thread({
+            while (!done) {
+                peakUsed = Math.max(peakUsed, r.totalMemory() - r.freeMemory())
+                Thread.sleep(10)
+            }
+        })
+        sampler.setDaemon(true)
+        sampler.start()
+
+        long start = System.currentTimeMillis()
+        try {
+            upload.call()
+        } finally {
+            done = true
+            sampler.join()
+        }
+        long durationMs = Math.max(1, System.currentTimeMillis() - start)
+
+        assertEquals(dest.length(), FILE_SIZE)
+        double mbPerSec = (FILE_SIZE/(1024d*1024d)) / (durationMs/1000d)
+        String msg = prefix+": uploaded "+(FILE_SIZE/(1024*1024))+"MB in "+durationMs+"ms ("+mbPerSec+"MB/s); "+
+                "peak heap used "+((peakUsed-usedBefore)/(1024*1024))+"MB above baseline"
+        LOG.info(msg)
+        System.out.println("\n"+msg+"\n")
+    }
+
+    /** Deterministic content of the given length, generated as it is read rather than held in memory. */
+    private static class GeneratedInputStream extends InputStream {
+        long remaining
+
+        GeneratedInputStream(long length) {
+            remaining = length
+        }
+        public int read() {
+            if (remaining <= 0) return -1
+            remaining--
+            return (int)(remaining & 0x7f)
+        }
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) return -1
+            int n = (int) Math.min(len, remaining)
+            for (int i = 0; i < n; i++) {
+                b[off+i] = (byte)((remaining-i-1) & 0x7f)
+            }
+            remaining -= n
+            return n
+        }
+    }
+}
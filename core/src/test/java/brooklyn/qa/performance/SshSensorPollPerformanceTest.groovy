@@ -0,0 +1,66 @@
+package brooklyn.qa.performance
+
+import static org.testng.Assert.*
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.event.adapter.legacy.OldSshSensorAdapter
+import brooklyn.event.adapter.legacy.ValueProvider
+import brooklyn.location.basic.SshMachineLocation
+import brooklyn.util.internal.ssh.InProcessSshServer
+
+/**
+ * Polls two ssh command sensors (as {@link brooklyn.entity.nosql.redis.RedisStore} does) against an in-process
+ * ssh server, comparing running each command as a script with running both in one round-trip to a persistent shell.
+ */
+public class SshSensorPollPerformanceTest extends AbstractPerformanceTest {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SshSensorPollPerformanceTest.class)
+
+    private InProcessSshServer server
+    private SshMachineLocation machine
+    private OldSshSensorAdapter adapter
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        super.setUp()
+        server = new InProcessSshServer().start()
+        machine = server.newMachine()
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        adapter?.close()
+        machine?.close()
+        server?.stop()
+        super.tearDown()
+    }
+
+    private void measurePoll(String prefix, int numIterations, double minRatePerSec) {
+        ValueProvider<Boolean> up = adapter.newMatchValueProvider("echo PONG", /PONG/)
+        ValueProvider<String> info = adapter.newOutputValueProvider("echo uptime_in_seconds:1")
+        measureAndAssert(prefix, numIterations, minRatePerSec) {
+            // maxResultAge of 0, so every poll runs the commands
+            assertTrue(up.compute())
+            assertTrue(info.compute().contains("uptime_in_seconds"))
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testPollRunningEachCommand() {
+        adapter = new OldSshSensorAdapter(app, machine, persistentShell:false)
+        measurePoll("sshSensorPoll-eachCommand", 100, 1)
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testPollInPersistentShell() {
+        adapter = new OldSshSensorAdapter(app, machine, persistentShell:true, maxResultAge:0)
+        measurePoll("sshSensorPoll-persistentShell", 1000, 10)
+        // each sensor's compute ran both commands, in one batch
+        assertEquals(adapter.shellChannel.numOpens, 1)
+    }
+}
@@ -16,6 +16,7 @@ import org.testng.annotations.Test
 import brooklyn.event.SensorEventListener
 import brooklyn.location.basic.SimulatedLocation
 import brooklyn.management.SubscriptionManager
+import brooklyn.management.internal.LocalSubscriptionManager
 import brooklyn.test.entity.TestApplication
 import brooklyn.test.entity.TestEntity
 
@@ -67,6 +68,39 @@ public class SubscriptionPerformanceTest extends AbstractPerformanceTest {
                 { completionLatch.await(LONG_TIMEOUT_MS, TimeUnit.MILLISECONDS); assertTrue(completionLatch.getCount() <= 0) })
     }
     
+    @Test(groups=["Integration", "Acceptance"])
+    public void testManyListenersForSensorEventWithBatchedDelivery() {
+        int numSubscribers = 10
+        int numIterations = 1000
+        double minRatePerSec = 100
+        int iter = 0
+        int expectedCount = numIterations*numSubscribers
+        
+        AtomicInteger listenerCount = new AtomicInteger()
+        CountDownLatch completionLatch = new CountDownLatch(1)
+        
+        LocalSubscriptionManager localSubscriptionManager = (LocalSubscriptionManager) subscriptionManager
+        localSubscriptionManager.setBatchedDelivery(true)
+        for (int i = 0; i < numSubscribers; i++) {
+            subscriptionManager.subscribe([subscriber:"batched-"+i], entity, TestEntity.SEQUENCE, 
+                {
+                    int count = listenerCount.incrementAndGet()
+                    if (count >= expectedCount) completionLatch.countDown()
+                } as SensorEventListener)
+        }
+        
+        try {
+            measureAndAssert("updateAttributeWithManyListenersBatched", numIterations, minRatePerSec,
+                    { entity.setAttribute(TestEntity.SEQUENCE, (iter++)) },
+                    { completionLatch.await(LONG_TIMEOUT_MS, TimeUnit.MILLISECONDS); assertTrue(completionLatch.getCount() <= 0) })
+            LOG.info("updateAttributeWithManyListenersBatched: "+localSubscriptionManager.getTotalDeliveryTasks()+" delivery tasks, "+
+                    localSubscriptionManager.getMeanEventsPerDeliveryTask()+" events per task, max queue depth "+
+                    localSubscriptionManager.getMaxSubscriberQueueDepth())
+        } finally {
+            localSubscriptionManager.setBatchedDelivery(false)
+        }
+    }
+    
     @Test(groups=["Integration", "Acceptance"])
     public void testUpdateAttributeWithNoListenersButManyUnrelatedListeners() {
         int numUnrelatedSubscribers = 1000
@@ -0,0 +1,166 @@
+package brooklyn.qa.performance
+
+import static org.testng.Assert.*
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.event.SensorEventListener
+import brooklyn.event.basic.BasicSensorEvent
+import brooklyn.management.SubscriptionManager
+import brooklyn.test.entity.TestEntity
+
+import com.google.common.base.Stopwatch
+
+/**
+ * Measures how publish throughput of the subscription manager scales as the number of publishing threads increases,
+ * with many subscriptions registered (the common case being that most are for other entities or sensors),
+ * and with a fraction of the events matching a subscription (so also measuring the cost of delivering them).
+ */
+public class SubscriptionPublishScalingPerformanceTest extends AbstractPerformanceTest {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SubscriptionPublishScalingPerformanceTest.class)
+
+    private static final long LONG_TIMEOUT_MS = 60*1000
+
+    List<TestEntity> entities
+    SubscriptionManager subscriptionManager
+    ExecutorService executor
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        super.setUp()
+
+        entities = []
+        for (int i = 0; i < 10; i++) {
+            entities += new TestEntity(owner:app)
+        }
+        app.start([loc])
+
+        subscriptionManager = app.managementContext.subscriptionManager
+        executor = Executors.newCachedThreadPool()
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        executor?.shutdownNow()
+        super.tearDown()
+    }
+
+    private Exception exception
+
+    /** subscriptions on a sensor nobody publishes, spread across all entities, and on a different producer */
+    private void subscribeUnrelated(int numUnrelatedSubscribers) {
+        for (int i = 0; i < numUnrelatedSubscribers; i++) {
+            subscriptionManager.subscribe([subscriber:i], entities[i % entities.size()], TestEntity.MY_NOTIF,
+                    {
+                        exception = new RuntimeException("Unrelated subscriber called with $it")
+                        throw exception
+                    } as SensorEventListener)
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testPublishThroughputScalesWithThreads() {
+        subscribeUnrelated(1000)
+        measureRatesByThreadCount("publishWithUnrelatedListeners", 100000, 10000, 0, null)
+        if (exception != null) {
+            throw exception
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testPublishThroughputWithFractionOfEventsMatching() {
+        int matchingEvery = 10
+        subscribeUnrelated(1000)
+
+        // one subscriber for the NAME sensor of each entity, counting what it is delivered
+        AtomicLong delivered = new AtomicLong()
+        for (TestEntity entity : entities) {
+            subscriptionManager.subscribe([subscriber:"counter"], entity, TestEntity.NAME, { delivered.incrementAndGet() } as SensorEventListener)
+        }
+
+        measureRatesByThreadCount("publishWithFractionMatching", 100000, 5000, matchingEvery, delivered)
+        if (exception != null) {
+            throw exception
+        }
+    }
+
+    /**
+     * @param matchingEvery if non-zero, every nth event published is for a sensor with a subscriber, which counts
+     *        them in the given counter; the measured time includes delivering them all
+     */
+    private void measureRatesByThreadCount(String prefix, int numIterationsPerThread, double minRatePerSec, int matchingEvery, AtomicLong delivered) {
+        Map<Integer,Double> ratesByThreadCount = [:]
+        for (int numThreads : [1, 2, 4, 8]) {
+            double rate = measurePublishRate(numThreads, numIterationsPerThread, matchingEvery, delivered)
+            ratesByThreadCount.put(numThreads, rate)
+
+            String msg = prefix+": threads="+numThreads+"; numPerSec="+rate
+            LOG.info(msg)
+            System.out.println("\n"+msg+"\n")
+            assertTrue(rate >= minRatePerSec, msg)
+        }
+        LOG.info(prefix+" rates by thread count: "+ratesByThreadCount)
+    }
+
+    private double measurePublishRate(int numThreads, final int numIterationsPerThread, final int matchingEvery, AtomicLong delivered) {
+        // the matching events of the warm-up and of the measured run, from each thread
+        long numMatchingPerThread = countMatching(numIterationsPerThread.intdiv(10), matchingEvery) + countMatching(numIterationsPerThread, matchingEvery)
+        long expectedDeliveries = (delivered != null ? delivered.get() : 0) + numThreads*numMatchingPerThread
+
+        final CyclicBarrier barrier = new CyclicBarrier(numThreads+1)
+        List<Future> futures = []
+        for (int t = 0; t < numThreads; t++) {
+            final TestEntity source = entities[t % entities.size()]
+            futures += executor.submit(new Callable() { public Object call() {
+                // warm-up, then wait for all threads to be ready
+                for (int i = 0; i < numIterationsPerThread/10; i++) {
+                    publish(source, i, matchingEvery)
+                }
+                barrier.await()
+                for (int i = 0; i < numIterationsPerThread; i++) {
+                    publish(source, i, matchingEvery)
+                }
+                return null
+            }})
+        }
+        barrier.await(LONG_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+        Stopwatch stopwatch = new Stopwatch().start()
+        for (Future f : futures) {
+            f.get(LONG_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+        }
+        if (delivered != null) {
+            // delivery is asynchronous, so wait for the matching events to have been delivered
+            while (delivered.get() < expectedDeliveries && stopwatch.elapsedMillis() < LONG_TIMEOUT_MS) {
+                Thread.sleep(1)
+            }
+            assertEquals(delivered.get(), expectedDeliveries)
+        }
+        long durationMillis = Math.max(1, stopwatch.elapsedMillis())
+        return ((double)numThreads*numIterationsPerThread/durationMillis * 1000)
+    }
+
+    private void publish(TestEntity source, int i, int matchingEvery) {
+        if (matchingEvery > 0 && i % matchingEvery == 0) {
+            subscriptionManager.publish(new BasicSensorEvent(TestEntity.NAME, source, "name"+i))
+        } else {
+            subscriptionManager.publish(new BasicSensorEvent(TestEntity.SEQUENCE, source, i))
+        }
+    }
+
+    private static long countMatching(int numIterations, int matchingEvery) {
+        return (matchingEvery > 0) ? (numIterations + matchingEvery - 1).intdiv(matchingEvery) : 0
+    }
+}
@@ -109,6 +109,44 @@ public class TaskPerformanceTest extends AbstractPerformanceTest {
         if (exceptions.size() > 0) throw exceptions.get(0)
     }
     
+    @Test(groups=["Integration", "Acceptance"])
+    public void testExecuteWithManySingleThreadedSchedulers() {
+        double minRatePerSec = 1000
+        int numSchedulers = 100
+        
+        List<SingleThreadedScheduler> schedulers = []
+        for (int i = 0; i < numSchedulers; i++) {
+            SingleThreadedScheduler scheduler = new SingleThreadedScheduler()
+            executionManager.setTaskSchedulerForTag("singlethreaded-"+i, scheduler)
+            schedulers += scheduler
+        }
+        
+        final AtomicInteger submitCount = new AtomicInteger();
+        final AtomicInteger counter = new AtomicInteger();
+        final CountDownLatch completionLatch = new CountDownLatch(1)
+        
+        Runnable work = new Runnable() { public void run() {
+                int val = counter.incrementAndGet()
+                if (val >= numIterations) completionLatch.countDown()
+            }}
+
+        // as for event delivery: consecutive submissions tend to go to different subscribers
+        List<Map> flags = (0..(numSchedulers-1)).collect { [tags:["singlethreaded-"+it]] }
+        
+        measureAndAssert("testExecuteWithManySingleThreadedSchedulers", numIterations, minRatePerSec,
+                { 
+                    while (submitCount.get() > counter.get() + 5000) {
+                        Thread.sleep(10);
+                    }
+                    executionManager.submit(new LinkedHashMap(flags[submitCount.getAndIncrement() % numSchedulers]), work) },
+                { completionLatch.await(LONG_TIMEOUT_MS, TimeUnit.MILLISECONDS); assertTrue(completionLatch.getCount() <= 0) })
+        
+        long drainJobs = schedulers.sum { it.totalDrainJobs }
+        String msg = "testExecuteWithManySingleThreadedSchedulers: "+drainJobs+" drain jobs for "+submitCount.get()+" tasks"
+        LOG.info(msg)
+        System.out.println("\n"+msg+"\n")
+    }
+    
     public static void main(String[] args) {
         def t = new TaskPerformanceTest();
         t.setUp();
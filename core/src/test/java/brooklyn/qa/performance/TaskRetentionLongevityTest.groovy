@@ -0,0 +1,80 @@
+package brooklyn.qa.performance
+
+import static org.testng.Assert.*
+
+import java.util.concurrent.Semaphore
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.management.ExpirationPolicy
+import brooklyn.util.task.BasicExecutionManager
+import brooklyn.util.task.BasicTask
+
+/**
+ * Submits millions of retained (i.e. {@link ExpirationPolicy#NEVER}) tasks, as effector invocations are,
+ * and checks that heap usage levels off once the per-tag retention limits are reached.
+ */
+public class TaskRetentionLongevityTest {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(TaskRetentionLongevityTest.class)
+
+    private static final int NUM_TASKS = 3*1000*1000
+    private static final int NUM_TAGS = 100
+    private static final int NUM_SAMPLES = 6
+
+    BasicExecutionManager em
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        em = new BasicExecutionManager()
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        em?.shutdownNow()
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testHeapIsFlatAfterMillionsOfRetainedTasks() {
+        // don't let submissions run too far ahead of completions, so we measure retained tasks rather than a backlog
+        Semaphore inFlight = new Semaphore(1000)
+        Runnable job = { inFlight.release() } as Runnable
+
+        List<Long> usedHeap = []
+        int perSample = NUM_TASKS/NUM_SAMPLES
+        for (int sample = 0; sample < NUM_SAMPLES; sample++) {
+            for (int i = 0; i < perSample; i++) {
+                inFlight.acquire()
+                em.submit([expirationPolicy:ExpirationPolicy.NEVER, tags:["entity-"+(i%NUM_TAGS), "effector"]], new BasicTask(job))
+            }
+            inFlight.acquire(1000)
+            inFlight.release(1000)
+
+            long used = usedHeapAfterGc()
+            usedHeap += used
+            String msg = "after "+((sample+1)*perSample)+" tasks: used heap "+(used/1024)+"kB; "+
+                    "tasks retained for tag entity-0: "+em.getNumTasksWithTag("entity-0")
+            LOG.info(msg)
+            System.out.println(msg)
+        }
+
+        // by the end of the first sample every tag is at its retention limit; allow some slack for noise
+        long first = usedHeap[1]
+        long last = usedHeap[NUM_SAMPLES-1]
+        assertTrue(last < first*1.2 + 5*1024*1024, "usedHeap="+usedHeap)
+        assertTrue(em.getNumTasksWithTag("effector") <= 1000, "effector tasks="+em.getNumTasksWithTag("effector"))
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 5; i++) {
+            System.gc()
+            Thread.sleep(100)
+        }
+        Runtime r = Runtime.getRuntime()
+        return r.totalMemory() - r.freeMemory()
+    }
+}
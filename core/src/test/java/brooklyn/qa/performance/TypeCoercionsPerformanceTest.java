@@ -0,0 +1,64 @@
+package brooklyn.qa.performance;
+
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import brooklyn.util.flags.TypeCoercions;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Measures {@link TypeCoercions#coerce(Object, Class)} for the common strategies, with the strategy for each pair of
+ * types remembered (as normal), and with it worked out afresh on every call (as it was before it was cached).
+ */
+public class TypeCoercionsPerformanceTest extends AbstractPerformanceTest {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(TypeCoercionsPerformanceTest.class);
+
+    private static final int NUM_ITERATIONS = 100000;
+
+    private final List<Integer> list = ImmutableList.of(1, 2, 3);
+    private final WithAs withAs = new WithAs(7);
+
+    @Test(groups={"Integration", "Acceptance"})
+    public void testCoerceWithCache() {
+        measureAndAssert("coerce-cached", NUM_ITERATIONS, 100000, new Runnable() {
+            public void run() {
+                coerceEach();
+            }});
+    }
+
+    @Test(groups={"Integration", "Acceptance"})
+    public void testCoerceWithoutCache() {
+        measureAndAssert("coerce-uncached", NUM_ITERATIONS, 1000, new Runnable() {
+            public void run() {
+                TypeCoercions.clearCache();
+                coerceEach();
+            }});
+    }
+
+    private void coerceEach() {
+        // registered adapter
+        TypeCoercions.coerce(list, Set.class);
+        // value.asInteger()
+        TypeCoercions.coerce(withAs, Integer.class);
+        // boxing
+        TypeCoercions.coerce(3, Integer.TYPE);
+        // no strategy
+        try {
+            TypeCoercions.coerce(withAs, Set.class);
+        } catch (ClassCastException e) {
+            // expected
+        }
+    }
+
+    public static class WithAs {
+        private final int value;
+        public WithAs(int value) { this.value = value; }
+        public Integer asInteger() { return value; }
+    }
+}
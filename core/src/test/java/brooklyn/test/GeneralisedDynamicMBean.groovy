@@ -66,7 +66,7 @@ class GeneralisedDynamicMBean implements DynamicMBean {
 
     AttributeList getAttributes(String[] strings) {
         AttributeList result = new AttributeList()
-        mBeanInfo.attributes.each { result.add(new Attribute(it.name, attributes[it.name])) }
+        strings.each { if (attributes.containsKey(it)) result.add(new Attribute(it, attributes[it])) }
         return result
     }
 
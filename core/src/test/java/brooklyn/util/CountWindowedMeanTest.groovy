@@ -0,0 +1,58 @@
+package brooklyn.util;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+class CountWindowedMeanTest {
+
+    @Test
+    public void testMeanOfMostRecentValues() {
+        CountWindowedMean mean = new CountWindowedMean(3);
+        assertNull(mean.getMean());
+        
+        mean.add(10);
+        assertEquals(mean.getMean(), 10d);
+        mean.add(20);
+        mean.add(30);
+        assertEquals(mean.getMean(), 20d);
+        mean.add(40);
+        mean.add(50);
+        assertEquals(mean.getMean(), 40d);
+        assertEquals(mean.size(), 3);
+    }
+    
+    @Test
+    public void testZeroWindowSizeKeepsNothing() {
+        CountWindowedMean mean = new CountWindowedMean(0);
+        mean.add(10);
+        assertNull(mean.getMean());
+    }
+    
+    @Test
+    public void testNegativeWindowSizeKeepsEverything() {
+        CountWindowedMean mean = new CountWindowedMean(-1);
+        for (int i = 1; i <= 1000; i++) {
+            mean.add(i);
+        }
+        assertEquals(mean.size(), 1000);
+        assertEquals(mean.getMean(), 500.5d);
+    }
+    
+    @Test
+    public void testMatchesRecomputedMeanAfterManyValues() {
+        Random random = new Random(1234);
+        CountWindowedMean mean = new CountWindowedMean(50);
+        LinkedList<Double> recent = new LinkedList<Double>();
+        for (int i = 0; i < 100000; i++) {
+            double value = random.nextDouble() * 1000000;
+            mean.add(value);
+            recent.addLast(value);
+            if (recent.size() > 50) recent.removeFirst();
+        }
+        double expected = 0;
+        for (double value : recent) expected += value;
+        expected /= recent.size();
+        assertEquals(mean.getMean(), expected, expected * 1e-12);
+    }
+}
@@ -0,0 +1,75 @@
+package brooklyn.util;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+class TimeWindowedMeanTest {
+
+    @Test
+    public void testWeightsValuesByTimeSincePrevious() {
+        TimeWindowedMean mean = new TimeWindowedMean(1000L);
+        mean.add(1000L, 10);
+        mean.add(1100L, 20);
+        mean.add(1300L, 30);
+        mean.add(1600L, 40);
+        mean.add(2000L, 50);
+        mean.prune(2000L);
+        assertEquals(mean.size(), 5);
+        assertEquals(mean.getMean(2000L), (20*100+30*200+40*300+50*400)/1000d);
+    }
+    
+    @Test
+    public void testMeanOnlyCoversTimeUpToLatestValue() {
+        TimeWindowedMean mean = new TimeWindowedMean(1000L);
+        mean.add(1000L, 10);
+        mean.add(2000L, 50);
+        mean.prune(2500L);
+        assertEquals(mean.getLatestTimestamp(), 2000L);
+        assertEquals(mean.getMean(2500L), 50d);
+        
+        mean.prune(3001L);
+        assertTrue(mean.isEmpty());
+        assertTrue(Double.isNaN(mean.getMean(3001L)));
+    }
+    
+    @Test
+    public void testGrowsWhenManyValuesInWindow() {
+        TimeWindowedMean mean = new TimeWindowedMean(1000L, 2);
+        for (int i = 1; i <= 100; i++) {
+            mean.add(i*10L, 7);
+        }
+        mean.prune(1000L);
+        assertEquals(mean.size(), 100);
+        assertEquals(mean.getMean(1000L), 7d, 1e-12);
+    }
+    
+    @Test
+    public void testMatchesRecomputedMeanAfterManyValues() {
+        Random random = new Random(1234);
+        TimeWindowedMean mean = new TimeWindowedMean(1000L);
+        List<Long> timestamps = [];
+        List<Double> values = [];
+        long now = 0;
+        for (int i = 0; i < 100000; i++) {
+            now += random.nextInt(50);
+            double value = random.nextDouble() * 1000000;
+            mean.add(now, value);
+            mean.prune(now);
+            timestamps.add(now);
+            values.add(value);
+        }
+        
+        // as RollingTimeWindowMeanEnricher used to, re-weighting every value in the window
+        long start = now - 1000L;
+        double covered = timestamps.last() - start;
+        double expected = 0;
+        long previous = start;
+        for (int i = 0; i < timestamps.size(); i++) {
+            if (timestamps[i] < start) continue;
+            expected += ((timestamps[i] - previous) / covered) * values[i];
+            previous = timestamps[i];
+        }
+        assertEquals(mean.getMean(now), expected, expected * 1e-9);
+    }
+}
@@ -10,6 +10,7 @@ import org.testng.annotations.Test;
 
 import brooklyn.util.flags.TypeCoercions;
 
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
@@ -59,6 +60,46 @@ public class TypeCoercionsTest {
         Assert.assertEquals(x.value, 3);
     }
 
+    @Test
+    public void testCoercionRepeatedGivesSameResults() {
+        for (int i=0; i<3; i++) {
+            Assert.assertEquals(TypeCoercions.coerce(new WithAs(""+i), Integer.class), (Integer)i);
+            Assert.assertEquals(TypeCoercions.coerce(ImmutableList.of(i), Set.class), ImmutableSet.of(i));
+        }
+    }
+
+    @Test
+    public void testFailedCoercionRepeatedFails() {
+        for (int i=0; i<2; i++) {
+            try {
+                TypeCoercions.coerce(new Unadapted(), Adapted.class);
+                Assert.fail();
+            } catch (ClassCastException e) {
+                Assert.assertTrue(e.getMessage().contains("no adapter known"), "msg="+e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testRegisteringAdapterReplacesCachedFailure() {
+        try {
+            TypeCoercions.coerce(new UnadaptedUntilRegistered(), Adapted.class);
+            Assert.fail();
+        } catch (ClassCastException e) {
+            // expected; not yet registered
+        }
+        TypeCoercions.registerAdapter(UnadaptedUntilRegistered.class, Adapted.class, new Function<UnadaptedUntilRegistered,Adapted>() {
+            @Override public Adapted apply(UnadaptedUntilRegistered input) {
+                return new Adapted();
+            }
+        });
+        Assert.assertTrue(TypeCoercions.coerce(new UnadaptedUntilRegistered(), Adapted.class) instanceof Adapted);
+    }
+
+    public static class Unadapted {}
+    public static class UnadaptedUntilRegistered {}
+    public static class Adapted {}
+
     public static class WithAs {
         String value;
         public WithAs(Object x) { value = ""+x; }
@@ -0,0 +1,78 @@
+package brooklyn.util.internal.ssh
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.apache.sshd.SshServer
+import org.apache.sshd.common.NamedFactory
+import org.apache.sshd.server.Command
+import org.apache.sshd.server.CommandFactory
+import org.apache.sshd.server.PasswordAuthenticator
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider
+import org.apache.sshd.server.session.ServerSession
+import org.apache.sshd.server.sftp.SftpSubsystem
+import org.apache.sshd.server.shell.ProcessShellFactory
+
+import brooklyn.location.basic.SshMachineLocation
+import brooklyn.util.NetworkUtils
+
+/**
+ * An Apache sshd server running in this JVM, for tests; it runs commands with the local /bin/sh,
+ * serves sftp on the local filesystem, and accepts any user with password {@link #PASSWORD}
+ * (counting the authentications it sees).
+ */
+public class InProcessSshServer {
+
+    public static final String PASSWORD = "secret"
+
+    final AtomicInteger authentications = new AtomicInteger()
+    int port
+    private SshServer server
+
+    public InProcessSshServer start() {
+        port = 58222
+        while (!NetworkUtils.isPortAvailable(port)) port++
+        server = SshServer.setUpDefaultServer()
+        server.port = port
+        server.keyPairProvider = new SimpleGeneratorHostKeyProvider()
+        server.passwordAuthenticator = new PasswordAuthenticator() {
+            public boolean authenticate(String username, String password, ServerSession session) {
+                authentications.incrementAndGet()
+                return password == PASSWORD
+            }
+        }
+        server.shellFactory = new ProcessShellFactory(["/bin/sh"] as String[])
+        server.commandFactory = new CommandFactory() {
+            public Command createCommand(String command) {
+                return new ProcessShellFactory(["/bin/sh", "-c", command] as String[]).create()
+            }
+        }
+        server.subsystemFactories = [ new SftpSubsystem.Factory() ] as List<NamedFactory<Command>>
+        server.start()
+        return this
+    }
+
+    /** Stops and starts the server on the same port, dropping all connections. */
+    public void restart() {
+        server.stop(true)
+        server.start()
+    }
+
+    public void stop() {
+        server?.stop(true)
+    }
+
+    public int getNumAuthentications() {
+        return authentications.get()
+    }
+
+    /** Properties for an {@link SshjTool} to connect to this server. */
+    public Map getSshProperties() {
+        return [host:"localhost", port:port, user:"test", password:PASSWORD]
+    }
+
+    /** A machine location which connects to this server. */
+    public SshMachineLocation newMachine() {
+        return new SshMachineLocation(address:InetAddress.getByName("localhost"), username:"test",
+                config:[("sshconfig.port"):port, ("sshconfig.password"):PASSWORD])
+    }
+}
@@ -0,0 +1,118 @@
+package brooklyn.util.internal.ssh
+
+import static brooklyn.test.TestUtils.*
+import static org.testng.Assert.*
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.location.basic.SshMachineLocation
+import brooklyn.util.task.BasicExecutionManager
+import brooklyn.util.task.BasicTask
+
+import com.google.common.io.Files
+
+/**
+ * Uploads streams of unknown length through {@link SshMachineLocation#copyTo(Map, InputStream, String)},
+ * which uses {@link PipelinedSftpUpload}, to an {@link InProcessSshServer}.
+ */
+public class PipelinedSftpUploadIntegrationTest {
+
+    private InProcessSshServer server
+    private SshMachineLocation machine
+    private File dest
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        server = new InProcessSshServer().start()
+        machine = server.newMachine()
+        dest = File.createTempFile("pipelinedSftpUploadTest", ".bin")
+        dest.deleteOnExit()
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        machine?.close()
+        server?.stop()
+        dest?.delete()
+    }
+
+    @Test(groups="Integration")
+    public void testUploadsStreamOfUnknownLength() {
+        // not a multiple of the chunk size, and more chunks than can be outstanding at once
+        byte[] data = new byte[PipelinedSftpUpload.CHUNK_SIZE*PipelinedSftpUpload.MAX_OUTSTANDING_WRITES*3 + 1234]
+        new Random(0).nextBytes(data)
+        assertEquals(machine.copyTo(new ByteArrayInputStream(data), dest.absolutePath), 0)
+        assertEquals(Files.toByteArray(dest), data)
+    }
+
+    @Test(groups="Integration")
+    public void testUploadReplacesLongerFile() {
+        Files.write(new byte[100*1024], dest)
+        assertEquals(machine.copyTo(new ByteArrayInputStream("abc".bytes), dest.absolutePath), 0)
+        assertEquals(new String(Files.toByteArray(dest)), "abc")
+    }
+
+    @Test(groups="Integration")
+    public void testUploadsEmptyStream() {
+        Files.write("abc".bytes, dest)
+        assertEquals(machine.copyTo(new ByteArrayInputStream(new byte[0]), dest.absolutePath), 0)
+        assertEquals(dest.length(), 0)
+    }
+
+    @Test(groups="Integration")
+    public void testReportsProgressOnTask() {
+        // a slow stream, so the upload takes several progress intervals
+        int numChunks = 4
+        InputStream slow = new InputStream() {
+            int remaining = numChunks*PipelinedSftpUpload.CHUNK_SIZE
+            public int read() {
+                if (remaining <= 0) return -1
+                if (remaining % PipelinedSftpUpload.CHUNK_SIZE == 0) Thread.sleep(PipelinedSftpUpload.PROGRESS_INTERVAL_MILLIS)
+                remaining--
+                return 1
+            }
+        }
+        BasicExecutionManager em = new BasicExecutionManager()
+        try {
+            BasicTask task = new BasicTask({ machine.copyTo(slow, dest.absolutePath) })
+            em.submit(task)
+            executeUntilSucceeds(timeout:10*1000) {
+                assertTrue(task.blockingDetails?.contains("uploading"), "details="+task.blockingDetails)
+            }
+            assertEquals(task.get(), 0)
+            assertNull(task.blockingDetails)
+            assertEquals(dest.length(), numChunks*PipelinedSftpUpload.CHUNK_SIZE)
+        } finally {
+            em.shutdownNow()
+        }
+    }
+
+    @Test(groups="Integration")
+    public void testFailedUploadOfStreamIsNotRetried() {
+        // fails part way through the first attempt; a retry would carry on from there, uploading a truncated file
+        InputStream failing = new InputStream() {
+            int remaining = 4*PipelinedSftpUpload.CHUNK_SIZE
+            boolean failed = false
+            int readsAfterFailure = 0
+            public int read() {
+                if (failed) readsAfterFailure++
+                else if (remaining == 2*PipelinedSftpUpload.CHUNK_SIZE) {
+                    failed = true
+                    throw new IOException("simulated failure")
+                }
+                if (remaining <= 0) return -1
+                remaining--
+                return 1
+            }
+        }
+        try {
+            machine.copyTo([("sshconfig.sshTries"):3], failing, dest.absolutePath)
+            fail()
+        } catch (SshException e) {
+            assertTrue(failing.failed)
+        }
+        assertEquals(failing.readsAfterFailure, 0)
+    }
+}
@@ -0,0 +1,128 @@
+package brooklyn.util.internal.ssh
+
+import static brooklyn.test.TestUtils.*
+import static org.testng.Assert.*
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.location.basic.SshMachineLocation
+
+import com.google.common.base.Charsets
+import com.google.common.io.Files
+
+/**
+ * Runs commands and file transfers through a {@link SshMachineLocation}'s {@link SshConnectionPool}
+ * against an {@link InProcessSshServer}, counting the authentications it sees.
+ */
+public class SshConnectionPoolIntegrationTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SshConnectionPoolIntegrationTest.class)
+
+    private InProcessSshServer server
+    private SshMachineLocation machine
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        server = new InProcessSshServer().start()
+        machine = server.newMachine()
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        machine?.close()
+        server?.stop()
+    }
+
+    @Test(groups="Integration")
+    public void testSequentialCommandsShareOneConnection() {
+        for (int i = 0; i < 5; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream()
+            assertEquals(machine.run(out:out, "echo hello$i"), 0)
+            assertTrue(new String(out.toByteArray()).contains("hello$i"), new String(out.toByteArray()))
+        }
+        SshConnectionPool pool = machine.sshPool
+        assertEquals(server.numAuthentications, 1)
+        assertEquals(pool.numOpens, 1)
+        assertEquals(pool.numHits, 4)
+        assertEquals(pool.numConnections, 1)
+        assertTrue(pool.maxHandshakeMillis > 0)
+        LOG.info("pool after sequential commands: opens={}, hits={}, mean handshake {}ms", pool.numOpens, pool.numHits, pool.meanHandshakeMillis)
+    }
+
+    @Test(groups="Integration")
+    public void testConcurrentCommandsAndTransfersAreMultiplexed() {
+        File src = File.createTempFile("sshConnectionPoolTest", ".txt")
+        src.deleteOnExit()
+        Files.write("abc", src, Charsets.UTF_8)
+        int numTasks = SshConnectionPool.MAX_SESSIONS_PER_CONNECTION
+        ExecutorService executor = Executors.newFixedThreadPool(numTasks)
+        try {
+            List<Future<Integer>> futures = []
+            for (int i = 0; i < numTasks; i++) {
+                final int ii = i
+                futures << executor.submit({
+                    if (ii % 2 == 0) {
+                        return machine.run("sleep 1; echo $ii")
+                    } else {
+                        File dest = new File(System.getProperty("java.io.tmpdir"), "sshConnectionPoolTest_dest_"+ii+".txt")
+                        dest.deleteOnExit()
+                        machine.copyTo(src, dest)
+                        return (Files.readFirstLine(dest, Charsets.UTF_8) == "abc") ? 0 : 1
+                    }
+                } as Callable)
+            }
+            for (Future<Integer> f : futures) {
+                assertEquals(f.get(), 0)
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+        assertEquals(server.numAuthentications, 1)
+        assertEquals(machine.sshPool.numOpens, 1)
+    }
+
+    @Test(groups="Integration")
+    public void testFailedTransferDoesNotDisruptOthersSharingTheConnection() {
+        ExecutorService executor = Executors.newSingleThreadExecutor()
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream()
+            Future<Integer> running = executor.submit({ machine.run(out:out, "sleep 2; echo done") } as Callable)
+            executeUntilSucceeds(timeout:10*1000) {
+                assertEquals(machine.sshPool.numLeases, 1)
+            }
+            File dest = new File(System.getProperty("java.io.tmpdir"), "sshConnectionPoolTest_missing.txt")
+            try {
+                machine.copyFrom("/does/not/exist/sshConnectionPoolTest", dest.absolutePath)
+                fail()
+            } catch (Exception e) {
+                // expected
+            }
+
+            assertEquals(running.get(), 0)
+            assertTrue(new String(out.toByteArray()).contains("done"), new String(out.toByteArray()))
+            assertEquals(server.numAuthentications, 1)
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    @Test(groups="Integration")
+    public void testReconnectsAfterServerRestart() {
+        assertEquals(machine.run("true"), 0)
+        server.restart()
+        // the dropped connection is either found disconnected when borrowed, or fails when used and is discarded
+        executeUntilSucceeds(timeout:10*1000) {
+            assertEquals(machine.run("true"), 0)
+        }
+        assertEquals(server.numAuthentications, 2)
+    }
+}
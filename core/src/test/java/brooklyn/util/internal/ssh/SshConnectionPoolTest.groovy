@@ -0,0 +1,250 @@
+package brooklyn.util.internal.ssh
+
+import static brooklyn.test.TestUtils.*
+import static org.testng.Assert.*
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.util.task.BasicExecutionManager
+import brooklyn.util.task.SharedScheduler
+
+/**
+ * Tests the pooling logic of {@link SshConnectionPool}, with tools that only pretend to connect;
+ * see {@link SshConnectionPoolIntegrationTest} for use against a real ssh server.
+ */
+public class SshConnectionPoolTest {
+
+    private static final Map PROPS = [host:"localhost", user:"test"]
+
+    private AtomicInteger connects
+    private BasicExecutionManager executionManager
+    private SharedScheduler scheduler
+    private SshConnectionPool pool
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        connects = new AtomicInteger()
+        executionManager = new BasicExecutionManager()
+        scheduler = executionManager.sharedScheduler
+        pool = newPool(60*1000, 2)
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        pool?.close()
+        executionManager?.shutdownNow()
+    }
+
+    private SshConnectionPool newPool(long idleTimeoutMillis, int maxSessions) {
+        return new SshConnectionPool("test", idleTimeoutMillis, maxSessions, scheduler) {
+            @Override protected SshjTool newTool(Map props) {
+                return new StubSshjTool(props, connects)
+            }
+        }
+    }
+
+    @Test
+    public void testReleasedConnectionIsReused() {
+        SshjTool t1 = pool.borrow(PROPS)
+        pool.release(t1)
+        SshjTool t2 = pool.borrow(PROPS)
+        pool.release(t2)
+
+        assertSame(t2, t1)
+        assertEquals(connects.get(), 1)
+        assertEquals(pool.numOpens, 1)
+        assertEquals(pool.numHits, 1)
+        assertEquals(pool.numConnections, 1)
+        assertEquals(pool.numLeases, 0)
+        assertTrue(t1.isConnected())
+    }
+
+    @Test
+    public void testConcurrentBorrowersShareConnectionUpToMaxSessions() {
+        SshjTool t1 = pool.borrow(PROPS)
+        SshjTool t2 = pool.borrow(PROPS)
+        SshjTool t3 = pool.borrow(PROPS)
+
+        assertSame(t2, t1)
+        assertNotSame(t3, t1)
+        assertEquals(pool.numOpens, 2)
+        assertEquals(pool.numConnections, 2)
+        assertEquals(pool.numLeases, 3)
+    }
+
+    @Test
+    public void testBorrowersWaitForConnectionBeingOpened() {
+        CountDownLatch connecting = new CountDownLatch(1)
+        CountDownLatch allowConnect = new CountDownLatch(1)
+        pool.close()
+        pool = new SshConnectionPool("test", 60*1000, 2, scheduler) {
+            @Override protected SshjTool newTool(Map props) {
+                return new StubSshjTool(props, connects) {
+                    @Override public void connect() {
+                        connecting.countDown()
+                        allowConnect.await()
+                        super.connect()
+                    }
+                }
+            }
+        }
+        List<SshjTool> borrowed = Collections.synchronizedList([])
+        Thread t1 = new Thread({ borrowed << pool.borrow(PROPS) })
+        t1.start()
+        assertTrue(connecting.await(10, TimeUnit.SECONDS))
+        Thread t2 = new Thread({ borrowed << pool.borrow(PROPS) })
+        t2.start()
+
+        Thread.sleep(100)
+        assertEquals(borrowed.size(), 0)
+        allowConnect.countDown()
+        t1.join(10*1000)
+        t2.join(10*1000)
+
+        assertEquals(borrowed.size(), 2)
+        assertSame(borrowed[0], borrowed[1])
+        assertEquals(connects.get(), 1)
+        assertEquals(pool.numHits, 1)
+    }
+
+    @Test
+    public void testDifferentPropertiesUseDifferentConnections() {
+        SshjTool t1 = pool.borrow(PROPS)
+        pool.release(t1)
+        SshjTool t2 = pool.borrow(PROPS + [user:"other"])
+
+        assertNotSame(t2, t1)
+        assertEquals(pool.numOpens, 2)
+    }
+
+    @Test
+    public void testDisconnectedConnectionIsReplaced() {
+        SshjTool t1 = pool.borrow(PROPS)
+        pool.release(t1)
+        t1.connected = false
+        SshjTool t2 = pool.borrow(PROPS)
+
+        assertNotSame(t2, t1)
+        assertEquals(pool.numFailedHealthChecks, 1)
+        assertEquals(pool.numConnections, 1)
+    }
+
+    @Test
+    public void testInvalidatedConnectionIsDisconnectedOnceReleased() {
+        SshjTool t1 = pool.borrow(PROPS)
+        SshjTool t2 = pool.borrow(PROPS)
+        assertSame(t2, t1)
+
+        pool.invalidate(t1)
+        pool.release(t1)
+        assertTrue(t1.isConnected())
+        assertNotSame(pool.borrow(PROPS), t1)
+
+        pool.release(t2)
+        assertFalse(t1.isConnected())
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() {
+        pool.close()
+        pool = newPool(100, 2)
+        SshjTool t1 = pool.borrow(PROPS)
+        SshjTool t2 = pool.borrow(PROPS + [user:"other"])
+        pool.release(t1)
+
+        executeUntilSucceeds(timeout:10*1000) {
+            assertFalse(t1.isConnected())
+            assertEquals(pool.numEvictions, 1)
+        }
+        // still in use, so not evicted
+        assertTrue(t2.isConnected())
+        assertEquals(pool.numConnections, 1)
+    }
+
+    @Test
+    public void testIdleChecksAreJobsOfTheSchedulerUntilClosed() {
+        SshjTool t1 = pool.borrow(PROPS)
+        pool.release(t1)
+        assertEquals(scheduler.getOwnerStats(pool).numJobs, 1)
+
+        pool.close()
+        assertNull(scheduler.getOwnerStats(pool))
+        assertEquals(scheduler.numJobs, 0)
+    }
+
+    @Test
+    public void testZeroIdleTimeoutDisconnectsOnRelease() {
+        pool.close()
+        pool = newPool(0, 2)
+        SshjTool t1 = pool.borrow(PROPS)
+        pool.release(t1)
+
+        assertFalse(t1.isConnected())
+        assertEquals(pool.numConnections, 0)
+    }
+
+    @Test
+    public void testCloseDisconnectsIdleAndThenInUseConnections() {
+        SshjTool t1 = pool.borrow(PROPS)
+        SshjTool t2 = pool.borrow(PROPS + [user:"other"])
+        pool.release(t1)
+        pool.close()
+
+        assertFalse(t1.isConnected())
+        assertTrue(t2.isConnected())
+        pool.release(t2)
+        assertFalse(t2.isConnected())
+        try {
+            pool.borrow(PROPS)
+            fail()
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFailedConnectIsNotPooled() {
+        pool.close()
+        pool = new SshConnectionPool("test", 60*1000, 2, scheduler) {
+            @Override protected SshjTool newTool(Map props) {
+                return new StubSshjTool(props, connects) {
+                    @Override public void connect() { throw new SshException("simulated") }
+                }
+            }
+        }
+        try {
+            pool.borrow(PROPS)
+            fail()
+        } catch (SshException e) {
+            // expected
+        }
+        assertEquals(pool.numConnections, 0)
+        assertEquals(pool.numOpens, 0)
+    }
+
+    static class StubSshjTool extends SshjTool {
+        final AtomicInteger connects
+        volatile boolean connected
+
+        StubSshjTool(Map props, AtomicInteger connects) {
+            super(props)
+            this.connects = connects
+        }
+        @Override public void connect() {
+            connects.incrementAndGet()
+            connected = true
+        }
+        @Override public void disconnect() {
+            connected = false
+        }
+        @Override public boolean isConnected() {
+            return connected
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package brooklyn.util.internal.ssh
+
+import static brooklyn.test.TestUtils.*
+import static org.testng.Assert.*
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.location.basic.SshMachineLocation
+
+/**
+ * Runs batches of commands in a {@link SshShellChannel} against an {@link InProcessSshServer}.
+ */
+public class SshShellChannelIntegrationTest {
+
+    private InProcessSshServer server
+    private SshMachineLocation machine
+    private SshShellChannel channel
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        server = new InProcessSshServer().start()
+        machine = server.newMachine()
+        channel = machine.openShellChannel()
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        channel?.close()
+        machine?.close()
+        server?.stop()
+    }
+
+    @Test(groups="Integration")
+    public void testBatchReturnsOutputAndExitStatusOfEachCommand() {
+        List<SshShellChannel.Result> results = channel.exec(["echo hello", "printf 'no newline'", "true", "echo err >&2; (exit 3)"])
+
+        assertEquals(results.size(), 4)
+        assertEquals(results[0].output, "hello\n")
+        assertEquals(results[0].exitStatus, 0)
+        assertEquals(results[1].output, "no newline")
+        assertEquals(results[2].output, "")
+        assertEquals(results[3].output, "")
+        assertEquals(results[3].exitStatus, 3)
+    }
+
+    @Test(groups="Integration")
+    public void testShellIsReusedAcrossBatches() {
+        for (int i = 0; i < 5; i++) {
+            assertEquals(channel.exec(["echo $i", "echo ${i+1}"])*.output, ["$i\n", "${i+1}\n"])
+        }
+        assertEquals(channel.numOpens, 1)
+        assertEquals(channel.numBatches, 5)
+        assertEquals(channel.numCommands, 10)
+        assertEquals(server.numAuthentications, 1)
+    }
+
+    @Test(groups="Integration")
+    public void testMultiLineOutput() {
+        List<SshShellChannel.Result> results = channel.exec(["printf 'a\\n\\nb\\n'", "echo c"])
+        assertEquals(results[0].output, "a\n\nb\n")
+        assertEquals(results[1].output, "c\n")
+    }
+
+    @Test(groups="Integration")
+    public void testExecWritesOutputToStream() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        assertEquals(channel.exec("echo one; echo; echo two; (exit 4)", out, 10*1000), 4)
+        assertEquals(new String(out.toByteArray()), "one\n\ntwo\n")
+
+        out.reset()
+        assertEquals(channel.exec("printf 'no newline'", out, 10*1000), 0)
+        assertEquals(new String(out.toByteArray()), "no newline\n")
+        assertEquals(channel.numOpens, 1)
+    }
+
+    @Test(groups="Integration")
+    public void testReopensAfterServerRestart() {
+        assertEquals(channel.exec(["echo before"])[0].output, "before\n")
+        server.restart()
+        // the first batch after the restart may find the shell closed; it is then restarted for the next
+        executeUntilSucceeds(timeout:10*1000) {
+            assertEquals(channel.exec(["echo after"])[0].output, "after\n")
+        }
+        assertTrue(channel.numOpens >= 2)
+    }
+
+    @Test(groups="Integration")
+    public void testBatchTimingOutClosesShell() {
+        SshShellChannel shortChannel = new SshShellChannel(machine.connectSsh(), "/bin/sh", 500, machine.scheduler)
+        try {
+            try {
+                shortChannel.exec(["sleep 5"])
+                fail()
+            } catch (IOException e) {
+                // expected
+            }
+            assertEquals(shortChannel.exec(["echo ok"])[0].output, "ok\n")
+            assertEquals(shortChannel.numOpens, 2)
+            // the timeout was a job of the machine's scheduler
+            executeUntilSucceeds(timeout:10*1000) { assertEquals(machine.scheduler.getOwnerStats(shortChannel).numRuns, 1) }
+        } finally {
+            shortChannel.close()
+        }
+        assertNull(machine.scheduler.getOwnerStats(shortChannel))
+    }
+}
@@ -1,6 +1,7 @@
 package brooklyn.util.task;
 
 import static org.testng.Assert.*
+import static brooklyn.test.TestUtils.*
 
 import java.util.Map
 import java.util.concurrent.Callable
@@ -196,7 +197,80 @@ public class BasicTaskExecutionTest {
 
         assertEquals(em.getTasksWithAllTags(["not_there","A"]), []);
     }
-    
+
+    @Test
+    public void testRetrievingTasksWithAllTagsPreservesSubmissionOrder() {
+        List<Task> tasks = []
+        5.times { tasks += em.submit(expirationPolicy: ExpirationPolicy.NEVER, tags:["A","B"], new BasicTask({ /*no-op*/ })) }
+        10.times { em.submit(expirationPolicy: ExpirationPolicy.NEVER, tags:["A"], new BasicTask({ /*no-op*/ })) }
+        tasks.each { it.get() }
+
+        assertEquals(em.getTasksWithAllTags(["A","B"]) as List, tasks);
+        assertEquals(em.getTasksWithAllTags(["B","A"]) as List, tasks);
+    }
+
+    @Test
+    public void testCompletedTasksRetainedUpToMaxCountPerTag() {
+        em.setTaskRetentionForTag("A", 3, -1)
+        List<Task> tasks = []
+        10.times {
+            Task t = em.submit(expirationPolicy: ExpirationPolicy.NEVER, tags:["A","B"], new BasicTask({ /*no-op*/ }))
+            t.get()
+            tasks += t
+        }
+
+        assertEquals(em.getTasksWithTag("A") as List, tasks.subList(7, 10));
+        assertEquals(em.getTasksWithTag("B") as List, tasks);
+        assertEquals(em.getTasksWithAllTags(["A","B"]) as List, tasks.subList(7, 10));
+    }
+
+    @Test
+    public void testCompletedTasksExpireAfterMaxAgePerTag() {
+        em.setTaskRetentionForTag("A", -1, 100)
+        Task t = em.submit(expirationPolicy: ExpirationPolicy.NEVER, tags:["A"], new BasicTask({ /*no-op*/ }))
+        t.get()
+        assertEquals(em.getTasksWithTag("A"), [t]);
+
+        Thread.sleep(150)
+        assertEquals(em.getTasksWithTag("A"), []);
+    }
+
+    @Test
+    public void testIncompleteTasksAreNotEvicted() {
+        em.setTaskRetentionForTag("A", 0, 0)
+        CountDownLatch latch = new CountDownLatch(1)
+        Task t = em.submit(expirationPolicy: ExpirationPolicy.NEVER, tags:["A"], new BasicTask({ latch.await() }))
+        try {
+            Thread.sleep(10)
+            assertEquals(em.getTasksWithTag("A"), [t]);
+        } finally {
+            latch.countDown()
+        }
+        t.get()
+        assertEquals(em.getTasksWithTag("A"), []);
+    }
+
+    @Test
+    public void testTagsForgottenWhenNoTasksRemain() {
+        em.setTaskRetentionForTag("kept", 0, -1)
+        List<Task> tasks = []
+        for (i in 1..5000) {
+            // a distinct tag per task, plus tags shared by tasks running concurrently
+            tasks << em.submit(tags:["churn-"+i, "shared-"+(i%10), "kept"], new BasicTask({ /*no-op*/ }))
+        }
+        tasks.each { it.get() }
+
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals(em.getTaskTags(), ["kept"] as Set)
+        }
+        assertEquals(em.getNumTasksWithTag("shared-0"), 0)
+
+        // a tag is usable again after being forgotten
+        Task t = em.submit(expirationPolicy: ExpirationPolicy.NEVER, tags:["shared-0"], new BasicTask({ /*no-op*/ }))
+        t.get()
+        assertEquals(em.getTasksWithTag("shared-0"), [t]);
+    }
+
     @Test
     public void testRetrievedTasksIncludesTasksInProgress() {
         CountDownLatch runningLatch = new CountDownLatch(1);
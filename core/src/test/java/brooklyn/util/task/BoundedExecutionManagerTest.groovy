@@ -0,0 +1,130 @@
+package brooklyn.util.task
+
+import static brooklyn.test.TestUtils.*
+import static org.testng.Assert.*
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.management.Task
+import brooklyn.util.internal.TimeExtras
+
+/**
+ * Tests {@link BasicExecutionManager} when using bounded lanes.
+ */
+public class BoundedExecutionManagerTest {
+
+    static { TimeExtras.init() }
+
+    private BasicExecutionManager em
+
+    @BeforeMethod
+    public void setUp() {
+        em = new BasicExecutionManager(true)
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        em?.shutdownNow()
+    }
+
+    @Test
+    public void testBlockingTasksAreQueuedBeyondMaxThreads() {
+        int maxThreads = em.blockingExecutor.maximumPoolSize
+        int numTasks = maxThreads+100
+        CountDownLatch release = new CountDownLatch(1)
+        AtomicInteger completed = new AtomicInteger()
+
+        List<Task> tasks = []
+        for (int i = 0; i < numTasks; i++) {
+            tasks += em.submit({ release.await(30, TimeUnit.SECONDS); completed.incrementAndGet() } as Runnable)
+        }
+        executeUntilSucceeds(timeout:10*1000) {
+            assertEquals(em.blockingExecutor.activeCount, maxThreads)
+            assertEquals(em.numQueuedTasks, numTasks-maxThreads)
+        }
+        assertTrue(em.numPoolThreads <= maxThreads, "threads="+em.numPoolThreads)
+
+        release.countDown()
+        tasks.each { it.get(30, TimeUnit.SECONDS) }
+        assertEquals(completed.get(), numTasks)
+        assertEquals(em.totalTasksRejected, 0)
+    }
+
+    @Test
+    public void testNonBlockingTasksUseSeparateLane() {
+        CountDownLatch release = new CountDownLatch(1)
+        int maxThreads = em.blockingExecutor.maximumPoolSize
+        for (int i = 0; i < maxThreads; i++) {
+            em.submit({ release.await(30, TimeUnit.SECONDS) } as Runnable)
+        }
+
+        try {
+            // blocking lane is saturated, but flagged tasks and tasks via a scheduler still run promptly
+            Task t1 = em.submit([(BasicExecutionManager.NON_BLOCKING_FLAG):true], { "flagged" } as java.util.concurrent.Callable)
+            assertEquals(t1.get(10, TimeUnit.SECONDS), "flagged")
+
+            em.setTaskSchedulerForTag("singlethreaded", SingleThreadedScheduler.class)
+            Task t2 = em.submit([tag:"singlethreaded"], { "scheduled" } as java.util.concurrent.Callable)
+            assertEquals(t2.get(10, TimeUnit.SECONDS), "scheduled")
+
+            executeUntilSucceeds(timeout:10*1000) {
+                assertEquals(em.nonBlockingExecutor.completedTaskCount, 2)
+            }
+        } finally {
+            release.countDown()
+        }
+    }
+
+    @Test
+    public void testScheduledTaskIsNotRunByTimerWhenBlockingLaneSaturated() {
+        // fill the blocking lane's threads and queue
+        int capacity = em.blockingExecutor.maximumPoolSize + em.blockingExecutor.queue.remainingCapacity()
+        CountDownLatch release = new CountDownLatch(1)
+        List<Task> tasks = []
+        try {
+            for (int i = 0; i < capacity; i++) {
+                tasks += em.submit({ release.await(30, TimeUnit.SECONDS) } as Runnable)
+            }
+            executeUntilSucceeds(timeout:10*1000) {
+                assertEquals(em.blockingExecutor.queue.remainingCapacity(), 0)
+            }
+
+            // with the caller-runs policy, each iteration would be run in the timer's thread
+            AtomicInteger runs = new AtomicInteger()
+            ScheduledTask scheduled = new ScheduledTask(period:10*TimeUnit.MILLISECONDS, { new BasicTask({ runs.incrementAndGet() }) } as java.util.concurrent.Callable)
+            em.submit(scheduled)
+            Thread.sleep(200)
+            assertEquals(runs.get(), 0)
+
+            // the iterations are dispatched again once there is room
+            release.countDown()
+            executeUntilSucceeds(timeout:10*1000) {
+                assertTrue(runs.get() >= 2, "runs="+runs.get())
+            }
+            scheduled.cancel(true)
+        } finally {
+            release.countDown()
+        }
+        tasks.each { it.get(30, TimeUnit.SECONDS) }
+    }
+
+    @Test
+    public void testSubmissionAfterShutdownIsRejectedNotDropped() {
+        InstrumentedThreadPoolExecutor lane = em.blockingExecutor
+        lane.shutdown()
+        try {
+            lane.submit({ "never run" } as java.util.concurrent.Callable)
+            fail()
+        } catch (RejectedExecutionException e) {
+            // expected, rather than a future which never completes
+        }
+        assertEquals(lane.rejectedCount, 0)
+    }
+}
@@ -89,4 +89,57 @@ public class ScheduledExecutionTest {
 		assertEquals(i, 5)
 	}
 
+	@Test
+	public void testScheduledTaskReusesTimerEntry() {
+		int PERIOD = 20;
+		BasicExecutionManager m = new BasicExecutionManager();
+		List entries = []
+		def t = new ScheduledTask(period: PERIOD*TimeUnit.MILLISECONDS, maxIterations: 3, { new BasicTask({
+			entries << BasicExecutionManager.currentTask.submittedByTask.nextScheduled
+		}) } );
+	
+		m.submit(t);
+		t.blockUntilEnded()
+		assertEquals(t.runCount, 3)
+		assertEquals(entries.size(), 3)
+		assertTrue(entries.every { it.is(entries[0]) }, "entries="+entries)
+	}
+
+	@Test
+	public void testFixedRateScheduledTaskKeepsToSchedule() {
+		int PERIOD = 50;
+		BasicExecutionManager m = new BasicExecutionManager();
+		List<Long> startTimes = []
+		def t = new ScheduledTask(period: PERIOD*TimeUnit.MILLISECONDS, fixedRate: true, maxIterations: 10, { new BasicTask({
+			startTimes << System.currentTimeMillis()
+			// with fixed-delay this would push every subsequent run back
+			Thread.sleep(PERIOD/2 as long)
+		}) } );
+	
+		long start = System.currentTimeMillis()
+		m.submit(t);
+		t.blockUntilEnded()
+		long duration = startTimes[9] - start
+		log.info "fixed-rate runs started at {} (after {}ms)", startTimes.collect { it-start }, duration
+		assertEquals(startTimes.size(), 10)
+		assertTrue(duration >= 9*PERIOD - 10, "duration="+duration)
+		assertTrue(duration < 9*PERIOD + 9*PERIOD/2, "duration="+duration)
+	}
+
+	@Test
+	public void testScheduledTaskJitterDelaysStartWithinBounds() {
+		BasicExecutionManager m = new BasicExecutionManager();
+		List<ScheduledTask> tasks = []
+		for (int i=0; i<20; i++) {
+			tasks << new ScheduledTask(delay: 10*TimeUnit.MILLISECONDS, jitter: 200*TimeUnit.MILLISECONDS, { new BasicTask({ 1 }) } )
+		}
+		tasks.each { m.submit(it) }
+		tasks.each { it.blockUntilEnded() }
+		
+		List<Long> delays = tasks.collect { it.recentRun.startTimeUtc - it.submitTimeUtc }
+		log.info "jittered delays {}", delays
+		assertTrue(delays.every { it >= 5 && it < 10+200+1000 }, "delays="+delays)
+		assertTrue(delays.unique(false).size() > 1, "delays="+delays)
+	}
+
 }
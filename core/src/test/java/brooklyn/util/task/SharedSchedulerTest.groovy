@@ -0,0 +1,272 @@
+package brooklyn.util.task
+
+import static brooklyn.test.TestUtils.*
+import static org.testng.Assert.*
+
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.entity.basic.AbstractApplication
+import brooklyn.entity.basic.AbstractEntity
+import brooklyn.management.internal.AbstractManagementContext
+import brooklyn.test.entity.TestApplication
+import brooklyn.test.entity.TestEntity
+
+public class SharedSchedulerTest {
+
+    private BasicExecutionManager em
+    private SharedScheduler scheduler
+
+    @BeforeMethod
+    public void setUp() {
+        em = new BasicExecutionManager()
+        scheduler = em.sharedScheduler
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        em?.shutdownNow()
+    }
+
+    @Test
+    public void testRunsOneOffJobAfterDelay() {
+        long start = System.currentTimeMillis()
+        AtomicInteger count = new AtomicInteger()
+        ScheduledFuture<?> future = scheduler.schedule("owner", { count.incrementAndGet() }, 50, TimeUnit.MILLISECONDS)
+        future.get(10, TimeUnit.SECONDS)
+
+        assertTrue(System.currentTimeMillis() - start >= 50)
+        assertEquals(count.get(), 1)
+        assertTrue(future.isDone())
+        assertEquals(scheduler.getOwnerStats("owner").numRuns, 1)
+        assertEquals(scheduler.getOwnerStats("owner").numJobs, 0)
+    }
+
+    @Test
+    public void testFixedDelayJobRepeatsUntilCancelled() {
+        AtomicInteger count = new AtomicInteger()
+        ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay("owner", { count.incrementAndGet() }, 0, 20, TimeUnit.MILLISECONDS)
+        executeUntilSucceeds(timeout:10*1000) { assertTrue(count.get() >= 3) }
+        assertEquals(scheduler.getOwnerStats("owner").numJobs, 1)
+
+        assertTrue(future.cancel(true))
+        int countAfterCancel = count.get()
+        Thread.sleep(100)
+        assertTrue(count.get() <= countAfterCancel+1)
+        assertTrue(future.isCancelled())
+        assertEquals(scheduler.getOwnerStats("owner").numJobs, 0)
+        try {
+            future.get()
+            fail()
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPeriodicJobKeepsRunningAfterFailure() {
+        AtomicInteger count = new AtomicInteger()
+        scheduler.scheduleAtFixedRate("owner", { if (count.incrementAndGet() == 1) throw new IllegalStateException("simulated") }, 0, 20, TimeUnit.MILLISECONDS)
+        executeUntilSucceeds(timeout:10*1000) { assertTrue(count.get() >= 3) }
+        assertEquals(scheduler.getOwnerStats("owner").numFailures, 1)
+    }
+
+    @Test
+    public void testOneOffJobFailureIsReportedByFuture() {
+        ScheduledFuture<?> future = scheduler.schedule("owner", { throw new IllegalStateException("simulated") }, 0, TimeUnit.MILLISECONDS)
+        try {
+            future.get(10, TimeUnit.SECONDS)
+            fail()
+        } catch (ExecutionException e) {
+            assertTrue(e.cause instanceof IllegalStateException)
+        }
+    }
+
+    @Test
+    public void testJobDoesNotOverlapWithItself() {
+        AtomicInteger concurrent = new AtomicInteger()
+        AtomicInteger maxConcurrent = new AtomicInteger()
+        AtomicInteger count = new AtomicInteger()
+        scheduler.scheduleAtFixedRate("owner", {
+            int c = concurrent.incrementAndGet()
+            if (c > maxConcurrent.get()) maxConcurrent.set(c)
+            Thread.sleep(30)
+            concurrent.decrementAndGet()
+            count.incrementAndGet()
+        }, 0, 5, TimeUnit.MILLISECONDS)
+        executeUntilSucceeds(timeout:10*1000) { assertTrue(count.get() >= 5) }
+        assertEquals(maxConcurrent.get(), 1)
+    }
+
+    @Test
+    public void testSerialJobsOfAnOwnerDoNotOverlap() {
+        AtomicInteger concurrent = new AtomicInteger()
+        AtomicInteger maxConcurrent = new AtomicInteger()
+        AtomicInteger count = new AtomicInteger()
+        List<ScheduledFuture<?>> futures = []
+        10.times {
+            futures << scheduler.scheduleSerial("owner", {
+                int c = concurrent.incrementAndGet()
+                if (c > maxConcurrent.get()) maxConcurrent.set(c)
+                Thread.sleep(20)
+                concurrent.decrementAndGet()
+                count.incrementAndGet()
+            }, 0, TimeUnit.MILLISECONDS)
+        }
+        futures.each { it.get(10, TimeUnit.SECONDS) }
+
+        assertEquals(count.get(), 10)
+        assertEquals(maxConcurrent.get(), 1)
+        assertEquals(scheduler.getOwnerStats("owner").numJobs, 0)
+    }
+
+    @Test
+    public void testSerialJobDueWhileAnotherRunsRunsAfterIt() {
+        CountDownLatch firstStarted = new CountDownLatch(1)
+        CountDownLatch releaseFirst = new CountDownLatch(1)
+        List<String> order = Collections.synchronizedList([])
+        ScheduledFuture<?> first = scheduler.scheduleSerial("owner", { firstStarted.countDown(); releaseFirst.await(); order << "first" }, 0, TimeUnit.MILLISECONDS)
+        assertTrue(firstStarted.await(10, TimeUnit.SECONDS))
+        ScheduledFuture<?> second = scheduler.scheduleSerial("owner", { order << "second" }, 0, TimeUnit.MILLISECONDS)
+        ScheduledFuture<?> other = scheduler.scheduleSerial("other", { order << "other" }, 0, TimeUnit.MILLISECONDS)
+
+        // another owner's serial jobs are not held up
+        other.get(10, TimeUnit.SECONDS)
+        Thread.sleep(50)
+        assertFalse(second.isDone())
+
+        releaseFirst.countDown()
+        second.get(10, TimeUnit.SECONDS)
+        assertEquals(order, ["other", "first", "second"])
+    }
+
+    @Test
+    public void testSaturatedExecutorDoesNotHoldUpOtherTimers() {
+        TimingWheelScheduler wheel = new TimingWheelScheduler("test", 10, Executors.defaultThreadFactory())
+        InstrumentedThreadPoolExecutor lane = InstrumentedThreadPoolExecutor.newBounded("test", 1, 1, Executors.defaultThreadFactory())
+        SharedScheduler saturated = new SharedScheduler("test", wheel, lane.getRejectingExecutor())
+        CountDownLatch release = new CountDownLatch(1)
+        try {
+            // one job running and one queued fill the lane, so a third is rejected
+            AtomicInteger count = new AtomicInteger()
+            List<ScheduledFuture<?>> futures = []
+            3.times { futures << saturated.schedule("owner", { release.await(); count.incrementAndGet() }, 0, TimeUnit.MILLISECONDS) }
+            executeUntilSucceeds(timeout:10*1000) { assertTrue(saturated.totalRejected >= 1) }
+
+            CountDownLatch fired = new CountDownLatch(1)
+            wheel.schedule({ fired.countDown() }, 20, TimeUnit.MILLISECONDS)
+            assertTrue(fired.await(10, TimeUnit.SECONDS))
+            assertEquals(count.get(), 0)
+
+            // the rejected job is retried once there is room
+            release.countDown()
+            futures.each { it.get(10, TimeUnit.SECONDS) }
+            assertEquals(count.get(), 3)
+        } finally {
+            release.countDown()
+            lane.shutdownNow()
+            wheel.shutdownNow()
+        }
+    }
+
+    @Test
+    public void testCancelAllCancelsOnlyThatOwnersJobsAndInterruptsRunningOnes() {
+        CountDownLatch started = new CountDownLatch(1)
+        CountDownLatch interrupted = new CountDownLatch(1)
+        scheduler.schedule("a", {
+            started.countDown()
+            try {
+                Thread.sleep(30*1000)
+            } catch (InterruptedException e) {
+                interrupted.countDown()
+            }
+        }, 0, TimeUnit.MILLISECONDS)
+        scheduler.scheduleWithFixedDelay("a", {}, 10*1000, 10*1000, TimeUnit.MILLISECONDS)
+        ScheduledFuture<?> other = scheduler.scheduleWithFixedDelay("b", {}, 10*1000, 10*1000, TimeUnit.MILLISECONDS)
+        assertTrue(started.await(10, TimeUnit.SECONDS))
+
+        assertEquals(scheduler.cancelAll("a"), 2)
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS))
+        assertNull(scheduler.getOwnerStats("a"))
+        assertEquals(scheduler.owners, ["b"] as Set)
+        assertFalse(other.isDone())
+        assertEquals(scheduler.numJobs, 1)
+    }
+
+    @Test
+    public void testSerialJobAfterCancelAllDoesNotOverlapOneStillRunning() {
+        CountDownLatch firstStarted = new CountDownLatch(1)
+        CountDownLatch releaseFirst = new CountDownLatch(1)
+        List<String> order = Collections.synchronizedList([])
+        scheduler.scheduleSerial("owner", {
+            firstStarted.countDown()
+            // ignores the interrupt from cancelAll, as a job stuck in uninterruptible i/o would
+            while (true) {
+                try {
+                    releaseFirst.await()
+                    break
+                } catch (InterruptedException e) {
+                    // keep waiting
+                }
+            }
+            order << "first"
+        }, 0, TimeUnit.MILLISECONDS)
+        assertTrue(firstStarted.await(10, TimeUnit.SECONDS))
+
+        // as on a policy's suspend then resume
+        assertEquals(scheduler.cancelAll("owner"), 1)
+        ScheduledFuture<?> second = scheduler.scheduleSerial("owner", { order << "second" }, 0, TimeUnit.MILLISECONDS)
+        Thread.sleep(50)
+        assertFalse(second.isDone())
+
+        releaseFirst.countDown()
+        second.get(10, TimeUnit.SECONDS)
+        assertEquals(order, ["first", "second"])
+        assertEquals(scheduler.getOwnerStats("owner").numRuns, 1)
+    }
+
+    @Test
+    public void testRecordsCpuTimePerOwner() {
+        CountDownLatch done = new CountDownLatch(1)
+        scheduler.schedule("busy", {
+            long end = System.currentTimeMillis() + 100
+            double x = 0
+            while (System.currentTimeMillis() < end) x += Math.sqrt(x+1)
+            done.countDown()
+        }, 0, TimeUnit.MILLISECONDS)
+        assertTrue(done.await(10, TimeUnit.SECONDS))
+
+        executeUntilSucceeds(timeout:10*1000) { assertEquals(scheduler.getOwnerStats("busy").numRuns, 1) }
+        assertTrue(scheduler.getOwnerStats("busy").runTimeNanos >= TimeUnit.MILLISECONDS.toNanos(100))
+        assertTrue(scheduler.getOwnerStats("busy").cpuTimeNanos <= scheduler.getOwnerStats("busy").runTimeNanos)
+        assertEquals(scheduler.totalCpuTimeNanos, scheduler.getOwnerStats("busy").cpuTimeNanos)
+    }
+
+    @Test
+    public void testUnmanagingEntityCancelsItsJobs() {
+        AbstractApplication app = new TestApplication()
+        AbstractEntity entity = new TestEntity(owner:app)
+        AbstractManagementContext mgmt = app.getManagementContext()
+        mgmt.manage(app)
+        try {
+            AtomicInteger count = new AtomicInteger()
+            ScheduledFuture<?> future = mgmt.scheduler.scheduleWithFixedDelay(entity, { count.incrementAndGet() }, 0, 10, TimeUnit.MILLISECONDS)
+            executeUntilSucceeds(timeout:10*1000) { assertTrue(count.get() >= 1) }
+
+            mgmt.unmanage(entity)
+            assertTrue(future.isCancelled())
+            assertNull(mgmt.scheduler.getOwnerStats(entity))
+        } finally {
+            ((BasicExecutionManager) mgmt.executionManager).shutdownNow()
+        }
+    }
+}
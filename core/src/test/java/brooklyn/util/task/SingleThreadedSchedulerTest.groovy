@@ -129,4 +129,25 @@ public class SingleThreadedSchedulerTest {
         latch.countDown()
         assertEquals(future.get(), 123)
     }
+
+    @Test
+    public void testQueuedTasksAreDrainedInBatches() {
+        SingleThreadedScheduler scheduler = em.getTaskSchedulerForTag("category1")
+        final int NUM_TIMES = 1000
+        final CountDownLatch latch = new CountDownLatch(1)
+        em.submit([tag:"category1"], { latch.await() })
+        
+        final AtomicInteger counter = new AtomicInteger(0)
+        for (i in 1..NUM_TIMES) {
+            em.submit([tag:"category1"], {counter.incrementAndGet()})
+        }
+        latch.countDown()
+
+        executeUntilSucceeds {
+            assertEquals(counter.get(), NUM_TIMES)
+        }
+        // one drain job per budget's worth of tasks, rather than one per task
+        assertTrue(scheduler.totalDrainJobs <= (NUM_TIMES / SingleThreadedScheduler.DRAIN_BUDGET) + 2, "drainJobs="+scheduler.totalDrainJobs)
+        assertEquals(scheduler.queueSize, 0)
+    }
 }
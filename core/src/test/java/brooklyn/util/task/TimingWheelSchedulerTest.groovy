@@ -0,0 +1,138 @@
+package brooklyn.util.task
+
+import static brooklyn.test.TestUtils.*
+import static org.testng.Assert.*
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+public class TimingWheelSchedulerTest {
+
+    private static final int TICK_MS = 10
+
+    private TimingWheelScheduler wheel
+
+    @BeforeMethod
+    public void setUp() {
+        wheel = new TimingWheelScheduler("test", TICK_MS, Executors.defaultThreadFactory())
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        wheel?.shutdownNow()
+    }
+
+    @Test
+    public void testRunsJobAfterDelayAndReturnsResult() {
+        long start = System.nanoTime()
+        TimingWheelScheduler.Entry entry = wheel.schedule({ System.nanoTime() } as Callable, 50, TimeUnit.MILLISECONDS)
+        long ranAt = entry.get(10, TimeUnit.SECONDS)
+        assertTrue(entry.isDone())
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(ranAt-start) >= 50, "ran after "+TimeUnit.NANOSECONDS.toMillis(ranAt-start)+"ms")
+        assertEquals(wheel.totalFired, 1)
+    }
+
+    @Test
+    public void testRunsJobsInDeadlineOrder() {
+        List<Integer> order = Collections.synchronizedList([])
+        CountDownLatch latch = new CountDownLatch(3)
+        [300, 100, 200].each { int delay ->
+            wheel.schedule({ order << delay; latch.countDown() } as Callable, delay, TimeUnit.MILLISECONDS)
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS))
+        assertEquals(order, [100, 200, 300])
+    }
+
+    @Test
+    public void testCascadesEntriesFromHigherLevels() {
+        // beyond the 256 ticks covered by the lowest level
+        long delay = 300*TICK_MS
+        long start = System.nanoTime()
+        TimingWheelScheduler.Entry entry = wheel.schedule({ System.nanoTime() } as Callable, delay, TimeUnit.MILLISECONDS)
+        long ranAt = entry.get(30, TimeUnit.SECONDS)
+        long actual = TimeUnit.NANOSECONDS.toMillis(ranAt-start)
+        assertTrue(actual >= delay && actual < delay + 1000, "ran after "+actual+"ms")
+    }
+
+    @Test
+    public void testCancelledEntryDoesNotRun() {
+        AtomicInteger count = new AtomicInteger()
+        TimingWheelScheduler.Entry entry = wheel.schedule({ count.incrementAndGet() } as Callable, 100, TimeUnit.MILLISECONDS)
+        assertTrue(entry.cancel(false))
+        assertTrue(entry.isCancelled())
+        assertFalse(entry.cancel(false))
+        Thread.sleep(300)
+        assertEquals(count.get(), 0)
+        executeUntilSucceeds(timeout:10*1000) {
+            assertEquals(wheel.numScheduled, 0)
+        }
+        try {
+            entry.schedule(10, TimeUnit.MILLISECONDS)
+            fail()
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testEntryCanBeRescheduledFromItsOwnJob() {
+        AtomicInteger count = new AtomicInteger()
+        TimingWheelScheduler.Entry entry
+        entry = wheel.newEntry({
+            if (count.incrementAndGet() < 5) entry.schedule(TICK_MS, TimeUnit.MILLISECONDS)
+            count.get()
+        } as Callable)
+        entry.schedule(0, TimeUnit.MILLISECONDS)
+        executeUntilSucceeds(timeout:10*1000) {
+            assertEquals(count.get(), 5)
+            assertTrue(entry.isDone())
+        }
+        assertEquals(entry.get(), 5)
+    }
+
+    @Test
+    public void testReschedulingMovesDeadline() {
+        AtomicInteger count = new AtomicInteger()
+        TimingWheelScheduler.Entry entry = wheel.schedule({ count.incrementAndGet() } as Callable, 100, TimeUnit.MILLISECONDS)
+        entry.schedule(500, TimeUnit.MILLISECONDS)
+        Thread.sleep(300)
+        assertEquals(count.get(), 0)
+        entry.get(10, TimeUnit.SECONDS)
+        assertEquals(count.get(), 1)
+    }
+
+    @Test
+    public void testErrorInJobIsReportedAndWheelContinues() {
+        TimingWheelScheduler.Entry failing = wheel.schedule({ throw new IllegalStateException("simulated") } as Callable, 0, TimeUnit.MILLISECONDS)
+        try {
+            failing.get(10, TimeUnit.SECONDS)
+            fail()
+        } catch (java.util.concurrent.ExecutionException e) {
+            assertTrue(e.cause instanceof IllegalStateException)
+        }
+        assertEquals(wheel.schedule({ "ok" } as Callable, 0, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS), "ok")
+    }
+
+    @Test
+    public void testRearmingAfterShutdownCancelsQuietly() {
+        AtomicInteger runs = new AtomicInteger()
+        CountDownLatch ran = new CountDownLatch(1)
+        TimingWheelScheduler.Entry entry
+        entry = wheel.newEntry({ runs.incrementAndGet(); ran.countDown(); wheel.shutdownNow(); entry.schedule(10, TimeUnit.MILLISECONDS) } as Callable)
+        entry.schedule(0, TimeUnit.MILLISECONDS)
+        assertTrue(ran.await(10, TimeUnit.SECONDS))
+
+        executeUntilSucceeds(timeout:10*1000) { assertTrue(entry.isCancelled()) }
+        // neither the job's own re-arm nor a later one throws
+        entry.schedule(10, TimeUnit.MILLISECONDS)
+        assertEquals(runs.get(), 1)
+    }
+}
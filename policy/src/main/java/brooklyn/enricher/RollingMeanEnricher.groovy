@@ -4,39 +4,37 @@ import brooklyn.enricher.basic.AbstractTransformingEnricher;
 import brooklyn.entity.Entity
 import brooklyn.event.SensorEvent
 import brooklyn.event.AttributeSensor
+import brooklyn.util.CountWindowedMean
 
 
 /**
 * Transforms a sensor into a rolling average based on a fixed window size. This is useful for smoothing sample type metrics, 
 * such as latency or CPU time
+* <p>
+* The window is a {@link CountWindowedMean}, so each event is handled in constant time. Null values are ignored.
 */
 class RollingMeanEnricher<T extends Number> extends AbstractTransformingEnricher<T> {
-    private LinkedList<T> values = new LinkedList<T>()
+    private final CountWindowedMean window
     
-    int windowSize
+    final int windowSize
     
     public RollingMeanEnricher(Entity producer, AttributeSensor<T> source, AttributeSensor<Double> target,
             int windowSize) {
         super(producer, source, target)
         this.windowSize = windowSize
+        this.window = new CountWindowedMean(windowSize)
     }
     
     /** @returns null when no data has been received or windowSize is 0 */
     public Double getAverage() {
-        pruneValues()
-        return values.size() == 0 ? null : values.sum() / values.size()
+        return window.getMean()
     }
     
     @Override
     public void onEvent(SensorEvent<T> event) {
-        values.addLast(event.getValue())
-        pruneValues()
+        T value = event.getValue()
+        if (value == null) return
+        window.add(value.doubleValue())
         entity.setAttribute(target, getAverage())
     }
-    
-    private void pruneValues() {
-        while(windowSize > -1 && values.size() > windowSize) {
-            values.removeFirst()
-        }
-    }
 }
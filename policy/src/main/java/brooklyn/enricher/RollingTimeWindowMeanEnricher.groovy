@@ -4,6 +4,7 @@ import brooklyn.enricher.basic.AbstractTransformingEnricher
 import brooklyn.entity.Entity
 import brooklyn.event.AttributeSensor
 import brooklyn.event.SensorEvent
+import brooklyn.util.TimeWindowedMean
 
 /**
  * Transforms {@link Sensor} data into a rolling average based on a time window.
@@ -27,6 +28,9 @@ import brooklyn.event.SensorEvent
  * the average is no longer meaningful.
  * <p>
  * The default average when no data has been received is 0, with a confidence of 0
+ * <p>
+ * The window is a {@link TimeWindowedMean}, so each event is handled in constant (amortized) time,
+ * rather than re-weighting every value in the window. Null values are ignored.
  */
 class RollingTimeWindowMeanEnricher<T extends Number> extends AbstractTransformingEnricher<T> {
     public static class ConfidenceQualifiedNumber {
@@ -39,16 +43,16 @@ class RollingTimeWindowMeanEnricher<T extends Number> extends AbstractTransformi
         }
     }
     
-    private LinkedList<T> values = new LinkedList<T>()
-    private LinkedList<Long> timestamps = new LinkedList<Long>()
+    private final TimeWindowedMean window
     ConfidenceQualifiedNumber lastAverage = [0,0]
     
-    long timePeriod
+    final long timePeriod
     
     public RollingTimeWindowMeanEnricher(Entity producer, AttributeSensor<T> source, 
         AttributeSensor<Double> target, long timePeriod) {
         super(producer, source, target)
         this.timePeriod = timePeriod
+        this.window = new TimeWindowedMean(timePeriod)
     }
 
     @Override
@@ -57,9 +61,9 @@ class RollingTimeWindowMeanEnricher<T extends Number> extends AbstractTransformi
     }
     
     public void onEvent(SensorEvent<T> event, long eventTime) {
-        values.addLast(event.getValue())
-        timestamps.addLast(eventTime)
-        pruneValues(eventTime)
+        T value = event.getValue()
+        if (value == null) return
+        window.add(eventTime, value.doubleValue())
         entity.setAttribute(target, getAverage(eventTime).value) //TODO this can potentially go stale... maybe we need to timestamp as well?
     }
     
@@ -67,36 +71,19 @@ class RollingTimeWindowMeanEnricher<T extends Number> extends AbstractTransformi
         return getAverage(System.currentTimeMillis())
     }
     
-    public ConfidenceQualifiedNumber getAverage(long now) {
-        pruneValues(now)
-        if (timestamps.isEmpty()) {
+    public synchronized ConfidenceQualifiedNumber getAverage(long now) {
+        window.prune(now)
+        if (window.isEmpty()) {
             return lastAverage = [lastAverage.value, 0.0d]
         }
 
         // XXX grkvlt - see email to development list
 
-        Double confidence = (timePeriod - (now - timestamps.last())) / timePeriod
+        double confidence = ((double) (timePeriod - (now - window.getLatestTimestamp()))) / timePeriod
         if (confidence == 0.0d) {
             return lastAverage = [lastAverage.value, 0.0d]
         }
         
-        Long start = now - timePeriod
-        Long end
-        Double weightedAverage = 0.0d
-        
-        timestamps.eachWithIndex { timestamp, i ->
-            end = timestamp
-            weightedAverage += ((end - start) / (confidence * timePeriod)) * values[i]
-            start = timestamp
-        }
-        
-        return lastAverage = [weightedAverage, confidence]
-    }
-    
-    private void pruneValues(long now) {
-        while(timestamps.size() > 0 && timestamps.first() < (now - timePeriod)) {
-            timestamps.removeFirst()
-            values.removeFirst()
-        }
+        return lastAverage = [window.getMean(now), confidence]
     }
 }
@@ -1,7 +1,6 @@
 package brooklyn.entity.brooklyn
 
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
 
 import brooklyn.entity.Entity
@@ -26,21 +25,36 @@ public class BrooklynMetrics extends AbstractEntity {
     
     public static final BasicAttributeSensor<Integer> NUM_ACTIVE_TASKS = [ Integer, "brooklyn.metrics.numActiveTasks", "Number of currently active tasks being executed" ]
 
+    public static final BasicAttributeSensor<Integer> NUM_QUEUED_TASKS = [ Integer, "brooklyn.metrics.numQueuedTasks", "Number of tasks waiting for a thread" ]
+    
+    public static final BasicAttributeSensor<Long> TOTAL_TASKS_REJECTED = [ Long, "brooklyn.metrics.totalTasksRejected", "Total number of tasks not accepted by a saturated thread pool (and so run by the submitter)" ]
+    
+    public static final BasicAttributeSensor<Integer> NUM_POOL_THREADS = [ Integer, "brooklyn.metrics.numPoolThreads", "Number of threads in the execution manager's pools" ]
+    
     public static final BasicAttributeSensor<Long> TOTAL_EVENTS_PUBLISHED = [ Long, "brooklyn.metrics.totalEventsPublished", "Total number of events published" ]
     
     public static final BasicAttributeSensor<Long> TOTAL_EVENTS_DELIVERED = [ Long, "brooklyn.metrics.totalEventsDelivered", "Total number of events delivered (counting an event multiple times if more than one subscriber)" ]
     
     public static final BasicAttributeSensor<Long> NUM_SUBSCRIPTIONS = [ Long, "brooklyn.metrics.numSubscriptions", "Current number of event subscriptions" ]
     
-    private ScheduledExecutorService executor;
+    public static final BasicAttributeSensor<Long> TOTAL_EVENTS_CONFLATED = [ Long, "brooklyn.metrics.totalEventsConflated", "Total number of attribute events superseded by a newer value before delivery to a conflating subscriber" ]
+    
+    public static final BasicAttributeSensor<Long> TOTAL_EVENTS_DROPPED = [ Long, "brooklyn.metrics.totalEventsDropped", "Total number of attribute events discarded because their conflating subscription was removed before delivery" ]
+    
+    public static final BasicAttributeSensor<Integer> NUM_QUEUED_EVENTS = [ Integer, "brooklyn.metrics.numQueuedEvents", "Number of events queued for batched delivery to subscribers" ]
+    
+    public static final BasicAttributeSensor<Double> MEAN_EVENTS_PER_DELIVERY_TASK = [ Double, "brooklyn.metrics.meanEventsPerDeliveryTask", "Mean number of events delivered by each batched delivery task" ]
+    
+    private ScheduledFuture<?> refresher;
     
     public BrooklynMetrics(Map props, Entity owner=null) {
         super(props, owner)
     }
     
     public void onManagementBecomingMaster() {
-        executor = Executors.newSingleThreadScheduledExecutor()
-        executor.scheduleWithFixedDelay(
+        AbstractManagementContext managementContext = (AbstractManagementContext) getManagementContext()
+        refresher = managementContext.getScheduler().scheduleWithFixedDelay(
+                this,
                 { refreshSensors() }, 
                 0, 
                 getConfig(UPDATE_PERIOD), 
@@ -52,7 +66,7 @@ public class BrooklynMetrics extends AbstractEntity {
      * including the final management end and subsequent management node master-change for this entity.
      */
     public void onManagementNoLongerMaster() {
-        if (executor != null) executor.shutdownNow()
+        refresher?.cancel(true)
     }
 
     private void refreshSensors() {
@@ -67,11 +81,18 @@ public class BrooklynMetrics extends AbstractEntity {
             setAttribute(TOTAL_TASKS_SUBMITTED, execManager.getTotalTasksSubmitted())
             setAttribute(NUM_INCOMPLETE_TASKS, execManager.getNumIncompleteTasks())
             setAttribute(NUM_ACTIVE_TASKS, execManager.getNumActiveTasks())
+            setAttribute(NUM_QUEUED_TASKS, execManager.getNumQueuedTasks())
+            setAttribute(TOTAL_TASKS_REJECTED, execManager.getTotalTasksRejected())
+            setAttribute(NUM_POOL_THREADS, execManager.getNumPoolThreads())
         }
         if (subsManager != null) {
             setAttribute(TOTAL_EVENTS_PUBLISHED, subsManager.getTotalEventsPublished())
             setAttribute(TOTAL_EVENTS_DELIVERED, subsManager.getTotalEventsDelivered())
             setAttribute(NUM_SUBSCRIPTIONS, subsManager.getNumSubscriptions())
+            setAttribute(TOTAL_EVENTS_CONFLATED, subsManager.getTotalEventsConflated())
+            setAttribute(TOTAL_EVENTS_DROPPED, subsManager.getTotalEventsDropped())
+            setAttribute(NUM_QUEUED_EVENTS, subsManager.getNumQueuedEvents())
+            setAttribute(MEAN_EVENTS_PER_DELIVERY_TASK, subsManager.getMeanEventsPerDeliveryTask())
         }
     }
 }
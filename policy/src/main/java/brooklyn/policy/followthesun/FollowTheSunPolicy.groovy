@@ -3,8 +3,6 @@ package brooklyn.policy.followthesun;
 import static com.google.common.base.Preconditions.checkArgument
 
 import java.util.Map
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledExecutorService
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 
@@ -44,7 +42,6 @@ public class FollowTheSunPolicy extends AbstractPolicy {
     
     private FollowTheSunPool poolEntity
     
-    private volatile ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor()
     private final AtomicBoolean executorQueued = new AtomicBoolean(false)
     private volatile long executorTime = 0
     private boolean loggedConstraintsIgnored = false;
@@ -135,14 +132,13 @@ public class FollowTheSunPolicy extends AbstractPolicy {
     public void suspend() {
         // TODO unsubscribe from everything? And resubscribe on resume?
         super.suspend();
-        if (executor != null) executor.shutdownNow();
+        cancelScheduledJobs()
         executorQueued.set(false)
     }
     
     @Override
     public void resume() {
         super.resume();
-        executor = Executors.newSingleThreadScheduledExecutor()
         executorTime = 0
         executorQueued.set(false)
     }
@@ -152,7 +148,7 @@ public class FollowTheSunPolicy extends AbstractPolicy {
             long now = System.currentTimeMillis()
             long delay = Math.max(0, (executorTime + minPeriodBetweenExecs) - now)
             
-            executor.schedule(
+            getScheduler().scheduleSerial(this,
                 {
                     try {
                         executorTime = System.currentTimeMillis()
@@ -2,8 +2,6 @@ package brooklyn.policy.loadbalancing
 
 import java.util.Map
 import java.util.Map.Entry
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledExecutorService
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 
@@ -56,7 +54,6 @@ public class LoadBalancingPolicy extends AbstractPolicy {
     private final BalancingStrategy<Entity, ?> strategy
     private BalanceableWorkerPool poolEntity
     
-    private volatile ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor()
     private final AtomicBoolean executorQueued = new AtomicBoolean(false)
     private volatile long executorTime = 0
 
@@ -135,14 +132,13 @@ public class LoadBalancingPolicy extends AbstractPolicy {
     public void suspend() {
         // TODO unsubscribe from everything? And resubscribe on resume?
         super.suspend();
-        if (executor != null) executor.shutdownNow();
+        cancelScheduledJobs()
         executorQueued.set(false)
     }
     
     @Override
     public void resume() {
         super.resume();
-        executor = Executors.newSingleThreadScheduledExecutor()
         executorTime = 0
         executorQueued.set(false)
     }
@@ -152,7 +148,7 @@ public class LoadBalancingPolicy extends AbstractPolicy {
             long now = System.currentTimeMillis()
             long delay = Math.max(0, (executorTime + minPeriodBetweenExecs) - now)
             
-            executor.schedule(
+            getScheduler().scheduleSerial(this,
                 {
                     try {
                         executorTime = System.currentTimeMillis()
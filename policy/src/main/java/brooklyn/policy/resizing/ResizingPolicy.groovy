@@ -3,8 +3,6 @@ package brooklyn.policy.resizing
 import groovy.lang.Closure
 
 import java.util.Map
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledExecutorService
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 
@@ -59,7 +57,6 @@ public class ResizingPolicy extends AbstractPolicy {
     
     private Entity poolEntity
     
-    private volatile ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor()
     private final AtomicBoolean executorQueued = new AtomicBoolean(false)
     private volatile long executorTime = 0
     
@@ -117,13 +114,8 @@ public class ResizingPolicy extends AbstractPolicy {
     public void suspend() {
         super.suspend();
         // TODO unsubscribe from everything? And resubscribe on resume?
-        if (executor != null) executor.shutdownNow()
-    }
-    
-    @Override
-    public void resume() {
-        super.resume();
-        executor = Executors.newSingleThreadScheduledExecutor()
+        cancelScheduledJobs()
+        executorQueued.set(false)
     }
     
     @Override
@@ -220,7 +212,7 @@ public class ResizingPolicy extends AbstractPolicy {
             long delay = Math.max(0, (executorTime + minPeriodBetweenExecs) - now)
             if (LOG.isTraceEnabled()) LOG.trace("{} scheduling resize in {}ms", this, delay)
             
-            executor.schedule(
+            getScheduler().scheduleSerial(this,
                 {
                     try {
                         executorTime = System.currentTimeMillis()
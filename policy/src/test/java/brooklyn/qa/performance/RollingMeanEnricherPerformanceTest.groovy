@@ -0,0 +1,59 @@
+package brooklyn.qa.performance
+
+import static org.testng.Assert.*
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.enricher.RollingMeanEnricher
+import brooklyn.enricher.RollingTimeWindowMeanEnricher
+import brooklyn.entity.LocallyManagedEntity
+import brooklyn.event.AttributeSensor
+import brooklyn.event.basic.BasicAttributeSensor
+
+/**
+ * Measures the events per second handled by the rolling mean enrichers, with windows holding a thousand values.
+ */
+public class RollingMeanEnricherPerformanceTest extends AbstractPerformanceTest {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(RollingMeanEnricherPerformanceTest.class)
+
+    private static final int NUM_ITERATIONS = 100000
+
+    AttributeSensor<Integer> source = new BasicAttributeSensor<Integer>(Integer.class, "source")
+    AttributeSensor<Double> target = new BasicAttributeSensor<Double>(Double.class, "target")
+
+    LocallyManagedEntity entity
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        super.setUp()
+        entity = new LocallyManagedEntity(owner:app)
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testRollingMean() {
+        RollingMeanEnricher<Integer> enricher = new RollingMeanEnricher<Integer>(entity, source, target, 1000)
+        entity.addEnricher(enricher)
+        int i = 0
+        measureAndAssert("rollingMean", NUM_ITERATIONS, 10000) {
+            enricher.onEvent(source.newEvent(entity, (i++) % 100))
+        }
+        assertEquals(enricher.getAverage(), 49.5d, 0.0000001d)
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testRollingTimeWindowMean() {
+        RollingTimeWindowMeanEnricher<Integer> enricher = new RollingTimeWindowMeanEnricher<Integer>(entity, source, target, 1000)
+        entity.addEnricher(enricher)
+        long time = 0
+        measureAndAssert("rollingTimeWindowMean", NUM_ITERATIONS, 10000) {
+            // one event per millisecond, so a thousand in the window
+            time++
+            enricher.onEvent(source.newEvent(entity, (int) (time % 100)), time)
+        }
+        assertEquals(enricher.getAverage(time).value, 49.5d, 0.0000001d)
+    }
+}
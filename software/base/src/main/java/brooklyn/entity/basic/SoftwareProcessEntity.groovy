@@ -3,12 +3,14 @@ package brooklyn.entity.basic
 import java.util.Collection
 import java.util.Map
 import java.util.Set
+import java.util.concurrent.Callable
 
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
 import brooklyn.entity.ConfigKey
 import brooklyn.entity.Entity
+import brooklyn.entity.basic.lifecycle.ReadinessCheck
 import brooklyn.entity.basic.lifecycle.StartStopDriver
 import brooklyn.entity.basic.lifecycle.StartStopSshDriver
 import brooklyn.entity.trait.Startable
@@ -26,6 +28,7 @@ import brooklyn.location.NoMachinesAvailableException
 import brooklyn.location.PortRange
 import brooklyn.location.basic.LocalhostMachineProvisioningLocation;
 import brooklyn.location.basic.SshMachineLocation
+import brooklyn.management.internal.AbstractManagementContext
 import brooklyn.util.flags.SetFromFlag
 
 import com.google.common.base.Preconditions
@@ -66,10 +69,28 @@ public abstract class SoftwareProcessEntity extends AbstractEntity implements St
 	@SetFromFlag("env")
 	public static final BasicConfigKey<Map> SHELL_ENVIRONMENT = [ Map, "shell.env", "Map of environment variables to pass to the runtime shell", [:] ]
 
+    @SetFromFlag("singleSshSession")
+    public static final BasicConfigKey<Boolean> SINGLE_SSH_SESSION = [ Boolean, "ssh.singleSession", "Whether to run the scripts of the lifecycle phases (install, customize, launch, check-running, stop) one after another in an ssh session kept open by the driver, rather than each in a new session", false ]
+
+    @SetFromFlag("startTimeout")
+    public static final BasicConfigKey<Long> START_TIMEOUT = [ Long, "start.timeout", "Time (in milliseconds) to wait for the process to be ready after launching it, before reporting it as on fire", 75*1000L ]
+
+    @SetFromFlag("readinessProbeInitialDelay")
+    public static final BasicConfigKey<Long> READINESS_PROBE_INITIAL_DELAY = [ Long, "start.readiness.probe.initialDelay", "Time (in milliseconds) after launching the process before first probing whether it is ready", 250L ]
+
+    @SetFromFlag("readinessProbeMaxDelay")
+    public static final BasicConfigKey<Long> READINESS_PROBE_MAX_DELAY = [ Long, "start.readiness.probe.maxDelay", "Max time (in milliseconds) between probes of whether the process is ready", 5*1000L ]
+
+    @SetFromFlag("readinessProbeBackoff")
+    public static final BasicConfigKey<Double> READINESS_PROBE_BACKOFF = [ Double, "start.readiness.probe.backoff", "Multiplier applied to the time between probes of whether the process is ready, after each probe", 2.0d ]
+
 	public static final AttributeSensor<String> HOSTNAME = Attributes.HOSTNAME
 	public static final AttributeSensor<String> ADDRESS = Attributes.ADDRESS
 
 	public static final BasicAttributeSensor<Lifecycle> SERVICE_STATE = Attributes.SERVICE_STATE
+
+    public static final BasicAttributeSensor<Long> READINESS_LATENCY = [ Long, "start.readiness.latency", "Time (in milliseconds) from launching the process until it was detected as ready" ]
+    public static final BasicAttributeSensor<String> READINESS_SIGNAL = [ String, "start.readiness.signal", "The signal on which the process was detected as ready" ]
 	
 	private MachineProvisioningLocation provisioningLoc
 	private StartStopDriver driverLocal
@@ -185,6 +206,8 @@ public abstract class SoftwareProcessEntity extends AbstractEntity implements St
 
     public void startInLocation(SshMachineLocation machine) {
         locations.add(machine)
+        // so the machine's connections do their periodic work in our management context's scheduler
+        machine.setScheduler(((AbstractManagementContext)managementContext).scheduler)
         initDriver(machine)
         
         // Note: must only apply config-sensors after adding to locations and creating driver; 
@@ -221,23 +244,41 @@ public abstract class SoftwareProcessEntity extends AbstractEntity implements St
         }
     }
     
-	// TODO Find a better way to detect early death of process.
+    /**
+     * Waits for the process to be ready after launching it, on the first of the signals added by
+     * {@link #addReadinessSignals(ReadinessCheck)}, for up to {@link #START_TIMEOUT}; if none comes,
+     * sets the service state to on fire. Publishes how long it took, and on which signal.
+     */
 	public void waitForEntityStart() throws IllegalStateException {
 		if (log.isDebugEnabled()) log.debug "waiting to ensure $this doesn't abort prematurely"
-		long startTime = System.currentTimeMillis()
-		long waitTime = startTime + 75000 // FIXME magic number; should be config key with default value?
-		boolean isRunningResult = false;
-		while (!isRunningResult && System.currentTimeMillis() < waitTime) {
-		    Thread.sleep 1000 // FIXME magic number; should be config key with default value?
-			isRunningResult = driver.isRunning()
-			if (log.isDebugEnabled()) log.debug "checked {}, is running returned: {}", this, isRunningResult
-		}
-		if (!isRunningResult) {
+		ReadinessCheck check = new ReadinessCheck(this, getConfig(START_TIMEOUT), ((AbstractManagementContext)managementContext).scheduler)
+		addReadinessSignals(check)
+		ReadinessCheck.Signal signal = check.await()
+		if (signal == null) {
             log.warn("Software process entity ${this} did not appear to start; setting state to indicate problem; consult logs for more details")
 			setAttribute(SERVICE_STATE, Lifecycle.ON_FIRE)
+		} else {
+			setAttribute(READINESS_LATENCY, check.latencyMillis)
+			setAttribute(READINESS_SIGNAL, signal.name)
 		}
 	}
 
+    /**
+     * Adds the signals on the first of which the process is considered ready after it is launched.
+     * By default this is a probe of {@link StartStopDriver#isRunning()}, with the backoff from {@link #getReadinessBackoff()}.
+     * Subclasses can add signals which detect readiness sooner or more cheaply, such as
+     * {@link ReadinessCheck#portReachable(String, int, ReadinessCheck.Backoff)}, a {@link ReadinessCheck.SensorSignal}
+     * or a {@link ReadinessCheck.LogLineSignal}.
+     */
+    protected void addReadinessSignals(ReadinessCheck check) {
+        check.add(new ReadinessCheck.ProbeSignal("isRunning", { driver.isRunning() } as Callable, readinessBackoff))
+    }
+
+    /** the backoff for probes of whether the process is ready, from config */
+    protected ReadinessCheck.Backoff getReadinessBackoff() {
+        return new ReadinessCheck.Backoff(getConfig(READINESS_PROBE_INITIAL_DELAY), getConfig(READINESS_PROBE_MAX_DELAY), getConfig(READINESS_PROBE_BACKOFF))
+    }
+
 	public void stop() {
         if (getAttribute(SERVICE_STATE)==Lifecycle.STOPPED) {
             log.warn("Skipping stop of software process entity "+this+" when already stopped");
@@ -266,7 +307,11 @@ public abstract class SoftwareProcessEntity extends AbstractEntity implements St
 
 	public void stopInLocation(MachineLocation machine) {
 		if (sensorRegistry) sensorRegistry.close()
-		if (driver) driver.stop()
+		try {
+			if (driver) driver.stop()
+		} finally {
+			if (driver in StartStopSshDriver) ((StartStopSshDriver)driver).closeSession()
+		}
 
 		// Only release this machine if we ourselves provisioned it (e.g. it might be running other services)
 		provisioningLoc?.release(machine)
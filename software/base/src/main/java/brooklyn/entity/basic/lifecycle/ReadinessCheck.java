@@ -0,0 +1,408 @@
+package brooklyn.entity.basic.lifecycle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.SensorEvent;
+import brooklyn.event.SensorEventListener;
+import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.management.SubscriptionContext;
+import brooklyn.management.SubscriptionHandle;
+import brooklyn.util.internal.ssh.SshProcess;
+import brooklyn.util.task.SharedScheduler;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+
+/**
+ * Waits for a process to be ready, after it has been launched, completing on the first of several signals,
+ * e.g. a port becoming reachable, a sensor value, a line in a log file, or a probe (such as
+ * {@link StartStopDriver#isRunning()}) returning true. Signals which are notified (sensor values, log lines)
+ * are detected as soon as they happen; probes are scheduled with exponential {@link Backoff}, so are tried
+ * quickly at first and then less often, rather than at a fixed rate.
+ * <p>
+ * Probes, and following log files, are run as jobs of the given {@link SharedScheduler} (normally the management
+ * context's, which runs them in the blocking lane of the execution manager), with the check's context as owner,
+ * rather than in threads of their own.
+ * <p>
+ * Each check is used once: signals are added, {@link #await()} starts them and waits for the first, and
+ * then stops them all.
+ */
+public class ReadinessCheck {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReadinessCheck.class);
+
+    /** Time (in milliseconds) allowed to connect when probing a port. */
+    public static final int PORT_CONNECT_TIMEOUT_MILLIS = 1000;
+
+    /** A way of detecting that a process is ready. */
+    public interface Signal {
+        /** a short description, e.g. to report which signal completed a check */
+        String getName();
+
+        /** Starts watching for the signal, calling {@link ReadinessCheck#signal(Signal)} if it happens. */
+        void start(ReadinessCheck check);
+
+        /** Stops watching; may be called whether or not the signal happened, and before it has started. */
+        void stop();
+    }
+
+    /** Delays between attempts of a probe: starting at the initial delay, multiplied after each attempt, up to the max. */
+    public static class Backoff {
+        private final long initialDelayMillis;
+        private final long maxDelayMillis;
+        private final double multiplier;
+
+        public Backoff(long initialDelayMillis, long maxDelayMillis, double multiplier) {
+            checkArgument(initialDelayMillis >= 0, "initialDelayMillis must not be negative");
+            checkArgument(maxDelayMillis >= initialDelayMillis, "maxDelayMillis must be at least initialDelayMillis");
+            checkArgument(multiplier >= 1, "multiplier must be at least 1");
+            this.initialDelayMillis = initialDelayMillis;
+            this.maxDelayMillis = maxDelayMillis;
+            this.multiplier = multiplier;
+        }
+
+        public long getInitialDelayMillis() {
+            return initialDelayMillis;
+        }
+
+        public long getMaxDelayMillis() {
+            return maxDelayMillis;
+        }
+
+        public double getMultiplier() {
+            return multiplier;
+        }
+
+        /** @return the delay to follow the given one */
+        public long next(long delayMillis) {
+            return Math.min(maxDelayMillis, Math.max(1, (long) (delayMillis * multiplier)));
+        }
+
+        @Override
+        public String toString() {
+            return "Backoff[initial="+initialDelayMillis+"ms; max="+maxDelayMillis+"ms; multiplier="+multiplier+"]";
+        }
+    }
+
+    private final Object context;
+    private final long timeoutMillis;
+    private final SharedScheduler scheduler;
+    private final List<Signal> signals = new CopyOnWriteArrayList<Signal>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private volatile Signal signalled;
+    private volatile long startTime;
+    private volatile long latencyMillis = -1;
+
+    /**
+     * @param context what is being checked (e.g. the entity), for logging
+     * @param timeoutMillis time to wait for a signal, from when {@link #await()} is called
+     * @param scheduler runs the probes and log followers (which may block, e.g. on ssh)
+     */
+    public ReadinessCheck(Object context, long timeoutMillis, SharedScheduler scheduler) {
+        this.context = checkNotNull(context, "context");
+        this.timeoutMillis = timeoutMillis;
+        this.scheduler = checkNotNull(scheduler, "scheduler");
+    }
+
+    public ReadinessCheck add(Signal signal) {
+        signals.add(checkNotNull(signal, "signal"));
+        return this;
+    }
+
+    public List<Signal> getSignals() {
+        return signals;
+    }
+
+    /** Reports that the given signal has happened; only the first signal reported completes the check. */
+    public void signal(Signal signal) {
+        if (completed.compareAndSet(false, true)) {
+            signalled = signal;
+            latencyMillis = System.currentTimeMillis() - startTime;
+            if (LOG.isDebugEnabled()) LOG.debug("{} ready after {}ms, on signal {}", new Object[] {context, latencyMillis, signal.getName()});
+            done.countDown();
+        }
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /** Runs the job (which may block) after the given delay, in the check's scheduler, with its context as owner. */
+    public ScheduledFuture<?> schedule(Runnable job, long delayMillis) {
+        return scheduler.schedule(context, job, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts all the signals, and waits for the first of them (or the timeout), then stops them all.
+     *
+     * @return the signal which completed the check, or null if none did before the timeout
+     */
+    public Signal await() throws InterruptedException {
+        checkState(startTime == 0, "check already used");
+        startTime = System.currentTimeMillis();
+        try {
+            for (Signal signal : signals) {
+                if (isDone()) break;
+                signal.start(this);
+            }
+            if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS) && completed.compareAndSet(false, true)) {
+                // marked as completed, so a signal arriving later is ignored
+                done.countDown();
+                if (LOG.isDebugEnabled()) LOG.debug("{} not ready after {}ms, on any of signals {}", new Object[] {context, timeoutMillis, signals});
+                return null;
+            }
+            done.await();
+            return signalled;
+        } finally {
+            for (Signal signal : signals) {
+                try {
+                    signal.stop();
+                } catch (Exception e) {
+                    LOG.warn("Error stopping readiness signal "+signal.getName()+" for "+context+" (continuing)", e);
+                }
+            }
+        }
+    }
+
+    /** @return the time (in milliseconds) from calling {@link #await()} until a signal, or -1 if there has been none */
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadinessCheck["+context+"]";
+    }
+
+    /**
+     * A probe, called repeatedly (as a job of the check's scheduler) with {@link Backoff} between attempts, until it returns true.
+     * Exceptions thrown by the probe count as a false result.
+     */
+    public static class ProbeSignal implements Signal {
+        private final String name;
+        private final Callable<Boolean> probe;
+        private final Backoff backoff;
+        private volatile boolean stopped;
+        private volatile int attempts;
+        private volatile ScheduledFuture<?> next;
+
+        public ProbeSignal(String name, Callable<Boolean> probe, Backoff backoff) {
+            this.name = checkNotNull(name, "name");
+            this.probe = checkNotNull(probe, "probe");
+            this.backoff = checkNotNull(backoff, "backoff");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** number of times the probe has been called */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public void start(ReadinessCheck check) {
+            schedule(check, backoff.getInitialDelayMillis());
+        }
+
+        private void schedule(final ReadinessCheck check, final long delayMillis) {
+            if (stopped || check.isDone()) return;
+            next = check.schedule(new Runnable() {
+                public void run() {
+                    attempt(check, delayMillis);
+                }}, delayMillis);
+            // stopped while scheduling, so the job scheduled may not have been seen by stop()
+            if (stopped) next.cancel(false);
+        }
+
+        private void attempt(ReadinessCheck check, long delayMillis) {
+            if (stopped || check.isDone()) return;
+            boolean result;
+            try {
+                attempts++;
+                result = Boolean.TRUE.equals(probe.call());
+            } catch (Exception e) {
+                if (LOG.isDebugEnabled()) LOG.debug("Readiness probe "+name+" for "+check.context+" failed (will retry): "+e);
+                result = false;
+            }
+            if (LOG.isTraceEnabled()) LOG.trace("Readiness probe {} for {} returned {}", new Object[] {name, check.context, result});
+            if (result) {
+                check.signal(this);
+            } else {
+                schedule(check, backoff.next(delayMillis));
+            }
+        }
+
+        public void stop() {
+            stopped = true;
+            ScheduledFuture<?> toCancel = next;
+            if (toCancel != null) toCancel.cancel(false);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /** @return a probe of the given port being reachable (from this machine), i.e. accepting connections */
+    public static ProbeSignal portReachable(final String host, final int port, Backoff backoff) {
+        return new ProbeSignal("port "+host+":"+port, new Callable<Boolean>() {
+            public Boolean call() throws IOException {
+                Socket s = new Socket();
+                try {
+                    s.connect(new InetSocketAddress(host, port), PORT_CONNECT_TIMEOUT_MILLIS);
+                    return true;
+                } finally {
+                    s.close();
+                }
+            }}, backoff);
+    }
+
+    /**
+     * An attribute of an entity having a value accepted by the predicate, either when the signal starts
+     * or (from notification of changes, rather than polling) afterwards.
+     */
+    public static class SensorSignal<T> implements Signal {
+        private final EntityLocal entity;
+        private final AttributeSensor<T> sensor;
+        private final Predicate<? super T> predicate;
+        private SubscriptionContext subscriptions;
+        private SubscriptionHandle subscription;
+
+        public SensorSignal(EntityLocal entity, AttributeSensor<T> sensor, Predicate<? super T> predicate) {
+            this.entity = checkNotNull(entity, "entity");
+            this.sensor = checkNotNull(sensor, "sensor");
+            this.predicate = checkNotNull(predicate, "predicate");
+        }
+
+        public String getName() {
+            return "sensor "+sensor.getName();
+        }
+
+        public synchronized void start(final ReadinessCheck check) {
+            // subscribe before checking the current value, so a change in between is not missed
+            subscriptions = entity.getManagementContext().getSubscriptionContext(entity);
+            subscription = subscriptions.subscribe(entity, sensor, new SensorEventListener<T>() {
+                public void onEvent(SensorEvent<T> event) {
+                    if (predicate.apply(event.getValue())) check.signal(SensorSignal.this);
+                }});
+            if (predicate.apply(entity.getAttribute(sensor))) check.signal(this);
+        }
+
+        public synchronized void stop() {
+            if (subscription != null) subscriptions.unsubscribe(subscription);
+            subscription = null;
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+    }
+
+    /**
+     * A line matching the pattern in a file on the machine, which is followed over ssh (with {@code tail -F})
+     * from its start, as a job of the check's scheduler, so lines are detected as they are written rather than by
+     * polling. The file need not exist when the signal starts. The remote {@code tail} is killed (with
+     * {@code timeout}) after the check's timeout, as closing the ssh channel does not kill it.
+     */
+    public static class LogLineSignal implements Signal {
+        private final SshMachineLocation machine;
+        private final String file;
+        private final Pattern pattern;
+        private SshProcess tail;
+        private boolean stopped;
+
+        public LogLineSignal(SshMachineLocation machine, String file, Pattern pattern) {
+            this.machine = checkNotNull(machine, "machine");
+            this.file = checkNotNull(file, "file");
+            this.pattern = checkNotNull(pattern, "pattern");
+        }
+
+        public String getName() {
+            return "log line /"+pattern+"/ in "+file;
+        }
+
+        public void start(final ReadinessCheck check) {
+            check.schedule(new Runnable() {
+                public void run() {
+                    follow(check);
+                }}, 0);
+        }
+
+        private void follow(ReadinessCheck check) {
+            if (isStopped()) return;
+            try {
+                long timeoutSecs = Math.max(1, (check.getTimeoutMillis()+999) / 1000);
+                String quotedFile = "'"+file.replace("'", "'\\''")+"'";
+                SshProcess process = machine.startCommand("exec timeout "+timeoutSecs+" tail -n +1 -F "+quotedFile+" 2>/dev/null");
+                synchronized (this) {
+                    if (stopped) {
+                        process.close();
+                        return;
+                    }
+                    tail = process;
+                }
+                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), Charsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (pattern.matcher(line).find()) {
+                        check.signal(this);
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                // expected when stopped; otherwise the check relies on its other signals
+                if (!isStopped() && LOG.isDebugEnabled()) LOG.debug("Error following "+file+" on "+machine+" for "+check.context, e);
+            } finally {
+                stop();
+            }
+        }
+
+        private synchronized boolean isStopped() {
+            return stopped;
+        }
+
+        public void stop() {
+            SshProcess toClose;
+            synchronized (this) {
+                stopped = true;
+                toClose = tail;
+                tail = null;
+            }
+            if (toClose != null) toClose.close();
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+    }
+}
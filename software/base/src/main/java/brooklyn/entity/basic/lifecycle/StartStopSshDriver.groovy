@@ -13,7 +13,11 @@ import brooklyn.entity.basic.Attributes
 import brooklyn.entity.basic.EntityLocal
 import brooklyn.entity.basic.SoftwareProcessEntity
 import brooklyn.location.basic.SshMachineLocation
-import brooklyn.util.internal.StreamGobbler
+import brooklyn.management.Task
+import brooklyn.util.internal.LoggingOutputStream
+import brooklyn.util.internal.ssh.SshShellChannel
+import brooklyn.util.task.BasicExecutionManager
+import brooklyn.util.task.BasicTask
 
 public abstract class StartStopSshDriver extends AbstractStartStopDriver implements ScriptRunner {
 
@@ -24,6 +28,16 @@ public abstract class StartStopSshDriver extends AbstractStartStopDriver impleme
     public static final String DEFAULT_INSTALL_BASEDIR = BROOKLYN_HOME_DIR+"/"+"installs";
     public static final String NO_VERSION_INFO = "no-version-info";
 
+    /**
+     * Time (in milliseconds) allowed for each script run in a single session (see {@link SoftwareProcessEntity#SINGLE_SSH_SESSION}),
+     * after which the session is closed and the script fails.
+     * Defaults to 3600000 (one hour) if system property is not set.
+     */
+    public static final long SESSION_SCRIPT_TIMEOUT_MILLIS = Long.getLong("brooklyn.ssh.driver.sessionScriptTimeoutMillis", 60*60*1000);
+
+    /** the session for running scripts, when using a single session; guarded by this */
+    private SshShellChannel session
+
     public StartStopSshDriver(EntityLocal entity, SshMachineLocation machine) {
         super(entity, machine);
     }
@@ -57,33 +71,80 @@ public abstract class StartStopSshDriver extends AbstractStartStopDriver impleme
     public SshMachineLocation getMachine() { location }
     public String getHostname() { entity.getAttribute(Attributes.HOSTNAME) }
 
+    /**
+     * Runs the script on the machine, logging its output (prefixed with the entity and machine).
+     * By default each script is run in a new ssh session, as an uploaded file; if the entity has
+     * {@link SoftwareProcessEntity#SINGLE_SSH_SESSION} set, the scripts are instead run one after another
+     * in a session which this driver keeps open (see {@link #executeInSession(List, Map)}).
+     * While the script runs, the current task's blocking details say so.
+     *
+     * @return the exit status of the script
+     */
     public int execute(List<String> script, String summaryForLogging, Map environmentOverride=null) {
         logSsh.debug("{} on machine {}: {}", summaryForLogging, machine, script)
         def environment = environmentOverride!=null ? environmentOverride : getShellEnvironment()
 
-        InputStream insO = new PipedInputStream();
-        OutputStream outO = new PipedOutputStream(insO)
-        InputStream insE = new PipedInputStream();
-        OutputStream outE = new PipedOutputStream(insE)
-        //        InputStream insEcho = new PipedInputStream();
-        //        OutputStream outEcho = new PipedOutputStream(insEcho)
-        
+        Task current = BasicExecutionManager.getCurrentTask()
+        if (current in BasicTask) ((BasicTask)current).setBlockingDetails("running "+summaryForLogging+" on "+machine.getName())
         try {
-            new StreamGobbler(insO, null, logSsh).setPrefix("["+entity.id+"@"+machine.getName()+":stdout] ").start()
-            new StreamGobbler(insE, null, logSsh).setPrefix("["+entity.id+"@"+machine.getName()+":stderr] ").start()
-            //don't need echo here because we run bash with echo on
-//            new StreamGobbler(insEcho, null, log).setPrefix("["+entity.id+"@"+machine.getName()+":stdin]% ").start()
-            
-            int result = machine.run(out:outO, err:outE, /*echo:outEcho,*/ script, environment);
+            int result = useSingleSession() ? executeInSession(script, environment) : executeInNewSession(script, environment)
             logSsh.debug("{} on machine {} completed: {}", summaryForLogging, machine, result)
             return result
         } finally {
-            // Must close the pipedOutStreams, otherwise input will never read -1 so StreamGobbler thread would never die
-            outO.close()
-            outE.close()
+            if (current in BasicTask) ((BasicTask)current).setBlockingDetails(null)
+        }
+    }
+
+    protected boolean useSingleSession() {
+        return entity.getConfig(SoftwareProcessEntity.SINGLE_SSH_SESSION)
+    }
+
+    /** Runs the script in a new ssh session; output is logged as it is written (by the ssh tool), without piping it to threads of our own. */
+    protected int executeInNewSession(List<String> script, Map environment) {
+        OutputStream out = new LoggingOutputStream(logSsh, "["+entity.id+"@"+machine.getName()+":stdout] ")
+        OutputStream err = new LoggingOutputStream(logSsh, "["+entity.id+"@"+machine.getName()+":stderr] ")
+        try {
+            return machine.run(out:out, err:err, script, environment);
+        } finally {
+            out.close()
+            err.close()
         }
     }
 
+    /**
+     * Runs the script in the session kept open by this driver (opening it if necessary), as a bash script
+     * (with -e, as when run as a file), in its own process so that its {@code exit} or {@code cd} does not affect
+     * the scripts that follow. The session is a login shell, so scripts see the user's profile as in a new session.
+     * <p>
+     * Output is read on the calling thread, with stderr merged into stdout (so lines are logged in the order
+     * written, under one prefix). If the session fails, the script fails, and the next script opens a new session.
+     */
+    protected int executeInSession(List<String> script, Map environment) {
+        StringBuilder command = new StringBuilder()
+        environment.each { k, v -> command.append("export "+k+"=\""+(""+v).replaceAll("\\\"", "\\\\\\\"")+"\"\n") }
+        script.each { command.append(""+it).append("\n") }
+        String wrapped = "bash -e -c '"+command.toString().replace("'", "'\\''")+"' 2>&1"
+
+        OutputStream out = new LoggingOutputStream(logSsh, "["+entity.id+"@"+machine.getName()+":output] ")
+        try {
+            return getSession().exec(wrapped, out, SESSION_SCRIPT_TIMEOUT_MILLIS)
+        } finally {
+            out.close()
+        }
+    }
+
+    /** the session in which scripts are run when using a single session, opened on first use */
+    protected synchronized SshShellChannel getSession() {
+        if (session == null) session = machine.openShellChannel("bash -l", SESSION_SCRIPT_TIMEOUT_MILLIS)
+        return session
+    }
+
+    /** Closes the session in which scripts are run, if open (the next script run in a session would open a new one). */
+    public synchronized void closeSession() {
+        session?.close()
+        session = null
+    }
+
     /**
      * The environment variables to be set when executing the commands (for install, run, check running, etc).
      */
@@ -0,0 +1,185 @@
+package brooklyn.entity.basic.lifecycle
+
+import static org.testng.Assert.*
+
+import java.util.concurrent.Callable
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.regex.Pattern
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.entity.basic.lifecycle.ReadinessCheck.Backoff
+import brooklyn.entity.basic.lifecycle.ReadinessCheck.LogLineSignal
+import brooklyn.entity.basic.lifecycle.ReadinessCheck.ProbeSignal
+import brooklyn.entity.basic.lifecycle.ReadinessCheck.SensorSignal
+import brooklyn.location.basic.SshMachineLocation
+import brooklyn.test.entity.TestApplication
+import brooklyn.test.entity.TestEntity
+import brooklyn.util.internal.ssh.InProcessSshServer
+import brooklyn.util.task.BasicExecutionManager
+import brooklyn.util.task.SharedScheduler
+
+import com.google.common.base.Predicate
+
+public class ReadinessCheckTest {
+
+    private static final Backoff FAST = new Backoff(1, 20, 2)
+
+    private BasicExecutionManager executionManager
+    private SharedScheduler scheduler
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        executionManager = new BasicExecutionManager()
+        scheduler = executionManager.sharedScheduler
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        executionManager?.shutdownNow()
+    }
+
+    @Test
+    public void testBackoffMultipliesDelayUpToMax() {
+        Backoff backoff = new Backoff(100, 1000, 2)
+        List<Long> delays = [backoff.initialDelayMillis]
+        5.times { delays << backoff.next(delays.last()) }
+        assertEquals(delays, [100L, 200L, 400L, 800L, 1000L, 1000L])
+    }
+
+    @Test
+    public void testProbeRetriedUntilTrue() {
+        AtomicInteger calls = new AtomicInteger()
+        ProbeSignal probe = new ProbeSignal("probe", { calls.incrementAndGet() >= 3 } as Callable, FAST)
+        ReadinessCheck check = new ReadinessCheck("test", 10*1000, scheduler).add(probe)
+
+        assertSame(check.await(), probe)
+        assertEquals(probe.attempts, 3)
+        assertTrue(check.latencyMillis >= 0)
+        // run as jobs of the scheduler, on behalf of the check's context
+        assertEquals(scheduler.getOwnerStats("test").numRuns, 3L)
+    }
+
+    @Test
+    public void testProbeExceptionsCountAsNotReady() {
+        AtomicInteger calls = new AtomicInteger()
+        ProbeSignal probe = new ProbeSignal("probe", { if (calls.incrementAndGet() < 2) throw new IOException("simulated"); true } as Callable, FAST)
+
+        assertSame(new ReadinessCheck("test", 10*1000, scheduler).add(probe).await(), probe)
+        assertEquals(probe.attempts, 2)
+    }
+
+    @Test
+    public void testReturnsNullOnTimeoutAndStopsProbing() {
+        ProbeSignal probe = new ProbeSignal("never", { false } as Callable, FAST)
+        ReadinessCheck check = new ReadinessCheck("test", 100, scheduler).add(probe)
+
+        assertNull(check.await())
+        assertEquals(check.latencyMillis, -1)
+        int attempts = probe.attempts
+        Thread.sleep(100)
+        assertTrue(probe.attempts <= attempts+1, "attempts="+probe.attempts+"; at timeout="+attempts)
+    }
+
+    @Test
+    public void testCompletesOnFirstOfSeveralSignals() {
+        ProbeSignal slow = new ProbeSignal("slow", { false } as Callable, new Backoff(1000, 1000, 1))
+        ProbeSignal fast = new ProbeSignal("fast", { true } as Callable, FAST)
+        ReadinessCheck check = new ReadinessCheck("test", 10*1000, scheduler).add(slow).add(fast)
+
+        assertSame(check.await(), fast)
+        assertTrue(check.latencyMillis < 1000, "latency="+check.latencyMillis)
+        assertEquals(slow.attempts, 0)
+    }
+
+    @Test
+    public void testPortReachable() {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("localhost"))
+        try {
+            ProbeSignal port = ReadinessCheck.portReachable("localhost", server.localPort, FAST)
+            assertSame(new ReadinessCheck("test", 10*1000, scheduler).add(port).await(), port)
+        } finally {
+            server.close()
+        }
+    }
+
+    @Test
+    public void testPortNotReachable() {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("localhost"))
+        int unusedPort = server.localPort
+        server.close()
+
+        ProbeSignal port = ReadinessCheck.portReachable("localhost", unusedPort, FAST)
+        assertNull(new ReadinessCheck("test", 200, scheduler).add(port).await())
+        assertTrue(port.attempts > 1)
+    }
+
+    @Test
+    public void testSensorSignalOnCurrentValue() {
+        TestApplication app = new TestApplication()
+        TestEntity entity = new TestEntity(app)
+        entity.setAttribute(TestEntity.SEQUENCE, 5)
+
+        SensorSignal signal = new SensorSignal(entity, TestEntity.SEQUENCE, { it != null && it >= 5 } as Predicate)
+        assertSame(new ReadinessCheck(entity, 10*1000, scheduler).add(signal).await(), signal)
+    }
+
+    @Test
+    public void testSensorSignalOnChangedValue() {
+        TestApplication app = new TestApplication()
+        TestEntity entity = new TestEntity(app)
+        entity.setAttribute(TestEntity.SEQUENCE, 1)
+
+        SensorSignal signal = new SensorSignal(entity, TestEntity.SEQUENCE, { it != null && it >= 5 } as Predicate)
+        ReadinessCheck check = new ReadinessCheck(entity, 10*1000, scheduler).add(signal)
+        Thread setter = new Thread({ Thread.sleep(100); entity.setAttribute(TestEntity.SEQUENCE, 5) })
+        setter.start()
+        try {
+            assertSame(check.await(), signal)
+            assertTrue(check.latencyMillis >= 50, "latency="+check.latencyMillis)
+        } finally {
+            setter.join()
+        }
+    }
+
+    @Test(groups="Integration")
+    public void testLogLineSignalOnLineWrittenAfterStart() {
+        InProcessSshServer server = new InProcessSshServer().start()
+        SshMachineLocation machine = server.newMachine()
+        File log = File.createTempFile("readiness", ".log")
+        try {
+            log.text = "starting\n"
+            LogLineSignal signal = new LogLineSignal(machine, log.absolutePath, Pattern.compile("Server started"))
+            ReadinessCheck check = new ReadinessCheck("test", 10*1000, scheduler).add(signal)
+            Thread writer = new Thread({ Thread.sleep(500); log.append("INFO Server started in 3s\n") })
+            writer.start()
+
+            assertSame(check.await(), signal)
+            assertTrue(check.latencyMillis >= 400, "latency="+check.latencyMillis)
+            writer.join()
+        } finally {
+            log.delete()
+            machine.close()
+            server.stop()
+        }
+    }
+
+    @Test(groups="Integration")
+    public void testLogLineSignalOnFileNeedingQuoting() {
+        InProcessSshServer server = new InProcessSshServer().start()
+        SshMachineLocation machine = server.newMachine()
+        File log = File.createTempFile("readiness it's; ", ".log")
+        try {
+            log.text = "INFO Server started in 3s\n"
+            LogLineSignal signal = new LogLineSignal(machine, log.absolutePath, Pattern.compile("Server started"))
+
+            assertSame(new ReadinessCheck("test", 10*1000, scheduler).add(signal).await(), signal)
+        } finally {
+            log.delete()
+            machine.close()
+            server.stop()
+        }
+    }
+}
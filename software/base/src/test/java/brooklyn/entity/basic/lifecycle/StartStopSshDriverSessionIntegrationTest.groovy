@@ -0,0 +1,129 @@
+package brooklyn.entity.basic.lifecycle
+
+import static org.testng.Assert.*
+
+import groovy.transform.InheritConstructors
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.entity.basic.SoftwareProcessEntity
+import brooklyn.location.basic.SshMachineLocation
+import brooklyn.test.entity.TestApplication
+import brooklyn.test.entity.TestEntity
+import brooklyn.util.internal.ssh.InProcessSshServer
+
+import com.google.common.io.Files
+
+/**
+ * Runs the lifecycle scripts of a {@link StartStopSshDriver} in a single session, against an {@link InProcessSshServer}.
+ */
+public class StartStopSshDriverSessionIntegrationTest {
+
+    private InProcessSshServer server
+    private SshMachineLocation machine
+    private File tempDir
+    private TestApplication app
+    private TestEntity entity
+    private ScriptedStartStopSshDriver driver
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        server = new InProcessSshServer().start()
+        machine = server.newMachine()
+        tempDir = Files.createTempDir()
+        app = new TestApplication()
+        entity = new TestEntity(app)
+        entity.setConfig(SoftwareProcessEntity.SUGGESTED_INSTALL_DIR, tempDir.absolutePath+"/install")
+        entity.setConfig(SoftwareProcessEntity.SUGGESTED_RUN_DIR, tempDir.absolutePath+"/run")
+        entity.setConfig(SoftwareProcessEntity.SINGLE_SSH_SESSION, true)
+        driver = new ScriptedStartStopSshDriver(entity, machine)
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        driver?.closeSession()
+        machine?.close()
+        server?.stop()
+        tempDir?.deleteDir()
+    }
+
+    @Test(groups="Integration")
+    public void testLifecycleRunsInOneSession() {
+        driver.start()
+        assertTrue(driver.isRunning())
+        driver.stop()
+        assertFalse(driver.isRunning())
+
+        assertTrue(new File(tempDir, "install/BROOKLYN").exists())
+        assertEquals(new File(tempDir, "run/config.txt").text.trim(), "customized")
+        // install, customize, launch, check-running, stop, check-running
+        assertEquals(driver.session.numCommands, 6)
+        assertEquals(driver.session.numOpens, 1)
+        assertEquals(server.numAuthentications, 1)
+    }
+
+    @Test(groups="Integration")
+    public void testEachScriptHasItsOwnExitStatusAndState() {
+        assertEquals(driver.execute(["export FOO=bar", "cd /", "exit 3"], "first"), 3)
+        assertEquals(driver.execute(['test -z "$FOO"', 'test "$(pwd)" != / || test "$HOME" = /'], "second"), 0)
+        assertEquals(driver.session.numOpens, 1)
+    }
+
+    @Test(groups="Integration")
+    public void testScriptStopsOnFirstFailingCommand() {
+        assertEquals(driver.execute(["false", "exit 0"], "failing"), 1)
+    }
+
+    @Test(groups="Integration")
+    public void testEnvironmentIsExported() {
+        Map env = [GREETING:'it\'s a "quoted" value']
+        assertEquals(driver.execute(['test "$GREETING" = "it\'s a \\"quoted\\" value"'], "env", env), 0)
+    }
+
+    @Test(groups="Integration")
+    public void testNonZeroResultFailsPhaseAndSessionRemainsUsable() {
+        try {
+            driver.newScript(StartStopSshDriver.LAUNCHING).body.append("exit 2").execute()
+            fail()
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(driver.execute(["true"], "after"), 0)
+        assertEquals(driver.session.numOpens, 1)
+    }
+
+    @Test(groups="Integration")
+    public void testSessionReopenedAfterServerRestart() {
+        assertEquals(driver.execute(["true"], "before"), 0)
+        server.restart()
+        try {
+            driver.execute(["true"], "during")
+        } catch (Exception e) {
+            // expected if the session was found closed; it is reopened for the next script
+        }
+        assertEquals(driver.execute(["true"], "after"), 0)
+        assertTrue(driver.session.numOpens >= 2)
+    }
+}
+
+/** A driver for a trivial process (a sleep), with a script for each lifecycle phase. */
+@InheritConstructors
+public class ScriptedStartStopSshDriver extends StartStopSshDriver {
+    public void install() {
+        newScript(INSTALLING).body.append("echo installing").execute()
+    }
+    public void customize() {
+        newScript(CUSTOMIZING).body.append("echo customized > config.txt").execute()
+    }
+    public void launch() {
+        newScript(LAUNCHING, usePidFile:true).body.append("nohup sleep 60 > /dev/null 2>&1 &").execute()
+    }
+    public boolean isRunning() {
+        newScript(CHECK_RUNNING, usePidFile:true).execute() == 0
+    }
+    public void stop() {
+        newScript(STOPPING, usePidFile:true).execute()
+    }
+}
@@ -0,0 +1,71 @@
+package brooklyn.qa.performance
+
+import static org.testng.Assert.*
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.entity.basic.SoftwareProcessEntity
+import brooklyn.entity.basic.lifecycle.ScriptedStartStopSshDriver
+import brooklyn.location.basic.SshMachineLocation
+import brooklyn.test.entity.TestEntity
+import brooklyn.util.internal.ssh.InProcessSshServer
+
+import com.google.common.io.Files
+
+/**
+ * Starts a process with a {@link ScriptedStartStopSshDriver} (install, customize and launch scripts, then a
+ * check-running script) and stops it, against an in-process ssh server, comparing running each script in a
+ * new session with running them all in a single session.
+ */
+public class StartStopSshDriverPerformanceTest extends AbstractPerformanceTest {
+
+    private InProcessSshServer server
+    private SshMachineLocation machine
+    private File tempDir
+    private TestEntity entity
+    private ScriptedStartStopSshDriver driver
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        super.setUp()
+        server = new InProcessSshServer().start()
+        machine = server.newMachine()
+        tempDir = Files.createTempDir()
+        entity = new TestEntity(app)
+        entity.setConfig(SoftwareProcessEntity.SUGGESTED_INSTALL_DIR, tempDir.absolutePath+"/install")
+        entity.setConfig(SoftwareProcessEntity.SUGGESTED_RUN_DIR, tempDir.absolutePath+"/run")
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        driver?.closeSession()
+        machine?.close()
+        server?.stop()
+        tempDir?.deleteDir()
+        super.tearDown()
+    }
+
+    private void measureStartToRunning(String prefix, int numIterations, double minRatePerSec) {
+        driver = new ScriptedStartStopSshDriver(entity, machine)
+        measureAndAssert(prefix, numIterations, minRatePerSec) {
+            driver.start()
+            assertTrue(driver.isRunning())
+            driver.stop()
+        }
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testStartToRunningWithSessionPerScript() {
+        entity.setConfig(SoftwareProcessEntity.SINGLE_SSH_SESSION, false)
+        measureStartToRunning("startToRunning-sessionPerScript", 20, 0.5)
+    }
+
+    @Test(groups=["Integration", "Acceptance"])
+    public void testStartToRunningInSingleSession() {
+        entity.setConfig(SoftwareProcessEntity.SINGLE_SSH_SESSION, true)
+        measureStartToRunning("startToRunning-singleSession", 100, 2)
+        assertEquals(driver.session.numOpens, 1)
+    }
+}
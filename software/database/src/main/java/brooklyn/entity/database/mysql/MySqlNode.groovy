@@ -1,8 +1,11 @@
 package brooklyn.entity.database.mysql
 
+import static java.util.concurrent.TimeUnit.*
+
 import brooklyn.entity.Entity
 import brooklyn.entity.basic.SoftwareProcessEntity
 import brooklyn.entity.basic.lifecycle.StartStopDriver
+import brooklyn.event.adapter.JdbcSensorAdapter
 import brooklyn.event.basic.BasicAttributeSensor
 import brooklyn.event.basic.BasicConfigKey
 import brooklyn.event.basic.PortAttributeSensorAndConfigKey
@@ -11,9 +14,26 @@ import brooklyn.location.basic.PortRanges
 import brooklyn.location.basic.SshMachineLocation
 import brooklyn.location.basic.jclouds.JcloudsLocation.JcloudsSshMachineLocation
 import brooklyn.util.flags.SetFromFlag
+import brooklyn.util.internal.TimeExtras
 
+/**
+ * A MySQL server.
+ * <p>
+ * Its status sensors are polled over JDBC, from {@code SHOW GLOBAL STATUS} every {@link #STATUS_POLL_PERIOD_MILLIS},
+ * and {@code SHOW GLOBAL VARIABLES} every minute. They are polled as a monitoring user which has no privileges,
+ * and may only connect from {@link #MONITOR_HOST}; and need the MySQL JDBC driver (mysql-connector-java) on the
+ * classpath, which brooklyn does not supply.
+ */
 public class MySqlNode extends SoftwareProcessEntity {
 
+    static { TimeExtras.init() }
+
+    /**
+     * Period (in milliseconds) at which the status sensors are polled.
+     * Defaults to 1000 if system property is not set.
+     */
+    public static final long STATUS_POLL_PERIOD_MILLIS = Long.getLong("brooklyn.mysql.statusPollPeriodMillis", 1000)
+
     @SetFromFlag("version")
     public static final BasicConfigKey<String> SUGGESTED_VERSION = [SoftwareProcessEntity.SUGGESTED_VERSION, "5.5.21"]
 
@@ -33,8 +53,21 @@ public class MySqlNode extends SoftwareProcessEntity {
 		"http://gd.tuwien.ac.at/db/mysql/"
 		 ]
 
+    @SetFromFlag("monitorHost")
+    public static final BasicConfigKey<String> MONITOR_HOST = [ String, "mysql.monitor.host", "Host (or MySQL host pattern) from which brooklyn polls MySQL status; by default the host brooklyn connects to the server by ssh from" ]
+
     public static final BasicAttributeSensor<String> MYSQL_URL = [ String, "mysql.url", "URL to access mysql (e.g. mysql://localhost:3306/)" ]
 
+    public static final BasicAttributeSensor<Long> UPTIME = [ Long, "mysql.uptime", "MySQL uptime in seconds" ]
+    public static final BasicAttributeSensor<Integer> THREADS_CONNECTED = [ Integer, "mysql.threads.connected", "Number of open connections" ]
+    public static final BasicAttributeSensor<Integer> THREADS_RUNNING = [ Integer, "mysql.threads.running", "Number of threads which are not sleeping" ]
+    public static final BasicAttributeSensor<Long> QUERIES = [ Long, "mysql.queries", "Number of statements executed" ]
+    public static final BasicAttributeSensor<Long> SLOW_QUERIES = [ Long, "mysql.queries.slow", "Number of queries which took longer than long_query_time" ]
+    public static final BasicAttributeSensor<Long> BYTES_RECEIVED = [ Long, "mysql.bytes.received", "Number of bytes received from all clients" ]
+    public static final BasicAttributeSensor<Long> BYTES_SENT = [ Long, "mysql.bytes.sent", "Number of bytes sent to all clients" ]
+    public static final BasicAttributeSensor<Long> ABORTED_CONNECTS = [ Long, "mysql.connects.aborted", "Number of failed attempts to connect" ]
+    public static final BasicAttributeSensor<Integer> MAX_CONNECTIONS = [ Integer, "mysql.connections.max", "Max number of simultaneous client connections allowed" ]
+
     public MySqlNode(Entity owner) { this([:], owner) }
     public MySqlNode(Map flags=[:], Entity owner=null) {
         super(flags, owner)
@@ -55,6 +88,20 @@ public class MySqlNode extends SoftwareProcessEntity {
             throw new IllegalStateException("Cannot find hostname for unexpected location type "+l+" where "+this+" is running");
         setAttribute(MYSQL_URL, "mysql://"+hostname+":"+getAttribute(MYSQL_PORT)+"/");
         setAttribute(SERVICE_UP, true);  //TODO poll for status, and activity
+
+        def jdbc = sensorRegistry.register(new JdbcSensorAdapter("jdbc:"+getAttribute(MYSQL_URL),
+                user:driver.monitorUser, password:driver.monitorPassword, period:STATUS_POLL_PERIOD_MILLIS*MILLISECONDS))
+        jdbc.query("SHOW GLOBAL STATUS").with {
+            poll(UPTIME) { variables.Uptime }
+            poll(THREADS_CONNECTED) { variables.Threads_connected }
+            poll(THREADS_RUNNING) { variables.Threads_running }
+            poll(QUERIES) { variables.Queries }
+            poll(SLOW_QUERIES) { variables.Slow_queries }
+            poll(BYTES_RECEIVED) { variables.Bytes_received }
+            poll(BYTES_SENT) { variables.Bytes_sent }
+            poll(ABORTED_CONNECTS) { variables.Aborted_connects }
+        }
+        jdbc.query("SHOW GLOBAL VARIABLES LIKE 'max_connections'", period:60*SECONDS).poll(MAX_CONNECTIONS) { variables.max_connections }
     }
 
     public int getPort() {
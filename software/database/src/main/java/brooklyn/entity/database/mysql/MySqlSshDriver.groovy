@@ -71,6 +71,11 @@ public class MySqlSshDriver extends StartStopSshDriver {
 
     String secretPassword = "random"+(int)(Math.random()*100000)
     public String getPassword() { secretPassword }
+    String monitorPassword = "random"+(int)(Math.random()*100000)
+    public String getMonitorUser() { "brooklyn_monitor" }
+    public String getMonitorPassword() { monitorPassword }
+    /** host the monitoring user may connect from; by default the host this ssh session comes from, i.e. brooklyn */
+    public String getMonitorHost() { entity.getConfig(MySqlNode.MONITOR_HOST) ?: "\${SSH_CLIENT%% *}" }
     public MySqlNode getEntity() { return super.getEntity() }
     public int getPort() { return entity.port }
     
@@ -111,6 +116,8 @@ datadir         = .
                 "export MYSQL_PID=\$!",
                 "sleep 5 && ${basedir}/bin/mysqladmin --defaults-file=mymysql.cnf --password= password ${password}",
                 "${basedir}/bin/mysql --defaults-file=mymysql.cnf < creation-script.cnf",
+                // USAGE is all that SHOW GLOBAL STATUS and SHOW GLOBAL VARIABLES need
+                "${basedir}/bin/mysql --defaults-file=mymysql.cnf -e \"GRANT USAGE ON *.* TO '${monitorUser}'@'${monitorHost}' IDENTIFIED BY '${monitorPassword}'\"",
                 "kill \$MYSQL_PID"
             ).execute();
     }
@@ -0,0 +1,51 @@
+package brooklyn.entity.database.mysql
+
+import static org.testng.Assert.*
+
+import java.sql.SQLException
+import java.util.concurrent.TimeUnit
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.event.adapter.JdbcSensorAdapter
+import brooklyn.util.internal.TimeExtras
+
+/**
+ * Connects a {@link JdbcSensorAdapter} (as used by {@link MySqlNode}) with the MySQL driver to a port which never
+ * answers, checking the connect is bounded by the adapter's timeout.
+ */
+public class MySqlJdbcConnectTimeoutTest {
+
+    static { TimeExtras.init() }
+
+    private ServerSocket unresponsive
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        // connections are queued by the OS, but never accepted, so the driver never gets the server's greeting
+        unresponsive = new ServerSocket(0, 50, InetAddress.getByName("localhost"))
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        unresponsive?.close()
+    }
+
+    @Test
+    public void testConnectToUnresponsiveHostTimesOut() {
+        JdbcSensorAdapter jdbc = new JdbcSensorAdapter("jdbc:mysql://localhost:"+unresponsive.localPort+"/",
+                user:"brooklyn_monitor", password:"secret", timeout:1*TimeUnit.SECONDS)
+        long start = System.currentTimeMillis()
+        try {
+            jdbc.execute("SHOW GLOBAL STATUS")
+            fail()
+        } catch (SQLException e) {
+            // expected
+        }
+        long duration = System.currentTimeMillis() - start
+        assertTrue(duration < 10*1000, "duration="+duration)
+        assertEquals(jdbc.numConnects, 0)
+    }
+}
@@ -0,0 +1,234 @@
+package brooklyn.entity.nosql.redis;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A minimal client for the Redis wire protocol (RESP), sending commands to a server over one TCP connection,
+ * which is opened on first use, kept open for the commands that follow, and re-opened after any failure.
+ * <p>
+ * Replies are returned as a String (status and bulk replies), Long (integer replies), List (multi-bulk replies),
+ * or null (nil replies); error replies are thrown as {@link RedisException} (the first, if a multi-bulk reply
+ * contains several, once the whole reply has been read).
+ */
+public class RedisClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisClient.class);
+
+    /** Error reply from the server, e.g. for an unknown command; the connection remains usable. */
+    public static class RedisException extends IOException {
+        private static final long serialVersionUID = 5536397372428421213L;
+
+        public RedisException(String message) {
+            super(message);
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final int timeoutMillis;
+
+    // guarded by this
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong commands = new AtomicLong();
+
+    /**
+     * @param timeoutMillis time allowed to connect, and for each reply
+     */
+    public RedisClient(String host, int port, int timeoutMillis) {
+        this.host = checkNotNull(host, "host");
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /** Sends the command, with its arguments, returning the reply. */
+    public synchronized Object command(String... args) throws IOException {
+        if (socket == null) connect();
+        try {
+            writeCommand(args);
+            Object result = readReply();
+            commands.incrementAndGet();
+            return result;
+        } catch (RedisException e) {
+            throw e;
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** @return the output of the INFO command */
+    public String info() throws IOException {
+        return (String) command("INFO");
+    }
+
+    /** @return true if the server replies to PING with PONG */
+    public boolean ping() throws IOException {
+        return "PONG".equals(command("PING"));
+    }
+
+    /** Closes the connection; the next command will open a new one. */
+    public synchronized void close() {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            if (LOG.isDebugEnabled()) LOG.debug("Error closing connection to redis "+host+":"+port+" (continuing)", e);
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+
+    public synchronized boolean isConnected() {
+        return socket != null;
+    }
+
+    /** number of connections opened */
+    public long getNumConnects() {
+        return connects.get();
+    }
+
+    /** number of commands which got a (non-error) reply */
+    public long getNumCommands() {
+        return commands.get();
+    }
+
+    private void connect() throws IOException {
+        Socket s = new Socket();
+        try {
+            s.setTcpNoDelay(true);
+            s.setKeepAlive(true);
+            s.setSoTimeout(timeoutMillis);
+            s.connect(new InetSocketAddress(host, port), timeoutMillis);
+        } catch (IOException e) {
+            try {
+                s.close();
+            } catch (IOException e2) {
+                // ignore; reporting the original
+            }
+            throw e;
+        }
+        socket = s;
+        in = new BufferedInputStream(s.getInputStream());
+        out = new BufferedOutputStream(s.getOutputStream());
+        connects.incrementAndGet();
+        if (LOG.isDebugEnabled()) LOG.debug("Connected to redis {}:{}", host, port);
+    }
+
+    private void writeCommand(String[] args) throws IOException {
+        writeLine('*', args.length);
+        for (String arg : args) {
+            byte[] bytes = arg.getBytes(Charsets.UTF_8);
+            writeLine('$', bytes.length);
+            out.write(bytes);
+            out.write('\r');
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    private void writeLine(char type, int value) throws IOException {
+        out.write(type);
+        out.write(Integer.toString(value).getBytes(Charsets.US_ASCII));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private Object readReply() throws IOException {
+        int type = in.read();
+        if (type < 0) throw new EOFException("Connection to redis "+host+":"+port+" closed");
+        String line = readLine();
+        switch (type) {
+        case '+':
+            return line;
+        case '-':
+            throw new RedisException(line);
+        case ':':
+            return Long.parseLong(line);
+        case '$':
+            int length = Integer.parseInt(line);
+            if (length < 0) return null;
+            byte[] bytes = new byte[length];
+            readFully(bytes);
+            if (in.read() != '\r' || in.read() != '\n') throw new IOException("Malformed bulk reply from redis "+host+":"+port);
+            return new String(bytes, Charsets.UTF_8);
+        case '*':
+            int count = Integer.parseInt(line);
+            if (count < 0) return null;
+            List<Object> result = new ArrayList<Object>(count);
+            RedisException error = null;
+            for (int i = 0; i < count; i++) {
+                try {
+                    result.add(readReply());
+                } catch (RedisException e) {
+                    // read the rest of the reply, so the connection is left at the start of the next one
+                    if (error == null) error = e;
+                }
+            }
+            if (error != null) throw error;
+            return result;
+        default:
+            throw new IOException("Unexpected reply type '"+(char)type+"' from redis "+host+":"+port);
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\r') {
+                if (in.read() != '\n') throw new IOException("Malformed reply from redis "+host+":"+port);
+                return new String(line.toByteArray(), Charsets.UTF_8);
+            }
+            line.write(b);
+        }
+        throw new EOFException("Connection to redis "+host+":"+port+" closed");
+    }
+
+    private void readFully(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int n = in.read(bytes, offset, bytes.length - offset);
+            if (n < 0) throw new EOFException("Connection to redis "+host+":"+port+" closed");
+            offset += n;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RedisClient["+host+":"+port+"]";
+    }
+}
@@ -0,0 +1,110 @@
+package brooklyn.entity.nosql.redis;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The fields of the output of the Redis INFO command, from all its sections (server, clients, memory,
+ * persistence, stats, replication, cpu, keyspace), with typed accessors.
+ */
+public class RedisInfo {
+
+    /** Parses the output of INFO into its fields, ignoring section headers and blank lines. */
+    public static RedisInfo parse(String info) {
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        for (String line : info.split("\r?\n")) {
+            if (line.length() == 0 || line.startsWith("#")) continue;
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue;
+            fields.put(line.substring(0, colon), line.substring(colon+1).trim());
+        }
+        return new RedisInfo(fields);
+    }
+
+    private final Map<String, String> fields;
+
+    public RedisInfo(Map<String, String> fields) {
+        this.fields = Collections.unmodifiableMap(fields);
+    }
+
+    /** all the fields, by name */
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    /** @return the named field, or null if absent */
+    public String get(String name) {
+        return fields.get(name);
+    }
+
+    /** @return the named field as a long, or null if absent or not a number */
+    public Long getLong(String name) {
+        String value = fields.get(name);
+        if (value == null) return null;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** @return the named field as a double, or null if absent or not a number */
+    public Double getDouble(String name) {
+        String value = fields.get(name);
+        if (value == null) return null;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The counts for each database in the keyspace section, e.g. for db0 with a line
+     * {@code db0:keys=3,expires=1}, keys=3 and expires=1.
+     *
+     * @return the counts by name for each database, by database name (e.g. db0)
+     */
+    public Map<String, Map<String, Long>> getKeyspace() {
+        Map<String, Map<String, Long>> result = new LinkedHashMap<String, Map<String, Long>>();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (!isDatabaseName(field.getKey())) continue;
+            Map<String, Long> counts = new LinkedHashMap<String, Long>();
+            for (String pair : field.getValue().split(",")) {
+                int equals = pair.indexOf('=');
+                if (equals <= 0) continue;
+                try {
+                    counts.put(pair.substring(0, equals), Long.parseLong(pair.substring(equals+1)));
+                } catch (NumberFormatException e) {
+                    // not a count; ignore
+                }
+            }
+            result.put(field.getKey(), counts);
+        }
+        return result;
+    }
+
+    /** @return the sum of the given count (e.g. keys or expires) over all databases */
+    public long getKeyspaceTotal(String count) {
+        long result = 0;
+        for (Map<String, Long> counts : getKeyspace().values()) {
+            Long value = counts.get(count);
+            if (value != null) result += value;
+        }
+        return result;
+    }
+
+    private static boolean isDatabaseName(String name) {
+        if (name.length() <= 2 || !name.startsWith("db")) return false;
+        for (int i = 2; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "RedisInfo"+fields;
+    }
+}
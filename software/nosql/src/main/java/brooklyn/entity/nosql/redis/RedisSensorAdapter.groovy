@@ -0,0 +1,110 @@
+package brooklyn.entity.nosql.redis
+
+import static java.util.concurrent.TimeUnit.*
+import groovy.time.TimeDuration
+
+import java.util.Map
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import brooklyn.event.Sensor
+import brooklyn.event.adapter.AbstractPollHelper
+import brooklyn.event.adapter.AbstractSensorAdapter
+import brooklyn.event.adapter.AbstractSensorEvaluationContext
+import brooklyn.util.flags.SetFromFlag
+
+/**
+ * Polls a Redis server with the INFO command, over the Redis protocol rather than by running redis-cli,
+ * through a {@link RedisClient} whose connection is kept open from one poll to the next.
+ * <p>
+ * Example usage:
+ * <code>
+ *   def redis = sensorRegistry.register(new RedisSensorAdapter(host, port, period: 500*MILLISECONDS))
+ *   with(redis) {
+ *       poll(SERVICE_UP, { it != null })
+ *       poll(USED_MEMORY) { getLong("used_memory") }
+ *       poll(TOTAL_KEYS) { getKeyspaceTotal("keys") }
+ *   }
+ * </code>
+ * Closures are evaluated with the {@link RedisInfo} of each reply as their argument, and its methods in scope.
+ * If a poll fails the argument is null, and closures which then throw leave their sensor unchanged.
+ */
+public class RedisSensorAdapter extends AbstractSensorAdapter {
+
+    public static final Logger log = LoggerFactory.getLogger(RedisSensorAdapter.class)
+
+    // flag fields are set by the super-constructor, so must not have initializers (which would then overwrite them)
+
+    /** max time to connect, and for each reply; defaults to 10s */
+    @SetFromFlag("timeout")
+    protected TimeDuration timeout
+
+    final String host
+    final int port
+    protected final RedisPollHelper poller = new RedisPollHelper(this)
+    private RedisClient client
+
+    public RedisSensorAdapter(Map flags=[:], String host, int port) {
+        super(flags)
+        this.host = host
+        this.port = port
+        addActivationLifecycleListeners({}, { closeClient() })
+    }
+
+    /** The client through which the server is polled, created on first use. */
+    public synchronized RedisClient getClient() {
+        if (client == null) {
+            long timeoutMillis = (timeout != null) ? timeout.toMilliseconds() : 10*1000
+            client = new RedisClient(host, port, (int) timeoutMillis)
+        }
+        return client
+    }
+
+    private synchronized void closeClient() {
+        client?.close()
+        client = null
+    }
+
+    protected boolean isConnected() { isActivated() && poller!=null && poller.getLastWasSuccessful() }
+
+    /** closure will run in a {@link RedisInfoResponseContext}, default value is the {@link RedisInfo} */
+    public void poll(Sensor s, Closure c={it}) {
+        poller.addSensor(s, c)
+    }
+
+    public String toString() { super.toString()+"["+host+":"+port+"]" }
+}
+
+public class RedisPollHelper extends AbstractPollHelper {
+
+    public RedisPollHelper(RedisSensorAdapter adapter) {
+        super(adapter)
+    }
+
+    @Override
+    protected AbstractSensorEvaluationContext executePollOnSuccess() {
+        String info = ((RedisSensorAdapter)adapter).client.info()
+        return new RedisInfoResponseContext(info: RedisInfo.parse(info))
+    }
+
+    /** so that closures can report the server as down (they are passed null) */
+    @Override
+    protected AbstractSensorEvaluationContext executePollOnError(Exception e) {
+        return new RedisInfoResponseContext(error: e)
+    }
+}
+
+public class RedisInfoResponseContext extends AbstractSensorEvaluationContext {
+
+    @Delegate
+    RedisInfo info
+
+    @Override
+    protected Object getDefaultValue() { info }
+
+    @Override
+    public String toString() {
+        return "info=$info"
+    }
+}
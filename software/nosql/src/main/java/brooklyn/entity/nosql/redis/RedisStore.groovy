@@ -1,5 +1,7 @@
 package brooklyn.entity.nosql.redis
 
+import static java.util.concurrent.TimeUnit.*
+
 import java.util.Collection
 import java.util.Map
 
@@ -9,6 +11,7 @@ import org.slf4j.LoggerFactory
 import brooklyn.entity.Entity
 import brooklyn.entity.basic.AbstractEntity
 import brooklyn.entity.basic.SoftwareProcessEntity
+import brooklyn.entity.basic.lifecycle.ReadinessCheck
 import brooklyn.entity.basic.lifecycle.legacy.SshBasedAppSetup
 import brooklyn.entity.nosql.DataStore
 import brooklyn.entity.nosql.Shard
@@ -19,6 +22,7 @@ import brooklyn.event.basic.BasicAttributeSensor
 import brooklyn.event.basic.BasicConfigKey
 import brooklyn.event.basic.PortAttributeSensorAndConfigKey
 import brooklyn.location.basic.SshMachineLocation
+import brooklyn.util.internal.TimeExtras
 
 import com.google.common.base.Charsets
 import com.google.common.base.Preconditions
@@ -26,17 +30,46 @@ import com.google.common.io.Files
 
 /**
  * An entity that represents a Redis key-value store service.
- *
- * TODO add sensors with Redis statistics using INFO command
+ * <p>
+ * Its sensors are polled from the output of the INFO command, sent over the Redis protocol to its port
+ * every {@link #POLL_PERIOD_MILLIS}; or, if {@link #SSH_SENSORS} is set (e.g. if the port is not reachable
+ * from brooklyn), by running redis-cli on the machine over ssh.
  */
 public class RedisStore extends SoftwareProcessEntity implements DataStore {
     protected static final Logger LOG = LoggerFactory.getLogger(RedisStore.class)
 
+    static { TimeExtras.init() }
+
+    /**
+     * Period (in milliseconds) at which the INFO sensors are polled.
+     * Defaults to 500 if system property is not set.
+     */
+    public static final long POLL_PERIOD_MILLIS = Long.getLong("brooklyn.redis.pollPeriodMillis", 500)
+
     public static final PortAttributeSensorAndConfigKey REDIS_PORT = [ "redis.port", "Redis port number", 6379 ]
     public static final BasicConfigKey<String> REDIS_CONFIG_FILE = [ String, "redis.config.file", "Redis user configuration file" ]
+    public static final BasicConfigKey<Boolean> SSH_SENSORS = [ Boolean, "redis.sensors.ssh", "Whether to poll just uptime and ping with redis-cli over ssh, instead of INFO over the Redis protocol (default is false)", false ]
+
     public static final BasicAttributeSensor<Integer> UPTIME = [ Integer, "redis.uptime", "Redis uptime in seconds" ]
+    public static final BasicAttributeSensor<Map> INFO = [ Map, "redis.info", "All fields of the Redis INFO output" ]
+    public static final BasicAttributeSensor<Integer> CONNECTED_CLIENTS = [ Integer, "redis.clients.connected", "Number of client connections" ]
+    public static final BasicAttributeSensor<Integer> BLOCKED_CLIENTS = [ Integer, "redis.clients.blocked", "Number of clients pending on a blocking call" ]
+    public static final BasicAttributeSensor<Long> USED_MEMORY = [ Long, "redis.memory.used", "Bytes allocated by Redis" ]
+    public static final BasicAttributeSensor<Long> USED_MEMORY_PEAK = [ Long, "redis.memory.peak", "Peak bytes allocated by Redis" ]
+    public static final BasicAttributeSensor<Double> MEMORY_FRAGMENTATION_RATIO = [ Double, "redis.memory.fragmentationRatio", "Ratio of resident memory to memory allocated by Redis" ]
+    public static final BasicAttributeSensor<Long> TOTAL_COMMANDS_PROCESSED = [ Long, "redis.stats.commandsProcessed", "Total number of commands processed" ]
+    public static final BasicAttributeSensor<Long> KEYSPACE_HITS = [ Long, "redis.stats.keyspaceHits", "Number of successful key lookups" ]
+    public static final BasicAttributeSensor<Long> KEYSPACE_MISSES = [ Long, "redis.stats.keyspaceMisses", "Number of failed key lookups" ]
+    public static final BasicAttributeSensor<Long> TOTAL_KEYS = [ Long, "redis.keyspace.keys", "Number of keys, in all databases" ]
+    public static final BasicAttributeSensor<Long> TOTAL_EXPIRES = [ Long, "redis.keyspace.expires", "Number of keys with an expiry, in all databases" ]
+    public static final BasicAttributeSensor<String> ROLE = [ String, "redis.replication.role", "Replication role (master or slave)" ]
+    public static final BasicAttributeSensor<Integer> CONNECTED_SLAVES = [ Integer, "redis.replication.connectedSlaves", "Number of connected slaves" ]
+    public static final BasicAttributeSensor<String> MASTER_LINK_STATUS = [ String, "redis.replication.masterLinkStatus", "Status of the link to the master (up or down), for a slave" ]
+    public static final BasicAttributeSensor<Long> MASTER_REPL_OFFSET = [ Long, "redis.replication.masterOffset", "Replication offset of the master" ]
+    public static final BasicAttributeSensor<Long> SLAVE_REPL_OFFSET = [ Long, "redis.replication.slaveOffset", "Replication offset processed by a slave" ]
 
     transient OldSshSensorAdapter sshAdapter
+    transient ValueProvider<String> infoProvider
     
     public RedisStore(Map properties=[:], Entity owner=null) {
         super(properties, owner)
@@ -52,24 +85,67 @@ public class RedisStore extends SoftwareProcessEntity implements DataStore {
         return result
     }
     
+    /** also ready as soon as the server accepts connections, without waiting for the next ssh probe */
+    @Override
+    protected void addReadinessSignals(ReadinessCheck check) {
+        super.addReadinessSignals(check)
+        check.add(ReadinessCheck.portReachable(driver.machine.address.hostName, getAttribute(REDIS_PORT), readinessBackoff))
+    }
+
     @Override
-    public void postStart() {
-        initSshSensors()
+    protected void connectSensors() {
+        super.connectSensors()
+        if (getConfig(SSH_SENSORS)) {
+            initSshSensors()
+        } else {
+            addRedisSensors()
+        }
+    }
+
+    protected void addRedisSensors() {
+        String host = driver.machine.address.hostName
+        int port = getAttribute(REDIS_PORT)
+        def redis = sensorRegistry.register(new RedisSensorAdapter(host, port, period: POLL_PERIOD_MILLIS*MILLISECONDS))
+
+        with(redis) {
+            poll(SERVICE_UP, { it != null })
+            poll(INFO) { fields }
+            poll(UPTIME) { getLong("uptime_in_seconds") }
+            poll(CONNECTED_CLIENTS) { getLong("connected_clients") }
+            poll(BLOCKED_CLIENTS) { getLong("blocked_clients") }
+            poll(USED_MEMORY) { getLong("used_memory") }
+            poll(USED_MEMORY_PEAK) { getLong("used_memory_peak") }
+            poll(MEMORY_FRAGMENTATION_RATIO) { getDouble("mem_fragmentation_ratio") }
+            poll(TOTAL_COMMANDS_PROCESSED) { getLong("total_commands_processed") }
+            poll(KEYSPACE_HITS) { getLong("keyspace_hits") }
+            poll(KEYSPACE_MISSES) { getLong("keyspace_misses") }
+            poll(TOTAL_KEYS) { getKeyspaceTotal("keys") }
+            poll(TOTAL_EXPIRES) { getKeyspaceTotal("expires") }
+            poll(ROLE) { get("role") }
+            poll(CONNECTED_SLAVES) { getLong("connected_slaves") }
+            poll(MASTER_LINK_STATUS) { get("master_link_status") }
+            poll(MASTER_REPL_OFFSET) { getLong("master_repl_offset") }
+            poll(SLAVE_REPL_OFFSET) { getLong("slave_repl_offset") }
+        }
     }
 
     protected void initSshSensors() {
-        sshAdapter = new OldSshSensorAdapter(this, driver.machine)
+        // polls both commands in one round-trip to a shell kept open on the machine
+        sshAdapter = new OldSshSensorAdapter(this, driver.machine, persistentShell:true)
+        sensorRegistry.addActivationLifecycleListeners({}, { sshAdapter?.close() })
  
         addSshSensors()
     }
 
     protected void addSshSensors() {
+        infoProvider = sshAdapter.newOutputValueProvider("${driver.runDir}/bin/redis-cli info")
         sensorRegistry.addSensor(SERVICE_UP, sshAdapter.newMatchValueProvider("${driver.runDir}/bin/redis-cli ping", /PONG/))
         sensorRegistry.addSensor(UPTIME, { computeUptime() } as ValueProvider)
     }
     
     private Integer computeUptime() {
-        String output = sshAdapter.newOutputValueProvider("${driver.runDir}/bin/redis-cli info").compute()
+        String output = infoProvider.compute()
+        if (output == null) return null
         for (String line : output.split("\n")) {
             if (line =~ /^uptime_in_seconds:/) {
                 String data = line.trim()
@@ -0,0 +1,45 @@
+package brooklyn.entity.nosql.redis
+
+import static org.testng.Assert.*
+
+import org.testng.annotations.Test
+
+public class RedisInfoTest {
+
+    @Test
+    public void testParsesFieldsOfAllSections() {
+        RedisInfo info = RedisInfo.parse(RedisStubServer.DEFAULT_INFO)
+        assertEquals(info.get("redis_version"), "2.6.0")
+        assertEquals(info.getLong("uptime_in_seconds"), 42L)
+        assertEquals(info.getLong("connected_clients"), 3L)
+        assertEquals(info.getLong("used_memory"), 1048576L)
+        assertEquals(info.getDouble("mem_fragmentation_ratio"), 1.25d)
+        assertEquals(info.get("role"), "master")
+        assertEquals(info.getLong("master_repl_offset"), 12345L)
+        assertFalse(info.fields.keySet().any { it.startsWith("#") })
+    }
+
+    @Test
+    public void testMissingOrNonNumericFieldsAreNull() {
+        RedisInfo info = RedisInfo.parse("role:master\nconnected_slaves:0\n")
+        assertNull(info.get("nosuch"))
+        assertNull(info.getLong("nosuch"))
+        assertNull(info.getLong("role"))
+        assertEquals(info.getLong("connected_slaves"), 0L)
+    }
+
+    @Test
+    public void testKeyspace() {
+        RedisInfo info = RedisInfo.parse(RedisStubServer.DEFAULT_INFO)
+        assertEquals(info.keyspace, [db0:[keys:5L, expires:1L, avg_ttl:0L], db3:[keys:7L, expires:2L, avg_ttl:0L]])
+        assertEquals(info.getKeyspaceTotal("keys"), 12L)
+        assertEquals(info.getKeyspaceTotal("expires"), 3L)
+    }
+
+    @Test
+    public void testEmptyKeyspace() {
+        RedisInfo info = RedisInfo.parse("# Keyspace\r\n")
+        assertEquals(info.keyspace, [:])
+        assertEquals(info.getKeyspaceTotal("keys"), 0L)
+    }
+}
@@ -0,0 +1,157 @@
+package brooklyn.entity.nosql.redis
+
+import static brooklyn.test.TestUtils.*
+import static org.testng.Assert.*
+
+import java.util.concurrent.TimeUnit
+
+import org.testng.annotations.AfterMethod
+import org.testng.annotations.BeforeMethod
+import org.testng.annotations.Test
+
+import brooklyn.entity.basic.AbstractApplication
+import brooklyn.event.adapter.SensorRegistry
+import brooklyn.location.basic.SimulatedLocation
+import brooklyn.test.entity.TestEntity
+import brooklyn.util.internal.TimeExtras
+
+/**
+ * Polls a {@link RedisStubServer} with {@link RedisSensorAdapter}s, and with a {@link RedisClient} directly.
+ */
+public class RedisSensorAdapterIntegrationTest {
+
+    static { TimeExtras.init() }
+
+    private static final int TIMEOUT = 10*1000
+
+    private RedisStubServer server
+    private AbstractApplication app
+    private TestEntity entity
+    private SensorRegistry registry
+
+    @BeforeMethod(alwaysRun=true)
+    public void setUp() {
+        server = new RedisStubServer().start()
+        app = new AbstractApplication() {}
+        entity = new TestEntity(owner:app)
+        app.start([new SimulatedLocation()])
+        registry = new SensorRegistry(entity)
+    }
+
+    @AfterMethod(alwaysRun=true)
+    public void tearDown() {
+        registry?.close()
+        server?.stop()
+    }
+
+    @Test(groups="Integration")
+    public void testClientRepliesReuseOneConnection() {
+        RedisClient client = new RedisClient("localhost", server.port, 5*1000)
+        try {
+            assertTrue(client.ping())
+            assertEquals(client.info(), RedisStubServer.DEFAULT_INFO)
+            assertEquals(client.command("PING"), "PONG")
+            assertEquals(server.numConnections, 1)
+            assertEquals(client.numCommands, 3)
+        } finally {
+            client.close()
+        }
+    }
+
+    @Test(groups="Integration")
+    public void testClientErrorReplyLeavesConnectionUsable() {
+        RedisClient client = new RedisClient("localhost", server.port, 5*1000)
+        try {
+            try {
+                client.command("NOSUCH")
+                fail()
+            } catch (RedisClient.RedisException e) {
+                assertTrue(e.message.contains("unknown command"), e.message)
+            }
+            assertTrue(client.ping())
+            assertEquals(server.numConnections, 1)
+        } finally {
+            client.close()
+        }
+    }
+
+    @Test(groups="Integration")
+    public void testClientErrorInMultiBulkReplyLeavesConnectionUsable() {
+        RedisClient client = new RedisClient("localhost", server.port, 5*1000)
+        try {
+            try {
+                client.command("EXEC")
+                fail()
+            } catch (RedisClient.RedisException e) {
+                assertTrue(e.message.contains("wrong kind of value"), e.message)
+            }
+            assertEquals(client.command("PING"), "PONG")
+            assertEquals(server.numConnections, 1)
+        } finally {
+            client.close()
+        }
+    }
+
+    @Test(groups="Integration")
+    public void testClientReconnectsAfterConnectionDropped() {
+        RedisClient client = new RedisClient("localhost", server.port, 5*1000)
+        try {
+            assertTrue(client.ping())
+            server.dropConnections()
+            // the first command may find the connection closed; it is re-opened for the next
+            executeUntilSucceeds(timeout:TIMEOUT) {
+                assertTrue(client.ping())
+            }
+            assertEquals(client.numConnects, 2)
+        } finally {
+            client.close()
+        }
+    }
+
+    @Test(groups="Integration")
+    public void testAdapterPollsTypedSensors() {
+        RedisSensorAdapter adapter = registry.register(new RedisSensorAdapter("localhost", server.port, period:50*TimeUnit.MILLISECONDS))
+        adapter.poll(RedisStore.SERVICE_UP, { it != null })
+        adapter.poll(RedisStore.UPTIME) { getLong("uptime_in_seconds") }
+        adapter.poll(RedisStore.USED_MEMORY) { getLong("used_memory") }
+        adapter.poll(RedisStore.MEMORY_FRAGMENTATION_RATIO) { getDouble("mem_fragmentation_ratio") }
+        adapter.poll(RedisStore.TOTAL_KEYS) { getKeyspaceTotal("keys") }
+        adapter.poll(RedisStore.ROLE) { get("role") }
+        adapter.poll(RedisStore.MASTER_REPL_OFFSET) { getLong("master_repl_offset") }
+        adapter.poll(RedisStore.INFO) { fields }
+        registry.activateAdapters()
+
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals(entity.getAttribute(RedisStore.SERVICE_UP), true)
+            assertEquals(entity.getAttribute(RedisStore.UPTIME), 42)
+            assertEquals(entity.getAttribute(RedisStore.USED_MEMORY), 1048576L)
+            assertEquals(entity.getAttribute(RedisStore.MEMORY_FRAGMENTATION_RATIO), 1.25d)
+            assertEquals(entity.getAttribute(RedisStore.TOTAL_KEYS), 12L)
+            assertEquals(entity.getAttribute(RedisStore.ROLE), "master")
+            assertEquals(entity.getAttribute(RedisStore.MASTER_REPL_OFFSET), 12345L)
+            assertEquals(entity.getAttribute(RedisStore.INFO).connected_slaves, "2")
+        }
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertTrue(server.numCommands >= 5)
+        }
+        assertEquals(server.numConnections, 1)
+    }
+
+    @Test(groups="Integration")
+    public void testAdapterReportsServiceDownWhenServerStops() {
+        RedisSensorAdapter adapter = registry.register(new RedisSensorAdapter("localhost", server.port, period:50*TimeUnit.MILLISECONDS, timeout:1000*TimeUnit.MILLISECONDS))
+        adapter.poll(RedisStore.SERVICE_UP, { it != null })
+        adapter.poll(RedisStore.UPTIME) { getLong("uptime_in_seconds") }
+        registry.activateAdapters()
+
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals(entity.getAttribute(RedisStore.SERVICE_UP), true)
+        }
+        server.stop()
+        executeUntilSucceeds(timeout:TIMEOUT) {
+            assertEquals(entity.getAttribute(RedisStore.SERVICE_UP), false)
+        }
+        // left unchanged, rather than cleared
+        assertEquals(entity.getAttribute(RedisStore.UPTIME), 42)
+    }
+}
@@ -0,0 +1,134 @@
+package brooklyn.entity.nosql.redis
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import com.google.common.base.Charsets
+
+/**
+ * A server speaking just enough of the Redis protocol for tests: it replies to PING, to INFO with {@link #info},
+ * to EXEC with a multi-bulk reply containing an error, and with an error to anything else; counting the connections and commands it sees.
+ */
+public class RedisStubServer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisStubServer.class)
+
+    public static final String DEFAULT_INFO = [
+            "# Server", "redis_version:2.6.0", "uptime_in_seconds:42", "",
+            "# Clients", "connected_clients:3", "blocked_clients:1", "",
+            "# Memory", "used_memory:1048576", "used_memory_peak:2097152", "mem_fragmentation_ratio:1.25", "",
+            "# Stats", "total_commands_processed:1000", "keyspace_hits:90", "keyspace_misses:10", "",
+            "# Replication", "role:master", "connected_slaves:2", "master_repl_offset:12345", "",
+            "# Keyspace", "db0:keys=5,expires=1,avg_ttl=0", "db3:keys=7,expires=2,avg_ttl=0", ""
+        ].join("\r\n")
+
+    volatile String info = DEFAULT_INFO
+    final AtomicInteger connections = new AtomicInteger()
+    final AtomicInteger commands = new AtomicInteger()
+
+    private ServerSocket serverSocket
+    private final List<Socket> sockets = new CopyOnWriteArrayList<Socket>()
+
+    public RedisStubServer start() {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"))
+        Thread.start("redis-stub-server-"+serverSocket.localPort) {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept()
+                    connections.incrementAndGet()
+                    sockets.add(socket)
+                    Thread.start("redis-stub-server-connection") { serve(socket) }
+                } catch (IOException e) {
+                    if (!serverSocket.isClosed()) LOG.warn("redis stub server failed to accept", e)
+                }
+            }
+        }
+        return this
+    }
+
+    public int getPort() {
+        return serverSocket.localPort
+    }
+
+    public int getNumConnections() {
+        return connections.get()
+    }
+
+    public int getNumCommands() {
+        return commands.get()
+    }
+
+    /** Closes all client connections, leaving the server accepting new ones. */
+    public void dropConnections() {
+        sockets.each { it.close() }
+        sockets.clear()
+    }
+
+    public void stop() {
+        serverSocket?.close()
+        dropConnections()
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedInputStream input = new BufferedInputStream(socket.inputStream)
+            OutputStream output = socket.outputStream
+            while (true) {
+                List<String> command = readCommand(input)
+                if (command == null) break
+                commands.incrementAndGet()
+                String name = command[0].toUpperCase()
+                String reply
+                if (name == "PING") {
+                    reply = "+PONG\r\n"
+                } else if (name == "INFO") {
+                    byte[] bytes = info.getBytes(Charsets.UTF_8)
+                    reply = "\$"+bytes.length+"\r\n"+info+"\r\n"
+                } else if (name == "EXEC") {
+                    reply = "*3\r\n+OK\r\n-ERR wrong kind of value\r\n:1\r\n"
+                } else {
+                    reply = "-ERR unknown command '"+command[0]+"'\r\n"
+                }
+                output.write(reply.getBytes(Charsets.UTF_8))
+                output.flush()
+            }
+        } catch (IOException e) {
+            // connection dropped
+        } finally {
+            socket.close()
+            sockets.remove(socket)
+        }
+    }
+
+    private List<String> readCommand(InputStream input) {
+        String line = readLine(input)
+        if (line == null) return null
+        assert line.startsWith("*")
+        int count = Integer.parseInt(line.substring(1))
+        List<String> result = []
+        for (int i = 0; i < count; i++) {
+            int length = Integer.parseInt(readLine(input).substring(1))
+            byte[] bytes = new byte[length]
+            new DataInputStream(input).readFully(bytes)
+            readLine(input)
+            result << new String(bytes, Charsets.UTF_8)
+        }
+        return result
+    }
+
+    private String readLine(InputStream input) {
+        StringBuilder result = new StringBuilder()
+        int b
+        while ((b = input.read()) >= 0) {
+            if (b == ('\r' as char)) {
+                input.read()
+                return result.toString()
+            }
+            result.append((char) b)
+        }
+        return null
+    }
+}
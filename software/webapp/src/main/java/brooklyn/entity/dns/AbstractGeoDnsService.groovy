@@ -3,7 +3,6 @@ package brooklyn.entity.dns
 import brooklyn.entity.Entity;
 import java.util.Map
 import java.util.Set
-import java.util.concurrent.Executors
 import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
 
@@ -21,8 +20,8 @@ import brooklyn.entity.webapp.WebAppService
 import brooklyn.event.Sensor;
 import brooklyn.event.basic.BasicAttributeSensor
 import brooklyn.location.geo.HostGeoInfo
+import brooklyn.management.internal.AbstractManagementContext
 
-import com.google.common.base.Throwables
 import com.google.common.collect.ImmutableMap
 
 
@@ -87,7 +86,7 @@ abstract class AbstractGeoDnsService extends AbstractEntity {
             log.warn("GeoDns $this has no targetEntityProvider, ignoring")
             return;
         }
-        poll = Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(
+        poll = ((AbstractManagementContext) getManagementContext()).getScheduler().scheduleAtFixedRate(this,
             new Runnable() {
                 public void run() {
                     try {
@@ -96,7 +95,6 @@ abstract class AbstractGeoDnsService extends AbstractEntity {
                         Thread.currentThread().interrupt();
                     } catch (Throwable t) {
                         log.warn("Error refreshing group membership", t)
-                        Throwables.propagate(t)
                     }
                 }
             }, 0, 5, TimeUnit.SECONDS